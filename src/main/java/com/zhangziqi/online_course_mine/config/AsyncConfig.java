@@ -1,6 +1,7 @@
 package com.zhangziqi.online_course_mine.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -53,4 +54,125 @@ public class AsyncConfig {
         // 使用DelegatingSecurityContextAsyncTaskExecutor包装原始执行器，确保安全上下文传播
         return new DelegatingSecurityContextAsyncTaskExecutor(delegate);
     }
-}
\ No newline at end of file
+
+    /**
+     * 学习记录聚合线程池
+     * 队列有界，队列满时由扫描线程自己执行，从而限制同时在内存中的批次数量
+     */
+    @Bean(name = "learningAggregationExecutor")
+    public Executor learningAggregationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        // 线程数：CPU核心数，至少2个
+        int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+
+        // 队列容量
+        executor.setQueueCapacity(poolSize * 2);
+
+        // 线程名前缀
+        executor.setThreadNamePrefix("learning-aggregation-");
+
+        // 拒绝策略：由调用者线程执行
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        // 等待所有任务结束后再关闭线程池
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+
+        executor.initialize();
+        log.info("学习记录聚合线程池初始化完成，线程数: {}", poolSize);
+        return executor;
+    }
+
+    /**
+     * 统计看板线程池
+     * 用于并行查询看板的各个统计分区，线程数小于数据库连接池大小，避免看板查询占满连接；
+     * 队列满时拒绝任务，对应分区返回默认值，不阻塞请求线程。
+     * 订单状态计数的重建和校准也在这里执行，与学习记录聚合互不占用线程
+     */
+    @Bean(name = "statisticsExecutor")
+    public Executor statisticsExecutor(
+            @Value("${statistics.executor.pool-size:4}") int poolSize,
+            @Value("${statistics.executor.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+
+        // 队列容量
+        executor.setQueueCapacity(queueCapacity);
+
+        // 线程名前缀
+        executor.setThreadNamePrefix("statistics-");
+
+        // 拒绝策略：抛出异常，由看板组装器降级处理
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+
+        executor.initialize();
+        log.info("统计看板线程池初始化完成，线程数: {}, 队列容量: {}", poolSize, queueCapacity);
+        return executor;
+    }
+
+    /**
+     * 支付通知处理线程池
+     * 通知保存后立即提交处理；队列满时拒绝任务，由定时重试处理，不阻塞支付宝回调
+     */
+    @Bean(name = "paymentNotifyExecutor")
+    public Executor paymentNotifyExecutor(
+            @Value("${payment.notify.executor.pool-size:2}") int poolSize,
+            @Value("${payment.notify.executor.queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+
+        // 队列容量
+        executor.setQueueCapacity(queueCapacity);
+
+        // 线程名前缀
+        executor.setThreadNamePrefix("payment-notify-");
+
+        // 拒绝策略：抛出异常，通知留在收件箱中等待重试
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+
+        executor.initialize();
+        log.info("支付通知处理线程池初始化完成，线程数: {}, 队列容量: {}", poolSize, queueCapacity);
+        return executor;
+    }
+
+    /**
+     * 订单超时关闭线程池
+     * 调度线程只负责从延时队列领取到期订单，关闭订单的数据库事务在这里执行，不占用共享的调度线程；
+     * 队列满时拒绝任务，已领取的订单在租约到期后重新被领取
+     */
+    @Bean(name = "orderTimeoutExecutor")
+    public Executor orderTimeoutExecutor(
+            @Value("${order.timeout.executor.pool-size:2}") int poolSize,
+            @Value("${order.timeout.executor.queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+
+        // 队列容量
+        executor.setQueueCapacity(queueCapacity);
+
+        // 线程名前缀
+        executor.setThreadNamePrefix("order-timeout-");
+
+        // 拒绝策略：抛出异常，订单留在延时队列中等待租约到期
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+
+        executor.initialize();
+        log.info("订单超时关闭线程池初始化完成，线程数: {}, 队列容量: {}", poolSize, queueCapacity);
+        return executor;
+    }
+}
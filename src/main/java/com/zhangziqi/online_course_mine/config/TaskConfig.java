@@ -1,13 +1,41 @@
 package com.zhangziqi.online_course_mine.config;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 /**
  * 定时任务配置
  */
 @Configuration
 @EnableScheduling
+@Slf4j
 public class TaskConfig {
-    // 空配置类，仅用于启用定时任务功能
-} 
\ No newline at end of file
+
+    /**
+     * 定时任务调度线程池
+     * 默认调度器只有一个线程，事件流轮询、订单超时和支付通知重试等高频任务会互相等待；
+     * 耗时的重建和校准任务只在调度线程上触发，实际执行交给learningAggregationExecutor
+     */
+    @Bean(name = "taskScheduler")
+    public ThreadPoolTaskScheduler taskScheduler(
+            @Value("${task.scheduler.pool-size:4}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+
+        // 线程名前缀
+        scheduler.setThreadNamePrefix("scheduling-");
+
+        // 任务抛出的异常只记录日志，不影响后续调度
+        scheduler.setErrorHandler(t -> log.error("定时任务执行失败", t));
+
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(30);
+
+        log.info("定时任务调度线程池初始化完成，线程数: {}", poolSize);
+        return scheduler;
+    }
+}
@@ -1,14 +1,17 @@
 package com.zhangziqi.online_course_mine.controller;
 
+import com.zhangziqi.online_course_mine.model.vo.LearningStreamMetricsVO;
 import com.zhangziqi.online_course_mine.model.vo.Result;
 import com.zhangziqi.online_course_mine.security.SecurityUtil;
 import com.zhangziqi.online_course_mine.task.LearningRecordAggregationTask;
+import com.zhangziqi.online_course_mine.task.LearningRecordStreamConsumer;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -25,6 +28,7 @@ import org.springframework.web.bind.annotation.RestController;
 public class AdminLearningRecordController {
 
     private final LearningRecordAggregationTask learningRecordAggregationTask;
+    private final LearningRecordStreamConsumer learningRecordStreamConsumer;
 
     /**
      * 手动触发学习记录聚合任务
@@ -46,4 +50,14 @@ public class AdminLearningRecordController {
             return Result.fail(HttpStatus.INTERNAL_SERVER_ERROR.value(), "聚合任务执行失败: " + e.getMessage());
         }
     }
+
+    /**
+     * 获取学习事件流消费指标
+     */
+    @GetMapping("/stream-metrics")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "获取学习事件流消费指标", description = "获取学习事件流长度、未确认事件数量和消费延迟等指标")
+    public Result<LearningStreamMetricsVO> getStreamMetrics() {
+        return Result.success(learningRecordStreamConsumer.getMetrics());
+    }
 }
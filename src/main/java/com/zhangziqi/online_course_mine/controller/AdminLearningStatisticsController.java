@@ -16,6 +16,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -91,6 +92,33 @@ public class AdminLearningStatisticsController {
         return Result.success(statistics);
     }
 
+    /**
+     * 获取平台日期范围内的学习人数
+     */
+    @GetMapping("/learners")
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "获取平台学习人数", description = "获取平台在指定日期范围内有学习记录的不同用户数量（估计值，标准误差约0.81%）")
+    public Result<Long> getLearnerCount(
+            @Parameter(description = "开始日期")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @Parameter(description = "结束日期")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        String username = SecurityUtil.getCurrentUsername();
+
+        // 默认获取最近30天数据
+        if (startDate == null) {
+            startDate = LocalDate.now().minusDays(29);
+        }
+        if (endDate == null) {
+            endDate = LocalDate.now();
+        }
+
+        log.info("获取平台学习人数, 用户名: {}, 开始日期: {}, 结束日期: {}", username, startDate, endDate);
+
+        return Result.success(statisticsService.getLearnerCount(startDate, endDate));
+    }
+
     /**
      * 获取平台活动类型统计
      */
@@ -116,13 +144,17 @@ public class AdminLearningStatisticsController {
     @Operation(summary = "获取所有课程学习统计", description = "分页获取所有课程的学习统计数据")
     public Result<Page<InstitutionLearningStatisticsVO.CourseStatisticsVO>> getAllCourseStatistics(
             @Parameter(description = "页码") @RequestParam(defaultValue = "0") int page,
-            @Parameter(description = "每页数量") @RequestParam(defaultValue = "10") int size) {
+            @Parameter(description = "每页数量") @RequestParam(defaultValue = "10") int size,
+            @Parameter(description = "排序字段：totalDuration、activityCount、learnerCount、completionCount、averageProgress等") @RequestParam(required = false) String sortBy,
+            @Parameter(description = "排序方向") @RequestParam(defaultValue = "desc") String direction) {
         String username = SecurityUtil.getCurrentUsername();
 
         log.info("获取所有课程学习统计, 用户名: {}, 页码: {}, 每页数量: {}",
                 username, page, size);
 
-        Pageable pageable = PageRequest.of(page, size);
+        Pageable pageable = sortBy == null ? PageRequest.of(page, size) :
+                PageRequest.of(page, size, direction.equalsIgnoreCase("asc") ?
+                        Sort.by(sortBy).ascending() : Sort.by(sortBy).descending());
         Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> statistics =
                 statisticsService.getAllCourseStatistics(pageable);
         return Result.success(statistics);
@@ -155,13 +187,17 @@ public class AdminLearningStatisticsController {
     public Result<Page<InstitutionLearningStatisticsVO.CourseStatisticsVO>> getInstitutionCourseStatistics(
             @Parameter(description = "机构ID") @PathVariable Long institutionId,
             @Parameter(description = "页码") @RequestParam(defaultValue = "0") int page,
-            @Parameter(description = "每页数量") @RequestParam(defaultValue = "10") int size) {
+            @Parameter(description = "每页数量") @RequestParam(defaultValue = "10") int size,
+            @Parameter(description = "排序字段：totalDuration、activityCount、learnerCount、completionCount、averageProgress等") @RequestParam(required = false) String sortBy,
+            @Parameter(description = "排序方向") @RequestParam(defaultValue = "desc") String direction) {
         String username = SecurityUtil.getCurrentUsername();
 
         log.info("获取机构课程学习统计, 用户名: {}, 机构ID: {}, 页码: {}, 每页数量: {}",
                 username, institutionId, page, size);
 
-        Pageable pageable = PageRequest.of(page, size);
+        Pageable pageable = sortBy == null ? PageRequest.of(page, size) :
+                PageRequest.of(page, size, direction.equalsIgnoreCase("asc") ?
+                        Sort.by(sortBy).ascending() : Sort.by(sortBy).descending());
         Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> statistics =
                 statisticsService.getInstitutionCourseStatistics(institutionId, pageable);
         return Result.success(statistics);
@@ -328,15 +364,17 @@ public class AdminLearningStatisticsController {
     public Result<List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO>> getInstitutionRanking(
             @Parameter(description = "排序字段(studentCount/courseCount/totalDuration/activityCount)")
             @RequestParam(defaultValue = "totalDuration") String sortBy,
+            @Parameter(description = "时间范围(day/week/all)")
+            @RequestParam(defaultValue = "all") String window,
             @Parameter(description = "数量限制")
             @RequestParam(defaultValue = "10") Integer limit) {
         String username = SecurityUtil.getCurrentUsername();
 
-        log.info("获取机构学习统计排行, 用户名: {}, 排序字段: {}, 数量限制: {}",
-                username, sortBy, limit);
+        log.info("获取机构学习统计排行, 用户名: {}, 排序字段: {}, 时间范围: {}, 数量限制: {}",
+                username, sortBy, window, limit);
 
         List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> ranking =
-                statisticsService.getInstitutionRanking(sortBy, limit);
+                statisticsService.getInstitutionRanking(sortBy, window, limit);
         return Result.success(ranking);
     }
 
@@ -352,15 +390,17 @@ public class AdminLearningStatisticsController {
             @RequestParam(defaultValue = "totalDuration") String sortBy,
             @Parameter(description = "机构ID（可选）")
             @RequestParam(required = false) Long institutionId,
+            @Parameter(description = "时间范围(day/week/all)")
+            @RequestParam(defaultValue = "all") String window,
             @Parameter(description = "数量限制")
             @RequestParam(defaultValue = "10") Integer limit) {
         String username = SecurityUtil.getCurrentUsername();
 
-        log.info("获取课程学习统计排行, 用户名: {}, 排序字段: {}, 机构ID: {}, 数量限制: {}",
-                username, sortBy, institutionId, limit);
+        log.info("获取课程学习统计排行, 用户名: {}, 排序字段: {}, 机构ID: {}, 时间范围: {}, 数量限制: {}",
+                username, sortBy, institutionId, window, limit);
 
         List<InstitutionLearningStatisticsVO.CourseStatisticsVO> ranking =
-                statisticsService.getCourseRanking(sortBy, institutionId, limit);
+                statisticsService.getCourseRanking(sortBy, institutionId, window, limit);
         return Result.success(ranking);
     }
 
@@ -1,5 +1,6 @@
 package com.zhangziqi.online_course_mine.controller;
 
+import com.zhangziqi.online_course_mine.model.enums.ExportFormat;
 import com.zhangziqi.online_course_mine.model.vo.ActivityTypeStatVO;
 import com.zhangziqi.online_course_mine.model.vo.DailyLearningStatVO;
 import com.zhangziqi.online_course_mine.model.vo.InstitutionLearningStatisticsVO;
@@ -9,19 +10,23 @@ import com.zhangziqi.online_course_mine.model.vo.Result;
 import com.zhangziqi.online_course_mine.security.SecurityUtil;
 import com.zhangziqi.online_course_mine.service.InstitutionAuthService;
 import com.zhangziqi.online_course_mine.service.InstitutionLearningStatisticsService;
+import com.zhangziqi.online_course_mine.service.StatisticsExportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -38,6 +43,7 @@ public class InstitutionLearningStatisticsController {
 
     private final InstitutionLearningStatisticsService statisticsService;
     private final InstitutionAuthService institutionAuthService;
+    private final StatisticsExportService statisticsExportService;
 
     /**
      * 获取机构学习统计概览
@@ -114,19 +120,38 @@ public class InstitutionLearningStatisticsController {
     @Operation(summary = "获取机构课程学习统计", description = "分页获取机构下所有课程的学习统计数据")
     public Result<Page<InstitutionLearningStatisticsVO.CourseStatisticsVO>> getCourseStatistics(
             @Parameter(description = "页码") @RequestParam(defaultValue = "0") int page,
-            @Parameter(description = "每页数量") @RequestParam(defaultValue = "10") int size) {
+            @Parameter(description = "每页数量") @RequestParam(defaultValue = "10") int size,
+            @Parameter(description = "排序字段：totalDuration、activityCount、learnerCount、completionCount、averageProgress等") @RequestParam(required = false) String sortBy,
+            @Parameter(description = "排序方向") @RequestParam(defaultValue = "desc") String direction) {
         String username = SecurityUtil.getCurrentUsername();
         Long institutionId = SecurityUtil.getCurrentInstitutionId();
 
         log.info("获取机构课程学习统计, 用户名: {}, 机构ID: {}, 页码: {}, 每页数量: {}",
                 username, institutionId, page, size);
 
-        Pageable pageable = PageRequest.of(page, size);
+        Pageable pageable = sortBy == null ? PageRequest.of(page, size) :
+                PageRequest.of(page, size, direction.equalsIgnoreCase("asc") ?
+                        Sort.by(sortBy).ascending() : Sort.by(sortBy).descending());
         Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> statistics =
                 statisticsService.getInstitutionCourseStatistics(institutionId, pageable);
         return Result.success(statistics);
     }
 
+    /**
+     * 导出机构课程学习统计
+     */
+    @GetMapping("/courses/export")
+    @PreAuthorize("hasRole('INSTITUTION')")
+    @Operation(summary = "导出机构课程学习统计", description = "以Excel或CSV格式导出机构下所有课程的学习统计数据")
+    public void exportCourseStatistics(
+            @Parameter(description = "导出格式：xlsx、csv") @RequestParam(defaultValue = "xlsx") String format,
+            HttpServletResponse response) throws IOException {
+        Long institutionId = SecurityUtil.getCurrentInstitutionId();
+        log.info("导出机构课程学习统计, 机构ID: {}, 格式: {}", institutionId, format);
+
+        statisticsExportService.exportCourseStatistics(institutionId, ExportFormat.of(format), response);
+    }
+
     /**
      * 获取机构最活跃用户
      */
@@ -267,6 +292,22 @@ public class InstitutionLearningStatisticsController {
         return Result.success(statistics);
     }
 
+    /**
+     * 导出课程学生学习统计
+     */
+    @GetMapping("/courses/{courseId}/students/export")
+    @PreAuthorize("hasRole('INSTITUTION')")
+    @Operation(summary = "导出课程学生学习统计", description = "以Excel或CSV格式导出特定课程所有学生的学习统计数据")
+    public void exportCourseStudentStatistics(
+            @Parameter(description = "课程ID") @PathVariable Long courseId,
+            @Parameter(description = "导出格式：xlsx、csv") @RequestParam(defaultValue = "xlsx") String format,
+            HttpServletResponse response) throws IOException {
+        Long institutionId = SecurityUtil.getCurrentInstitutionId();
+        log.info("导出课程学生学习统计, 机构ID: {}, 课程ID: {}, 格式: {}", institutionId, courseId, format);
+
+        statisticsExportService.exportCourseStudentStatistics(institutionId, courseId, ExportFormat.of(format), response);
+    }
+
     /**
      * 获取课程学习时长统计
      */
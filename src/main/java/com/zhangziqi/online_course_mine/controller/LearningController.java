@@ -18,6 +18,7 @@ import com.zhangziqi.online_course_mine.model.vo.DailyLearningStatVO;
 import com.zhangziqi.online_course_mine.model.vo.DateLearningHeatmapVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningCourseStructureVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningHeatmapVO;
+import com.zhangziqi.online_course_mine.model.vo.LearningRecordBatchResultVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningRecordVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningStatisticsVO;
 import com.zhangziqi.online_course_mine.model.vo.MediaVO;
@@ -38,6 +39,7 @@ import com.zhangziqi.online_course_mine.service.QuestionGroupService;
 import com.zhangziqi.online_course_mine.service.SectionService;
 import com.zhangziqi.online_course_mine.service.UserCourseService;
 import com.zhangziqi.online_course_mine.service.WrongQuestionService;
+import com.zhangziqi.online_course_mine.service.impl.LearningStreakService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -81,6 +83,7 @@ public class LearningController {
     private final LearningStatisticsService learningStatisticsService;
     private final WrongQuestionService wrongQuestionService;
     private final LearningRecordService learningRecordService;
+    private final LearningStreakService learningStreakService;
     private final ObjectMapper objectMapper;
 
     /**
@@ -294,6 +297,7 @@ public class LearningController {
                 .build();
 
         LearningRecordVO learningRecord = learningRecordService.recordCompletedActivity(userId, activityDto);
+        learningStreakService.recordAnswer(userId, !Boolean.TRUE.equals(dto.getIsWrong()));
 
         // 如果答错了，保存到错题本，并关联学习记录ID
         if (dto.getIsWrong() != null && dto.getIsWrong()) {
@@ -408,6 +412,21 @@ public class LearningController {
         return Result.success(record);
     }
 
+    /**
+     * 批量记录已完成的学习活动
+     */
+    @PostMapping("/records/completed/batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    @PreAuthorize("isAuthenticated()")
+    @Operation(summary = "批量记录已完成的学习活动", description = "离线缓存的客户端重连后一次性上报多条已完成的学习活动，返回每条的处理结果")
+    public Result<LearningRecordBatchResultVO> recordCompletedActivities(@RequestBody List<LearningRecordCompletedDTO> dtos) {
+        Long userId = SecurityUtil.getCurrentUserId();
+        log.info("批量记录已完成学习活动, 用户ID: {}, 条目数: {}", userId, dtos.size());
+
+        LearningRecordBatchResultVO result = learningRecordService.recordCompletedActivities(userId, dtos);
+        return Result.success(result);
+    }
+
     /**
      * 查找用户当前进行中的活动
      */
@@ -1,19 +1,23 @@
 package com.zhangziqi.online_course_mine.controller;
 
+import com.zhangziqi.online_course_mine.model.enums.ExportFormat;
 import com.zhangziqi.online_course_mine.model.vo.CourseIncomeRankingVO;
 import com.zhangziqi.online_course_mine.model.vo.IncomeTrendVO;
 import com.zhangziqi.online_course_mine.model.vo.OrderStatusDistributionVO;
 import com.zhangziqi.online_course_mine.model.vo.Result;
 import com.zhangziqi.online_course_mine.security.SecurityUtil;
 import com.zhangziqi.online_course_mine.service.OrderService;
+import com.zhangziqi.online_course_mine.service.StatisticsExportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -27,6 +31,7 @@ import java.util.List;
 public class OrderStatsController {
 
     private final OrderService orderService;
+    private final StatisticsExportService statisticsExportService;
 
     /**
      * 获取机构收入趋势
@@ -45,6 +50,23 @@ public class OrderStatsController {
         return Result.success(trendData);
     }
     
+    /**
+     * 导出机构收入趋势
+     */
+    @GetMapping("/institution/income-trend/export")
+    @PreAuthorize("hasAuthority('ROLE_INSTITUTION')")
+    @Operation(summary = "导出机构收入趋势", description = "以Excel或CSV格式导出当前用户所属机构的收入趋势")
+    public void exportInstitutionIncomeTrend(
+            @RequestParam(defaultValue = "30d") String timeRange,
+            @RequestParam(defaultValue = "day") String groupBy,
+            @RequestParam(defaultValue = "xlsx") String format,
+            HttpServletResponse response) throws IOException {
+        Long institutionId = SecurityUtil.getCurrentInstitutionId();
+        log.info("导出机构收入趋势, 机构ID: {}, 时间范围: {}, 分组方式: {}, 格式: {}", institutionId, timeRange, groupBy, format);
+
+        statisticsExportService.exportIncomeTrend(institutionId, timeRange, groupBy, ExportFormat.of(format), response);
+    }
+    
     /**
      * 获取机构订单状态分布
      */
@@ -0,0 +1,59 @@
+package com.zhangziqi.online_course_mine.event;
+
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 学习记录已写入事件
+ * 学习记录和日汇总写入后发布，排行榜、学习人数估计、分析快照、热力图和打卡日历在事务提交后消费；
+ * 在事务中发布时只有提交成功才投递，不在事务中发布时立即投递
+ */
+@Getter
+public class LearningRecordsCommittedEvent {
+
+    /**
+     * 本次写入的学习记录
+     */
+    private final List<LearningRecord> records;
+
+    /**
+     * 累加到已有聚合记录的学习记录（按对象标识），不计为新的活动
+     */
+    private final Set<LearningRecord> merged;
+
+    public LearningRecordsCommittedEvent(List<LearningRecord> records) {
+        this(records, Set.of());
+    }
+
+    public LearningRecordsCommittedEvent(List<LearningRecord> records, Set<LearningRecord> merged) {
+        this.records = records;
+        this.merged = merged;
+    }
+
+    /**
+     * 记录计入的活动次数，与日汇总的活动次数口径一致
+     *
+     * @return 新写入的记录为1，累加到已有记录的为0
+     */
+    public int activityCount(LearningRecord record) {
+        return merged.contains(record) ? 0 : 1;
+    }
+
+    /**
+     * 已结束的学习记录，与日汇总使用相同的口径
+     */
+    public List<LearningRecord> getEndedRecords() {
+        List<LearningRecord> ended = new ArrayList<>();
+        for (LearningRecord record : records) {
+            if (record.getDurationSeconds() != null && record.getActivityStartTime() != null
+                    && record.getUserId() != null && record.getCourseId() != null) {
+                ended.add(record);
+            }
+        }
+        return ended;
+    }
+}
@@ -0,0 +1,198 @@
+package com.zhangziqi.online_course_mine.excel;
+
+import com.alibaba.excel.EasyExcel;
+import com.alibaba.excel.ExcelWriter;
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.alibaba.excel.annotation.format.DateTimeFormat;
+import com.alibaba.excel.write.metadata.WriteSheet;
+import com.zhangziqi.online_course_mine.model.enums.ExportFormat;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 流式报表写入器
+ * 逐行接收数据，每满一批写出一次：xlsx交给EasyExcel的写入器（底层为SXSSF，已写出的行不再保留在内存中），
+ * csv直接写入响应输出流并立即刷新，两种格式的内存占用都只与批大小有关。
+ * 列由行类型上的{@link ExcelProperty}定义，两种格式使用相同的表头和列顺序
+ *
+ * @param <T> 行类型
+ */
+public class StreamingReportWriter<T> implements AutoCloseable {
+
+    private final List<Field> fields;
+    private final int batchSize;
+    private final List<T> batch;
+    private final ExcelWriter excelWriter;
+    private final WriteSheet writeSheet;
+    private final Writer csvWriter;
+
+    private StreamingReportWriter(HttpServletResponse response, Class<T> rowType, String sheetName,
+                                  ExportFormat format, int batchSize) throws IOException {
+        this.fields = columns(rowType);
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+        if (format == ExportFormat.XLSX) {
+            this.excelWriter = EasyExcel.write(response.getOutputStream(), rowType)
+                    .autoCloseStream(false)
+                    .build();
+            this.writeSheet = EasyExcel.writerSheet(sheetName).build();
+            this.csvWriter = null;
+        } else {
+            this.excelWriter = null;
+            this.writeSheet = null;
+            this.csvWriter = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+            // 带BOM以便Excel按UTF-8打开
+            csvWriter.write('\uFEFF');
+            List<String> headers = new ArrayList<>(fields.size());
+            for (Field field : fields) {
+                headers.add(field.getAnnotation(ExcelProperty.class).value()[0]);
+            }
+            writeCsvLine(headers);
+            csvWriter.flush();
+        }
+    }
+
+    /**
+     * 设置下载响应头并创建写入器
+     *
+     * @param response HTTP响应
+     * @param rowType 行类型
+     * @param fileName 文件名，不含扩展名
+     * @param format 导出格式
+     * @param batchSize 每批写出的行数
+     */
+    public static <T> StreamingReportWriter<T> open(HttpServletResponse response, Class<T> rowType,
+                                                    String fileName, ExportFormat format,
+                                                    int batchSize) throws IOException {
+        response.setContentType(format.getContentType());
+        response.setCharacterEncoding("utf-8");
+        String encodedName = URLEncoder.encode(fileName, StandardCharsets.UTF_8).replaceAll("\\+", "%20");
+        response.setHeader("Content-disposition",
+                "attachment;filename*=utf-8''" + encodedName + "." + format.getCode());
+        return new StreamingReportWriter<>(response, rowType, fileName, format, batchSize);
+    }
+
+    /**
+     * 写入一行
+     */
+    public void write(T row) {
+        batch.add(row);
+        if (batch.size() >= batchSize) {
+            flushBatch();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBatch();
+        if (excelWriter != null) {
+            excelWriter.finish();
+        } else {
+            csvWriter.flush();
+        }
+    }
+
+    private void flushBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if (excelWriter != null) {
+                excelWriter.write(batch, writeSheet);
+            } else {
+                for (T row : batch) {
+                    List<String> values = new ArrayList<>(fields.size());
+                    for (Field field : fields) {
+                        values.add(format(field, field.get(row)));
+                    }
+                    writeCsvLine(values);
+                }
+                csvWriter.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        batch.clear();
+    }
+
+    private void writeCsvLine(List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                csvWriter.write(',');
+            }
+            csvWriter.write(escape(values.get(i)));
+        }
+        csvWriter.write("\r\n");
+    }
+
+    private static String format(Field field, Object value) {
+        if (value == null) {
+            return "";
+        }
+        DateTimeFormat dateTimeFormat = field.getAnnotation(DateTimeFormat.class);
+        if (value instanceof LocalDateTime && dateTimeFormat != null) {
+            return ((LocalDateTime) value).format(DateTimeFormatter.ofPattern(dateTimeFormat.value()));
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        return neutralize(value.toString());
+    }
+
+    /**
+     * 以=、+、-、@、制表符或回车开头的文本在Excel中会被当作公式执行（CSV注入），前面加单引号使其按文本显示
+     * 数值列不经过这里，负数保持原样
+     */
+    private static String neutralize(String value) {
+        if (value.isEmpty()) {
+            return value;
+        }
+        char first = value.charAt(0);
+        if (first == '=' || first == '+' || first == '-' || first == '@'
+                || first == '\t' || first == '\r') {
+            return "'" + value;
+        }
+        return value;
+    }
+
+    /**
+     * 按RFC 4180转义：包含逗号、引号或换行时整体加引号，引号写两次
+     */
+    private static String escape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static List<Field> columns(Class<?> rowType) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : rowType.getDeclaredFields()) {
+            if (field.isAnnotationPresent(ExcelProperty.class)) {
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        fields.sort(Comparator.comparingInt(field -> field.getAnnotation(ExcelProperty.class).index()));
+        return fields;
+    }
+}
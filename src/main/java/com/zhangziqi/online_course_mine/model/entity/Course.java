@@ -151,22 +151,32 @@ public class Course extends BaseEntity {
 
     /**
      * 学习人数
+     * 由课程计数服务用原地更新维护，保存实体时不写入
      */
     @Builder.Default
+    @Column(updatable = false)
     private Integer studentCount = 0;
 
     /**
-     * 平均评分(1-5星)
+     * 平均评分(1-5星)，等于评分总分除以评分人数
      */
-    @Column
+    @Column(updatable = false)
     private Float averageRating;
 
     /**
      * 评分人数
      */
     @Builder.Default
+    @Column(updatable = false)
     private Integer ratingCount = 0;
 
+    /**
+     * 评分总分
+     */
+    @Builder.Default
+    @Column(name = "rating_sum", nullable = false, updatable = false)
+    private Long ratingSum = 0L;
+
     /**
      * 适合人群
      */
@@ -305,25 +315,6 @@ public class Course extends BaseEntity {
         this.paymentType = paymentType != null ? paymentType.getValue() : null;
     }
 
-    /**
-     * 增加学生数
-     */
-    public void incrementStudentCount() {
-        if (this.studentCount == null) {
-            this.studentCount = 0;
-        }
-        this.studentCount++;
-    }
-    
-    /**
-     * 减少学生数
-     */
-    public void decrementStudentCount() {
-        if (this.studentCount != null && this.studentCount > 0) {
-            this.studentCount--;
-        }
-    }
-
     /**
      * 自定义equals方法，只比较ID
      */
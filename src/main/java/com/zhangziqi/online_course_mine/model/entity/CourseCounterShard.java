@@ -0,0 +1,74 @@
+package com.zhangziqi.online_course_mine.model.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 课程计数分片实体类
+ * 学员数和评分的变化先累加到课程的随机分片上，再定期合并到课程行；
+ * 读写都通过CourseCounterJdbcRepository，实体只用于由Hibernate维护表结构
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@IdClass(CourseCounterShard.Key.class)
+@Table(name = "course_counter_shards")
+public class CourseCounterShard {
+
+    /**
+     * 课程ID
+     */
+    @Id
+    @Column(name = "course_id")
+    private Long courseId;
+
+    /**
+     * 分片号
+     */
+    @Id
+    @Column(name = "shard")
+    private Integer shard;
+
+    /**
+     * 学员数增量
+     */
+    @Column(name = "student_delta", nullable = false)
+    private Long studentDelta;
+
+    /**
+     * 评分总分增量
+     */
+    @Column(name = "rating_sum_delta", nullable = false)
+    private Long ratingSumDelta;
+
+    /**
+     * 评分人数增量
+     */
+    @Column(name = "rating_count_delta", nullable = false)
+    private Long ratingCountDelta;
+
+    /**
+     * 更新时间
+     */
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    /**
+     * 复合主键（课程ID、分片号）
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long courseId;
+        private Integer shard;
+    }
+}
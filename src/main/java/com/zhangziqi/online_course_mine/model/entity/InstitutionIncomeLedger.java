@@ -0,0 +1,73 @@
+package com.zhangziqi.online_course_mine.model.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * 机构收入日台账实体类
+ * 按（日期、机构、课程）汇总收入和退款，由订单状态变化时在同一事务内增量维护，
+ * 收入统计直接读取台账而不加载订单
+ */
+@Data
+@Entity
+@SuperBuilder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "institution_income_ledger",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"stat_date", "institution_id", "course_id"}),
+       indexes = {
+           @Index(name = "idx_income_ledger_institution_date", columnList = "institution_id, stat_date"),
+           @Index(name = "idx_income_ledger_course_date", columnList = "course_id, stat_date")
+       })
+@EqualsAndHashCode(callSuper = true)
+public class InstitutionIncomeLedger extends BaseEntity {
+
+    /**
+     * 统计日期（收入为支付日期，退款为退款日期）
+     */
+    @Column(name = "stat_date", nullable = false)
+    private LocalDate statDate;
+
+    /**
+     * 机构ID
+     */
+    @Column(name = "institution_id", nullable = false)
+    private Long institutionId;
+
+    /**
+     * 课程ID
+     */
+    @Column(name = "course_id", nullable = false)
+    private Long courseId;
+
+    /**
+     * 收入（已支付和申请退款状态订单的金额）
+     */
+    @Column(name = "income", nullable = false, precision = 14, scale = 2)
+    private BigDecimal income;
+
+    /**
+     * 退款（已退款状态订单的退款金额）
+     */
+    @Column(name = "refund", nullable = false, precision = 14, scale = 2)
+    private BigDecimal refund;
+
+    /**
+     * 计入收入的订单数
+     */
+    @Column(name = "paid_count", nullable = false)
+    private Long paidCount;
+
+    /**
+     * 计入退款的订单数
+     */
+    @Column(name = "refund_count", nullable = false)
+    private Long refundCount;
+}
@@ -0,0 +1,73 @@
+package com.zhangziqi.online_course_mine.model.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import java.time.LocalDate;
+
+/**
+ * 学习记录日汇总实体类
+ * 按（日期、机构、课程、用户、活动类型）汇总学习时长和活动次数，
+ * 由学习记录写入时增量维护，统计查询直接读取汇总表而不扫描原始学习记录
+ */
+@Data
+@Entity
+@SuperBuilder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "learning_daily_rollups",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"stat_date", "institution_id", "course_id", "user_id", "activity_type"}),
+       indexes = {
+           @Index(name = "idx_rollup_institution_date", columnList = "institution_id, stat_date"),
+           @Index(name = "idx_rollup_course_date", columnList = "course_id, stat_date"),
+           @Index(name = "idx_rollup_user_course", columnList = "user_id, course_id")
+       })
+@EqualsAndHashCode(callSuper = true)
+public class LearningDailyRollup extends BaseEntity {
+
+    /**
+     * 统计日期（学习活动开始日期）
+     */
+    @Column(name = "stat_date", nullable = false)
+    private LocalDate statDate;
+
+    /**
+     * 机构ID
+     */
+    @Column(name = "institution_id", nullable = false)
+    private Long institutionId;
+
+    /**
+     * 课程ID
+     */
+    @Column(name = "course_id", nullable = false)
+    private Long courseId;
+
+    /**
+     * 用户ID
+     */
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    /**
+     * 活动类型
+     */
+    @Column(name = "activity_type", length = 20, nullable = false)
+    private String activityType;
+
+    /**
+     * 总学习时长（秒）
+     */
+    @Column(name = "total_duration", nullable = false)
+    private Long totalDuration;
+
+    /**
+     * 活动次数（对应的学习记录条数）
+     */
+    @Column(name = "activity_count", nullable = false)
+    private Long activityCount;
+}
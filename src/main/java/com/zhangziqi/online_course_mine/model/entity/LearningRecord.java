@@ -20,7 +20,9 @@ import java.time.LocalDateTime;
 @SuperBuilder
 @NoArgsConstructor
 @AllArgsConstructor
-@Table(name = "learning_records")
+@Table(name = "learning_records",
+       uniqueConstraints = @UniqueConstraint(name = "uk_learning_record_aggregate_key", columnNames = "aggregate_key"),
+       indexes = @Index(name = "idx_learning_record_user_end", columnList = "user_id, activity_end_time"))
 @EqualsAndHashCode(callSuper = true)
 public class LearningRecord extends BaseEntity {
     
@@ -85,6 +87,14 @@ public class LearningRecord extends BaseEntity {
     @Column(name = "context_data", columnDefinition = "TEXT")
     private String contextData;
     
+    /**
+     * 聚合键（日期:用户ID:课程ID:活动类型）
+     * 由Redis键或学习事件流聚合写入的记录每个键只有一行，之后的批次累加到该行；
+     * 开始/结束接口写入的记录为null
+     */
+    @Column(name = "aggregate_key", length = 100)
+    private String aggregateKey;
+    
     /**
      * 获取用户ID
      */
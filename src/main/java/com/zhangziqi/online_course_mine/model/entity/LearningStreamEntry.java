@@ -0,0 +1,37 @@
+package com.zhangziqi.online_course_mine.model.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 已处理的学习事件实体类
+ * 记录已写入学习记录的事件流条目ID，与学习记录在同一事务中写入；
+ * 事件被重新投递时据此跳过，保留期过后由消费者清理
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "learning_stream_entries",
+       indexes = @Index(name = "idx_learning_stream_entry_processed", columnList = "processed_at"))
+public class LearningStreamEntry {
+
+    /**
+     * 事件流条目ID
+     */
+    @Id
+    @Column(name = "entry_id", length = 40)
+    private String entryId;
+
+    /**
+     * 处理时间
+     */
+    @Column(name = "processed_at", nullable = false)
+    private LocalDateTime processedAt;
+}
@@ -0,0 +1,75 @@
+package com.zhangziqi.online_course_mine.model.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import java.time.LocalDateTime;
+
+/**
+ * 支付通知收件箱实体类
+ * 保存验签通过的支付宝通知原文，按（交易号、交易状态）去重，
+ * 由后台按状态推进：更新订单状态后再执行开通课程等后续步骤
+ */
+@Data
+@Entity
+@SuperBuilder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "payment_notify_inbox",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"trade_no", "trade_status"}),
+       indexes = @Index(name = "idx_payment_notify_status_next", columnList = "status, next_attempt_at"))
+@EqualsAndHashCode(callSuper = true)
+public class PaymentNotifyInbox extends BaseEntity {
+
+    /**
+     * 支付宝交易号
+     */
+    @Column(name = "trade_no", nullable = false, length = 64)
+    private String tradeNo;
+
+    /**
+     * 交易状态
+     */
+    @Column(name = "trade_status", nullable = false, length = 32)
+    private String tradeStatus;
+
+    /**
+     * 商户订单号
+     */
+    @Column(name = "out_trade_no", nullable = false, length = 64)
+    private String outTradeNo;
+
+    /**
+     * 通知参数原文（JSON）
+     */
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    /**
+     * 处理状态
+     */
+    @Column(name = "status", nullable = false)
+    private Integer status;
+
+    /**
+     * 已尝试处理的次数
+     */
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+
+    /**
+     * 下一次可以处理的时间，处理中时为租约到期时间
+     */
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    /**
+     * 最近一次处理失败的原因
+     */
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+}
@@ -0,0 +1,35 @@
+package com.zhangziqi.online_course_mine.model.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 数据回填登记实体类
+ * 表结构由Hibernate维护，回填统计表等一次性的数据迁移在启动时执行，完成后在此登记，不再重复执行
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "schema_backfills")
+public class SchemaBackfill {
+
+    /**
+     * 回填名称
+     */
+    @Id
+    @Column(name = "name", length = 100)
+    private String name;
+
+    /**
+     * 完成时间
+     */
+    @Column(name = "completed_at", nullable = false)
+    private LocalDateTime completedAt;
+}
@@ -25,7 +25,8 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 @Table(name = "user_courses", 
-       uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "course_id"}))
+       uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "course_id"}),
+       indexes = @Index(name = "idx_user_course_status_expire", columnList = "status, expire_at"))
 @EqualsAndHashCode(callSuper = true, onlyExplicitlyIncluded = true)
 public class UserCourse extends BaseEntity {
     
@@ -0,0 +1,43 @@
+package com.zhangziqi.online_course_mine.model.enums;
+
+import com.zhangziqi.online_course_mine.exception.BusinessException;
+
+/**
+ * 报表导出格式枚举
+ */
+public enum ExportFormat {
+
+    XLSX("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+    CSV("csv", "text/csv");
+
+    private final String code;
+    private final String contentType;
+
+    ExportFormat(String code, String contentType) {
+        this.code = code;
+        this.contentType = contentType;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * 根据代码获取导出格式，不区分大小写
+     *
+     * @param code 格式代码
+     * @return 导出格式
+     */
+    public static ExportFormat of(String code) {
+        for (ExportFormat format : values()) {
+            if (format.code.equalsIgnoreCase(code)) {
+                return format;
+            }
+        }
+        throw new BusinessException(400, "不支持的导出格式: " + code);
+    }
+}
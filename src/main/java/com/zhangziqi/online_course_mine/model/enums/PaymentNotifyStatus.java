@@ -0,0 +1,24 @@
+package com.zhangziqi.online_course_mine.model.enums;
+
+import lombok.Getter;
+
+/**
+ * 支付通知处理状态枚举
+ */
+@Getter
+public enum PaymentNotifyStatus {
+
+    RECEIVED(0, "待处理"),
+    APPLIED(1, "订单已更新"),
+    DONE(2, "已完成"),
+    FAILED(3, "处理失败"),
+    MANUAL_REVIEW(4, "待人工处理");
+
+    private final int value;
+    private final String desc;
+
+    PaymentNotifyStatus(int value, String desc) {
+        this.value = value;
+        this.desc = desc;
+    }
+}
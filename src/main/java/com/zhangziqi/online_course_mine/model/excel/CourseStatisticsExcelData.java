@@ -0,0 +1,69 @@
+package com.zhangziqi.online_course_mine.model.excel;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.alibaba.excel.annotation.write.style.ColumnWidth;
+import com.alibaba.excel.annotation.write.style.HeadRowHeight;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 课程学习统计导出行
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@HeadRowHeight(25)
+public class CourseStatisticsExcelData {
+
+    /**
+     * 课程ID
+     */
+    @ExcelProperty(value = "课程ID", index = 0)
+    @ColumnWidth(12)
+    private Long courseId;
+
+    /**
+     * 课程标题
+     */
+    @ExcelProperty(value = "课程标题", index = 1)
+    @ColumnWidth(30)
+    private String courseTitle;
+
+    /**
+     * 学习人数
+     */
+    @ExcelProperty(value = "学习人数", index = 2)
+    @ColumnWidth(12)
+    private Long learnerCount;
+
+    /**
+     * 总学习时长（秒）
+     */
+    @ExcelProperty(value = "总学习时长(秒)", index = 3)
+    @ColumnWidth(18)
+    private Long totalDuration;
+
+    /**
+     * 活动次数
+     */
+    @ExcelProperty(value = "活动次数", index = 4)
+    @ColumnWidth(12)
+    private Integer activityCount;
+
+    /**
+     * 完成人数
+     */
+    @ExcelProperty(value = "完成人数", index = 5)
+    @ColumnWidth(12)
+    private Long completionCount;
+
+    /**
+     * 平均进度（百分比）
+     */
+    @ExcelProperty(value = "平均进度(%)", index = 6)
+    @ColumnWidth(14)
+    private Double averageProgress;
+}
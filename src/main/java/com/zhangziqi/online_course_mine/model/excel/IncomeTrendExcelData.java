@@ -0,0 +1,50 @@
+package com.zhangziqi.online_course_mine.model.excel;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.alibaba.excel.annotation.write.style.ColumnWidth;
+import com.alibaba.excel.annotation.write.style.HeadRowHeight;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * 收入趋势导出行
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@HeadRowHeight(25)
+public class IncomeTrendExcelData {
+
+    /**
+     * 日期
+     */
+    @ExcelProperty(value = "日期", index = 0)
+    @ColumnWidth(14)
+    private String date;
+
+    /**
+     * 收入金额
+     */
+    @ExcelProperty(value = "收入", index = 1)
+    @ColumnWidth(14)
+    private BigDecimal income;
+
+    /**
+     * 退款金额
+     */
+    @ExcelProperty(value = "退款", index = 2)
+    @ColumnWidth(14)
+    private BigDecimal refund;
+
+    /**
+     * 净收入金额（收入-退款）
+     */
+    @ExcelProperty(value = "净收入", index = 3)
+    @ColumnWidth(14)
+    private BigDecimal netIncome;
+}
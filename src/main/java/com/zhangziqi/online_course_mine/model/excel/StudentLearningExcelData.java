@@ -0,0 +1,66 @@
+package com.zhangziqi.online_course_mine.model.excel;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.alibaba.excel.annotation.format.DateTimeFormat;
+import com.alibaba.excel.annotation.write.style.ColumnWidth;
+import com.alibaba.excel.annotation.write.style.HeadRowHeight;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 课程学生学习统计导出行
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@HeadRowHeight(25)
+public class StudentLearningExcelData {
+
+    /**
+     * 用户ID
+     */
+    @ExcelProperty(value = "用户ID", index = 0)
+    @ColumnWidth(12)
+    private Long userId;
+
+    /**
+     * 用户名
+     */
+    @ExcelProperty(value = "用户名", index = 1)
+    @ColumnWidth(20)
+    private String username;
+
+    /**
+     * 学习时长（秒）
+     */
+    @ExcelProperty(value = "学习时长(秒)", index = 2)
+    @ColumnWidth(16)
+    private Long learningDuration;
+
+    /**
+     * 活动次数
+     */
+    @ExcelProperty(value = "活动次数", index = 3)
+    @ColumnWidth(12)
+    private Integer activityCount;
+
+    /**
+     * 学习进度（百分比）
+     */
+    @ExcelProperty(value = "学习进度(%)", index = 4)
+    @ColumnWidth(14)
+    private Integer progress;
+
+    /**
+     * 最后学习时间
+     */
+    @ExcelProperty(value = "最后学习时间", index = 5)
+    @ColumnWidth(22)
+    @DateTimeFormat("yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime lastLearnTime;
+}
@@ -99,6 +99,13 @@ public class InstitutionLearningStatisticsVO {
     @Builder.Default
     private List<ActiveUserVO> mostActiveUsers = new ArrayList<>();
 
+    /**
+     * 不可用的统计分区
+     * 查询超时或失败而使用默认值的分区名称，为空表示数据完整
+     */
+    @Builder.Default
+    private List<String> unavailableSections = new ArrayList<>();
+
     /**
      * 课程学习统计VO
      */
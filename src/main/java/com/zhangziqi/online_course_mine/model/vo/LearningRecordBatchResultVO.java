@@ -0,0 +1,70 @@
+package com.zhangziqi.online_course_mine.model.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量上报学习活动结果
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LearningRecordBatchResultVO {
+
+    /**
+     * 总条目数
+     */
+    private int totalCount;
+
+    /**
+     * 成功记录数
+     */
+    private int successCount;
+
+    /**
+     * 失败数
+     */
+    private int failureCount;
+
+    /**
+     * 每个条目的处理结果，顺序与请求一致
+     */
+    @Builder.Default
+    private List<ItemResult> items = new ArrayList<>();
+
+    /**
+     * 单个条目的处理结果
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ItemResult {
+
+        /**
+         * 条目在请求中的下标(从0开始)
+         */
+        private int index;
+
+        /**
+         * 是否记录成功
+         */
+        private boolean success;
+
+        /**
+         * 错误信息
+         */
+        private String errorMessage;
+
+        /**
+         * 记录成功时的学习记录
+         */
+        private LearningRecordVO record;
+    }
+}
@@ -0,0 +1,61 @@
+package com.zhangziqi.online_course_mine.model.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 学习事件流消费指标视图对象
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LearningStreamMetricsVO {
+
+    /**
+     * 流中的事件数量
+     */
+    private Long streamLength;
+
+    /**
+     * 已投递但尚未确认的事件数量
+     */
+    private Long pendingCount;
+
+    /**
+     * 尚未投递给消费组的事件数量（Redis 7以下版本无法获取时为null）
+     */
+    private Long lagCount;
+
+    /**
+     * 消费延迟（毫秒），即最新事件与最后投递事件的时间差
+     */
+    private Long lagMillis;
+
+    /**
+     * 消费组中的消费者数量
+     */
+    private Long consumerCount;
+
+    /**
+     * 最后投递的事件ID
+     */
+    private String lastDeliveredId;
+
+    /**
+     * 本实例已处理的事件数量
+     */
+    private Long processedCount;
+
+    /**
+     * 本实例处理失败的批次数量
+     */
+    private Long failedBatchCount;
+
+    /**
+     * 本实例转入死信流的事件数量
+     */
+    private Long deadLetterCount;
+}
@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -46,4 +47,13 @@ public interface ChapterRepository extends JpaRepository<Chapter, Long> {
      */
     @Query("SELECT MAX(c.orderIndex) FROM Chapter c WHERE c.course.id = :courseId")
     Integer findMaxOrderIndexByCourse_Id(@Param("courseId") Long courseId);
-} 
\ No newline at end of file
+
+    /**
+     * 查询给定ID中实际存在的章节ID
+     *
+     * @param ids 章节ID集合
+     * @return 存在的章节ID列表
+     */
+    @Query("SELECT c.id FROM Chapter c WHERE c.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+}
\ No newline at end of file
@@ -0,0 +1,146 @@
+package com.zhangziqi.online_course_mine.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 课程计数JDBC数据访问
+ * 学员数和评分的变化累加到 course_counter_shards 表的分片行上，写入只锁一个分片行，
+ * 不读取也不保存课程实体；分片上的增量定期合并到 courses 表
+ */
+@Repository
+@RequiredArgsConstructor
+public class CourseCounterJdbcRepository {
+
+    private static final String ACCUMULATE_SQL = "INSERT INTO course_counter_shards " +
+            "(course_id, shard, student_delta, rating_sum_delta, rating_count_delta, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE student_delta = student_delta + VALUES(student_delta), " +
+            "rating_sum_delta = rating_sum_delta + VALUES(rating_sum_delta), " +
+            "rating_count_delta = rating_count_delta + VALUES(rating_count_delta), " +
+            "updated_at = VALUES(updated_at)";
+
+    /**
+     * 评分总分列由Hibernate添加时已有课程的值为0，有评分人数而总分为0时先用原平均分和人数推算总分
+     */
+    private static final String SEED_RATING_SUM_SQL = "UPDATE courses SET " +
+            "rating_sum = ROUND(COALESCE(average_rating, 0) * rating_count) " +
+            "WHERE id = ? AND rating_sum = 0 AND rating_count > 0";
+
+    /**
+     * 把增量合并到课程行
+     * 平均分直接由原总分、原人数和增量计算，只引用本语句中尚未赋值的列，
+     * 结果不依赖MySQL按从左到右顺序执行赋值的行为
+     */
+    private static final String APPLY_SQL = "UPDATE courses SET " +
+            "average_rating = CASE WHEN COALESCE(rating_count, 0) + ? > 0 " +
+            "THEN (rating_sum + ?) / (COALESCE(rating_count, 0) + ?) ELSE NULL END, " +
+            "student_count = GREATEST(COALESCE(student_count, 0) + ?, 0), " +
+            "rating_sum = rating_sum + ?, " +
+            "rating_count = COALESCE(rating_count, 0) + ? " +
+            "WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 课程计数的增量
+     *
+     * @param students 学员数增量
+     * @param ratingSum 评分总分增量
+     * @param ratingCount 评分人数增量
+     */
+    public record CounterDelta(long students, long ratingSum, long ratingCount) {
+
+        public static final CounterDelta ZERO = new CounterDelta(0, 0, 0);
+
+        public CounterDelta plus(CounterDelta other) {
+            return new CounterDelta(students + other.students, ratingSum + other.ratingSum,
+                    ratingCount + other.ratingCount);
+        }
+
+        public boolean isZero() {
+            return students == 0 && ratingSum == 0 && ratingCount == 0;
+        }
+    }
+
+    /**
+     * 把增量累加到课程的一个分片上，分片行不存在时插入
+     */
+    public void accumulate(Long courseId, int shard, CounterDelta delta) {
+        jdbcTemplate.update(ACCUMULATE_SQL, courseId, shard, delta.students(), delta.ratingSum(),
+                delta.ratingCount(), Timestamp.valueOf(LocalDateTime.now()));
+    }
+
+    /**
+     * 查询有待合并增量的课程ID
+     */
+    public List<Long> findPendingCourseIds(int limit) {
+        return jdbcTemplate.queryForList(
+                "SELECT DISTINCT course_id FROM course_counter_shards LIMIT ?", Long.class, limit);
+    }
+
+    /**
+     * 查询课程现有的分片号，不加锁
+     */
+    public List<Integer> findShards(Long courseId) {
+        return jdbcTemplate.queryForList(
+                "SELECT shard FROM course_counter_shards WHERE course_id = ?", Integer.class, courseId);
+    }
+
+    /**
+     * 锁定课程的一个分片行并返回它的增量，必须在事务中调用
+     *
+     * @return 分片的增量，分片行已不存在时返回null
+     */
+    public CounterDelta lockShard(Long courseId, int shard) {
+        List<CounterDelta> deltas = jdbcTemplate.query("SELECT student_delta, rating_sum_delta, rating_count_delta " +
+                        "FROM course_counter_shards WHERE course_id = ? AND shard = ? FOR UPDATE",
+                (rs, rowNum) -> new CounterDelta(rs.getLong(1), rs.getLong(2), rs.getLong(3)), courseId, shard);
+        return deltas.isEmpty() ? null : deltas.get(0);
+    }
+
+    /**
+     * 把增量合并到课程行，不修改课程的版本号
+     */
+    public int applyToCourse(Long courseId, CounterDelta delta) {
+        jdbcTemplate.update(SEED_RATING_SUM_SQL, courseId);
+        return jdbcTemplate.update(APPLY_SQL, delta.ratingCount(), delta.ratingSum(), delta.ratingCount(),
+                delta.students(), delta.ratingSum(), delta.ratingCount(), courseId);
+    }
+
+    /**
+     * 删除已合并的分片行
+     */
+    public int deleteShard(Long courseId, int shard) {
+        return jdbcTemplate.update("DELETE FROM course_counter_shards WHERE course_id = ? AND shard = ?",
+                courseId, shard);
+    }
+
+    /**
+     * 汇总课程尚未合并的增量
+     *
+     * @return 课程ID -> 增量，只包含有待合并增量的课程
+     */
+    public Map<Long, CounterDelta> sumPending(Collection<Long> courseIds) {
+        Map<Long, CounterDelta> pending = new HashMap<>();
+        if (courseIds.isEmpty()) {
+            return pending;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(courseIds.size(), "?"));
+        jdbcTemplate.query("SELECT course_id, SUM(student_delta), SUM(rating_sum_delta), SUM(rating_count_delta) " +
+                        "FROM course_counter_shards WHERE course_id IN (" + placeholders + ") GROUP BY course_id",
+                rs -> {
+                    pending.put(rs.getLong(1), new CounterDelta(rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+                }, courseIds.toArray());
+        return pending;
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -240,4 +241,40 @@ public interface CourseRepository extends JpaRepository<Course, Long>, JpaSpecif
             @Param("status") Integer status,
             @Param("isPublishedVersion") Boolean isPublishedVersion,
             Pageable pageable);
-}
\ No newline at end of file
+
+    /**
+     * 查询给定ID中实际存在的课程ID
+     *
+     * @param ids 课程ID集合
+     * @return 存在的课程ID列表
+     */
+    @Query("SELECT c.id FROM Course c WHERE c.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 查询课程大纲投影（按章节、小节顺序排列）
+     * 每行依次为：课程数据版本、章节ID、章节预计学习时长、小节ID；
+     * 没有章节或小节时对应列为null
+     *
+     * @param courseId 课程ID
+     * @return 课程大纲行
+     */
+    @Query("SELECT co.dataVersion, c.id, c.estimatedMinutes, s.id FROM Course co " +
+           "LEFT JOIN co.chapters c LEFT JOIN c.sections s " +
+           "WHERE co.id = :courseId ORDER BY c.orderIndex, s.orderIndex")
+    List<Object[]> findSectionOutlineByCourseId(@Param("courseId") Long courseId);
+
+    /**
+     * 查询课程所属机构ID
+     *
+     * @return [课程ID, 机构ID]
+     */
+    @Query("SELECT c.id, c.institution.id FROM Course c WHERE c.id IN :ids")
+    List<Object[]> findInstitutionIdsByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 批量查询课程并同时加载所属机构
+     */
+    @Query("SELECT c FROM Course c LEFT JOIN FETCH c.institution WHERE c.id IN :ids")
+    List<Course> findAllWithInstitutionByIdIn(@Param("ids") Collection<Long> ids);
+}
@@ -0,0 +1,241 @@
+package com.zhangziqi.online_course_mine.repository;
+
+import com.zhangziqi.online_course_mine.exception.BusinessException;
+import com.zhangziqi.online_course_mine.model.enums.CourseStatus;
+import com.zhangziqi.online_course_mine.model.vo.InstitutionLearningStatisticsVO;
+import com.zhangziqi.online_course_mine.utils.JdbcStreamUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 课程学习统计查询
+ * 在一条SQL中按课程分组计算学习时长、活动次数（日汇总表）和学习人数、完成人数、平均进度（用户课程表），
+ * 排序和分页都在数据库中完成，查询次数与课程数量无关；
+ * 导出时使用流式结果集逐行读取，不在内存中保留完整结果
+ */
+@Repository
+@RequiredArgsConstructor
+public class CourseStatisticsJdbcRepository {
+
+    /**
+     * 可排序字段与结果列的对应关系
+     */
+    private static final Map<String, String> SORT_COLUMNS = Map.of(
+            "courseId", "c.id",
+            "courseTitle", "c.title",
+            "totalDuration", "total_duration",
+            "activityCount", "activity_count",
+            "learnerCount", "learner_count",
+            "completionCount", "completion_count",
+            "averageProgress", "average_progress");
+
+    private static final String SELECT_SQL = "SELECT c.id, c.title, " +
+            "COALESCE(r.total_duration, 0) AS total_duration, " +
+            "COALESCE(r.activity_count, 0) AS activity_count, " +
+            "COALESCE(u.learner_count, 0) AS learner_count, " +
+            "COALESCE(u.completion_count, 0) AS completion_count, " +
+            "COALESCE(u.average_progress, 0) AS average_progress " +
+            "FROM courses c " +
+            // 学习时长和活动次数只计算正常状态的课程，与按课程查询的口径一致
+            "LEFT JOIN (SELECT r.course_id, SUM(r.total_duration) AS total_duration, " +
+            "SUM(r.activity_count) AS activity_count " +
+            "FROM learning_daily_rollups r " +
+            "JOIN user_courses uc ON uc.user_id = r.user_id AND uc.course_id = r.course_id AND uc.status = 0 " +
+            "%s GROUP BY r.course_id) r ON r.course_id = c.id " +
+            "LEFT JOIN (SELECT uc.course_id, COUNT(DISTINCT uc.user_id) AS learner_count, " +
+            "SUM(CASE WHEN uc.progress = 100 THEN 1 ELSE 0 END) AS completion_count, " +
+            "AVG(uc.progress) AS average_progress " +
+            "FROM user_courses uc %s GROUP BY uc.course_id) u ON u.course_id = c.id ";
+
+    // 课程学生的学习时长和活动次数取自日汇总表，进度和最后学习时间取自用户课程表
+    private static final String STUDENT_SQL = "SELECT r.user_id, u.username, " +
+            "SUM(r.total_duration) AS total_duration, SUM(r.activity_count) AS activity_count, " +
+            "uc.progress, uc.last_learn_at " +
+            "FROM learning_daily_rollups r " +
+            "JOIN user_courses uc ON uc.user_id = r.user_id AND uc.course_id = r.course_id AND uc.status = 0 " +
+            "JOIN users u ON u.id = r.user_id " +
+            "WHERE r.course_id = ? " +
+            "GROUP BY r.user_id, u.username, uc.progress, uc.last_learn_at " +
+            "ORDER BY total_duration DESC, r.user_id ASC";
+
+    private static final RowMapper<InstitutionLearningStatisticsVO.StudentLearningVO> STUDENT_ROW_MAPPER =
+            (rs, rowNum) -> {
+                Timestamp lastLearnAt = rs.getTimestamp(6);
+                return InstitutionLearningStatisticsVO.StudentLearningVO.builder()
+                        .userId(rs.getLong(1))
+                        .username(rs.getString(2))
+                        .learningDuration(rs.getLong(3))
+                        .activityCount(rs.getInt(4))
+                        .progress(rs.getInt(5))
+                        .lastLearnTime(lastLearnAt != null ? lastLearnAt.toLocalDateTime() : null)
+                        .build();
+            };
+
+    private static final RowMapper<InstitutionLearningStatisticsVO.CourseStatisticsVO> ROW_MAPPER =
+            (rs, rowNum) -> InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
+                    .courseId(rs.getLong(1))
+                    .courseTitle(rs.getString(2))
+                    .totalDuration(rs.getLong(3))
+                    .activityCount(rs.getInt(4))
+                    .learnerCount(rs.getLong(5))
+                    .completionCount(rs.getLong(6))
+                    .averageProgress(rs.getDouble(7))
+                    .build();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 分页查询课程学习统计
+     *
+     * @param institutionId 机构ID，为null时查询所有机构
+     * @param publishedOnly 是否只查询已发布的发布版本课程
+     * @param pageable 分页参数，排序字段为CourseStatisticsVO的统计字段
+     * @return 课程学习统计分页
+     */
+    public Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> findCourseStatistics(
+            Long institutionId, boolean publishedOnly, Pageable pageable) {
+        List<Object> params = new ArrayList<>();
+        String rollupFilter = "";
+        String userCourseFilter = "";
+        if (institutionId != null) {
+            rollupFilter = "WHERE r.institution_id = ?";
+            userCourseFilter = "JOIN courses uc_c ON uc_c.id = uc.course_id WHERE uc_c.institution_id = ?";
+            params.add(institutionId);
+            params.add(institutionId);
+        }
+
+        StringBuilder where = new StringBuilder();
+        List<Object> whereParams = new ArrayList<>();
+        if (institutionId != null) {
+            where.append(" AND c.institution_id = ?");
+            whereParams.add(institutionId);
+        }
+        if (publishedOnly) {
+            where.append(" AND c.status = ? AND c.is_published_version = TRUE");
+            whereParams.add(CourseStatus.PUBLISHED.getValue());
+        }
+        String whereClause = where.length() > 0 ? "WHERE " + where.substring(5) : "";
+
+        Long total = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM courses c " + whereClause, Long.class, whereParams.toArray());
+        if (total == null || total == 0 || pageable.isPaged() && pageable.getOffset() >= total) {
+            return new PageImpl<>(new ArrayList<>(), pageable, total != null ? total : 0);
+        }
+
+        StringBuilder sql = new StringBuilder(String.format(SELECT_SQL, rollupFilter, userCourseFilter))
+                .append(whereClause)
+                .append(orderBy(pageable.getSort()));
+        params.addAll(whereParams);
+        if (pageable.isPaged()) {
+            sql.append(" LIMIT ? OFFSET ?");
+            params.add(pageable.getPageSize());
+            params.add(pageable.getOffset());
+        }
+
+        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> content = jdbcTemplate.query(sql.toString(),
+                ROW_MAPPER, params.toArray());
+
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /**
+     * 查询指定课程的学习统计
+     * 用于补全排行榜中前k名课程的统计信息，子查询中同样只统计这些课程
+     *
+     * @param courseIds 课程ID
+     * @param publishedOnly 是否只查询已发布的发布版本课程
+     * @return 课程学习统计，顺序不固定，不存在的课程不包含在结果中
+     */
+    public List<InstitutionLearningStatisticsVO.CourseStatisticsVO> findCourseStatisticsByIds(
+            Collection<Long> courseIds, boolean publishedOnly) {
+        if (courseIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String placeholders = String.join(", ", Collections.nCopies(courseIds.size(), "?"));
+        List<Object> params = new ArrayList<>();
+        params.addAll(courseIds);
+        params.addAll(courseIds);
+        params.addAll(courseIds);
+
+        StringBuilder sql = new StringBuilder(String.format(SELECT_SQL,
+                "WHERE r.course_id IN (" + placeholders + ")",
+                "WHERE uc.course_id IN (" + placeholders + ")"))
+                .append("WHERE c.id IN (").append(placeholders).append(")");
+        if (publishedOnly) {
+            sql.append(" AND c.status = ? AND c.is_published_version = TRUE");
+            params.add(CourseStatus.PUBLISHED.getValue());
+        }
+
+        return jdbcTemplate.query(sql.toString(), ROW_MAPPER, params.toArray());
+    }
+
+    /**
+     * 流式读取机构所有课程的学习统计，按课程ID排序
+     *
+     * @param institutionId 机构ID，为null时读取所有机构
+     * @param consumer 逐行处理
+     */
+    public void streamCourseStatistics(Long institutionId,
+                                       Consumer<InstitutionLearningStatisticsVO.CourseStatisticsVO> consumer) {
+        List<Object> params = new ArrayList<>();
+        String sql = String.format(SELECT_SQL, "", "");
+        if (institutionId != null) {
+            sql = String.format(SELECT_SQL, "WHERE r.institution_id = ?",
+                    "JOIN courses uc_c ON uc_c.id = uc.course_id WHERE uc_c.institution_id = ?") +
+                    "WHERE c.institution_id = ?";
+            params.add(institutionId);
+            params.add(institutionId);
+            params.add(institutionId);
+        }
+        stream(sql + " ORDER BY c.id ASC", params.toArray(), ROW_MAPPER, consumer);
+    }
+
+    /**
+     * 流式读取课程中所有学生的学习统计，按学习时长降序
+     *
+     * @param courseId 课程ID
+     * @param consumer 逐行处理
+     */
+    public void streamStudentStatistics(Long courseId,
+                                        Consumer<InstitutionLearningStatisticsVO.StudentLearningVO> consumer) {
+        stream(STUDENT_SQL, new Object[]{courseId}, STUDENT_ROW_MAPPER, consumer);
+    }
+
+    private <T> void stream(String sql, Object[] params, RowMapper<T> rowMapper, Consumer<T> consumer) {
+        int[] rowNum = new int[1];
+        jdbcTemplate.query(JdbcStreamUtil.streaming(sql, params),
+                (RowCallbackHandler) rs -> consumer.accept(rowMapper.mapRow(rs, rowNum[0]++)));
+    }
+
+    /**
+     * 构建排序子句，最后按课程ID排序保证分页稳定
+     */
+    private String orderBy(Sort sort) {
+        StringBuilder orderBy = new StringBuilder(" ORDER BY ");
+        for (Sort.Order order : sort) {
+            String column = SORT_COLUMNS.get(order.getProperty());
+            if (column == null) {
+                throw new BusinessException(400, "不支持的排序字段: " + order.getProperty());
+            }
+            orderBy.append(column).append(order.isAscending() ? " ASC, " : " DESC, ");
+        }
+        return orderBy.append("c.id ASC").toString();
+    }
+}
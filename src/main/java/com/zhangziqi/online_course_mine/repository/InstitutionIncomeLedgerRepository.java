@@ -0,0 +1,106 @@
+package com.zhangziqi.online_course_mine.repository;
+
+import com.zhangziqi.online_course_mine.model.entity.InstitutionIncomeLedger;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 机构收入日台账数据访问接口
+ * 统计查询的代价只与台账行数（天数 × 课程数）有关，与订单数量无关
+ */
+@Repository
+public interface InstitutionIncomeLedgerRepository extends JpaRepository<InstitutionIncomeLedger, Long> {
+
+    /**
+     * 累加台账行，行不存在时插入
+     * 金额和订单数可以为负，用于撤销订单原先的计入
+     */
+    @Modifying
+    @Query(value = "INSERT INTO institution_income_ledger " +
+            "(stat_date, institution_id, course_id, income, refund, paid_count, refund_count, created_at, updated_at) " +
+            "VALUES (:statDate, :institutionId, :courseId, :income, :refund, :paidCount, :refundCount, NOW(6), NOW(6)) " +
+            "ON DUPLICATE KEY UPDATE income = income + VALUES(income), refund = refund + VALUES(refund), " +
+            "paid_count = paid_count + VALUES(paid_count), refund_count = refund_count + VALUES(refund_count), " +
+            "updated_at = VALUES(updated_at)",
+            nativeQuery = true)
+    int accumulate(@Param("statDate") LocalDate statDate,
+                   @Param("institutionId") Long institutionId,
+                   @Param("courseId") Long courseId,
+                   @Param("income") BigDecimal income,
+                   @Param("refund") BigDecimal refund,
+                   @Param("paidCount") long paidCount,
+                   @Param("refundCount") long refundCount);
+
+    /**
+     * 获取机构总收入
+     */
+    @Query("SELECT COALESCE(SUM(l.income), 0) FROM InstitutionIncomeLedger l " +
+           "WHERE l.institutionId = :institutionId")
+    BigDecimal sumIncomeByInstitution(@Param("institutionId") Long institutionId);
+
+    /**
+     * 获取机构总退款
+     */
+    @Query("SELECT COALESCE(SUM(l.refund), 0) FROM InstitutionIncomeLedger l " +
+           "WHERE l.institutionId = :institutionId")
+    BigDecimal sumRefundByInstitution(@Param("institutionId") Long institutionId);
+
+    /**
+     * 获取机构在日期范围内的收入
+     * 开始日期包含，结束日期不包含
+     */
+    @Query("SELECT COALESCE(SUM(l.income), 0) FROM InstitutionIncomeLedger l " +
+           "WHERE l.institutionId = :institutionId " +
+           "AND l.statDate >= :startDate AND l.statDate < :endDate")
+    BigDecimal sumIncomeByInstitutionBetween(@Param("institutionId") Long institutionId,
+                                             @Param("startDate") LocalDate startDate,
+                                             @Param("endDate") LocalDate endDate);
+
+    /**
+     * 获取机构在日期范围内的退款
+     * 开始日期包含，结束日期不包含
+     */
+    @Query("SELECT COALESCE(SUM(l.refund), 0) FROM InstitutionIncomeLedger l " +
+           "WHERE l.institutionId = :institutionId " +
+           "AND l.statDate >= :startDate AND l.statDate < :endDate")
+    BigDecimal sumRefundByInstitutionBetween(@Param("institutionId") Long institutionId,
+                                             @Param("startDate") LocalDate startDate,
+                                             @Param("endDate") LocalDate endDate);
+
+    /**
+     * 获取机构每日收入和退款
+     * 返回日期、收入和退款，开始日期包含，结束日期不包含
+     */
+    @Query("SELECT l.statDate, SUM(l.income), SUM(l.refund) FROM InstitutionIncomeLedger l " +
+           "WHERE l.institutionId = :institutionId " +
+           "AND l.statDate >= :startDate AND l.statDate < :endDate " +
+           "GROUP BY l.statDate " +
+           "ORDER BY l.statDate")
+    List<Object[]> findDailyIncomeByInstitution(@Param("institutionId") Long institutionId,
+                                                @Param("startDate") LocalDate startDate,
+                                                @Param("endDate") LocalDate endDate);
+
+    /**
+     * 按课程汇总机构的收入和退款
+     * 返回课程ID、收入、退款和已支付（含申请退款）订单数
+     */
+    @Query("SELECT l.courseId, SUM(l.income), SUM(l.refund), SUM(l.paidCount) FROM InstitutionIncomeLedger l " +
+           "WHERE l.institutionId = :institutionId " +
+           "GROUP BY l.courseId")
+    List<Object[]> sumCourseIncomeByInstitution(@Param("institutionId") Long institutionId);
+
+    /**
+     * 按课程汇总全平台的收入和退款
+     * 返回课程ID、收入、退款和已支付（含申请退款）订单数
+     */
+    @Query("SELECT l.courseId, SUM(l.income), SUM(l.refund), SUM(l.paidCount) FROM InstitutionIncomeLedger l " +
+           "GROUP BY l.courseId")
+    List<Object[]> sumCourseIncome();
+}
@@ -0,0 +1,267 @@
+package com.zhangziqi.online_course_mine.repository;
+
+import com.zhangziqi.online_course_mine.model.entity.LearningDailyRollup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 学习记录日汇总数据访问接口
+ * 与LearningRecordRepository中的统计查询口径一致（只统计正常状态的课程），
+ * 但按日汇总行计算，查询代价与原始学习记录的数量无关
+ */
+@Repository
+public interface LearningDailyRollupRepository extends JpaRepository<LearningDailyRollup, Long> {
+
+    /**
+     * 获取机构每日学习统计数据
+     * 返回日期、总时长和活动次数
+     */
+    @Query("SELECT r.statDate as date, SUM(r.totalDuration) as duration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "AND r.statDate BETWEEN :startDate AND :endDate " +
+           "GROUP BY r.statDate " +
+           "ORDER BY r.statDate DESC")
+    List<Object[]> findDailyLearningStatsByInstitutionId(
+            @Param("institutionId") Long institutionId,
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate);
+
+    /**
+     * 获取机构按课程分组的学习统计
+     * 返回课程ID、课程标题、总时长和活动次数
+     */
+    @Query("SELECT c.id, c.title, SUM(r.totalDuration) as totalDuration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "JOIN Course c ON r.courseId = c.id " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "GROUP BY c.id, c.title " +
+           "ORDER BY totalDuration DESC")
+    List<Object[]> findLearningStatsByCourseForInstitution(@Param("institutionId") Long institutionId);
+
+    /**
+     * 获取机构按活动类型分组的学习统计
+     */
+    @Query("SELECT r.activityType, SUM(r.totalDuration) as totalDuration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "GROUP BY r.activityType")
+    List<Object[]> findLearningStatsByActivityTypeForInstitution(@Param("institutionId") Long institutionId);
+
+    /**
+     * 获取机构总学习时长
+     */
+    @Query("SELECT SUM(r.totalDuration) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0") // 0 = NORMAL，只计算正常状态的课程
+    Number findTotalLearningDurationByInstitution(@Param("institutionId") Long institutionId);
+
+    /**
+     * 获取机构今日总学习时长
+     */
+    @Query("SELECT SUM(r.totalDuration) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "AND r.statDate = CURRENT_DATE")
+    Long findTodayLearningDurationByInstitution(@Param("institutionId") Long institutionId);
+
+    /**
+     * 获取机构在指定日期范围内的总学习时长
+     */
+    @Query("SELECT SUM(r.totalDuration) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "AND r.statDate BETWEEN :startDate AND :endDate")
+    Long findLearningDurationByInstitutionAndDateRange(
+            @Param("institutionId") Long institutionId,
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate);
+
+    /**
+     * 获取机构在指定日期范围内特定活动类型的活动次数
+     */
+    @Query("SELECT SUM(r.activityCount) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "AND r.activityType = :activityType " +
+           "AND r.statDate BETWEEN :startDate AND :endDate")
+    Long countActivitiesByInstitutionAndTypeAndDateRange(
+            @Param("institutionId") Long institutionId,
+            @Param("activityType") String activityType,
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate);
+
+    /**
+     * 获取机构用户学习人数
+     */
+    @Query("SELECT COUNT(DISTINCT r.userId) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0") // 0 = NORMAL，只计算正常状态的课程
+    Long countUniqueUsersByInstitution(@Param("institutionId") Long institutionId);
+
+    /**
+     * 获取机构中最活跃的用户
+     * 返回用户ID、用户名、总学习时长和活动次数
+     */
+    @Query("SELECT u.id, u.username, SUM(r.totalDuration) as totalDuration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "JOIN User u ON r.userId = u.id " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.institutionId = :institutionId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "GROUP BY u.id, u.username " +
+           "ORDER BY totalDuration DESC")
+    List<Object[]> findMostActiveUsersByInstitution(
+            @Param("institutionId") Long institutionId,
+            Pageable pageable);
+
+    /**
+     * 获取课程每日学习统计
+     * 返回日期、总时长和活动次数
+     */
+    @Query("SELECT r.statDate as date, SUM(r.totalDuration) as duration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.courseId = :courseId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "AND r.statDate BETWEEN :startDate AND :endDate " +
+           "GROUP BY r.statDate " +
+           "ORDER BY r.statDate DESC")
+    List<Object[]> findDailyLearningStatsByCourseId(
+            @Param("courseId") Long courseId,
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate);
+
+    /**
+     * 获取课程按活动类型分组的学习统计
+     */
+    @Query("SELECT r.activityType, SUM(r.totalDuration) as totalDuration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.courseId = :courseId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "GROUP BY r.activityType")
+    List<Object[]> findLearningStatsByActivityTypeForCourse(@Param("courseId") Long courseId);
+
+    /**
+     * 获取课程总学习时长
+     */
+    @Query("SELECT SUM(r.totalDuration) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.courseId = :courseId " +
+           "AND uc.status = 0") // 0 = NORMAL，只计算正常状态的课程
+    Long findTotalLearningDurationByCourse(@Param("courseId") Long courseId);
+
+    /**
+     * 获取课程学习活动次数
+     */
+    @Query("SELECT SUM(r.activityCount) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.courseId = :courseId " +
+           "AND uc.status = 0") // 0 = NORMAL，只计算正常状态的课程
+    Long countActivitiesByCourse(@Param("courseId") Long courseId);
+
+    /**
+     * 获取课程今日总学习时长
+     */
+    @Query("SELECT SUM(r.totalDuration) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.courseId = :courseId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "AND r.statDate = CURRENT_DATE")
+    Long findTodayLearningDurationByCourse(@Param("courseId") Long courseId);
+
+    /**
+     * 获取课程学习人数
+     */
+    @Query("SELECT COUNT(DISTINCT r.userId) FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.courseId = :courseId " +
+           "AND uc.status = 0") // 0 = NORMAL，只计算正常状态的课程
+    Long countUniqueUsersByCourse(@Param("courseId") Long courseId);
+
+    /**
+     * 获取特定用户在特定课程的活动类型统计
+     */
+    @Query("SELECT r.activityType, SUM(r.totalDuration) as totalDuration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "JOIN UserCourse uc ON r.userId = uc.user.id AND r.courseId = uc.course.id " +
+           "WHERE r.userId = :userId " +
+           "AND r.courseId = :courseId " +
+           "AND uc.status = 0 " + // 0 = NORMAL，只计算正常状态的课程
+           "GROUP BY r.activityType")
+    List<Object[]> findLearningStatsByActivityTypeForUserAndCourse(
+            @Param("userId") Long userId,
+            @Param("courseId") Long courseId);
+
+    /**
+     * 获取机构统计数据
+     * 返回机构ID、机构名称、Logo、学生数量、课程数量、总学习时长和活动次数
+     */
+    @Query("SELECT i.id, i.name, i.logo, " +
+           "COUNT(DISTINCT r.userId) as studentCount, " +
+           "COUNT(DISTINCT r.courseId) as courseCount, " +
+           "SUM(r.totalDuration) as totalDuration, " +
+           "SUM(r.activityCount) as activityCount " +
+           "FROM LearningDailyRollup r " +
+           "JOIN Institution i ON r.institutionId = i.id " +
+           "GROUP BY i.id, i.name, i.logo")
+    List<Object[]> findInstitutionStatistics();
+
+    /**
+     * 获取平台总学习时长
+     * 平台统计与原有口径一致，不区分用户课程状态
+     */
+    @Query("SELECT SUM(r.totalDuration) FROM LearningDailyRollup r")
+    Long findTotalLearningDuration();
+
+    /**
+     * 获取平台今日总学习时长
+     */
+    @Query("SELECT SUM(r.totalDuration) FROM LearningDailyRollup r WHERE r.statDate = CURRENT_DATE")
+    Long findTodayLearningDuration();
+
+    /**
+     * 统计日期范围内有学习记录的不同用户数量
+     */
+    @Query("SELECT COUNT(DISTINCT r.userId) FROM LearningDailyRollup r WHERE r.statDate BETWEEN :startDate AND :endDate")
+    Long countUniqueUsersByDateRange(@Param("startDate") LocalDate startDate, @Param("endDate") LocalDate endDate);
+
+    /**
+     * 获取平台按活动类型分组的学习统计
+     */
+    @Query("SELECT r.activityType, SUM(r.totalDuration) as totalDuration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "GROUP BY r.activityType")
+    List<Object[]> findLearningStatsByActivityType();
+
+    /**
+     * 获取平台每日学习统计
+     * 返回日期、总时长和活动次数，按日期升序
+     */
+    @Query("SELECT r.statDate as date, SUM(r.totalDuration) as duration, SUM(r.activityCount) as count " +
+           "FROM LearningDailyRollup r " +
+           "WHERE r.statDate BETWEEN :startDate AND :endDate " +
+           "GROUP BY r.statDate " +
+           "ORDER BY r.statDate ASC")
+    List<Object[]> findDailyLearningStats(
+            @Param("startDate") LocalDate startDate,
+            @Param("endDate") LocalDate endDate);
+}
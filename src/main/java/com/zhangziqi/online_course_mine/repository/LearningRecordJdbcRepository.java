@@ -0,0 +1,280 @@
+package com.zhangziqi.online_course_mine.repository;
+
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 学习记录JDBC数据访问
+ * 主键使用IDENTITY策略时Hibernate无法批量插入，大批量写入学习记录时直接使用JDBC批处理；
+ * 同时负责增量维护学习记录日汇总表和登记已处理的学习事件
+ */
+@Repository
+@RequiredArgsConstructor
+public class LearningRecordJdbcRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO learning_records " +
+            "(user_id, course_id, chapter_id, section_id, activity_type, activity_start_time, " +
+            "activity_end_time, duration_seconds, context_data, aggregate_key, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * 把一批聚合结果累加到已有的聚合记录：时长相加，起止时间取最早和最晚，
+     * 章节、小节和上下文取本批的非空值
+     */
+    private static final String MERGE_SQL = "UPDATE learning_records SET " +
+            "duration_seconds = COALESCE(duration_seconds, 0) + ?, " +
+            "activity_start_time = LEAST(activity_start_time, ?), " +
+            "activity_end_time = GREATEST(COALESCE(activity_end_time, ?), ?), " +
+            "chapter_id = COALESCE(?, chapter_id), section_id = COALESCE(?, section_id), " +
+            "context_data = COALESCE(?, context_data), updated_at = ? " +
+            "WHERE aggregate_key = ?";
+
+    private static final String STREAM_ENTRY_INSERT_SQL = "INSERT INTO learning_stream_entries " +
+            "(entry_id, processed_at) VALUES (?, ?)";
+
+    /**
+     * 日汇总累加语句，机构ID从课程表中取得
+     */
+    private static final String UPSERT_ROLLUP_SQL = "INSERT INTO learning_daily_rollups " +
+            "(stat_date, institution_id, course_id, user_id, activity_type, total_duration, activity_count, " +
+            "created_at, updated_at) " +
+            "SELECT ?, c.institution_id, c.id, ?, ?, ?, ?, ?, ? FROM courses c WHERE c.id = ? " +
+            "ON DUPLICATE KEY UPDATE total_duration = total_duration + VALUES(total_duration), " +
+            "activity_count = activity_count + VALUES(activity_count), updated_at = VALUES(updated_at)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 批量插入学习记录
+     * 只使用关联实体的ID，不会触发关联实体的加载
+     *
+     * @param records 学习记录
+     * @return 插入的记录数
+     */
+    public int batchInsert(List<LearningRecord> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT_SQL, records, records.size(), (ps, record) -> {
+            ps.setLong(1, record.getUserId());
+            ps.setLong(2, record.getCourseId());
+            setNullableLong(ps, 3, record.getChapterId());
+            setNullableLong(ps, 4, record.getSectionId());
+            ps.setString(5, record.getActivityType());
+            ps.setTimestamp(6, Timestamp.valueOf(record.getActivityStartTime()));
+            ps.setTimestamp(7, record.getActivityEndTime() != null
+                    ? Timestamp.valueOf(record.getActivityEndTime()) : null);
+            if (record.getDurationSeconds() != null) {
+                ps.setInt(8, record.getDurationSeconds());
+            } else {
+                ps.setNull(8, Types.INTEGER);
+            }
+            ps.setString(9, record.getContextData());
+            ps.setString(10, record.getAggregateKey());
+            ps.setTimestamp(11, now);
+            ps.setTimestamp(12, now);
+        });
+
+        return records.size();
+    }
+
+    /**
+     * 写入按聚合键汇总的学习记录
+     * 聚合键已有记录时累加到该记录，否则插入新记录；按聚合键排序后写入，使并发批次以相同顺序加锁。
+     * 并发插入同一聚合键时后提交的事务因唯一约束失败回滚，由调用方重试后累加
+     *
+     * @param records 设置了聚合键的学习记录，同一批次内聚合键不重复
+     * @return 累加到已有记录的学习记录（按对象标识）
+     */
+    public Set<LearningRecord> mergeAggregated(List<LearningRecord> records) {
+        Set<LearningRecord> merged = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (records.isEmpty()) {
+            return merged;
+        }
+
+        List<LearningRecord> sorted = new ArrayList<>(records);
+        sorted.sort(Comparator.comparing(LearningRecord::getAggregateKey));
+        Set<String> existing = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT aggregate_key FROM learning_records WHERE aggregate_key IN (" +
+                        String.join(", ", Collections.nCopies(sorted.size(), "?")) + ")",
+                String.class, sorted.stream().map(LearningRecord::getAggregateKey).toArray()));
+
+        List<LearningRecord> inserts = new ArrayList<>();
+        for (LearningRecord record : sorted) {
+            if (existing.contains(record.getAggregateKey())) {
+                merged.add(record);
+            } else {
+                inserts.add(record);
+            }
+        }
+
+        if (!merged.isEmpty()) {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            List<LearningRecord> updates = sorted.stream().filter(merged::contains).toList();
+            jdbcTemplate.batchUpdate(MERGE_SQL, updates, updates.size(), (ps, record) -> {
+                ps.setInt(1, record.getDurationSeconds() != null ? record.getDurationSeconds() : 0);
+                ps.setTimestamp(2, Timestamp.valueOf(record.getActivityStartTime()));
+                Timestamp endTime = Timestamp.valueOf(record.getActivityEndTime() != null
+                        ? record.getActivityEndTime() : record.getActivityStartTime());
+                ps.setTimestamp(3, endTime);
+                ps.setTimestamp(4, endTime);
+                setNullableLong(ps, 5, record.getChapterId());
+                setNullableLong(ps, 6, record.getSectionId());
+                ps.setString(7, record.getContextData());
+                ps.setTimestamp(8, now);
+                ps.setString(9, record.getAggregateKey());
+            });
+        }
+        batchInsert(inserts);
+        return merged;
+    }
+
+    /**
+     * 查询已处理过的事件流条目
+     *
+     * @param entryIds 事件流条目ID
+     * @return 其中已处理的条目ID
+     */
+    public Set<String> findProcessedStreamEntries(List<String> entryIds) {
+        if (entryIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT entry_id FROM learning_stream_entries WHERE entry_id IN (" +
+                        String.join(", ", Collections.nCopies(entryIds.size(), "?")) + ")",
+                String.class, entryIds.toArray()));
+    }
+
+    /**
+     * 登记已处理的事件流条目，应与对应的学习记录处于同一事务中
+     * 条目已被其他消费者登记时因主键冲突失败，整个事务回滚
+     */
+    public void insertProcessedStreamEntries(List<String> entryIds) {
+        if (entryIds.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(STREAM_ENTRY_INSERT_SQL, entryIds, entryIds.size(), (ps, entryId) -> {
+            ps.setString(1, entryId);
+            ps.setTimestamp(2, now);
+        });
+    }
+
+    /**
+     * 删除处理时间早于截止时间的事件流条目登记
+     *
+     * @return 删除的行数
+     */
+    public int deleteProcessedStreamEntriesBefore(LocalDateTime cutoff, int limit) {
+        return jdbcTemplate.update("DELETE FROM learning_stream_entries WHERE processed_at < ? LIMIT ?",
+                Timestamp.valueOf(cutoff), limit);
+    }
+
+    /**
+     * 把学习记录累加到日汇总表，每条记录计为一次活动
+     */
+    public int upsertDailyRollups(List<LearningRecord> records) {
+        return upsertDailyRollups(records, Collections.emptySet());
+    }
+
+    /**
+     * 把学习记录累加到日汇总表
+     * 先在内存中按汇总键合并，并按键排序后写入，使并发批次以相同顺序加锁，避免死锁；
+     * 应与学习记录的写入处于同一事务中
+     *
+     * @param records 已结束（有持续时长）的学习记录
+     * @param merged 累加到已有学习记录的记录，只累加时长，不计活动次数
+     * @return 累加的汇总行数
+     */
+    public int upsertDailyRollups(List<LearningRecord> records, Set<LearningRecord> merged) {
+        Map<RollupKey, long[]> rollups = new TreeMap<>();
+        for (LearningRecord record : records) {
+            if (record.getDurationSeconds() == null || record.getActivityStartTime() == null) {
+                continue;
+            }
+            RollupKey key = new RollupKey(record.getActivityStartTime().toLocalDate(), record.getCourseId(),
+                    record.getUserId(), record.getActivityType());
+            long[] totals = rollups.computeIfAbsent(key, k -> new long[2]);
+            totals[0] += record.getDurationSeconds();
+            if (!merged.contains(record)) {
+                totals[1]++;
+            }
+        }
+        if (rollups.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Map.Entry<RollupKey, long[]>> rows = new ArrayList<>(rollups.entrySet());
+        jdbcTemplate.batchUpdate(UPSERT_ROLLUP_SQL, rows, rows.size(), (ps, row) -> {
+            RollupKey key = row.getKey();
+            ps.setDate(1, Date.valueOf(key.date));
+            ps.setLong(2, key.userId);
+            ps.setString(3, key.activityType);
+            ps.setLong(4, row.getValue()[0]);
+            ps.setLong(5, row.getValue()[1]);
+            ps.setTimestamp(6, now);
+            ps.setTimestamp(7, now);
+            ps.setLong(8, key.courseId);
+        });
+
+        return rows.size();
+    }
+
+    private static void setNullableLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if (value != null) {
+            ps.setLong(index, value);
+        } else {
+            ps.setNull(index, Types.BIGINT);
+        }
+    }
+
+    /**
+     * 日汇总键，机构由课程决定
+     */
+    private static final class RollupKey implements Comparable<RollupKey> {
+
+        private static final Comparator<RollupKey> ORDER = Comparator.<RollupKey, LocalDate>comparing(k -> k.date)
+                .thenComparing(k -> k.courseId)
+                .thenComparing(k -> k.userId)
+                .thenComparing(k -> k.activityType);
+
+        private final LocalDate date;
+        private final Long courseId;
+        private final Long userId;
+        private final String activityType;
+
+        private RollupKey(LocalDate date, Long courseId, Long userId, String activityType) {
+            this.date = date;
+            this.courseId = courseId;
+            this.userId = userId;
+            this.activityType = activityType;
+        }
+
+        @Override
+        public int compareTo(RollupKey other) {
+            return ORDER.compare(this, other);
+        }
+    }
+}
@@ -530,4 +530,11 @@ public interface LearningRecordRepository extends JpaRepository<LearningRecord,
            "JOIN Course c ON c.institution.id = i.id " +
            "GROUP BY i.id, i.name, i.logo")
     List<Object[]> findInstitutionCourseDistribution();
-}
\ No newline at end of file
+
+    /**
+     * 获取平台学习人数
+     * 包括只有进行中活动的用户，因此直接统计学习记录而不是日汇总
+     */
+    @Query("SELECT COUNT(DISTINCT lr.user.id) FROM LearningRecord lr")
+    Long countUniqueUsers();
+}
@@ -5,6 +5,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -29,6 +30,34 @@ public interface OrderRepository extends JpaRepository<Order, Long>, JpaSpecific
      */
     Optional<Order> findByTradeNo(String tradeNo);
 
+    /**
+     * 订单仍处于指定状态时标记为已支付
+     * 并发的重复通知中只有一个能更新成功
+     *
+     * @return 更新的行数，为0表示订单不存在或已不是指定状态
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Order o SET o.status = :paidStatus, o.tradeNo = :tradeNo, o.paidAt = :paidAt, " +
+           "o.updatedAt = :paidAt WHERE o.orderNo = :orderNo AND o.status = :expectedStatus")
+    int markPaidIfStatus(@Param("orderNo") String orderNo,
+                         @Param("tradeNo") String tradeNo,
+                         @Param("paidAt") LocalDateTime paidAt,
+                         @Param("expectedStatus") Integer expectedStatus,
+                         @Param("paidStatus") Integer paidStatus);
+
+    /**
+     * 订单仍处于指定状态时更新为目标状态
+     *
+     * @return 更新的行数，为0表示订单不存在或已不是指定状态
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Order o SET o.status = :targetStatus, o.updatedAt = :now " +
+           "WHERE o.orderNo = :orderNo AND o.status = :expectedStatus")
+    int updateStatusIfCurrent(@Param("orderNo") String orderNo,
+                              @Param("expectedStatus") Integer expectedStatus,
+                              @Param("targetStatus") Integer targetStatus,
+                              @Param("now") LocalDateTime now);
+
     /**
      * 根据用户ID查询所有订单
      */
@@ -64,6 +93,11 @@ public interface OrderRepository extends JpaRepository<Order, Long>, JpaSpecific
      */
     List<Order> findByStatus(Integer status);
 
+    /**
+     * 按ID顺序分批查询指定状态的订单，从上一批的最大ID之后开始
+     */
+    List<Order> findByStatusAndIdGreaterThanOrderByIdAsc(Integer status, Long id, Pageable pageable);
+
     /**
      * 分页查询订单状态
      */
@@ -190,4 +224,25 @@ public interface OrderRepository extends JpaRepository<Order, Long>, JpaSpecific
      */
     List<Order> findByCreatedAtBetween(
             LocalDateTime startTime, LocalDateTime endTime);
+
+    /**
+     * 按状态统计机构订单数
+     * 返回订单状态和订单数
+     */
+    @Query("SELECT o.status, COUNT(o) FROM Order o WHERE o.institution.id = :institutionId GROUP BY o.status")
+    List<Object[]> countByInstitutionGroupByStatus(@Param("institutionId") Long institutionId);
+
+    /**
+     * 按状态统计全平台订单数
+     * 返回订单状态和订单数
+     */
+    @Query("SELECT o.status, COUNT(o) FROM Order o GROUP BY o.status")
+    List<Object[]> countGroupByStatus();
+
+    /**
+     * 按机构和状态统计订单数，用于校准订单状态计数器
+     * 返回机构ID、订单状态和订单数
+     */
+    @Query("SELECT o.institution.id, o.status, COUNT(o) FROM Order o GROUP BY o.institution.id, o.status")
+    List<Object[]> countGroupByInstitutionAndStatus();
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package com.zhangziqi.online_course_mine.repository;
+
+import com.zhangziqi.online_course_mine.model.entity.PaymentNotifyInbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 支付通知收件箱数据访问接口
+ */
+@Repository
+public interface PaymentNotifyInboxRepository extends JpaRepository<PaymentNotifyInbox, Long> {
+
+    /**
+     * 保存通知，相同交易号和交易状态的通知已存在时忽略
+     *
+     * @return 插入的行数，重复通知为0
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO payment_notify_inbox " +
+            "(trade_no, trade_status, out_trade_no, payload, status, attempts, next_attempt_at, created_at, updated_at) " +
+            "VALUES (:tradeNo, :tradeStatus, :outTradeNo, :payload, :status, 0, :now, :now, :now)",
+            nativeQuery = true)
+    int insertIgnore(@Param("tradeNo") String tradeNo,
+                     @Param("tradeStatus") String tradeStatus,
+                     @Param("outTradeNo") String outTradeNo,
+                     @Param("payload") String payload,
+                     @Param("status") int status,
+                     @Param("now") LocalDateTime now);
+
+    /**
+     * 根据交易号和交易状态查询通知ID
+     */
+    @Query("SELECT i.id FROM PaymentNotifyInbox i WHERE i.tradeNo = :tradeNo AND i.tradeStatus = :tradeStatus")
+    Optional<Long> findIdByTradeNoAndTradeStatus(@Param("tradeNo") String tradeNo,
+                                                 @Param("tradeStatus") String tradeStatus);
+
+    /**
+     * 查询到期待处理的通知ID
+     */
+    @Query("SELECT i.id FROM PaymentNotifyInbox i " +
+           "WHERE i.status IN :statuses AND i.nextAttemptAt <= :now ORDER BY i.nextAttemptAt")
+    List<Long> findDueIds(@Param("statuses") Collection<Integer> statuses,
+                          @Param("now") LocalDateTime now,
+                          Pageable pageable);
+
+    /**
+     * 领取通知：只有处于待处理状态且已到期的通知才能领取，领取后到期时间推迟到租约结束
+     *
+     * @return 更新的行数，为0表示已被其他线程领取或已处理完成
+     */
+    @Modifying
+    @Query("UPDATE PaymentNotifyInbox i SET i.attempts = i.attempts + 1, i.nextAttemptAt = :leaseUntil, " +
+           "i.updatedAt = :now WHERE i.id = :id AND i.status IN :statuses AND i.nextAttemptAt <= :now")
+    int claim(@Param("id") Long id,
+              @Param("statuses") Collection<Integer> statuses,
+              @Param("now") LocalDateTime now,
+              @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    /**
+     * 更新处理状态
+     */
+    @Modifying
+    @Query("UPDATE PaymentNotifyInbox i SET i.status = :status, i.lastError = :lastError, " +
+           "i.nextAttemptAt = :nextAttemptAt, i.updatedAt = :now WHERE i.id = :id")
+    int updateStatus(@Param("id") Long id,
+                     @Param("status") int status,
+                     @Param("lastError") String lastError,
+                     @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                     @Param("now") LocalDateTime now);
+}
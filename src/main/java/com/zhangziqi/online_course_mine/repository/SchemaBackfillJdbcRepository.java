@@ -0,0 +1,83 @@
+package com.zhangziqi.online_course_mine.repository;
+
+import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * 数据回填JDBC数据访问
+ * 用源表的全量统计覆盖增量维护的统计表；覆盖而不是累加，回填之前已经增量写入的部分不会重复计算
+ */
+@Repository
+@RequiredArgsConstructor
+public class SchemaBackfillJdbcRepository {
+
+    private static final String CLAIM_SQL = "INSERT IGNORE INTO schema_backfills (name, completed_at) VALUES (?, ?)";
+
+    private static final String LEARNING_ROLLUP_SQL = "INSERT INTO learning_daily_rollups " +
+            "(stat_date, institution_id, course_id, user_id, activity_type, total_duration, activity_count, " +
+            "created_at, updated_at) " +
+            "SELECT DATE(lr.activity_start_time), c.institution_id, lr.course_id, lr.user_id, lr.activity_type, " +
+            "SUM(lr.duration_seconds), COUNT(lr.id), ?, ? " +
+            "FROM learning_records lr JOIN courses c ON c.id = lr.course_id " +
+            "WHERE lr.duration_seconds IS NOT NULL " +
+            "GROUP BY DATE(lr.activity_start_time), c.institution_id, lr.course_id, lr.user_id, lr.activity_type " +
+            "ON DUPLICATE KEY UPDATE total_duration = VALUES(total_duration), " +
+            "activity_count = VALUES(activity_count), updated_at = VALUES(updated_at)";
+
+    private static final String INCOME_LEDGER_INCOME_SQL = "INSERT INTO institution_income_ledger " +
+            "(stat_date, institution_id, course_id, income, refund, paid_count, refund_count, created_at, updated_at) " +
+            "SELECT DATE(o.paid_at), o.institution_id, o.course_id, SUM(o.amount), 0, COUNT(o.id), 0, ?, ? " +
+            "FROM orders o WHERE o.status IN (?, ?) AND o.paid_at IS NOT NULL " +
+            "GROUP BY DATE(o.paid_at), o.institution_id, o.course_id " +
+            "ON DUPLICATE KEY UPDATE income = VALUES(income), paid_count = VALUES(paid_count), " +
+            "updated_at = VALUES(updated_at)";
+
+    private static final String INCOME_LEDGER_REFUND_SQL = "INSERT INTO institution_income_ledger " +
+            "(stat_date, institution_id, course_id, income, refund, paid_count, refund_count, created_at, updated_at) " +
+            "SELECT DATE(o.refunded_at), o.institution_id, o.course_id, 0, SUM(o.refund_amount), 0, COUNT(o.id), ?, ? " +
+            "FROM orders o WHERE o.status = ? AND o.refunded_at IS NOT NULL AND o.refund_amount IS NOT NULL " +
+            "GROUP BY DATE(o.refunded_at), o.institution_id, o.course_id " +
+            "ON DUPLICATE KEY UPDATE refund = VALUES(refund), refund_count = VALUES(refund_count), " +
+            "updated_at = VALUES(updated_at)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 登记回填
+     * 其他实例正在同一回填的事务中时等待其结束；应与回填处于同一事务中，回填失败时登记一起回滚
+     *
+     * @param name 回填名称
+     * @return 是否由本次登记，已经登记过时返回false
+     */
+    public boolean claim(String name) {
+        return jdbcTemplate.update(CLAIM_SQL, name, Timestamp.valueOf(LocalDateTime.now())) == 1;
+    }
+
+    /**
+     * 用学习记录回填学习记录日汇总表
+     *
+     * @return 影响的行数
+     */
+    public int backfillLearningDailyRollups() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        return jdbcTemplate.update(LEARNING_ROLLUP_SQL, now, now);
+    }
+
+    /**
+     * 用订单回填机构收入台账的收入和退款
+     * 收入计入已支付和申请退款状态的订单，退款计入已退款状态的订单，与增量维护的口径一致
+     *
+     * @return 影响的行数
+     */
+    public int backfillInstitutionIncomeLedger() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        return jdbcTemplate.update(INCOME_LEDGER_INCOME_SQL, now, now,
+                OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue())
+                + jdbcTemplate.update(INCOME_LEDGER_REFUND_SQL, now, now, OrderStatus.REFUNDED.getValue());
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -63,4 +64,13 @@ public interface SectionRepository extends JpaRepository<Section, Long> {
      */
     @Query("SELECT s FROM Section s JOIN s.chapter c WHERE c.course.id = :courseId ORDER BY c.orderIndex, s.orderIndex")
     List<Section> findByCourseIdOrderByChapterOrderIndexAndOrderIndexAsc(@Param("courseId") Long courseId);
-} 
\ No newline at end of file
+
+    /**
+     * 查询给定ID中实际存在的小节ID
+     *
+     * @param ids 小节ID集合
+     * @return 存在的小节ID列表
+     */
+    @Query("SELECT s.id FROM Section s WHERE s.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+}
\ No newline at end of file
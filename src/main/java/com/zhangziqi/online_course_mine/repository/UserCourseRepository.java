@@ -4,10 +4,13 @@ import com.zhangziqi.online_course_mine.model.entity.UserCourse;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -136,6 +139,38 @@ public interface UserCourseRepository extends JpaRepository<UserCourse, Long> {
      */
     boolean existsByUser_IdAndCourse_IdAndStatus(Long userId, Long courseId, Integer status);
 
+    /**
+     * 查找用户处于指定状态且尚未到期的课程ID
+     */
+    @Query("SELECT uc.course.id FROM UserCourse uc WHERE uc.user.id = :userId AND uc.status = :status " +
+           "AND (uc.expireAt IS NULL OR uc.expireAt > :now)")
+    List<Long> findUnexpiredCourseIdsByUserIdAndStatus(@Param("userId") Long userId,
+                                                      @Param("status") Integer status,
+                                                      @Param("now") LocalDateTime now);
+
+    /**
+     * 查找处于指定状态但已到期的关联记录
+     *
+     * @return [关联记录ID, 用户ID]，按关联记录ID排序
+     */
+    @Query("SELECT uc.id, uc.user.id FROM UserCourse uc WHERE uc.status = :status AND uc.expireAt <= :now " +
+           "ORDER BY uc.id")
+    List<Object[]> findLapsedByStatus(@Param("status") Integer status, @Param("now") LocalDateTime now,
+                                      Pageable pageable);
+
+    /**
+     * 仅当关联记录仍处于指定状态时更新状态
+     *
+     * @return 更新的行数，已被其他线程更新的记录不计入
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE UserCourse uc SET uc.status = :targetStatus, uc.updatedAt = :now " +
+           "WHERE uc.id IN :ids AND uc.status = :expectedStatus")
+    int updateStatusIfCurrent(@Param("ids") Collection<Long> ids,
+                              @Param("expectedStatus") Integer expectedStatus,
+                              @Param("targetStatus") Integer targetStatus,
+                              @Param("now") LocalDateTime now);
+
     /**
      * 分页查询用户的已购课程
      */
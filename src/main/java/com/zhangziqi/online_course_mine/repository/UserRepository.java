@@ -10,6 +10,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -235,4 +236,13 @@ public interface UserRepository extends JpaRepository<User, Long>, JpaSpecificat
     List<Object[]> countUserActivityByDateRange(
             @Param("startDate") LocalDateTime startDate,
             @Param("endDate") LocalDateTime endDate);
+
+    /**
+     * 查询给定ID中实际存在的用户ID
+     *
+     * @param ids 用户ID集合
+     * @return 存在的用户ID列表
+     */
+    @Query("SELECT u.id FROM User u WHERE u.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
 }
\ No newline at end of file
@@ -110,6 +110,16 @@ public interface AdminLearningStatisticsService {
      */
     Long getTotalLearnerCount();
 
+    /**
+     * 获取平台在日期范围内的学习人数
+     * 近期范围使用HyperLogLog合并估计，标准误差约0.81%
+     *
+     * @param startDate 开始日期
+     * @param endDate 结束日期
+     * @return 学习人数
+     */
+    Long getLearnerCount(LocalDate startDate, LocalDate endDate);
+
     /**
      * 获取平台活动类型统计
      *
@@ -130,20 +140,22 @@ public interface AdminLearningStatisticsService {
      * 获取机构学习统计排行
      *
      * @param sortBy 排序字段(studentCount/courseCount/totalDuration/activityCount)
+     * @param window 时间范围(day/week/all)，按学生数、课程数排序时只支持all
      * @param limit 数量限制
      * @return 机构学习统计排行列表
      */
-    List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> getInstitutionRanking(String sortBy, Integer limit);
+    List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> getInstitutionRanking(String sortBy, String window, Integer limit);
 
     /**
      * 获取课程学习统计排行
      *
      * @param sortBy 排序字段(learnerCount/totalDuration/activityCount/favoriteCount)
      * @param institutionId 机构ID（可选）
+     * @param window 时间范围(day/week/all)，按学习人数、完成人数排序时只支持all
      * @param limit 数量限制
      * @return 课程学习统计排行列表
      */
-    List<InstitutionLearningStatisticsVO.CourseStatisticsVO> getCourseRanking(String sortBy, Long institutionId, Integer limit);
+    List<InstitutionLearningStatisticsVO.CourseStatisticsVO> getCourseRanking(String sortBy, Long institutionId, String window, Integer limit);
 
     /**
      * 获取机构课程占比统计
@@ -41,6 +41,15 @@ public interface LearningRecordService {
      */
     LearningRecordVO recordCompletedActivity(Long userId, LearningRecordCompletedDTO dto);
 
+    /**
+     * 批量记录已完成的学习活动
+     * 用于离线缓存的客户端重连后一次性上报，每个条目单独返回处理结果
+     * @param userId 用户ID
+     * @param dtos 已完成学习活动DTO列表
+     * @return 批量处理结果
+     */
+    LearningRecordBatchResultVO recordCompletedActivities(Long userId, List<LearningRecordCompletedDTO> dtos);
+
     /**
      * 查找用户当前进行中的活动
      * @param userId 用户ID
@@ -67,6 +67,15 @@ public interface OrderService {
      */
     OrderVO cancelOrder(Long id, Long userId);
 
+    /**
+     * 关闭超时未支付的订单
+     * 订单不存在或已不是待支付状态时不做处理，可以重复调用
+     *
+     * @param orderNo 订单号
+     * @return 是否关闭了订单
+     */
+    boolean closeTimeoutOrder(String orderNo);
+
     /**
      * 申请退款
      *
@@ -0,0 +1,48 @@
+package com.zhangziqi.online_course_mine.service;
+
+import com.zhangziqi.online_course_mine.model.enums.ExportFormat;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * 统计报表导出服务接口
+ * 查询结果逐行写入响应输出流，不在内存中构建完整结果
+ */
+public interface StatisticsExportService {
+
+    /**
+     * 导出机构所有课程的学习统计
+     *
+     * @param institutionId 机构ID
+     * @param format 导出格式
+     * @param response HTTP响应
+     * @throws IOException 如果输出流写入失败
+     */
+    void exportCourseStatistics(Long institutionId, ExportFormat format, HttpServletResponse response) throws IOException;
+
+    /**
+     * 导出课程中所有学生的学习统计
+     *
+     * @param institutionId 机构ID
+     * @param courseId 课程ID
+     * @param format 导出格式
+     * @param response HTTP响应
+     * @throws IOException 如果输出流写入失败
+     */
+    void exportCourseStudentStatistics(Long institutionId, Long courseId, ExportFormat format,
+                                       HttpServletResponse response) throws IOException;
+
+    /**
+     * 导出机构收入趋势
+     *
+     * @param institutionId 机构ID
+     * @param timeRange 时间范围：7d、30d、90d
+     * @param groupBy 分组方式：day、week、month
+     * @param format 导出格式
+     * @param response HTTP响应
+     * @throws IOException 如果输出流写入失败
+     */
+    void exportIncomeTrend(Long institutionId, String timeRange, String groupBy, ExportFormat format,
+                           HttpServletResponse response) throws IOException;
+}
@@ -131,6 +131,14 @@ public interface UserCourseService {
      * @return 更新后的用户课程关系
      */
     UserCourse updateUserCourseRefunded(Long orderId);
+
+    /**
+     * 把已到期的正常状态课程改为已过期，并清除对应用户的课程权限缓存
+     *
+     * @param limit 本次最多处理的数量
+     * @return 改为已过期的数量
+     */
+    int expireLapsedCourses(int limit);
     
     /**
      * 根据订单ID查找用户课程关系
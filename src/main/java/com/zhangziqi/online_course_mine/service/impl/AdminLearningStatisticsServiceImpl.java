@@ -1,10 +1,10 @@
 package com.zhangziqi.online_course_mine.service.impl;
 
 import com.zhangziqi.online_course_mine.config.CacheConfig;
+import com.zhangziqi.online_course_mine.exception.BusinessException;
 import com.zhangziqi.online_course_mine.exception.ResourceNotFoundException;
 import com.zhangziqi.online_course_mine.model.entity.Course;
-import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
-import com.zhangziqi.online_course_mine.model.enums.CourseStatus;
+import com.zhangziqi.online_course_mine.model.entity.Institution;
 import com.zhangziqi.online_course_mine.model.enums.LearningActivityType;
 import com.zhangziqi.online_course_mine.model.vo.ActivityTypeStatVO;
 import com.zhangziqi.online_course_mine.model.vo.DailyLearningStatVO;
@@ -12,7 +12,9 @@ import com.zhangziqi.online_course_mine.model.vo.InstitutionLearningStatisticsVO
 import com.zhangziqi.online_course_mine.model.vo.LearningHeatmapVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningProgressTrendVO;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.CourseStatisticsJdbcRepository;
 import com.zhangziqi.online_course_mine.repository.InstitutionRepository;
+import com.zhangziqi.online_course_mine.repository.LearningDailyRollupRepository;
 import com.zhangziqi.online_course_mine.repository.LearningRecordRepository;
 import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
@@ -26,9 +28,11 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -37,6 +41,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 /**
@@ -49,176 +54,36 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
 
     private final CourseRepository courseRepository;
     private final LearningRecordRepository learningRecordRepository;
+    private final LearningDailyRollupRepository learningDailyRollupRepository;
+    private final CourseStatisticsJdbcRepository courseStatisticsJdbcRepository;
     private final UserCourseRepository userCourseRepository;
     private final UserRepository userRepository;
     private final InstitutionRepository institutionRepository;
     private final InstitutionLearningStatisticsService institutionLearningStatisticsService;
+    private final LearnerSketchService learnerSketchService;
+    private final LearningAnalyticsSnapshot learningAnalyticsSnapshot;
+    private final LearningLeaderboardService learningLeaderboardService;
+    private final LearningHeatmapService learningHeatmapService;
 
     @Override
     @Transactional(readOnly = true)
-    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'all_course_stats_page_' + #pageable.pageNumber + '_size_' + #pageable.pageSize")
+    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'all_course_stats_page_' + #pageable.pageNumber + '_size_' + #pageable.pageSize + '_sort_' + #pageable.sort")
     public Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> getAllCourseStatistics(Pageable pageable) {
-        log.info("获取所有课程学习统计, 页码: {}, 每页数量: {}",
-                pageable.getPageNumber(), pageable.getPageSize());
+        log.info("获取所有课程学习统计, 页码: {}, 每页数量: {}, 排序: {}",
+                pageable.getPageNumber(), pageable.getPageSize(), pageable.getSort());
 
-        // 获取所有课程
-        List<Course> courses = courseRepository.findAll();
-
-        if (courses.isEmpty()) {
-            return Page.empty(pageable);
-        }
-
-        // 获取所有课程ID
-        List<Long> courseIds = courses.stream()
-                .map(Course::getId)
-                .collect(Collectors.toList());
-
-        // 课程ID与课程映射
-        Map<Long, Course> courseMap = courses.stream()
-                .collect(Collectors.toMap(Course::getId, course -> course));
-
-        // 构建课程统计列表
-        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> allCourseStats = new ArrayList<>();
-
-        for (Long courseId : courseIds) {
-            Course course = courseMap.get(courseId);
-
-            // 查询课程学习时长
-            Long totalDuration = learningRecordRepository.findTotalLearningDurationByCourse(courseId);
-
-            // 查询课程学习活动次数
-            Integer activityCount = 0;
-            // 使用findByCourseIdAndTimeRange方法代替不存在的findByCourse_Id方法
-            // 使用一个足够大的时间范围来获取所有记录
-            LocalDateTime startTime = LocalDateTime.of(2000, 1, 1, 0, 0);
-            LocalDateTime endTime = LocalDateTime.now().plusYears(1);
-            List<LearningRecord> records = learningRecordRepository.findByCourseIdAndTimeRange(courseId, startTime, endTime);
-            if (!records.isEmpty()) {
-                activityCount = records.size();
-            }
-
-            // 查询课程学习人数
-            List<Object[]> learnerCountQuery = userCourseRepository.countLearnersByCourseId(courseId);
-            Long learnerCount = learnerCountQuery.isEmpty() ? 0L :
-                    (learnerCountQuery.get(0)[0] instanceof Number ? ((Number) learnerCountQuery.get(0)[0]).longValue() : 0L);
-
-            // 查询完成人数
-            Long completionCount = userCourseRepository.countByProgress(courseId, 100);
-
-            // 计算平均进度
-            Double averageProgress = userCourseRepository.getAverageProgressByCourseId(courseId);
-            if (averageProgress == null) {
-                averageProgress = 0.0;
-            }
-
-            InstitutionLearningStatisticsVO.CourseStatisticsVO stat =
-                    InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
-                    .courseId(courseId)
-                    .courseTitle(course.getTitle())
-                    .totalDuration(totalDuration != null ? totalDuration : 0L)
-                    .activityCount(activityCount)
-                    .learnerCount(learnerCount)
-                    .completionCount(completionCount != null ? completionCount : 0L)
-                    .averageProgress(averageProgress)
-                    .build();
-
-            allCourseStats.add(stat);
-        }
-
-        // 分页处理
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), allCourseStats.size());
-
-        if (start > allCourseStats.size()) {
-            return Page.empty(pageable);
-        }
-
-        // 使用 new ArrayList<> 创建一个新的列表，而不是使用 subList
-        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> pagedResults =
-                new ArrayList<>(allCourseStats.subList(start, end));
-
-        return new PageImpl<>(pagedResults, pageable, allCourseStats.size());
+        // 在数据库中分组统计并分页，未指定排序时按课程ID排序
+        return courseStatisticsJdbcRepository.findCourseStatistics(null, false, pageable);
     }
 
     @Override
     @Transactional(readOnly = true)
-    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'institution_course_stats_' + #institutionId + '_page_' + #pageable.pageNumber + '_size_' + #pageable.pageSize")
+    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'institution_course_stats_' + #institutionId + '_page_' + #pageable.pageNumber + '_size_' + #pageable.pageSize + '_sort_' + #pageable.sort")
     public Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> getInstitutionCourseStatistics(Long institutionId, Pageable pageable) {
-        log.info("获取机构课程学习统计, 机构ID: {}, 页码: {}, 每页数量: {}",
-                institutionId, pageable.getPageNumber(), pageable.getPageSize());
-
-        // 获取机构课程
-        // 使用查询所有课程然后过滤的方式代替不存在的findByInstitutionId方法
-        List<Course> courses = courseRepository.findAll().stream()
-                .filter(course -> course.getInstitutionId() != null && course.getInstitutionId().equals(institutionId))
-                .collect(Collectors.toList());
-
-        if (courses.isEmpty()) {
-            return Page.empty(pageable);
-        }
-
-        // 直接使用课程列表，不需要创建映射
-
-        // 构建课程统计列表
-        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> allCourseStats = new ArrayList<>();
-
-        for (Course course : courses) {
-            Long courseId = course.getId();
-
-            // 查询课程学习时长
-            Long totalDuration = learningRecordRepository.findTotalLearningDurationByCourse(courseId);
-
-            // 查询课程学习活动次数
-            Integer activityCount = 0;
-            // 使用findByCourseIdAndTimeRange方法代替不存在的findByCourse_Id方法
-            LocalDateTime startTime = LocalDateTime.of(2000, 1, 1, 0, 0);
-            LocalDateTime endTime = LocalDateTime.now().plusYears(1);
-            List<LearningRecord> records = learningRecordRepository.findByCourseIdAndTimeRange(courseId, startTime, endTime);
-            if (!records.isEmpty()) {
-                activityCount = records.size();
-            }
-
-            // 查询课程学习人数
-            List<Object[]> learnerCountQuery = userCourseRepository.countLearnersByCourseId(courseId);
-            Long learnerCount = learnerCountQuery.isEmpty() ? 0L :
-                    (learnerCountQuery.get(0)[0] instanceof Number ? ((Number) learnerCountQuery.get(0)[0]).longValue() : 0L);
-
-            // 查询完成人数
-            Long completionCount = userCourseRepository.countByProgress(courseId, 100);
-
-            // 计算平均进度
-            Double averageProgress = userCourseRepository.getAverageProgressByCourseId(courseId);
-            if (averageProgress == null) {
-                averageProgress = 0.0;
-            }
-
-            InstitutionLearningStatisticsVO.CourseStatisticsVO stat =
-                    InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
-                    .courseId(courseId)
-                    .courseTitle(course.getTitle())
-                    .totalDuration(totalDuration != null ? totalDuration : 0L)
-                    .activityCount(activityCount)
-                    .learnerCount(learnerCount)
-                    .completionCount(completionCount != null ? completionCount : 0L)
-                    .averageProgress(averageProgress)
-                    .build();
-
-            allCourseStats.add(stat);
-        }
+        log.info("获取机构课程学习统计, 机构ID: {}, 页码: {}, 每页数量: {}, 排序: {}",
+                institutionId, pageable.getPageNumber(), pageable.getPageSize(), pageable.getSort());
 
-        // 分页处理
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), allCourseStats.size());
-
-        if (start > allCourseStats.size()) {
-            return Page.empty(pageable);
-        }
-
-        // 使用 new ArrayList<> 创建一个新的列表，而不是使用 subList
-        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> pagedResults =
-                new ArrayList<>(allCourseStats.subList(start, end));
-
-        return new PageImpl<>(pagedResults, pageable, allCourseStats.size());
+        return courseStatisticsJdbcRepository.findCourseStatistics(institutionId, false, pageable);
     }
 
     @Override
@@ -232,17 +97,11 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
                 .orElseThrow(() -> new ResourceNotFoundException("课程不存在"));
 
         // 查询课程学习时长
-        Long totalDuration = learningRecordRepository.findTotalLearningDurationByCourse(courseId);
+        Long totalDuration = learningDailyRollupRepository.findTotalLearningDurationByCourse(courseId);
 
         // 查询课程学习活动次数
-        Integer activityCount = 0;
-        // 使用findByCourseIdAndTimeRange方法代替不存在的findByCourse_Id方法
-        LocalDateTime startTime = LocalDateTime.of(2000, 1, 1, 0, 0);
-        LocalDateTime endTime = LocalDateTime.now().plusYears(1);
-        List<LearningRecord> records = learningRecordRepository.findByCourseIdAndTimeRange(courseId, startTime, endTime);
-        if (!records.isEmpty()) {
-            activityCount = records.size();
-        }
+        Long activityCountNum = learningDailyRollupRepository.countActivitiesByCourse(courseId);
+        Integer activityCount = activityCountNum != null ? activityCountNum.intValue() : 0;
 
         // 查询课程学习人数
         List<Object[]> learnerCountQuery = userCourseRepository.countLearnersByCourseId(courseId);
@@ -281,15 +140,12 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
         courseRepository.findById(courseId)
                 .orElseThrow(() -> new ResourceNotFoundException("课程不存在"));
 
-        LocalDateTime startDateTime = startDate.atStartOfDay();
-        LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
-
-        List<Object[]> results = learningRecordRepository.findDailyLearningStatsByCourseId(
-                courseId, startDateTime, endDateTime);
+        List<Object[]> results = learningDailyRollupRepository.findDailyLearningStatsByCourseId(
+                courseId, startDate, endDate);
 
         List<DailyLearningStatVO> stats = new ArrayList<>();
         for (Object[] result : results) {
-            String date = (String) result[0];
+            String date = String.valueOf(result[0]);
             Long duration = result[1] != null ? ((Number) result[1]).longValue() : 0L;
             Integer count = result[2] != null ? ((Number) result[2]).intValue() : 0;
 
@@ -313,7 +169,7 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
         courseRepository.findById(courseId)
                 .orElseThrow(() -> new ResourceNotFoundException("课程不存在"));
 
-        List<Object[]> results = learningRecordRepository.findLearningStatsByActivityTypeForCourse(courseId);
+        List<Object[]> results = learningDailyRollupRepository.findLearningStatsByActivityTypeForCourse(courseId);
 
         List<ActivityTypeStatVO> stats = new ArrayList<>();
         for (Object[] result : results) {
@@ -371,8 +227,8 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
         }
 
         // 创建分页返回对象
-        long total = learningRecordRepository.countUniqueUsersByCourse(courseId);
-        return new PageImpl<>(studentLearningList, pageable, total);
+        Long total = learningDailyRollupRepository.countUniqueUsersByCourse(courseId);
+        return new PageImpl<>(studentLearningList, pageable, total != null ? total : 0L);
     }
 
     @Override
@@ -460,40 +316,30 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
 
     @Override
     @Transactional(readOnly = true)
-    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'total_learning_duration'")
     public Long getTotalLearningDuration() {
         log.info("获取平台总学习时长");
 
-        // 查询所有学习记录的总时长
-        Long totalDuration = learningRecordRepository.findAll().stream()
-                .filter(lr -> lr.getDurationSeconds() != null)
-                .mapToLong(LearningRecord::getDurationSeconds)
-                .sum();
-
-        return totalDuration;
+        Optional<long[]> totals = learningAnalyticsSnapshot.totals(null, null);
+        if (totals.isPresent()) {
+            return totals.get()[0];
+        }
+        // 快照尚未加载时从日汇总表求和
+        Long totalDuration = learningDailyRollupRepository.findTotalLearningDuration();
+        return totalDuration != null ? totalDuration : 0L;
     }
 
     @Override
     @Transactional(readOnly = true)
-    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'today_learning_duration'")
     public Long getTodayLearningDuration() {
         log.info("获取平台今日学习时长");
 
-        // 获取今天的开始和结束时间
         LocalDate today = LocalDate.now();
-        LocalDateTime startOfDay = today.atStartOfDay();
-        LocalDateTime endOfDay = today.atTime(LocalTime.MAX);
-
-        // 查询今日学习记录的总时长
-        Long todayDuration = learningRecordRepository.findAll().stream()
-                .filter(lr -> lr.getActivityStartTime() != null &&
-                        lr.getActivityStartTime().isAfter(startOfDay) &&
-                        lr.getActivityStartTime().isBefore(endOfDay) &&
-                        lr.getDurationSeconds() != null)
-                .mapToLong(LearningRecord::getDurationSeconds)
-                .sum();
-
-        return todayDuration;
+        Optional<long[]> totals = learningAnalyticsSnapshot.totals(today, today);
+        if (totals.isPresent()) {
+            return totals.get()[0];
+        }
+        Long todayDuration = learningDailyRollupRepository.findTodayLearningDuration();
+        return todayDuration != null ? todayDuration : 0L;
     }
 
     @Override
@@ -502,37 +348,45 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
     public Long getTotalLearnerCount() {
         log.info("获取平台学习人数");
 
-        // 查询所有有学习记录的用户数量
-        Long learnerCount = learningRecordRepository.findAll().stream()
-                .map(LearningRecord::getUserId)
-                .distinct()
-                .count();
+        // 优先使用HyperLogLog估计值，尚未就绪时在数据库中统计有学习记录的不同用户数量
+        Optional<Long> estimate = learnerSketchService.count(LearnerSketchService.Scope.PLATFORM, null);
+        if (estimate.isPresent()) {
+            return estimate.get();
+        }
+        Long learnerCount = learningRecordRepository.countUniqueUsers();
+        return learnerCount != null ? learnerCount : 0L;
+    }
 
-        return learnerCount;
+    @Override
+    @Transactional(readOnly = true)
+    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'learner_count_' + #startDate + '_' + #endDate")
+    public Long getLearnerCount(LocalDate startDate, LocalDate endDate) {
+        log.info("获取平台学习人数, 开始日期: {}, 结束日期: {}", startDate, endDate);
+
+        // 合并范围内每天的HyperLogLog，超出保留期时回退到日汇总表
+        Optional<Long> estimate = learnerSketchService.count(LearnerSketchService.Scope.PLATFORM, null, startDate, endDate);
+        if (estimate.isPresent()) {
+            return estimate.get();
+        }
+        Long learnerCount = learningDailyRollupRepository.countUniqueUsersByDateRange(startDate, endDate);
+        return learnerCount != null ? learnerCount : 0L;
     }
 
     @Override
     @Transactional(readOnly = true)
-    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'all_activity_type_stats'")
     public List<ActivityTypeStatVO> getAllActivityTypeStats() {
         log.info("获取平台活动类型统计");
 
-        // 按活动类型分组统计学习时长和活动次数
-        Map<String, List<LearningRecord>> recordsByType = learningRecordRepository.findAll().stream()
-                .filter(lr -> lr.getActivityType() != null && lr.getDurationSeconds() != null)
-                .collect(Collectors.groupingBy(LearningRecord::getActivityType));
+        // 按活动类型分组统计学习时长和活动次数，快照尚未加载时查询日汇总表
+        List<Object[]> results = learningAnalyticsSnapshot.byActivityType()
+                .map(AdminLearningStatisticsServiceImpl::toRows)
+                .orElseGet(learningDailyRollupRepository::findLearningStatsByActivityType);
 
         List<ActivityTypeStatVO> stats = new ArrayList<>();
-
-        for (Map.Entry<String, List<LearningRecord>> entry : recordsByType.entrySet()) {
-            String activityType = entry.getKey();
-            List<LearningRecord> records = entry.getValue();
-
-            Long totalDuration = records.stream()
-                    .mapToLong(LearningRecord::getDurationSeconds)
-                    .sum();
-
-            Integer count = records.size();
+        for (Object[] result : results) {
+            String activityType = (String) result[0];
+            Long duration = result[1] != null ? ((Number) result[1]).longValue() : 0L;
+            Integer count = result[2] != null ? ((Number) result[2]).intValue() : 0;
 
             LearningActivityType type = LearningActivityType.getByCode(activityType);
             String description = type != null ? type.getDescription() : activityType;
@@ -540,7 +394,7 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
             stats.add(ActivityTypeStatVO.builder()
                     .activityType(activityType)
                     .activityTypeDescription(description)
-                    .totalDurationSeconds(totalDuration)
+                    .totalDurationSeconds(duration)
                     .activityCount(count)
                     .build());
         }
@@ -550,37 +404,19 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
 
     @Override
     @Transactional(readOnly = true)
-    @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'all_daily_stats_' + #startDate + '_' + #endDate")
     public List<DailyLearningStatVO> getAllDailyLearningStats(LocalDate startDate, LocalDate endDate) {
         log.info("获取平台每日学习统计, 开始日期: {}, 结束日期: {}", startDate, endDate);
 
-        LocalDateTime startDateTime = startDate.atStartOfDay();
-        LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
-
-        // 获取指定时间范围内的所有学习记录
-        List<LearningRecord> records = learningRecordRepository.findAll().stream()
-                .filter(lr -> lr.getActivityStartTime() != null &&
-                        lr.getActivityStartTime().isAfter(startDateTime) &&
-                        lr.getActivityStartTime().isBefore(endDateTime) &&
-                        lr.getDurationSeconds() != null)
-                .collect(Collectors.toList());
-
-        // 按日期分组
-        Map<String, List<LearningRecord>> recordsByDate = records.stream()
-                .collect(Collectors.groupingBy(lr ->
-                        lr.getActivityStartTime().toLocalDate().toString()));
+        // 按日期分组统计，结果已按日期升序
+        List<Object[]> results = learningAnalyticsSnapshot.byDay(startDate, endDate)
+                .map(AdminLearningStatisticsServiceImpl::toRows)
+                .orElseGet(() -> learningDailyRollupRepository.findDailyLearningStats(startDate, endDate));
 
         List<DailyLearningStatVO> stats = new ArrayList<>();
-
-        for (Map.Entry<String, List<LearningRecord>> entry : recordsByDate.entrySet()) {
-            String date = entry.getKey();
-            List<LearningRecord> dailyRecords = entry.getValue();
-
-            Long duration = dailyRecords.stream()
-                    .mapToLong(LearningRecord::getDurationSeconds)
-                    .sum();
-
-            Integer count = dailyRecords.size();
+        for (Object[] result : results) {
+            String date = String.valueOf(result[0]);
+            Long duration = result[1] != null ? ((Number) result[1]).longValue() : 0L;
+            Integer count = result[2] != null ? ((Number) result[2]).intValue() : 0;
 
             stats.add(DailyLearningStatVO.builder()
                     .date(date)
@@ -589,21 +425,42 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
                     .build());
         }
 
-        // 按日期排序
-        stats.sort((a, b) -> a.getDate().compareTo(b.getDate()));
-
         return stats;
     }
 
+    /**
+     * 按学习时长和活动次数排序时直接读取排行榜；学生数和课程数为排行榜在该窗口内的成员数量。
+     * 按学生数、课程数排序或排行榜尚未就绪时扫描学习分析快照，快照也未加载时在数据库中统计累计数据
+     */
     @Override
     @Transactional(readOnly = true)
-    // 暂时禁用缓存，以解决 ArrayList$SubList 序列化问题
-    // @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'institution_ranking_' + #sortBy + '_' + #limit")
-    public List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> getInstitutionRanking(String sortBy, Integer limit) {
-        log.info("获取机构学习统计排行, 排序字段: {}, 数量限制: {}", sortBy, limit);
+    public List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> getInstitutionRanking(
+            String sortBy, String window, Integer limit) {
+        log.info("获取机构学习统计排行, 排序字段: {}, 时间范围: {}, 数量限制: {}", sortBy, window, limit);
+
+        LearningLeaderboardService.Window rankWindow = LearningLeaderboardService.Window.of(window);
+        boolean leaderboardSortable = !"studentCount".equals(sortBy) && !"courseCount".equals(sortBy);
+        if (leaderboardSortable) {
+            LearningLeaderboardService.Metric metric = "activityCount".equals(sortBy)
+                    ? LearningLeaderboardService.Metric.ACTIVITIES : LearningLeaderboardService.Metric.DURATION;
+            Optional<List<LearningLeaderboardService.RankEntry>> top = learningLeaderboardService.top(
+                    LearningLeaderboardService.Board.PLATFORM_INSTITUTIONS, null, metric, rankWindow, limit);
+            if (top.isPresent()) {
+                return toInstitutionRanking(top.get(), rankWindow);
+            }
+        }
 
-        // 获取所有机构
-        List<Object[]> institutionData = learningRecordRepository.findInstitutionStatistics();
+        // 在分析快照中按机构分组，快照尚未加载时只能在数据库中统计累计数据
+        LocalDate today = LocalDate.now();
+        LocalDate windowStart = rankWindow == LearningLeaderboardService.Window.DAY ? today
+                : rankWindow == LearningLeaderboardService.Window.WEEK ? today.with(DayOfWeek.MONDAY) : null;
+        List<Object[]> institutionData = learningAnalyticsSnapshot
+                .byInstitution(windowStart, windowStart != null ? today : null)
+                .map(this::toInstitutionRows)
+                .orElseGet(() -> {
+                    requireAllTime(rankWindow);
+                    return learningDailyRollupRepository.findInstitutionStatistics();
+                });
 
         List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> institutionStats = new ArrayList<>();
 
@@ -646,115 +503,155 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
 
         // 限制数量
         if (institutionStats.size() > limit) {
-            // 使用 new ArrayList<> 创建一个新的列表，而不是使用 subList
-            // 这样可以避免 ArrayList$SubList 序列化问题
             return new ArrayList<>(institutionStats.subList(0, limit));
         }
 
         return institutionStats;
     }
 
+    /**
+     * 按学习时长和活动次数排序时从排行榜取前limit门课程，再补全课程的学习人数、完成人数等统计；
+     * 时长和次数使用排行榜在该窗口内的值
+     */
     @Override
     @Transactional(readOnly = true)
-    // 暂时禁用缓存，以解决 ArrayList$SubList 序列化问题
-    // @Cacheable(value = CacheConfig.ADMIN_STATS_CACHE, key = "'course_ranking_' + #sortBy + '_' + #institutionId + '_' + #limit")
-    public List<InstitutionLearningStatisticsVO.CourseStatisticsVO> getCourseRanking(String sortBy, Long institutionId, Integer limit) {
-        log.info("获取课程学习统计排行, 排序字段: {}, 机构ID: {}, 数量限制: {}", sortBy, institutionId, limit);
-
-        // 获取课程列表 - 只获取已发布的课程
-        List<Course> courses;
-        if (institutionId != null) {
-            // 获取指定机构的已发布课程
-            Pageable unpaged = Pageable.unpaged(); // 不分页，获取所有结果
-            Page<Course> coursePage = courseRepository.findByInstitutionIdAndStatusAndIsPublishedVersion(
-                    institutionId,
-                    CourseStatus.PUBLISHED.getValue(),
-                    true,
-                    unpaged);
-            courses = coursePage.getContent();
-        } else {
-            // 获取所有已发布课程
-            Pageable unpaged = Pageable.unpaged(); // 不分页，获取所有结果
-            Page<Course> coursePage = courseRepository.findByStatusAndIsPublishedVersion(
-                    CourseStatus.PUBLISHED.getValue(),
-                    true,
-                    unpaged);
-            courses = coursePage.getContent();
-        }
+    public List<InstitutionLearningStatisticsVO.CourseStatisticsVO> getCourseRanking(
+            String sortBy, Long institutionId, String window, Integer limit) {
+        log.info("获取课程学习统计排行, 排序字段: {}, 机构ID: {}, 时间范围: {}, 数量限制: {}",
+                sortBy, institutionId, window, limit);
 
-        if (courses.isEmpty()) {
-            return new ArrayList<>();
-        }
-
-        // 构建课程统计列表
-        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> courseStats = new ArrayList<>();
-
-        for (Course course : courses) {
-            Long courseId = course.getId();
-
-            // 查询课程学习时长
-            Long totalDuration = learningRecordRepository.findTotalLearningDurationByCourse(courseId);
-
-            // 查询课程学习活动次数
-            Integer activityCount = 0;
-            LocalDateTime startTime = LocalDateTime.of(2000, 1, 1, 0, 0);
-            LocalDateTime endTime = LocalDateTime.now().plusYears(1);
-            List<LearningRecord> records = learningRecordRepository.findByCourseIdAndTimeRange(courseId, startTime, endTime);
-            if (!records.isEmpty()) {
-                activityCount = records.size();
-            }
-
-            // 查询课程学习人数
-            List<Object[]> learnerCountQuery = userCourseRepository.countLearnersByCourseId(courseId);
-            Long learnerCount = learnerCountQuery.isEmpty() ? 0L :
-                    (learnerCountQuery.get(0)[0] instanceof Number ? ((Number) learnerCountQuery.get(0)[0]).longValue() : 0L);
-
-            // 查询完成人数
-            Long completionCount = userCourseRepository.countByProgress(courseId, 100);
-
-            // 计算平均进度
-            Double averageProgress = userCourseRepository.getAverageProgressByCourseId(courseId);
-            if (averageProgress == null) {
-                averageProgress = 0.0;
-            }
-
-            courseStats.add(InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
-                    .courseId(courseId)
-                    .courseTitle(course.getTitle())
-                    .totalDuration(totalDuration != null ? totalDuration : 0L)
-                    .activityCount(activityCount)
-                    .learnerCount(learnerCount)
-                    .completionCount(completionCount != null ? completionCount : 0L)
-                    .averageProgress(averageProgress)
-                    .build());
-        }
+        LearningLeaderboardService.Window rankWindow = LearningLeaderboardService.Window.of(window);
 
         // 根据排序字段排序
+        String sortProperty;
         switch (sortBy) {
             case "learnerCount":
-                courseStats.sort((a, b) -> b.getLearnerCount().compareTo(a.getLearnerCount()));
+                sortProperty = "learnerCount";
                 break;
             case "activityCount":
-                courseStats.sort((a, b) -> b.getActivityCount().compareTo(a.getActivityCount()));
+                sortProperty = "activityCount";
                 break;
             case "favoriteCount":
                 // 注意：CourseStatisticsVO中没有favoriteCount字段，这里使用完成人数代替
-                courseStats.sort((a, b) -> b.getCompletionCount().compareTo(a.getCompletionCount()));
+                sortProperty = "completionCount";
                 break;
             case "totalDuration":
             default:
-                courseStats.sort((a, b) -> b.getTotalDuration().compareTo(a.getTotalDuration()));
+                sortProperty = "totalDuration";
                 break;
         }
 
-        // 限制数量
-        if (courseStats.size() > limit) {
-            // 使用 new ArrayList<> 创建一个新的列表，而不是使用 subList
-            // 这样可以避免 ArrayList$SubList 序列化问题
-            return new ArrayList<>(courseStats.subList(0, limit));
+        if ("totalDuration".equals(sortProperty) || "activityCount".equals(sortProperty)) {
+            LearningLeaderboardService.Metric metric = "activityCount".equals(sortProperty)
+                    ? LearningLeaderboardService.Metric.ACTIVITIES : LearningLeaderboardService.Metric.DURATION;
+            LearningLeaderboardService.Board board = institutionId != null
+                    ? LearningLeaderboardService.Board.INSTITUTION_COURSES
+                    : LearningLeaderboardService.Board.PLATFORM_COURSES;
+            // 多取一些，已下线的课程会被过滤
+            Optional<List<LearningLeaderboardService.RankEntry>> top = learningLeaderboardService.top(
+                    board, institutionId, metric, rankWindow, limit * 2);
+            if (top.isPresent()) {
+                return toCourseRanking(top.get(), limit);
+            }
         }
+        requireAllTime(rankWindow);
+
+        // 只统计已发布的课程，在数据库中排序并取前limit条
+        Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> page = courseStatisticsJdbcRepository.findCourseStatistics(
+                institutionId, true, PageRequest.of(0, limit, Sort.by(Sort.Direction.DESC, sortProperty)));
 
-        return courseStats;
+        return new ArrayList<>(page.getContent());
+    }
+
+    /**
+     * 把快照的分组结果转换为与日汇总查询相同的行：分组键、学习时长、活动次数
+     */
+    private static <K> List<Object[]> toRows(Map<K, long[]> groups) {
+        List<Object[]> rows = new ArrayList<>(groups.size());
+        groups.forEach((key, totals) -> rows.add(new Object[]{key, totals[0], totals[1]}));
+        return rows;
+    }
+
+    /**
+     * 把快照的机构统计转换为与findInstitutionStatistics相同的行，已删除的机构不参与排行
+     */
+    private List<Object[]> toInstitutionRows(List<LearningAnalyticsSnapshot.InstitutionTotals> totals) {
+        Map<Long, Institution> institutions = new HashMap<>();
+        institutionRepository.findAllById(totals.stream()
+                        .map(LearningAnalyticsSnapshot.InstitutionTotals::getInstitutionId)
+                        .collect(Collectors.toList()))
+                .forEach(institution -> institutions.put(institution.getId(), institution));
+
+        List<Object[]> rows = new ArrayList<>(totals.size());
+        for (LearningAnalyticsSnapshot.InstitutionTotals total : totals) {
+            Institution institution = institutions.get(total.getInstitutionId());
+            if (institution != null) {
+                rows.add(new Object[]{institution.getId(), institution.getName(), institution.getLogo(),
+                        total.getLearnerCount(), total.getCourseCount(), total.getDuration(), total.getActivityCount()});
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 数据库统计只支持累计数据
+     */
+    private void requireAllTime(LearningLeaderboardService.Window window) {
+        if (window != LearningLeaderboardService.Window.ALL) {
+            throw new BusinessException(400, "该排序字段或当前状态下只支持全部时间范围的排行");
+        }
+    }
+
+    private List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> toInstitutionRanking(
+            List<LearningLeaderboardService.RankEntry> entries, LearningLeaderboardService.Window window) {
+        List<Long> ids = entries.stream().map(LearningLeaderboardService.RankEntry::getId).collect(Collectors.toList());
+        Map<Long, Institution> institutions = new HashMap<>();
+        institutionRepository.findAllById(ids).forEach(institution -> institutions.put(institution.getId(), institution));
+
+        List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> ranking = new ArrayList<>();
+        for (LearningLeaderboardService.RankEntry entry : entries) {
+            Institution institution = institutions.get(entry.getId());
+            if (institution == null) {
+                continue;
+            }
+            long studentCount = learningLeaderboardService.size(
+                    LearningLeaderboardService.Board.INSTITUTION_USERS, entry.getId(), window).orElse(0L);
+            long courseCount = learningLeaderboardService.size(
+                    LearningLeaderboardService.Board.INSTITUTION_COURSES, entry.getId(), window).orElse(0L);
+            ranking.add(InstitutionLearningStatisticsVO.InstitutionStatisticsVO.builder()
+                    .institutionId(institution.getId())
+                    .institutionName(institution.getName())
+                    .logo(institution.getLogo())
+                    .studentCount(studentCount)
+                    .courseCount((int) courseCount)
+                    .totalDuration(entry.getDuration())
+                    .activityCount((int) entry.getActivityCount())
+                    .build());
+        }
+        return ranking;
+    }
+
+    private List<InstitutionLearningStatisticsVO.CourseStatisticsVO> toCourseRanking(
+            List<LearningLeaderboardService.RankEntry> entries, int limit) {
+        List<Long> ids = entries.stream().map(LearningLeaderboardService.RankEntry::getId).collect(Collectors.toList());
+        Map<Long, InstitutionLearningStatisticsVO.CourseStatisticsVO> statistics = new HashMap<>();
+        courseStatisticsJdbcRepository.findCourseStatisticsByIds(ids, true)
+                .forEach(stat -> statistics.put(stat.getCourseId(), stat));
+
+        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> ranking = new ArrayList<>();
+        for (LearningLeaderboardService.RankEntry entry : entries) {
+            InstitutionLearningStatisticsVO.CourseStatisticsVO stat = statistics.get(entry.getId());
+            if (stat == null) {
+                continue;
+            }
+            stat.setTotalDuration(entry.getDuration());
+            stat.setActivityCount((int) entry.getActivityCount());
+            ranking.add(stat);
+            if (ranking.size() >= limit) {
+                break;
+            }
+        }
+        return ranking;
     }
 
     @Override
@@ -815,9 +712,11 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
         LocalDateTime startDateTime = startDate.atStartOfDay();
         LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
 
-        // 查询用户课程热力图数据
-        List<Object[]> results = learningRecordRepository.findLearningHeatmapDataByUserAndCourse(
-                userId, courseId, startDateTime, endDateTime);
+        // 查询用户课程热力图数据，Redis中的热力图计数尚未就绪时查询学习记录
+        List<Object[]> results = learningHeatmapService.getCourseHourOfWeek(userId, courseId, startDate, endDate)
+                .map(LearningHeatmapService::toHourOfWeekRows)
+                .orElseGet(() -> learningRecordRepository.findLearningHeatmapDataByUserAndCourse(
+                        userId, courseId, startDateTime, endDateTime));
 
         // 处理查询结果
         Map<Integer, Map<Integer, Integer>> heatmapData = new HashMap<>();
@@ -858,15 +757,12 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
         institutionRepository.findById(institutionId)
                 .orElseThrow(() -> new ResourceNotFoundException("机构不存在"));
 
-        LocalDateTime startDateTime = startDate.atStartOfDay();
-        LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
-
-        List<Object[]> results = learningRecordRepository.findDailyLearningStatsByInstitutionId(
-                institutionId, startDateTime, endDateTime);
+        List<Object[]> results = learningDailyRollupRepository.findDailyLearningStatsByInstitutionId(
+                institutionId, startDate, endDate);
 
         List<DailyLearningStatVO> stats = new ArrayList<>();
         for (Object[] result : results) {
-            String date = (String) result[0];
+            String date = String.valueOf(result[0]);
             Long duration = result[1] != null ? ((Number) result[1]).longValue() : 0L;
             Integer count = result[2] != null ? ((Number) result[2]).intValue() : 0;
 
@@ -892,10 +788,10 @@ public class AdminLearningStatisticsServiceImpl implements AdminLearningStatisti
         institutionRepository.findById(institutionId)
                 .orElseThrow(() -> new ResourceNotFoundException("机构不存在"));
 
-        List<Object[]> results = learningRecordRepository.findLearningStatsByActivityTypeForInstitution(institutionId);
+        List<Object[]> results = learningDailyRollupRepository.findLearningStatsByActivityTypeForInstitution(institutionId);
 
         // 计算总学习时长（用于计算百分比）
-        Number totalDurationNum = learningRecordRepository.findTotalLearningDurationByInstitution(institutionId);
+        Number totalDurationNum = learningDailyRollupRepository.findTotalLearningDurationByInstitution(institutionId);
         Long totalDuration = totalDurationNum != null ? totalDurationNum.longValue() : 0L;
 
         List<ActivityTypeStatVO> stats = new ArrayList<>();
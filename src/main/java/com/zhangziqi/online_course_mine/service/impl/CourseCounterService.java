@@ -0,0 +1,165 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.repository.CourseCounterJdbcRepository;
+import com.zhangziqi.online_course_mine.repository.CourseCounterJdbcRepository.CounterDelta;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 课程计数服务
+ * 学员数和评分（整数总分与评分人数）的变化写入课程的随机分片，写入方只锁一个分片行，
+ * 不加载课程实体，也不会与课程的乐观锁版本冲突；定期把分片上的增量合并到课程行。
+ * 课程行上的计数列不随实体保存写入，只由合并更新；需要准确值的读取在课程行的基础上加上未合并的增量
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CourseCounterService {
+
+    private final CourseCounterJdbcRepository courseCounterJdbcRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    // 每门课程的分片数
+    @Value("${course.counter.shards:8}")
+    private int shards = 8;
+
+    // 每次合并的课程数
+    @Value("${course.counter.fold-batch-size:200}")
+    private int foldBatchSize = 200;
+
+    /**
+     * 增减学员数，在调用方的事务中写入
+     *
+     * @param courseId 课程ID
+     * @param delta 增量，退款时为负数
+     */
+    public void addStudents(Long courseId, int delta) {
+        accumulate(courseId, new CounterDelta(delta, 0, 0));
+    }
+
+    /**
+     * 新增一个评分
+     *
+     * @param courseId 课程ID
+     * @param rating 评分（1-5）
+     */
+    public void addRating(Long courseId, int rating) {
+        accumulate(courseId, new CounterDelta(0, rating, 1));
+    }
+
+    /**
+     * 修改一个已有的评分，评分人数不变
+     *
+     * @param courseId 课程ID
+     * @param oldRating 原评分
+     * @param newRating 新评分
+     */
+    public void changeRating(Long courseId, int oldRating, int newRating) {
+        if (oldRating == newRating) {
+            return;
+        }
+        accumulate(courseId, new CounterDelta(0, newRating - oldRating, 0));
+    }
+
+    /**
+     * 在课程实体上加上尚未合并的增量并重新计算平均分
+     * 计数列不随实体保存写入，修改后的值只用于本次读取
+     *
+     * @param course 课程
+     */
+    public void applyPending(Course course) {
+        if (course == null || course.getId() == null) {
+            return;
+        }
+        try {
+            CounterDelta pending = courseCounterJdbcRepository.sumPending(List.of(course.getId()))
+                    .getOrDefault(course.getId(), CounterDelta.ZERO);
+            long students = Math.max(0L, value(course.getStudentCount()) + pending.students());
+            long ratingSum = mergedRatingSum(course) + pending.ratingSum();
+            long ratingCount = value(course.getRatingCount()) + pending.ratingCount();
+
+            course.setStudentCount((int) students);
+            course.setRatingSum(ratingSum);
+            course.setRatingCount((int) ratingCount);
+            course.setAverageRating(ratingCount > 0 ? (float) ratingSum / ratingCount : null);
+        } catch (Exception e) {
+            // 读取失败时使用课程行上已合并的值
+            log.warn("读取课程未合并的计数失败, 课程ID: {}", course.getId(), e);
+        }
+    }
+
+    /**
+     * 定期把分片上的增量合并到课程行
+     */
+    @Scheduled(fixedDelayString = "${course.counter.fold-interval-ms:10000}")
+    public void fold() {
+        try {
+            List<Long> courseIds;
+            do {
+                courseIds = courseCounterJdbcRepository.findPendingCourseIds(foldBatchSize);
+                for (Long courseId : courseIds) {
+                    foldCourse(courseId);
+                }
+            } while (courseIds.size() >= foldBatchSize);
+        } catch (Exception e) {
+            log.warn("合并课程计数失败", e);
+        }
+    }
+
+    /**
+     * 合并一门课程的增量
+     * 逐个分片合并：每个分片在单独的事务中锁定、累加到课程行并删除，同一时刻只锁一个分片行，
+     * 写入其他分片的事务不受影响；合并期间写入同一分片的事务等待锁释放后重新插入分片行
+     *
+     * @param courseId 课程ID
+     */
+    public void foldCourse(Long courseId) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        for (Integer shard : courseCounterJdbcRepository.findShards(courseId)) {
+            transactionTemplate.executeWithoutResult(status -> foldShard(courseId, shard));
+        }
+    }
+
+    private void foldShard(Long courseId, int shard) {
+        CounterDelta delta = courseCounterJdbcRepository.lockShard(courseId, shard);
+        if (delta == null) {
+            return;
+        }
+        if (!delta.isZero()) {
+            courseCounterJdbcRepository.applyToCourse(courseId, delta);
+        }
+        courseCounterJdbcRepository.deleteShard(courseId, shard);
+        log.debug("合并课程计数, 课程ID: {}, 分片: {}, 学员数: {}, 评分总分: {}, 评分人数: {}",
+                courseId, shard, delta.students(), delta.ratingSum(), delta.ratingCount());
+    }
+
+    private void accumulate(Long courseId, CounterDelta delta) {
+        courseCounterJdbcRepository.accumulate(courseId, ThreadLocalRandom.current().nextInt(shards), delta);
+    }
+
+    /**
+     * 课程行上已合并的评分总分
+     * 与合并语句一致：评分总分列添加之前已有评分的课程，总分为0时用平均分和评分人数推算
+     */
+    private static long mergedRatingSum(Course course) {
+        long ratingSum = value(course.getRatingSum());
+        long ratingCount = value(course.getRatingCount());
+        if (ratingSum == 0 && ratingCount > 0 && course.getAverageRating() != null) {
+            return Math.round(course.getAverageRating() * ratingCount);
+        }
+        return ratingSum;
+    }
+
+    private static long value(Number number) {
+        return number != null ? number.longValue() : 0L;
+    }
+}
@@ -0,0 +1,243 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
+import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
+import com.zhangziqi.online_course_mine.utils.TransactionUtil;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 课程权限缓存
+ * 缓存每个用户处于正常状态（已购买、未退款、未过期）的课程ID集合：
+ * 一级缓存在本地内存，二级缓存在Redis，都未命中时查询数据库；
+ * 用户课程关系变更时在事务提交后删除Redis缓存，并通过频道通知所有实例清除本地缓存。
+ * 每个用户有一个失效版本号，失效时递增；查询数据库前读取版本号，写入Redis时版本号已变化则放弃写入，
+ * 避免查询期间发生的失效被查询到的旧数据覆盖
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CourseEntitlementCache implements MessageListener {
+
+    // Redis缓存键前缀，后接用户ID
+    private static final String ENTITLEMENT_KEY_PREFIX = "entitlement:courses:";
+
+    // 失效版本号键前缀，后接用户ID
+    private static final String GENERATION_KEY_PREFIX = "entitlement:generation:";
+
+    // 本地缓存失效通知频道
+    private static final String INVALIDATE_CHANNEL = "entitlement:invalidate";
+
+    // 没有任何课程的用户也写入缓存，使用不会出现的课程ID占位
+    private static final String EMPTY_MARKER = "0";
+
+    /**
+     * 写入脚本
+     * KEYS: 缓存键、版本号键；ARGV: 查询前读取的版本号、过期秒数、课程ID...
+     * 版本号未变化时覆盖缓存，返回是否写入
+     */
+    private static final RedisScript<Long> SAVE_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('GET', KEYS[2]) or '0') ~= ARGV[1] then return 0 end " +
+            "redis.call('DEL', KEYS[1]) " +
+            "redis.call('SADD', KEYS[1], unpack(ARGV, 3)) " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[2]) " +
+            "return 1",
+            Long.class);
+
+    private final UserCourseRepository userCourseRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final Map<Long, LocalEntry> localCache = new ConcurrentHashMap<>();
+
+    // 本地缓存过期时间（秒），失效通知丢失时的兜底
+    @Value("${entitlement.cache.local-ttl-seconds:60}")
+    private long localTtlSeconds = 60;
+
+    // 本地缓存最多保存的用户数
+    @Value("${entitlement.cache.local-max-size:10000}")
+    private int localMaxSize = 10000;
+
+    // Redis缓存过期时间（分钟）
+    @Value("${entitlement.cache.redis-ttl-minutes:30}")
+    private long redisTtlMinutes = 30;
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 检查用户是否拥有课程的学习权限
+     */
+    public boolean hasEntitlement(Long userId, Long courseId) {
+        return getEntitledCourseIds(userId).contains(courseId);
+    }
+
+    /**
+     * 获取用户拥有学习权限的课程ID
+     */
+    public Set<Long> getEntitledCourseIds(Long userId) {
+        long now = System.currentTimeMillis();
+        LocalEntry entry = localCache.get(userId);
+        if (entry != null && entry.expiresAt > now) {
+            return entry.courseIds;
+        }
+
+        Set<Long> courseIds = loadFromRedis(userId);
+        if (courseIds == null) {
+            String generation = readGeneration(userId);
+            courseIds = Collections.unmodifiableSet(new HashSet<>(userCourseRepository.findUnexpiredCourseIdsByUserIdAndStatus(
+                    userId, UserCourseStatus.NORMAL.getValue(), LocalDateTime.now())));
+            // 查询期间已失效时查询结果可能是旧数据，只用于本次判断，不写入任何缓存
+            if (generation != null && !saveToRedis(userId, generation, courseIds)) {
+                return courseIds;
+            }
+        }
+
+        if (localCache.size() >= localMaxSize) {
+            localCache.values().removeIf(e -> e.expiresAt <= now);
+            if (localCache.size() >= localMaxSize) {
+                localCache.clear();
+            }
+        }
+        localCache.put(userId, new LocalEntry(courseIds, now + TimeUnit.SECONDS.toMillis(localTtlSeconds)));
+        return courseIds;
+    }
+
+    /**
+     * 用户课程关系变更后清除缓存
+     * 在事务中调用时推迟到提交之后，避免并发读取把旧数据重新写入缓存
+     */
+    public void invalidate(Long userId) {
+        TransactionUtil.afterCommit(() -> evict(userId));
+    }
+
+    /**
+     * 接收其他实例的失效通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            localCache.remove(Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8)));
+        } catch (NumberFormatException e) {
+            log.warn("无效的课程权限缓存失效通知: {}", message);
+        }
+    }
+
+    private void evict(Long userId) {
+        localCache.remove(userId);
+        try {
+            String generationKey = generationKey(userId);
+            stringRedisTemplate.executePipelined(new SessionCallback<List<Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public List<Object> execute(RedisOperations operations) {
+                    // 先递增版本号再删除缓存，正在查询数据库的读取方不会再写入
+                    operations.opsForValue().increment(generationKey);
+                    operations.expire(generationKey, redisTtlMinutes, TimeUnit.MINUTES);
+                    operations.delete(entitlementKey(userId));
+                    return null;
+                }
+            });
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, userId.toString());
+        } catch (Exception e) {
+            log.error("清除课程权限缓存失败, 用户ID: {}", userId, e);
+        }
+    }
+
+    private Set<Long> loadFromRedis(Long userId) {
+        try {
+            Set<String> members = stringRedisTemplate.opsForSet().members(entitlementKey(userId));
+            if (members == null || members.isEmpty()) {
+                return null;
+            }
+            return Collections.unmodifiableSet(members.stream()
+                    .filter(member -> !EMPTY_MARKER.equals(member))
+                    .map(Long::valueOf)
+                    .collect(Collectors.toSet()));
+        } catch (Exception e) {
+            log.warn("读取课程权限缓存失败, 用户ID: {}", userId, e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取用户的失效版本号，从未失效过时为"0"，Redis不可用时为null
+     */
+    private String readGeneration(Long userId) {
+        try {
+            String generation = stringRedisTemplate.opsForValue().get(generationKey(userId));
+            return generation != null ? generation : "0";
+        } catch (Exception e) {
+            log.warn("读取课程权限缓存版本失败, 用户ID: {}", userId, e);
+            return null;
+        }
+    }
+
+    /**
+     * 版本号未变化时写入Redis缓存
+     *
+     * @return 是否可以缓存查询结果，版本号已变化时为false；写入失败不影响本地缓存
+     */
+    private boolean saveToRedis(Long userId, String generation, Set<Long> courseIds) {
+        List<String> args = new ArrayList<>(courseIds.size() + 2);
+        args.add(generation);
+        args.add(String.valueOf(TimeUnit.MINUTES.toSeconds(redisTtlMinutes)));
+        if (courseIds.isEmpty()) {
+            args.add(EMPTY_MARKER);
+        } else {
+            courseIds.forEach(courseId -> args.add(String.valueOf(courseId)));
+        }
+        try {
+            Long saved = stringRedisTemplate.execute(SAVE_SCRIPT,
+                    List.of(entitlementKey(userId), generationKey(userId)), args.toArray());
+            return saved == null || saved == 1L;
+        } catch (Exception e) {
+            log.warn("写入课程权限缓存失败, 用户ID: {}", userId, e);
+            return true;
+        }
+    }
+
+    private String entitlementKey(Long userId) {
+        return ENTITLEMENT_KEY_PREFIX + userId;
+    }
+
+    private String generationKey(Long userId) {
+        return GENERATION_KEY_PREFIX + userId;
+    }
+
+    private static class LocalEntry {
+        private final Set<Long> courseIds;
+        private final long expiresAt;
+
+        private LocalEntry(Set<Long> courseIds, long expiresAt) {
+            this.courseIds = courseIds;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
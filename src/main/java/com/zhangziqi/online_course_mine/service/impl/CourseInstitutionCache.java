@@ -0,0 +1,62 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 课程所属机构缓存
+ * 学习记录写入路径只持有课程引用，按批次解析课程所属机构，课程所属机构创建后不会变化
+ */
+@Service
+@RequiredArgsConstructor
+public class CourseInstitutionCache {
+
+    private final CourseRepository courseRepository;
+
+    // 课程ID -> 机构ID
+    private final Map<Long, Long> courseInstitutions = new ConcurrentHashMap<>();
+
+    // 最多缓存的课程数
+    @Value("${course.institution-cache.max-size:10000}")
+    private int maxSize = 10000;
+
+    /**
+     * 批量获取课程所属机构，未缓存的课程一次查询
+     *
+     * @param courseIds 课程ID
+     * @return 课程ID -> 机构ID，课程不存在时不包含该课程
+     */
+    public Map<Long, Long> getInstitutionIds(Collection<Long> courseIds) {
+        Map<Long, Long> result = new HashMap<>();
+        Set<Long> missing = new HashSet<>();
+        for (Long courseId : courseIds) {
+            Long institutionId = courseInstitutions.get(courseId);
+            if (institutionId != null) {
+                result.put(courseId, institutionId);
+            } else {
+                missing.add(courseId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            if (courseInstitutions.size() >= maxSize) {
+                courseInstitutions.clear();
+            }
+            for (Object[] row : courseRepository.findInstitutionIdsByIds(missing)) {
+                Long courseId = (Long) row[0];
+                Long institutionId = (Long) row[1];
+                result.put(courseId, institutionId);
+                courseInstitutions.put(courseId, institutionId);
+            }
+        }
+        return result;
+    }
+}
@@ -47,6 +47,7 @@ public class CourseReviewServiceImpl implements CourseReviewService {
     private final UserRepository userRepository;
     private final CourseService courseService;
     private final UserCourseService userCourseService;
+    private final CourseCounterService courseCounterService;
     
     @Override
     @Transactional
@@ -204,6 +205,7 @@ public class CourseReviewServiceImpl implements CourseReviewService {
         // 检查课程是否存在
         Course course = courseRepository.findById(courseId)
             .orElseThrow(() -> new ResourceNotFoundException("课程不存在，ID: " + courseId));
+        courseCounterService.applyPending(course);
         
         // 获取评分分布
         Map<Integer, Integer> ratingDistribution = new HashMap<>();
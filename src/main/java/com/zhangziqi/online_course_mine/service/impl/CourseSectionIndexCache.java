@@ -0,0 +1,166 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.utils.TransactionUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 课程小节序号索引缓存
+ * 为每个发布版本课程预先计算小节ID到序号的映射、小节总数和各章节的预计学习时长，
+ * 学习进度更新时直接查表，不再加载课程的章节和小节集合；
+ * 索引记录构建时的课程数据版本，课程重新发布后版本变化，其他实例读取时会自动重建
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CourseSectionIndexCache {
+
+    private final CourseRepository courseRepository;
+
+    private final Map<Long, CourseSectionIndex> indexes = new ConcurrentHashMap<>();
+
+    // 最多缓存的课程数
+    @Value("${course.section-index.max-size:2000}")
+    private int maxSize = 2000;
+
+    /**
+     * 获取课程的小节索引
+     * 缓存的索引与课程当前数据版本不一致时重建
+     */
+    public CourseSectionIndex getIndex(Course course) {
+        CourseSectionIndex index = indexes.get(course.getId());
+        if (index != null && Objects.equals(index.getDataVersion(), course.getDataVersion())) {
+            return index;
+        }
+        return load(course.getId());
+    }
+
+    /**
+     * 课程发布后重建索引
+     * 在事务中调用时推迟到提交之后，保证读取到新复制的章节和小节
+     */
+    public void rebuild(Long courseId) {
+        TransactionUtil.afterCommit(() -> {
+            indexes.remove(courseId);
+            try {
+                load(courseId);
+            } catch (Exception e) {
+                log.warn("预构建课程小节索引失败, 课程ID: {}", courseId, e);
+            }
+        });
+    }
+
+    /**
+     * 课程下线或重新上线时清除索引
+     */
+    public void evict(Long courseId) {
+        TransactionUtil.afterCommit(() -> indexes.remove(courseId));
+    }
+
+    private CourseSectionIndex load(Long courseId) {
+        CourseSectionIndex index = CourseSectionIndex.build(courseRepository.findSectionOutlineByCourseId(courseId));
+        if (indexes.size() >= maxSize) {
+            indexes.clear();
+        }
+        indexes.put(courseId, index);
+        log.debug("构建课程小节索引, 课程ID: {}, 小节数: {}", courseId, index.getTotalSections());
+        return index;
+    }
+
+    /**
+     * 课程小节序号索引，构建后不可修改
+     */
+    public static final class CourseSectionIndex {
+
+        private final Integer dataVersion;
+
+        // 小节ID -> 在课程中的序号（从1开始）
+        private final Map<Long, Integer> sectionOrdinals;
+
+        // 小节ID -> 所属章节ID
+        private final Map<Long, Long> sectionChapters;
+
+        // 章节ID -> 预计学习时长（分钟），未设置时为null
+        private final Map<Long, Integer> chapterEstimatedMinutes;
+
+        private CourseSectionIndex(Integer dataVersion, Map<Long, Integer> sectionOrdinals,
+                                   Map<Long, Long> sectionChapters, Map<Long, Integer> chapterEstimatedMinutes) {
+            this.dataVersion = dataVersion;
+            this.sectionOrdinals = Collections.unmodifiableMap(sectionOrdinals);
+            this.sectionChapters = Collections.unmodifiableMap(sectionChapters);
+            this.chapterEstimatedMinutes = Collections.unmodifiableMap(chapterEstimatedMinutes);
+        }
+
+        /**
+         * 由课程大纲投影构建索引，行需按章节、小节顺序排列
+         */
+        public static CourseSectionIndex build(List<Object[]> rows) {
+            Integer dataVersion = null;
+            Map<Long, Integer> sectionOrdinals = new HashMap<>();
+            Map<Long, Long> sectionChapters = new HashMap<>();
+            Map<Long, Integer> chapterEstimatedMinutes = new HashMap<>();
+
+            int ordinal = 0;
+            for (Object[] row : rows) {
+                dataVersion = (Integer) row[0];
+                Long chapterId = (Long) row[1];
+                if (chapterId == null) {
+                    continue;
+                }
+                chapterEstimatedMinutes.put(chapterId, (Integer) row[2]);
+                Long sectionId = (Long) row[3];
+                if (sectionId != null) {
+                    sectionOrdinals.put(sectionId, ++ordinal);
+                    sectionChapters.put(sectionId, chapterId);
+                }
+            }
+            return new CourseSectionIndex(dataVersion, sectionOrdinals, sectionChapters, chapterEstimatedMinutes);
+        }
+
+        public Integer getDataVersion() {
+            return dataVersion;
+        }
+
+        /**
+         * 课程总小节数
+         */
+        public int getTotalSections() {
+            return sectionOrdinals.size();
+        }
+
+        /**
+         * 获取小节在课程中的序号，小节不属于该章节时返回0
+         */
+        public int getSectionOrdinal(Long chapterId, Long sectionId) {
+            if (sectionId == null || !Objects.equals(sectionChapters.get(sectionId), chapterId)) {
+                return 0;
+            }
+            return sectionOrdinals.get(sectionId);
+        }
+
+        /**
+         * 章节是否属于该课程
+         */
+        public boolean containsChapter(Long chapterId) {
+            return chapterEstimatedMinutes.containsKey(chapterId);
+        }
+
+        /**
+         * 获取章节的预计学习时长（分钟）
+         */
+        public Integer getChapterEstimatedMinutes(Long chapterId) {
+            return chapterEstimatedMinutes.get(chapterId);
+        }
+    }
+}
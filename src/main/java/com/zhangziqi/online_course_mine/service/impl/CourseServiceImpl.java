@@ -69,6 +69,9 @@ public class CourseServiceImpl implements CourseService {
     private final OrderService orderService;
     private final ReviewRecordService reviewRecordService;
     private final UserRepository userRepository;
+    private final CourseSectionIndexCache courseSectionIndexCache;
+    private final OrderStatusCounter orderStatusCounter;
+    private final CourseCounterService courseCounterService;
 
     // 预览URL有效期（分钟）
     private static final long PREVIEW_URL_EXPIRATION_MINUTES = 60;
@@ -253,6 +256,7 @@ public class CourseServiceImpl implements CourseService {
     @Transactional(readOnly = true)
     public CourseVO getCourseById(Long id) {
         Course course = findCourseById(id);
+        courseCounterService.applyPending(course);
         CourseVO vo = CourseVO.fromEntity(course);
         vo.setFavoriteCount(course.getFavoriteCount());
         return vo;
@@ -518,7 +522,7 @@ public class CourseServiceImpl implements CourseService {
             BeanUtils.copyProperties(savedCourse, publishedVersion,
                 "id", "dataVersion", "chapters", "tags", "category", "institution",
                 "isPublishedVersion", "publishedVersionId", "status", "versionType",
-                "studentCount", "averageRating", "ratingCount", "favoriteUsers", "enrolledUsers", "orders");
+                "studentCount", "averageRating", "ratingCount", "ratingSum", "favoriteUsers", "enrolledUsers", "orders");
             publishedVersion.setId(null); // 确保新对象没有ID
             publishedVersion.setIsPublishedVersion(true); // 标记为发布版本
             publishedVersion.setPublishedVersionId(savedCourse.getId());
@@ -592,6 +596,9 @@ public class CourseServiceImpl implements CourseService {
             savedCourse.setPublishedVersionId(savedPublishedVersion.getId());
             Course updatedCourse = courseRepository.save(savedCourse);
 
+            // 提交后构建发布版本的小节索引
+            courseSectionIndexCache.rebuild(savedPublishedVersion.getId());
+
             // 创建审核记录
             reviewRecordService.createCourseReviewRecord(
                     id,
@@ -616,7 +623,7 @@ public class CourseServiceImpl implements CourseService {
                 BeanUtils.copyProperties(course, publishedVersion,
                     "id", "dataVersion", "chapters", "tags", "category", "institution",
                     "isPublishedVersion", "publishedVersionId", "status", "versionType",
-                    "studentCount", "averageRating", "ratingCount", "favoriteUsers", "enrolledUsers", "orders");
+                    "studentCount", "averageRating", "ratingCount", "ratingSum", "favoriteUsers", "enrolledUsers", "orders");
 
                 // 确保发布版本的状态为已发布
                 publishedVersion.setStatusEnum(CourseStatus.PUBLISHED);
@@ -693,6 +700,9 @@ public class CourseServiceImpl implements CourseService {
                 }
 
                 courseRepository.save(publishedVersion);
+
+                // 章节和小节已重新复制，提交后重建发布版本的小节索引
+                courseSectionIndexCache.rebuild(publishedVersion.getId());
             }
 
             Course updatedCourse = courseRepository.save(course);
@@ -780,6 +790,7 @@ public class CourseServiceImpl implements CourseService {
             // 删除发布版本
             log.info("删除课程发布版本，ID: {}", publishedVersionId);
             courseRepository.delete(publishedVersion);
+            courseSectionIndexCache.evict(publishedVersionId);
 
             // 更新工作区版本，设置publishedVersionId为null
             course.setPublishedVersionId(null);
@@ -844,6 +855,7 @@ public class CourseServiceImpl implements CourseService {
                 order.setRefundAmount(order.getAmount());
                 order.setRefundReason("课程已下架，系统自动退款");
                 orderRepository.save(order);
+                orderStatusCounter.transition(order, OrderStatus.PAID.getValue());
 
                 // 调用支付宝退款接口
                 boolean refundSuccess = orderService.executeAlipayRefund(
@@ -875,6 +887,7 @@ public class CourseServiceImpl implements CourseService {
         course.setStatusEnum(CourseStatus.PUBLISHED);
 
         Course updatedCourse = courseRepository.save(course);
+        courseSectionIndexCache.evict(id);
 
         // 转换为VO并返回
         return CourseVO.fromEntity(updatedCourse);
@@ -1049,6 +1062,7 @@ public class CourseServiceImpl implements CourseService {
     @Transactional(readOnly = true)
     public CourseVO getPublishedVersionByWorkspaceId(Long workspaceId) {
         Optional<Course> publishedVersionOpt = courseRepository.findPublishedVersionByWorkspaceId(workspaceId);
+        publishedVersionOpt.ifPresent(courseCounterService::applyPending);
         return publishedVersionOpt.map(CourseVO::fromEntity).orElse(null);
     }
 
@@ -1292,15 +1306,9 @@ public class CourseServiceImpl implements CourseService {
             throw new BusinessException(400, "只能更新发布版本的课程统计数据");
         }
 
-        // 初始化或增加学习人数
-        if (course.getStudentCount() == null) {
-            course.setStudentCount(1);
-        } else {
-            course.setStudentCount(course.getStudentCount() + 1);
-        }
-
-        courseRepository.save(course);
-        log.info("课程{}学习人数增加，当前学习人数: {}", courseId, course.getStudentCount());
+        // 原地累加学习人数，不保存课程实体
+        courseCounterService.addStudents(courseId, 1);
+        log.info("课程{}学习人数增加", courseId);
     }
 
     @Override
@@ -1318,22 +1326,9 @@ public class CourseServiceImpl implements CourseService {
             throw new BusinessException(400, "只能更新发布版本的课程统计数据");
         }
 
-        Float currentAvg = course.getAverageRating();
-        Integer currentCount = course.getRatingCount();
-
-        if (currentAvg == null || currentCount == null || currentCount == 0) {
-            course.setAverageRating(newRating.floatValue());
-            course.setRatingCount(1);
-        } else {
-            // 使用加权平均公式计算新的平均评分
-            Float newAvg = (currentAvg * currentCount + newRating) / (currentCount + 1);
-            course.setAverageRating(newAvg);
-            course.setRatingCount(currentCount + 1);
-        }
-
-        courseRepository.save(course);
-        log.info("课程{}评分更新，当前评分: {}，评分人数: {}",
-             courseId, course.getAverageRating(), course.getRatingCount());
+        // 评分按整数总分和人数累加，平均分在合并时计算
+        courseCounterService.addRating(courseId, newRating);
+        log.info("课程{}新增评分: {}", courseId, newRating);
     }
 
     @Override
@@ -1351,23 +1346,9 @@ public class CourseServiceImpl implements CourseService {
             throw new BusinessException(400, "只能更新发布版本的课程统计数据");
         }
 
-        Float currentAvg = course.getAverageRating();
-        Integer currentCount = course.getRatingCount();
-
-        if (currentAvg == null || currentCount == null || currentCount == 0) {
-            // 异常情况：没有评分记录却要更新
-            course.setAverageRating(newRating.floatValue());
-            course.setRatingCount(1);
-        } else {
-            // 从总评分中减去旧评分，加上新评分
-            Float totalScore = currentAvg * currentCount;
-            totalScore = totalScore - oldRating + newRating;
-            course.setAverageRating(totalScore / currentCount);
-        }
-
-        courseRepository.save(course);
-        log.info("课程{}评分修改，从{}修改为{}，当前评分: {}，评分人数: {}",
-            courseId, oldRating, newRating, course.getAverageRating(), course.getRatingCount());
+        // 从总分中减去旧评分，加上新评分，评分人数不变
+        courseCounterService.changeRating(courseId, oldRating, newRating);
+        log.info("课程{}评分修改，从{}修改为{}", courseId, oldRating, newRating);
     }
 
     @Override
@@ -0,0 +1,113 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 统计看板组装器
+ * 将看板中互不依赖的统计分区提交到统计线程池并行查询，每个分区单独计时；
+ * 分区超时、失败或线程池已满时使用默认值并记录分区名，看板返回部分数据而不是整体失败或等待。
+ * 分区查询在只读事务中执行，事务超时会设置为JDBC查询超时，超时的查询在数据库端被取消，不会继续占用统计线程和连接
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DashboardComposer {
+
+    @Qualifier("statisticsExecutor")
+    private final Executor statisticsExecutor;
+
+    private final PlatformTransactionManager transactionManager;
+
+    // 单个分区的超时时间（毫秒）
+    @Value("${statistics.dashboard.section-timeout-ms:3000}")
+    private long sectionTimeoutMs = 3000;
+
+    /**
+     * 开始组装一个看板
+     *
+     * @param dashboard 看板名称，用于日志
+     */
+    public Assembly begin(String dashboard) {
+        return new Assembly(dashboard);
+    }
+
+    /**
+     * 分区查询的只读事务，超时取分区超时时间向上取整的秒数（事务超时的最小单位为秒）
+     */
+    private TransactionTemplate sectionTransaction() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        transactionTemplate.setTimeout((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(sectionTimeoutMs + 999)));
+        return transactionTemplate;
+    }
+
+    /**
+     * 一次看板组装，非线程安全，应在同一个请求线程中添加分区并等待完成
+     */
+    public class Assembly {
+
+        private final String dashboard;
+
+        private final List<CompletableFuture<Void>> sections = new ArrayList<>();
+
+        private final List<String> unavailableSections = new CopyOnWriteArrayList<>();
+
+        private Assembly(String dashboard) {
+            this.dashboard = dashboard;
+        }
+
+        /**
+         * 添加一个统计分区
+         *
+         * @param name 分区名称
+         * @param loader 分区查询
+         * @param fallback 分区不可用时的默认值
+         * @param setter 将分区结果写入看板
+         */
+        public <T> Assembly section(String name, Supplier<T> loader, T fallback, Consumer<T> setter) {
+            CompletableFuture<T> future;
+            try {
+                TransactionTemplate transactionTemplate = sectionTransaction();
+                future = CompletableFuture.supplyAsync(() -> transactionTemplate.execute(status -> loader.get()),
+                                statisticsExecutor)
+                        .orTimeout(sectionTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            sections.add(future
+                    .exceptionally(e -> {
+                        log.warn("看板分区不可用, 看板: {}, 分区: {}, 原因: {}", dashboard, name, e.toString());
+                        unavailableSections.add(name);
+                        return fallback;
+                    })
+                    .thenAccept(setter));
+            return this;
+        }
+
+        /**
+         * 等待所有分区完成或超时
+         *
+         * @return 使用了默认值的分区名称
+         */
+        public List<String> join() {
+            CompletableFuture.allOf(sections.toArray(new CompletableFuture[0])).join();
+            return new ArrayList<>(unavailableSections);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Order;
+import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
+import com.zhangziqi.online_course_mine.repository.InstitutionIncomeLedgerRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 机构收入台账维护
+ * 订单对台账的计入只由订单当前的状态、金额和时间决定：已支付和申请退款状态的订单在支付日期计入收入，
+ * 已退款状态的订单在退款日期计入退款。状态变化前取一次计入快照，变化后撤销旧的计入并加上新的计入，
+ * 与订单的保存处于同一事务中，台账因此始终与按订单统计的口径一致
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IncomeLedgerService {
+
+    // 订单未关联机构或课程时使用的ID
+    private static final long UNKNOWN_ID = 0L;
+
+    private final InstitutionIncomeLedgerRepository incomeLedgerRepository;
+
+    /**
+     * 订单对台账的计入
+     */
+    public static final class Contribution {
+
+        /**
+         * 不计入任何收入和退款，用于新建的订单
+         */
+        public static final Contribution NONE = new Contribution(UNKNOWN_ID, UNKNOWN_ID, null, null, null, null);
+
+        private final long institutionId;
+        private final long courseId;
+        private final LocalDate incomeDate;
+        private final BigDecimal income;
+        private final LocalDate refundDate;
+        private final BigDecimal refund;
+
+        private Contribution(long institutionId, long courseId, LocalDate incomeDate, BigDecimal income,
+                             LocalDate refundDate, BigDecimal refund) {
+            this.institutionId = institutionId;
+            this.courseId = courseId;
+            this.incomeDate = incomeDate;
+            this.income = income;
+            this.refundDate = refundDate;
+            this.refund = refund;
+        }
+
+        private void addTo(Map<LedgerKey, Delta> deltas, int sign) {
+            if (incomeDate != null) {
+                Delta delta = deltas.computeIfAbsent(new LedgerKey(incomeDate, institutionId, courseId), k -> new Delta());
+                delta.income = delta.income.add(sign > 0 ? income : income.negate());
+                delta.paidCount += sign;
+            }
+            if (refundDate != null) {
+                Delta delta = deltas.computeIfAbsent(new LedgerKey(refundDate, institutionId, courseId), k -> new Delta());
+                delta.refund = delta.refund.add(sign > 0 ? refund : refund.negate());
+                delta.refundCount += sign;
+            }
+        }
+    }
+
+    private record LedgerKey(LocalDate statDate, long institutionId, long courseId) {
+    }
+
+    /**
+     * 一个台账行上的变化量
+     */
+    private static final class Delta {
+        private BigDecimal income = BigDecimal.ZERO;
+        private BigDecimal refund = BigDecimal.ZERO;
+        private long paidCount;
+        private long refundCount;
+
+        private boolean isZero() {
+            return paidCount == 0 && refundCount == 0 && income.signum() == 0 && refund.signum() == 0;
+        }
+    }
+
+    /**
+     * 取得订单当前对台账的计入，在修改订单状态之前调用
+     *
+     * @param order 订单
+     * @return 计入快照
+     */
+    public Contribution snapshot(Order order) {
+        long institutionId = order.getInstitution() != null && order.getInstitution().getId() != null
+                ? order.getInstitution().getId() : UNKNOWN_ID;
+        long courseId = order.getCourse() != null && order.getCourse().getId() != null
+                ? order.getCourse().getId() : UNKNOWN_ID;
+        Integer status = order.getStatus();
+
+        LocalDate incomeDate = null;
+        BigDecimal income = null;
+        if ((Objects.equals(status, OrderStatus.PAID.getValue()) || Objects.equals(status, OrderStatus.REFUNDING.getValue()))
+                && order.getPaidAt() != null && order.getAmount() != null) {
+            incomeDate = order.getPaidAt().toLocalDate();
+            income = order.getAmount();
+        }
+
+        LocalDate refundDate = null;
+        BigDecimal refund = null;
+        if (Objects.equals(status, OrderStatus.REFUNDED.getValue())
+                && order.getRefundedAt() != null && order.getRefundAmount() != null) {
+            refundDate = order.getRefundedAt().toLocalDate();
+            refund = order.getRefundAmount();
+        }
+
+        return new Contribution(institutionId, courseId, incomeDate, income, refundDate, refund);
+    }
+
+    /**
+     * 按订单状态变化更新台账：撤销变化前的计入，加上当前的计入
+     * 必须在保存订单的同一事务中调用
+     *
+     * @param order 状态已变化的订单
+     * @param before 变化前的计入快照
+     */
+    public void apply(Order order, Contribution before) {
+        Contribution after = snapshot(order);
+        Map<LedgerKey, Delta> deltas = new LinkedHashMap<>();
+        before.addTo(deltas, -1);
+        after.addTo(deltas, 1);
+
+        for (Map.Entry<LedgerKey, Delta> entry : deltas.entrySet()) {
+            LedgerKey key = entry.getKey();
+            Delta delta = entry.getValue();
+            // 计入没有变化，或同一行上的撤销和计入相互抵消
+            if (delta.isZero()) {
+                continue;
+            }
+            incomeLedgerRepository.accumulate(key.statDate(), key.institutionId(), key.courseId(),
+                    delta.income, delta.refund, delta.paidCount, delta.refundCount);
+        }
+        log.debug("更新收入台账, 订单号: {}, 状态: {}", order.getOrderNo(), order.getStatus());
+    }
+}
@@ -12,9 +12,12 @@ import com.zhangziqi.online_course_mine.model.vo.InstitutionLearningStatisticsVO
 import com.zhangziqi.online_course_mine.model.vo.LearningHeatmapVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningProgressTrendVO;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.CourseStatisticsJdbcRepository;
 import com.zhangziqi.online_course_mine.repository.InstitutionRepository;
+import com.zhangziqi.online_course_mine.repository.LearningDailyRollupRepository;
 import com.zhangziqi.online_course_mine.repository.LearningRecordRepository;
 import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
+import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.service.InstitutionLearningStatisticsService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -23,6 +26,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -36,10 +40,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
 /**
  * 机构学习统计服务实现
+ * 时长、次数和人数类统计读取学习记录日汇总表；热力图、最后学习时间等需要原始时间点的统计仍查询学习记录
  */
 @Slf4j
 @Service
@@ -49,11 +54,23 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
     private final InstitutionRepository institutionRepository;
     private final CourseRepository courseRepository;
     private final LearningRecordRepository learningRecordRepository;
+    private final LearningDailyRollupRepository learningDailyRollupRepository;
     private final UserCourseRepository userCourseRepository;
-
+    private final CourseStatisticsJdbcRepository courseStatisticsJdbcRepository;
+    private final DashboardComposer dashboardComposer;
+    private final LearnerSketchService learnerSketchService;
+    private final LearningLeaderboardService learningLeaderboardService;
+    private final LearningHeatmapService learningHeatmapService;
+    private final UserRepository userRepository;
+
+    /**
+     * 看板各分区互不依赖，由看板组装器并行查询；每个分区在各自的线程中使用独立的只读连接，
+     * 这里不开启事务，避免请求线程在等待期间一直占用一个连接。
+     * 有分区不可用时不写入缓存，下次请求重新查询
+     */
     @Override
-    @Transactional(readOnly = true)
-    @Cacheable(value = CacheConfig.INSTITUTION_STATS_CACHE, key = "'institution_statistics_' + #institutionId")
+    @Cacheable(value = CacheConfig.INSTITUTION_STATS_CACHE, key = "'institution_statistics_' + #institutionId",
+              unless = "!#result.unavailableSections.isEmpty()")
     public InstitutionLearningStatisticsVO getInstitutionLearningStatistics(Long institutionId) {
         log.info("获取机构学习统计, 机构ID: {}", institutionId);
 
@@ -67,81 +84,73 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
                 .institutionName(institution.getName())
                 .build();
 
-        // 获取总学习人数
-        Long totalLearners = learningRecordRepository.countUniqueUsersByInstitution(institutionId);
-        statisticsVO.setTotalLearners(totalLearners != null ? totalLearners : 0L);
-
-        // 获取总学习时长
-        Number totalDurationNum = learningRecordRepository.findTotalLearningDurationByInstitution(institutionId);
-        Long totalDuration = totalDurationNum != null ? totalDurationNum.longValue() : 0L;
-        statisticsVO.setTotalLearningDuration(totalDuration);
-
-        // 获取今日学习时长
-        Long todayDuration = learningRecordRepository.findTodayLearningDurationByInstitution(institutionId);
-        statisticsVO.setTodayLearningDuration(todayDuration != null ? todayDuration : 0L);
-
-        // 计算本周学习时长
         LocalDate today = LocalDate.now();
         LocalDate firstDayOfWeek = today.with(WeekFields.of(Locale.getDefault()).dayOfWeek(), 1);
-        LocalDateTime weekStart = firstDayOfWeek.atStartOfDay();
-        LocalDateTime weekEnd = today.atTime(LocalTime.MAX);
-
-        List<LearningRecord> weekRecords = learningRecordRepository.findByInstitutionIdAndTimeRange(
-                institutionId, weekStart, weekEnd);
-        Long weekDuration = weekRecords.stream()
-                .filter(lr -> lr.getDurationSeconds() != null)
-                .mapToLong(LearningRecord::getDurationSeconds)
-                .sum();
-        statisticsVO.setWeekLearningDuration(weekDuration);
-
-        // 计算本月学习时长
         LocalDate firstDayOfMonth = today.with(TemporalAdjusters.firstDayOfMonth());
-        LocalDateTime monthStart = firstDayOfMonth.atStartOfDay();
-        LocalDateTime monthEnd = today.atTime(LocalTime.MAX);
-
-        List<LearningRecord> monthRecords = learningRecordRepository.findByInstitutionIdAndTimeRange(
-                institutionId, monthStart, monthEnd);
-        Long monthDuration = monthRecords.stream()
-                .filter(lr -> lr.getDurationSeconds() != null)
-                .mapToLong(LearningRecord::getDurationSeconds)
-                .sum();
-        statisticsVO.setMonthLearningDuration(monthDuration);
-
-        // 计算活跃课程数
-        List<Object[]> courseStats = learningRecordRepository.findLearningStatsByCourseForInstitution(institutionId);
-        statisticsVO.setTotalActiveCourses(courseStats.size());
-
-        // 获取题目尝试次数
-        long quizAttempts = weekRecords.stream()
-                .filter(lr -> LearningActivityType.QUIZ_ATTEMPT.getCode().equals(lr.getActivityType()))
-                .count();
-        statisticsVO.setTotalQuestionAttempts((int) quizAttempts);
-
-        // 获取每日学习统计
-        LocalDate startDate = today.minusDays(29);
-        List<DailyLearningStatVO> dailyStats = getInstitutionDailyLearningStats(
-                institutionId, startDate, today);
-        statisticsVO.setDailyLearning(dailyStats);
-
-        // 获取活动类型统计
-        List<ActivityTypeStatVO> activityTypeStats = getInstitutionActivityTypeStats(institutionId);
-        statisticsVO.setActivityTypeStats(activityTypeStats);
-
-        // 获取最活跃用户
-        List<InstitutionLearningStatisticsVO.ActiveUserVO> activeUsers = getMostActiveUsers(institutionId, 10);
-        statisticsVO.setMostActiveUsers(activeUsers);
-
-        // 获取课程统计（仅前5个）
-        Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> courseStatisticsPage =
-                getInstitutionCourseStatistics(institutionId, PageRequest.of(0, 5));
-        statisticsVO.setCourseStatistics(courseStatisticsPage.getContent());
-
-        log.info("成功获取机构学习统计, 机构ID: {}, 学习人数: {}, 学习时长: {}秒",
-                institutionId, totalLearners, totalDuration);
+
+        List<String> unavailableSections = dashboardComposer.begin("institution_statistics_" + institutionId)
+                // 总学习人数
+                .section("totalLearners",
+                        () -> learnerSketchService.count(LearnerSketchService.Scope.INSTITUTION, institutionId)
+                                .orElseGet(() -> nullToZero(learningDailyRollupRepository.countUniqueUsersByInstitution(institutionId))),
+                        0L, statisticsVO::setTotalLearners)
+                // 总学习时长
+                .section("totalLearningDuration",
+                        () -> nullToZero(learningDailyRollupRepository.findTotalLearningDurationByInstitution(institutionId)),
+                        0L, statisticsVO::setTotalLearningDuration)
+                // 今日学习时长
+                .section("todayLearningDuration",
+                        () -> nullToZero(learningDailyRollupRepository.findTodayLearningDurationByInstitution(institutionId)),
+                        0L, statisticsVO::setTodayLearningDuration)
+                // 本周学习时长
+                .section("weekLearningDuration",
+                        () -> nullToZero(learningDailyRollupRepository.findLearningDurationByInstitutionAndDateRange(
+                                institutionId, firstDayOfWeek, today)),
+                        0L, statisticsVO::setWeekLearningDuration)
+                // 本月学习时长
+                .section("monthLearningDuration",
+                        () -> nullToZero(learningDailyRollupRepository.findLearningDurationByInstitutionAndDateRange(
+                                institutionId, firstDayOfMonth, today)),
+                        0L, statisticsVO::setMonthLearningDuration)
+                // 活跃课程数
+                .section("totalActiveCourses",
+                        () -> learningDailyRollupRepository.findLearningStatsByCourseForInstitution(institutionId).size(),
+                        0, statisticsVO::setTotalActiveCourses)
+                // 本周题目尝试次数
+                .section("totalQuestionAttempts",
+                        () -> nullToZero(learningDailyRollupRepository.countActivitiesByInstitutionAndTypeAndDateRange(
+                                institutionId, LearningActivityType.QUIZ_ATTEMPT.getCode(), firstDayOfWeek, today)).intValue(),
+                        0, statisticsVO::setTotalQuestionAttempts)
+                // 过去30天每日学习统计
+                .section("dailyLearning",
+                        () -> getInstitutionDailyLearningStats(institutionId, today.minusDays(29), today),
+                        new ArrayList<>(), statisticsVO::setDailyLearning)
+                // 活动类型统计
+                .section("activityTypeStats",
+                        () -> getInstitutionActivityTypeStats(institutionId),
+                        new ArrayList<>(), statisticsVO::setActivityTypeStats)
+                // 最活跃用户
+                .section("mostActiveUsers",
+                        () -> getMostActiveUsers(institutionId, 10),
+                        new ArrayList<>(), statisticsVO::setMostActiveUsers)
+                // 课程统计（仅前5个）
+                .section("courseStatistics",
+                        () -> getInstitutionCourseStatistics(institutionId, PageRequest.of(0, 5)).getContent(),
+                        new ArrayList<>(), statisticsVO::setCourseStatistics)
+                .join();
+        statisticsVO.setUnavailableSections(unavailableSections);
+
+        log.info("成功获取机构学习统计, 机构ID: {}, 学习人数: {}, 学习时长: {}秒, 不可用分区: {}",
+                institutionId, statisticsVO.getTotalLearners(), statisticsVO.getTotalLearningDuration(),
+                unavailableSections);
 
         return statisticsVO;
     }
 
+    private static Long nullToZero(Number value) {
+        return value != null ? value.longValue() : 0L;
+    }
+
     @Override
     @Transactional(readOnly = true)
     @Cacheable(value = CacheConfig.INSTITUTION_STATS_CACHE,
@@ -151,15 +160,12 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
         log.info("获取机构每日学习统计, 机构ID: {}, 开始日期: {}, 结束日期: {}",
                 institutionId, startDate, endDate);
 
-        LocalDateTime startDateTime = startDate.atStartOfDay();
-        LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
-
-        List<Object[]> results = learningRecordRepository.findDailyLearningStatsByInstitutionId(
-                institutionId, startDateTime, endDateTime);
+        List<Object[]> results = learningDailyRollupRepository.findDailyLearningStatsByInstitutionId(
+                institutionId, startDate, endDate);
 
         List<DailyLearningStatVO> stats = new ArrayList<>();
         for (Object[] result : results) {
-            String date = (String) result[0];
+            String date = String.valueOf(result[0]);
             Long duration = result[1] != null ? ((Number) result[1]).longValue() : 0L;
             Integer count = result[2] != null ? ((Number) result[2]).intValue() : 0;
 
@@ -180,7 +186,7 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
     public List<ActivityTypeStatVO> getInstitutionActivityTypeStats(Long institutionId) {
         log.info("获取机构活动类型统计, 机构ID: {}", institutionId);
 
-        List<Object[]> results = learningRecordRepository.findLearningStatsByActivityTypeForInstitution(institutionId);
+        List<Object[]> results = learningDailyRollupRepository.findLearningStatsByActivityTypeForInstitution(institutionId);
 
         // 计算总时长
         long totalDuration = 0;
@@ -216,72 +222,20 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
     @Override
     @Transactional(readOnly = true)
     @Cacheable(value = CacheConfig.INSTITUTION_STATS_CACHE,
-              key = "'institution_course_stats_' + #institutionId + '_page_' + #pageable.pageNumber + '_size_' + #pageable.pageSize")
+              key = "'institution_course_stats_' + #institutionId + '_page_' + #pageable.pageNumber + '_size_' + #pageable.pageSize + '_sort_' + #pageable.sort")
     public Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> getInstitutionCourseStatistics(
             Long institutionId, Pageable pageable) {
-        log.info("获取机构课程学习统计, 机构ID: {}, 页码: {}, 每页数量: {}",
-                institutionId, pageable.getPageNumber(), pageable.getPageSize());
+        log.info("获取机构课程学习统计, 机构ID: {}, 页码: {}, 每页数量: {}, 排序: {}",
+                institutionId, pageable.getPageNumber(), pageable.getPageSize(), pageable.getSort());
 
-        // 获取机构课程
-        List<Course> courses = courseRepository.findByInstitution(
-                Institution.builder().id(institutionId).build(), Pageable.unpaged()).getContent();
-
-        if (courses.isEmpty()) {
-            return Page.empty(pageable);
-        }
-
-        // 获取课程学习统计
-        List<Object[]> courseStatsRaw = learningRecordRepository.findLearningStatsByCourseForInstitution(institutionId);
-
-        // 转换为VO
-        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> allCourseStats = new ArrayList<>();
-
-        for (Object[] rawStat : courseStatsRaw) {
-            Long courseId = ((Number) rawStat[0]).longValue();
-            String courseTitle = (String) rawStat[1];
-            Long totalDuration = rawStat[2] != null ? ((Number) rawStat[2]).longValue() : 0L;
-            Integer activityCount = rawStat[3] != null ? ((Number) rawStat[3]).intValue() : 0;
-
-            // 查询课程学习人数
-            List<Object[]> learnerCountQuery = userCourseRepository.countLearnersByCourseId(courseId);
-            Long learnerCount = learnerCountQuery.isEmpty() ? 0L :
-                    (learnerCountQuery.get(0)[0] instanceof Number ? ((Number) learnerCountQuery.get(0)[0]).longValue() : 0L);
-
-            // 查询完成的人数
-            Long completionCount = userCourseRepository.countByProgress(courseId, 100);
-
-            // 计算平均进度
-            Double averageProgress = userCourseRepository.getAverageProgressByCourseId(courseId);
-            if (averageProgress == null) {
-                averageProgress = 0.0;
-            }
-
-            InstitutionLearningStatisticsVO.CourseStatisticsVO stat =
-                    InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
-                    .courseId(courseId)
-                    .courseTitle(courseTitle)
-                    .totalDuration(totalDuration)
-                    .activityCount(activityCount)
-                    .learnerCount(learnerCount)
-                    .completionCount(completionCount)
-                    .averageProgress(averageProgress)
-                    .build();
-
-            allCourseStats.add(stat);
+        // 未指定排序时按总学习时长降序
+        if (pageable.isPaged() && pageable.getSort().isUnsorted()) {
+            pageable = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(),
+                    Sort.by(Sort.Direction.DESC, "totalDuration"));
         }
 
-        // 分页处理
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), allCourseStats.size());
-
-        if (start > allCourseStats.size()) {
-            return Page.empty(pageable);
-        }
-
-        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> pagedResults =
-                allCourseStats.subList(start, end);
-
-        return new PageImpl<>(pagedResults, pageable, allCourseStats.size());
+        // 在数据库中分组统计并分页
+        return courseStatisticsJdbcRepository.findCourseStatistics(institutionId, false, pageable);
     }
 
     @Override
@@ -291,8 +245,16 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
     public List<InstitutionLearningStatisticsVO.ActiveUserVO> getMostActiveUsers(Long institutionId, int limit) {
         log.info("获取机构最活跃用户, 机构ID: {}, 限制: {}", institutionId, limit);
 
+        // 优先读取机构用户排行榜，尚未就绪时在数据库中分组统计
+        Optional<List<LearningLeaderboardService.RankEntry>> top = learningLeaderboardService.top(
+                LearningLeaderboardService.Board.INSTITUTION_USERS, institutionId,
+                LearningLeaderboardService.Metric.DURATION, LearningLeaderboardService.Window.ALL, limit);
+        if (top.isPresent()) {
+            return toActiveUsers(top.get());
+        }
+
         Pageable pageable = PageRequest.of(0, limit);
-        List<Object[]> results = learningRecordRepository.findMostActiveUsersByInstitution(institutionId, pageable);
+        List<Object[]> results = learningDailyRollupRepository.findMostActiveUsersByInstitution(institutionId, pageable);
 
         List<InstitutionLearningStatisticsVO.ActiveUserVO> activeUsers = new ArrayList<>();
         for (Object[] result : results) {
@@ -312,6 +274,24 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
         return activeUsers;
     }
 
+    private List<InstitutionLearningStatisticsVO.ActiveUserVO> toActiveUsers(
+            List<LearningLeaderboardService.RankEntry> entries) {
+        Map<Long, String> usernames = new HashMap<>();
+        userRepository.findAllById(entries.stream().map(LearningLeaderboardService.RankEntry::getId).toList())
+                .forEach(user -> usernames.put(user.getId(), user.getUsername()));
+
+        List<InstitutionLearningStatisticsVO.ActiveUserVO> activeUsers = new ArrayList<>();
+        for (LearningLeaderboardService.RankEntry entry : entries) {
+            activeUsers.add(InstitutionLearningStatisticsVO.ActiveUserVO.builder()
+                    .userId(entry.getId())
+                    .username(usernames.get(entry.getId()))
+                    .learningDuration(entry.getDuration())
+                    .activityCount((int) entry.getActivityCount())
+                    .build());
+        }
+        return activeUsers;
+    }
+
     @Override
     @Transactional(readOnly = true)
     @Cacheable(value = CacheConfig.INSTITUTION_STATS_CACHE,
@@ -319,7 +299,7 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
     public Long getInstitutionTodayLearningDuration(Long institutionId) {
         log.info("获取机构今日学习时长, 机构ID: {}", institutionId);
 
-        Number duration = learningRecordRepository.findTodayLearningDurationByInstitution(institutionId);
+        Number duration = learningDailyRollupRepository.findTodayLearningDurationByInstitution(institutionId);
         return duration != null ? duration.longValue() : 0L;
     }
 
@@ -331,7 +311,7 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
         log.info("获取机构总学习时长, 机构ID: {}", institutionId);
 
         try {
-            Number durationObj = learningRecordRepository.findTotalLearningDurationByInstitution(institutionId);
+            Number durationObj = learningDailyRollupRepository.findTotalLearningDurationByInstitution(institutionId);
 
             if (durationObj == null) {
                 return 0L;
@@ -367,8 +347,14 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
     public Number getInstitutionLearnerCount(Long institutionId) {
         log.info("获取机构学习人数, 机构ID: {}", institutionId);
 
+        // 优先使用HyperLogLog估计值，尚未就绪时回退到数据库统计
+        Optional<Long> estimate = learnerSketchService.count(LearnerSketchService.Scope.INSTITUTION, institutionId);
+        if (estimate.isPresent()) {
+            return estimate.get();
+        }
+
         try {
-            Object countObj = learningRecordRepository.countUniqueUsersByInstitution(institutionId);
+            Object countObj = learningDailyRollupRepository.countUniqueUsersByInstitution(institutionId);
 
             if (countObj == null) {
                 return 0L;
@@ -418,18 +404,11 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
         }
 
         // 查询课程学习时长
-        Long totalDuration = learningRecordRepository.findTotalLearningDurationByCourse(courseId);
+        Long totalDuration = learningDailyRollupRepository.findTotalLearningDurationByCourse(courseId);
 
         // 查询课程学习活动次数
-        List<Object[]> statResults = learningRecordRepository.findLearningStatsByCourseForInstitution(institutionId)
-                .stream()
-                .filter(result -> courseId.equals(((Number) result[0]).longValue()))
-                .collect(Collectors.toList());
-
-        Integer activityCount = 0;
-        if (!statResults.isEmpty()) {
-            activityCount = ((Number) statResults.get(0)[3]).intValue();
-        }
+        Long activityCountNum = learningDailyRollupRepository.countActivitiesByCourse(courseId);
+        Integer activityCount = activityCountNum != null ? activityCountNum.intValue() : 0;
 
         // 查询课程学习人数
         List<Object[]> learnerCountQuery = userCourseRepository.countLearnersByCourseId(courseId);
@@ -478,15 +457,12 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
             throw new ResourceNotFoundException("该课程不属于指定机构");
         }
 
-        LocalDateTime startDateTime = startDate.atStartOfDay();
-        LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
-
-        List<Object[]> results = learningRecordRepository.findDailyLearningStatsByCourseId(
-                courseId, startDateTime, endDateTime);
+        List<Object[]> results = learningDailyRollupRepository.findDailyLearningStatsByCourseId(
+                courseId, startDate, endDate);
 
         List<DailyLearningStatVO> stats = new ArrayList<>();
         for (Object[] result : results) {
-            String date = (String) result[0];
+            String date = String.valueOf(result[0]);
             Long duration = result[1] != null ? ((Number) result[1]).longValue() : 0L;
             Integer count = result[2] != null ? ((Number) result[2]).intValue() : 0;
 
@@ -519,7 +495,7 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
             throw new ResourceNotFoundException("该课程不属于指定机构");
         }
 
-        List<Object[]> results = learningRecordRepository.findLearningStatsByActivityTypeForCourse(courseId);
+        List<Object[]> results = learningDailyRollupRepository.findLearningStatsByActivityTypeForCourse(courseId);
 
         // 计算总时长
         long totalDuration = 0;
@@ -607,11 +583,11 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
             }
 
             // 创建分页返回对象
-            long total = learningRecordRepository.countUniqueUsersByCourse(courseId);
+            Long total = learningDailyRollupRepository.countUniqueUsersByCourse(courseId);
             log.info("课程学习人数总计: {}", total);
 
             Page<InstitutionLearningStatisticsVO.StudentLearningVO> result =
-                new PageImpl<>(studentLearningList, pageable, total);
+                new PageImpl<>(studentLearningList, pageable, total != null ? total : 0L);
             log.info("返回的分页数据: 内容大小={}, 总页数={}, 总元素数={}",
                 result.getContent().size(), result.getTotalPages(), result.getTotalElements());
 
@@ -641,7 +617,7 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
             throw new ResourceNotFoundException("该课程不属于指定机构");
         }
 
-        Long duration = learningRecordRepository.findTodayLearningDurationByCourse(courseId);
+        Long duration = learningDailyRollupRepository.findTodayLearningDurationByCourse(courseId);
         return duration != null ? duration : 0L;
     }
 
@@ -664,7 +640,7 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
             throw new ResourceNotFoundException("该课程不属于指定机构");
         }
 
-        Long duration = learningRecordRepository.findTotalLearningDurationByCourse(courseId);
+        Long duration = learningDailyRollupRepository.findTotalLearningDurationByCourse(courseId);
         return duration != null ? duration : 0L;
     }
 
@@ -687,7 +663,12 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
             throw new ResourceNotFoundException("该课程不属于指定机构");
         }
 
-        Long count = learningRecordRepository.countUniqueUsersByCourse(courseId);
+        // 优先使用HyperLogLog估计值，尚未就绪时回退到数据库统计
+        Optional<Long> estimate = learnerSketchService.count(LearnerSketchService.Scope.COURSE, courseId);
+        if (estimate.isPresent()) {
+            return estimate.get();
+        }
+        Long count = learningDailyRollupRepository.countUniqueUsersByCourse(courseId);
         return count != null ? count : 0L;
     }
 
@@ -815,9 +796,11 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
         LocalDateTime startDateTime = startDate.atStartOfDay();
         LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
 
-        // 查询用户课程热力图数据
-        List<Object[]> results = learningRecordRepository.findLearningHeatmapDataByUserAndCourse(
-                userId, courseId, startDateTime, endDateTime);
+        // 查询用户课程热力图数据，Redis中的热力图计数尚未就绪时查询学习记录
+        List<Object[]> results = learningHeatmapService.getCourseHourOfWeek(userId, courseId, startDate, endDate)
+                .map(LearningHeatmapService::toHourOfWeekRows)
+                .orElseGet(() -> learningRecordRepository.findLearningHeatmapDataByUserAndCourse(
+                        userId, courseId, startDateTime, endDateTime));
 
         // 处理查询结果
         Map<Integer, Map<Integer, Integer>> heatmapData = new HashMap<>();
@@ -918,7 +901,7 @@ public class InstitutionLearningStatisticsServiceImpl implements InstitutionLear
         }
 
         // 查询用户课程活动类型统计
-        List<Object[]> results = learningRecordRepository.findLearningStatsByActivityTypeForUserAndCourse(
+        List<Object[]> results = learningDailyRollupRepository.findLearningStatsByActivityTypeForUserAndCourse(
                 userId, courseId);
 
         // 计算总时长
@@ -0,0 +1,264 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import com.zhangziqi.online_course_mine.utils.JdbcStreamUtil;
+import com.zhangziqi.online_course_mine.utils.TransactionUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 学习人数基数估计
+ * 写入学习记录时把用户ID加入Redis HyperLogLog，分为课程、机构和全平台三个范围，
+ * 每个范围同时维护累计和按日两类键；任意日期范围的人数由PFCOUNT合并按日键得到。
+ * Redis HyperLogLog的标准误差为0.81%，每个键最多占用12KB；
+ * 重复加入同一用户不改变结果，因此至少一次投递的重试不会重复计数。
+ * 学习人数以"曾经产生学习记录"为口径，退款后不会从估计值中移除
+ */
+@Slf4j
+@Service
+public class LearnerSketchService extends RedisProjection {
+
+    /**
+     * HyperLogLog的标准误差
+     */
+    public static final double STANDARD_ERROR = 0.0081;
+
+    private static final String KEY_PREFIX = "learners:hll:";
+
+    private static final Duration REBUILD_LOCK_TTL = Duration.ofHours(1);
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final String REBUILD_SQL = "SELECT stat_date, institution_id, course_id, user_id " +
+            "FROM learning_daily_rollups";
+
+    private final CourseInstitutionCache courseInstitutionCache;
+    private final JdbcTemplate jdbcTemplate;
+
+    // 按日键的保留天数
+    @Value("${learning.learner-sketch.daily-retention-days:400}")
+    private int dailyRetentionDays = 400;
+
+    // 重建时每个管道写入的行数
+    @Value("${learning.learner-sketch.rebuild-batch-size:2000}")
+    private int rebuildBatchSize = 2000;
+
+    public LearnerSketchService(StringRedisTemplate stringRedisTemplate, RedisTaskLock redisTaskLock,
+                                CourseInstitutionCache courseInstitutionCache, JdbcTemplate jdbcTemplate,
+                                @Qualifier("learningAggregationExecutor") Executor learningAggregationExecutor) {
+        super("学习人数估计", KEY_PREFIX, REBUILD_LOCK_TTL, stringRedisTemplate, redisTaskLock,
+                learningAggregationExecutor);
+        this.courseInstitutionCache = courseInstitutionCache;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 统计范围
+     */
+    public enum Scope {
+        PLATFORM, INSTITUTION, COURSE
+    }
+
+    /**
+     * 记录一次学习
+     * 在事务中调用时推迟到提交之后，写入失败只记录日志，不影响学习记录本身
+     */
+    public void add(Long userId, Long courseId, Long institutionId, LocalDate date) {
+        if (userId == null || courseId == null) {
+            return;
+        }
+        TransactionUtil.afterCommit(() -> write(List.of(new Learner(date, institutionId, courseId, userId))));
+    }
+
+    /**
+     * 学习记录提交后记录已结束的学习记录，与日汇总使用相同的口径
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onRecordsCommitted(LearningRecordsCommittedEvent event) {
+        List<LearningRecord> ended = event.getEndedRecords();
+        if (ended.isEmpty()) {
+            return;
+        }
+        try {
+            Set<Long> courseIds = new HashSet<>();
+            ended.forEach(record -> courseIds.add(record.getCourseId()));
+            Map<Long, Long> institutions = courseInstitutionCache.getInstitutionIds(courseIds);
+            List<Learner> learners = new ArrayList<>(ended.size());
+            for (LearningRecord record : ended) {
+                learners.add(new Learner(record.getActivityStartTime().toLocalDate(),
+                        institutions.get(record.getCourseId()), record.getCourseId(), record.getUserId()));
+            }
+            pipeline(learners);
+        } catch (Exception e) {
+            log.warn("写入学习人数估计失败, 记录数: {}", ended.size(), e);
+        }
+    }
+
+    /**
+     * 估计范围内的累计学习人数
+     *
+     * @param scope 统计范围
+     * @param id 机构ID或课程ID，全平台时忽略
+     * @return 估计值，历史数据尚未重建或Redis不可用时为空
+     */
+    public Optional<Long> count(Scope scope, Long id) {
+        return pfcount(List.of(totalKey(scope, id)));
+    }
+
+    /**
+     * 估计日期范围内的学习人数
+     * 合并范围内每一天的键，超出按日键保留期时返回空
+     */
+    public Optional<Long> count(Scope scope, Long id, LocalDate startDate, LocalDate endDate) {
+        if (startDate.isAfter(endDate)
+                || startDate.isBefore(LocalDate.now().minusDays(dailyRetentionDays - 1L))) {
+            return Optional.empty();
+        }
+        List<String> keys = new ArrayList<>();
+        for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1)) {
+            keys.add(dailyKey(scope, id, date));
+        }
+        return pfcount(keys);
+    }
+
+    /**
+     * 从日汇总表重新加入所有用户
+     * PFADD是幂等的，不需要清空旧键：重建期间新写入的学习记录同样加入键中，重复加入不改变估计值
+     */
+    @Override
+    protected long rebuildFromSource() {
+        List<Learner> batch = new ArrayList<>(rebuildBatchSize);
+        long[] rows = new long[1];
+        jdbcTemplate.query(JdbcStreamUtil.streaming(REBUILD_SQL), (RowCallbackHandler) rs -> {
+            batch.add(new Learner(rs.getDate(1).toLocalDate(), rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+            rows[0]++;
+            if (batch.size() >= rebuildBatchSize) {
+                pipeline(batch);
+                batch.clear();
+            }
+        });
+        pipeline(batch);
+        return rows[0];
+    }
+
+    private Optional<Long> pfcount(List<String> keys) {
+        try {
+            if (!isReady()) {
+                return Optional.empty();
+            }
+            Long count = stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+            return Optional.of(count != null ? count : 0L);
+        } catch (Exception e) {
+            log.warn("读取学习人数估计失败, 键: {}", keys.get(0), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 写入学习人数估计，失败时只记录日志
+     */
+    private void write(List<Learner> learners) {
+        try {
+            pipeline(learners);
+        } catch (Exception e) {
+            log.warn("写入学习人数估计失败, 记录数: {}", learners.size(), e);
+        }
+    }
+
+    /**
+     * 在一个管道中写入所有键，同一键的用户合并为一次PFADD
+     */
+    private void pipeline(List<Learner> learners) {
+        if (learners.isEmpty()) {
+            return;
+        }
+        Map<String, Set<String>> members = new HashMap<>();
+        Set<String> dailyKeys = new HashSet<>();
+        LocalDate oldest = LocalDate.now().minusDays(dailyRetentionDays - 1L);
+        for (Learner learner : learners) {
+            String userId = String.valueOf(learner.userId);
+            members.computeIfAbsent(totalKey(Scope.PLATFORM, null), k -> new HashSet<>()).add(userId);
+            members.computeIfAbsent(totalKey(Scope.COURSE, learner.courseId), k -> new HashSet<>()).add(userId);
+            if (learner.institutionId != null) {
+                members.computeIfAbsent(totalKey(Scope.INSTITUTION, learner.institutionId), k -> new HashSet<>()).add(userId);
+            }
+            // 超出保留期的按日数据不再写入
+            if (learner.date.isBefore(oldest)) {
+                continue;
+            }
+            List<String> keys = new ArrayList<>(3);
+            keys.add(dailyKey(Scope.PLATFORM, null, learner.date));
+            keys.add(dailyKey(Scope.COURSE, learner.courseId, learner.date));
+            if (learner.institutionId != null) {
+                keys.add(dailyKey(Scope.INSTITUTION, learner.institutionId, learner.date));
+            }
+            for (String key : keys) {
+                members.computeIfAbsent(key, k -> new HashSet<>()).add(userId);
+                dailyKeys.add(key);
+            }
+        }
+
+        stringRedisTemplate.executePipelined(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) {
+                for (Map.Entry<String, Set<String>> entry : members.entrySet()) {
+                    operations.opsForHyperLogLog().add(entry.getKey(), entry.getValue().toArray());
+                    if (dailyKeys.contains(entry.getKey())) {
+                        operations.expire(entry.getKey(), dailyRetentionDays, TimeUnit.DAYS);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private static String totalKey(Scope scope, Long id) {
+        return scope == Scope.PLATFORM ? KEY_PREFIX + "platform"
+                : KEY_PREFIX + scope.name().toLowerCase() + ":" + id;
+    }
+
+    private static String dailyKey(Scope scope, Long id, LocalDate date) {
+        return totalKey(scope, id) + ":" + date.format(DATE_FORMAT);
+    }
+
+    /**
+     * 一次学习的统计维度
+     */
+    private static final class Learner {
+        private final LocalDate date;
+        private final Long institutionId;
+        private final Long courseId;
+        private final Long userId;
+
+        private Learner(LocalDate date, Long institutionId, Long courseId, Long userId) {
+            this.date = date;
+            this.institutionId = institutionId;
+            this.courseId = courseId;
+            this.userId = userId;
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import com.zhangziqi.online_course_mine.utils.JdbcStreamUtil;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * 学习记录列式分析快照
+ * 把已结束的学习记录以基本类型数组按列保存在内存中：用户、课程、机构为字典编码后的int，
+ * 学习日期为epoch天数，活动类型为字典编码后的byte，另有一个byte记录计入的活动次数，每条记录约22字节。
+ * 平台级统计直接扫描这些数组，行数较多时按区间拆分到ForkJoin公共池并行扫描后合并。
+ * 启动后从learning_records加载，之后随每批学习记录提交追加，每日完整重建一次修正偏差；
+ * 统计口径与日汇总表一致：按活动开始日期归属，不区分用户课程状态
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LearningAnalyticsSnapshot {
+
+    private static final String LOAD_SQL = "SELECT r.user_id, r.course_id, c.institution_id, r.activity_type, " +
+            "DATE(r.activity_start_time), r.duration_seconds " +
+            "FROM learning_records r JOIN courses c ON c.id = r.course_id " +
+            "WHERE r.duration_seconds IS NOT NULL";
+
+    // 每条记录占用的字节数：5个int列和2个byte列
+    private static final int BYTES_PER_ROW = 5 * Integer.BYTES + 2;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CourseInstitutionCache courseInstitutionCache;
+
+    // 最多保存的记录数，超出后放弃快照，统计回退到数据库
+    @Value("${learning.analytics-snapshot.max-rows:20000000}")
+    private int maxRows = 20_000_000;
+
+    // 记录数达到该值时并行扫描
+    @Value("${learning.analytics-snapshot.parallel-threshold:65536}")
+    private int parallelThreshold = 65536;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    // 当前快照，为null表示尚未加载完成或已放弃
+    private Columns columns;
+
+    // 加载期间提交的记录，加载完成后追加到新快照
+    private List<Row> pending;
+
+    /**
+     * 各机构的统计
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class InstitutionTotals {
+        private final Long institutionId;
+        private final long learnerCount;
+        private final long courseCount;
+        private final long duration;
+        private final long activityCount;
+    }
+
+    /**
+     * 学习记录提交后追加已结束的学习记录
+     * 失败只记录日志，由每日重建修正
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onRecordsCommitted(LearningRecordsCommittedEvent event) {
+        List<LearningRecord> ended = event.getEndedRecords();
+        if (ended.isEmpty()) {
+            return;
+        }
+        try {
+            Set<Long> courseIds = new HashSet<>();
+            ended.forEach(record -> courseIds.add(record.getCourseId()));
+            Map<Long, Long> institutions = courseInstitutionCache.getInstitutionIds(courseIds);
+
+            List<Row> rows = new ArrayList<>(ended.size());
+            for (LearningRecord record : ended) {
+                rows.add(new Row(record.getUserId(), record.getCourseId(), institutions.get(record.getCourseId()),
+                        record.getActivityType(), (int) record.getActivityStartTime().toLocalDate().toEpochDay(),
+                        record.getDurationSeconds(), (byte) event.activityCount(record)));
+            }
+            append(rows);
+        } catch (Exception e) {
+            log.warn("追加学习分析快照失败, 记录数: {}", ended.size(), e);
+        }
+    }
+
+    /**
+     * 日期范围内的总学习时长和活动次数
+     *
+     * @param startDate 开始日期，为null时不限
+     * @param endDate 结束日期，为null时不限
+     * @return [学习时长, 活动次数]，快照尚未就绪时为空
+     */
+    public Optional<long[]> totals(LocalDate startDate, LocalDate endDate) {
+        return read(snapshot -> {
+            Partial partial = scan(snapshot, new Query(Dimension.NONE, startDate, endDate, 1));
+            return new long[]{partial.duration[0], partial.count[0]};
+        });
+    }
+
+    /**
+     * 按活动类型分组的学习时长和活动次数
+     *
+     * @return 活动类型 -> [学习时长, 活动次数]，快照尚未就绪时为空
+     */
+    public Optional<Map<String, long[]>> byActivityType() {
+        return read(snapshot -> {
+            Partial partial = scan(snapshot, new Query(Dimension.ACTIVITY_TYPE, null, null, snapshot.types.size()));
+            Map<String, long[]> result = new LinkedHashMap<>();
+            for (int i = 0; i < snapshot.types.size(); i++) {
+                if (partial.count[i] > 0 || partial.duration[i] > 0) {
+                    result.put(snapshot.types.get(i), new long[]{partial.duration[i], partial.count[i]});
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 按日期分组的学习时长和活动次数
+     *
+     * @return 日期 -> [学习时长, 活动次数]，按日期升序，只包含有学习记录的日期；快照尚未就绪时为空
+     */
+    public Optional<Map<LocalDate, long[]>> byDay(LocalDate startDate, LocalDate endDate) {
+        return read(snapshot -> {
+            Map<LocalDate, long[]> result = new TreeMap<>();
+            if (endDate.isBefore(startDate)) {
+                return result;
+            }
+            int days = Math.toIntExact(endDate.toEpochDay() - startDate.toEpochDay() + 1);
+            Partial partial = scan(snapshot, new Query(Dimension.DAY, startDate, endDate, days));
+            for (int i = 0; i < days; i++) {
+                if (partial.count[i] > 0 || partial.duration[i] > 0) {
+                    result.put(startDate.plusDays(i), new long[]{partial.duration[i], partial.count[i]});
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 按机构分组的学习人数、课程数、学习时长和活动次数
+     *
+     * @param startDate 开始日期，为null时不限
+     * @param endDate 结束日期，为null时不限
+     * @return 有学习记录的机构，快照尚未就绪时为空
+     */
+    public Optional<List<InstitutionTotals>> byInstitution(LocalDate startDate, LocalDate endDate) {
+        return read(snapshot -> {
+            int groups = snapshot.institutions.size();
+            Partial partial = scan(snapshot, new Query(Dimension.INSTITUTION, startDate, endDate, groups));
+            List<InstitutionTotals> result = new ArrayList<>();
+            for (int i = 0; i < groups; i++) {
+                if (partial.count[i] > 0 || partial.duration[i] > 0) {
+                    result.add(new InstitutionTotals(snapshot.institutions.idAt(i),
+                            partial.users[i].cardinality(), partial.courses[i].cardinality(),
+                            partial.duration[i], partial.count[i]));
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 快照是否已加载
+     */
+    public boolean isReady() {
+        lock.readLock().lock();
+        try {
+            return columns != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 启动后加载快照
+     */
+    @Async("learningAggregationExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.warn("加载学习分析快照失败", e);
+        }
+    }
+
+    /**
+     * 每日完整重建，修正追加失败或加载期间重复追加造成的偏差
+     * 在聚合线程池中执行，不占用调度线程
+     */
+    @Async("learningAggregationExecutor")
+    @Scheduled(cron = "${learning.analytics-snapshot.rebuild-cron:0 50 3 * * ?}")
+    public void reconcile() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.warn("重建学习分析快照失败", e);
+        }
+    }
+
+    /**
+     * 从learning_records流式加载新快照，加载完成后替换当前快照
+     * 加载期间仍使用旧快照；期间提交的记录同时暂存，加载完成后追加到新快照
+     *
+     * @return 是否执行了加载，已有加载在进行时返回false
+     */
+    public boolean rebuild() {
+        if (!loading.compareAndSet(false, true)) {
+            log.info("学习分析快照正在加载");
+            return false;
+        }
+        try {
+            lock.writeLock().lock();
+            try {
+                pending = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            long startTime = System.currentTimeMillis();
+            Columns loaded = new Columns();
+            jdbcTemplate.query(JdbcStreamUtil.streaming(LOAD_SQL), (RowCallbackHandler) rs -> {
+                if (loaded.size >= maxRows) {
+                    throw new IllegalStateException("学习记录超过快照上限: " + maxRows);
+                }
+                long institutionId = rs.getLong(3);
+                loaded.append(rs.getLong(1), rs.getLong(2), rs.wasNull() ? null : institutionId,
+                        rs.getString(4), (int) rs.getDate(5).toLocalDate().toEpochDay(), rs.getInt(6), (byte) 1);
+            });
+
+            lock.writeLock().lock();
+            try {
+                pending.forEach(loaded::append);
+                columns = loaded;
+            } finally {
+                pending = null;
+                lock.writeLock().unlock();
+            }
+            log.info("学习分析快照加载完成, 记录数: {}, 列数据约{}KB, 耗时: {}ms",
+                    loaded.size, (long) loaded.size * BYTES_PER_ROW / 1024, System.currentTimeMillis() - startTime);
+            return true;
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    private void append(List<Row> rows) {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.addAll(rows);
+            }
+            if (columns == null) {
+                return;
+            }
+            if (columns.size + rows.size() > maxRows) {
+                log.warn("学习记录超过快照上限, 放弃学习分析快照, 上限: {}", maxRows);
+                columns = null;
+                return;
+            }
+            rows.forEach(columns::append);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 持有读锁执行查询，扫描期间阻塞追加
+     */
+    private <T> Optional<T> read(Function<Columns, T> query) {
+        lock.readLock().lock();
+        try {
+            return columns != null ? Optional.of(query.apply(columns)) : Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 行数较少时顺序扫描，否则按区间并行扫描后合并各区间的部分结果
+     */
+    private Partial scan(Columns snapshot, Query query) {
+        int size = snapshot.size;
+        if (size < parallelThreshold) {
+            return scanRange(snapshot, query, 0, size);
+        }
+        int partitions = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, size / 4096));
+        return IntStream.range(0, partitions).parallel()
+                .mapToObj(p -> scanRange(snapshot, query,
+                        (int) ((long) size * p / partitions), (int) ((long) size * (p + 1) / partitions)))
+                .reduce(Partial::merge)
+                .orElseGet(() -> new Partial(query.groups, query.dimension == Dimension.INSTITUTION));
+    }
+
+    /**
+     * 扫描一个区间；每种分组使用单独的循环，循环体只访问基本类型数组
+     */
+    private static Partial scanRange(Columns snapshot, Query query, int from, int to) {
+        Partial partial = new Partial(query.groups, query.dimension == Dimension.INSTITUTION);
+        int[] day = snapshot.day;
+        int[] duration = snapshot.duration;
+        byte[] activities = snapshot.activities;
+        int fromDay = query.fromDay;
+        int toDay = query.toDay;
+        long[] durations = partial.duration;
+        long[] counts = partial.count;
+        switch (query.dimension) {
+            case NONE: {
+                long sum = 0;
+                long count = 0;
+                for (int i = from; i < to; i++) {
+                    if (day[i] >= fromDay && day[i] <= toDay) {
+                        sum += duration[i];
+                        count += activities[i];
+                    }
+                }
+                durations[0] = sum;
+                counts[0] = count;
+                break;
+            }
+            case DAY:
+                for (int i = from; i < to; i++) {
+                    int d = day[i];
+                    if (d >= fromDay && d <= toDay) {
+                        durations[d - fromDay] += duration[i];
+                        counts[d - fromDay] += activities[i];
+                    }
+                }
+                break;
+            case ACTIVITY_TYPE: {
+                byte[] type = snapshot.type;
+                for (int i = from; i < to; i++) {
+                    if (day[i] >= fromDay && day[i] <= toDay && type[i] < query.groups) {
+                        durations[type[i]] += duration[i];
+                        counts[type[i]] += activities[i];
+                    }
+                }
+                break;
+            }
+            case INSTITUTION: {
+                int[] institution = snapshot.institution;
+                int[] user = snapshot.user;
+                int[] course = snapshot.course;
+                for (int i = from; i < to; i++) {
+                    int g = institution[i];
+                    if (g >= 0 && g < query.groups && day[i] >= fromDay && day[i] <= toDay) {
+                        durations[g] += duration[i];
+                        counts[g] += activities[i];
+                        partial.users[g].set(user[i]);
+                        partial.courses[g].set(course[i]);
+                    }
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return partial;
+    }
+
+    private enum Dimension {
+        NONE, DAY, ACTIVITY_TYPE, INSTITUTION
+    }
+
+    /**
+     * 一次扫描的分组方式和日期范围
+     */
+    private static class Query {
+        private final Dimension dimension;
+        private final int fromDay;
+        private final int toDay;
+        private final int groups;
+
+        Query(Dimension dimension, LocalDate startDate, LocalDate endDate, int groups) {
+            this.dimension = dimension;
+            this.fromDay = startDate != null ? (int) startDate.toEpochDay() : Integer.MIN_VALUE;
+            this.toDay = endDate != null ? (int) endDate.toEpochDay() : Integer.MAX_VALUE;
+            this.groups = groups;
+        }
+    }
+
+    /**
+     * 一个区间的部分结果，按分组下标累加
+     */
+    private static class Partial {
+        private final long[] duration;
+        private final long[] count;
+        private final BitSet[] users;
+        private final BitSet[] courses;
+
+        Partial(int groups, boolean distinct) {
+            this.duration = new long[Math.max(groups, 1)];
+            this.count = new long[Math.max(groups, 1)];
+            this.users = distinct ? newBitSets(groups) : null;
+            this.courses = distinct ? newBitSets(groups) : null;
+        }
+
+        Partial merge(Partial other) {
+            for (int i = 0; i < duration.length; i++) {
+                duration[i] += other.duration[i];
+                count[i] += other.count[i];
+            }
+            if (users != null) {
+                for (int i = 0; i < users.length; i++) {
+                    users[i].or(other.users[i]);
+                    courses[i].or(other.courses[i]);
+                }
+            }
+            return this;
+        }
+
+        private static BitSet[] newBitSets(int groups) {
+            BitSet[] bitSets = new BitSet[groups];
+            for (int i = 0; i < groups; i++) {
+                bitSets[i] = new BitSet();
+            }
+            return bitSets;
+        }
+    }
+
+    /**
+     * 待追加的一条记录
+     */
+    @AllArgsConstructor
+    private static class Row {
+        private final long userId;
+        private final long courseId;
+        private final Long institutionId;
+        private final String activityType;
+        private final int day;
+        private final int duration;
+        private final byte activities;
+    }
+
+    /**
+     * 列数据，只在写锁内修改
+     */
+    private static class Columns {
+        private final Dictionary users = new Dictionary();
+        private final Dictionary courses = new Dictionary();
+        private final Dictionary institutions = new Dictionary();
+        private final List<String> types = new ArrayList<>();
+        private final Map<String, Byte> typeIndexes = new HashMap<>();
+
+        private int[] user = new int[1024];
+        private int[] course = new int[1024];
+        private int[] institution = new int[1024];
+        private int[] day = new int[1024];
+        private int[] duration = new int[1024];
+        private byte[] type = new byte[1024];
+        // 计入的活动次数，累加到已有聚合记录的追加行为0
+        private byte[] activities = new byte[1024];
+        private int size;
+
+        void append(Row row) {
+            append(row.userId, row.courseId, row.institutionId, row.activityType, row.day, row.duration,
+                    row.activities);
+        }
+
+        void append(long userId, long courseId, Long institutionId, String activityType, int recordDay,
+                    int recordDuration, byte recordActivities) {
+            if (size == day.length) {
+                int capacity = size + (size >> 1);
+                user = Arrays.copyOf(user, capacity);
+                course = Arrays.copyOf(course, capacity);
+                institution = Arrays.copyOf(institution, capacity);
+                day = Arrays.copyOf(day, capacity);
+                duration = Arrays.copyOf(duration, capacity);
+                type = Arrays.copyOf(type, capacity);
+                activities = Arrays.copyOf(activities, capacity);
+            }
+            user[size] = users.indexOf(userId);
+            course[size] = courses.indexOf(courseId);
+            institution[size] = institutionId != null ? institutions.indexOf(institutionId) : -1;
+            day[size] = recordDay;
+            duration[size] = recordDuration;
+            type[size] = typeIndex(activityType);
+            activities[size] = recordActivities;
+            size++;
+        }
+
+        private byte typeIndex(String activityType) {
+            Byte index = typeIndexes.get(activityType);
+            if (index == null) {
+                if (types.size() > Byte.MAX_VALUE) {
+                    throw new IllegalStateException("活动类型过多: " + activityType);
+                }
+                index = (byte) types.size();
+                types.add(activityType);
+                typeIndexes.put(activityType, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * ID字典，把Long ID编码为从0开始的连续int
+     */
+    private static class Dictionary {
+        private final Map<Long, Integer> indexes = new HashMap<>();
+        private long[] ids = new long[256];
+
+        int indexOf(long id) {
+            Integer index = indexes.get(id);
+            if (index == null) {
+                index = indexes.size();
+                if (index == ids.length) {
+                    ids = Arrays.copyOf(ids, index * 2);
+                }
+                ids[index] = id;
+                indexes.put(id, index);
+            }
+            return index;
+        }
+
+        long idAt(int index) {
+            return ids[index];
+        }
+
+        int size() {
+            return indexes.size();
+        }
+    }
+}
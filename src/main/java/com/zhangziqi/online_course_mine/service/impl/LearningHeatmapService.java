@@ -0,0 +1,277 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import com.zhangziqi.online_course_mine.utils.JdbcStreamUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户学习热力图计数器
+ * 每个用户每月一个Redis哈希，字段为"日小时"(ddHH)，值为该小时开始的学习活动的累计时长（秒），
+ * 同时按课程维护一份；星期-小时热力图和按日期的热力图都由范围内各月的哈希汇总得到，不再查询学习记录表。
+ * 与原查询口径一致：学习时长计入活动开始所在的小时
+ */
+@Slf4j
+@Service
+public class LearningHeatmapService extends RedisProjection {
+
+    private static final String KEY_PREFIX = "heatmap:user:";
+
+    private static final Duration REBUILD_LOCK_TTL = Duration.ofHours(1);
+
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    // 按用户排序，逐个用户在内存中汇总后覆盖写入
+    private static final String REBUILD_SQL = "SELECT user_id, course_id, activity_start_time, duration_seconds " +
+            "FROM learning_records WHERE duration_seconds IS NOT NULL AND activity_start_time >= ? " +
+            "ORDER BY user_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CourseEntitlementCache courseEntitlementCache;
+
+    // 热力图数据的保留天数，更早的日期范围回退到数据库查询
+    @Value("${learning.heatmap.retention-days:400}")
+    private int retentionDays = 400;
+
+    public LearningHeatmapService(StringRedisTemplate stringRedisTemplate, RedisTaskLock redisTaskLock,
+                                  JdbcTemplate jdbcTemplate, CourseEntitlementCache courseEntitlementCache,
+                                  @Qualifier("learningAggregationExecutor") Executor learningAggregationExecutor) {
+        super("学习热力图", "heatmap:", REBUILD_LOCK_TTL, stringRedisTemplate, redisTaskLock,
+                learningAggregationExecutor);
+        this.jdbcTemplate = jdbcTemplate;
+        this.courseEntitlementCache = courseEntitlementCache;
+    }
+
+    /**
+     * 学习记录提交后累加已结束的学习记录
+     * 写入失败只记录日志
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onRecordsCommitted(LearningRecordsCommittedEvent event) {
+        Map<String, Map<String, Long>> increments = new HashMap<>();
+        for (LearningRecord record : event.getEndedRecords()) {
+            accumulate(increments, record.getUserId(), record.getCourseId(),
+                    record.getActivityStartTime(), record.getDurationSeconds());
+        }
+        if (increments.isEmpty()) {
+            return;
+        }
+        try {
+            pipeline(increments, false);
+        } catch (Exception e) {
+            log.warn("更新学习热力图失败, 键数: {}", increments.size(), e);
+        }
+    }
+
+    /**
+     * 按星期和小时汇总日期范围内的学习时长
+     *
+     * @param userId 用户ID
+     * @param courseId 课程ID，为null时汇总所有课程
+     * @return 星期(1=周日...7=周六，与MySQL DAYOFWEEK一致) -> 小时 -> 学习时长，只包含有学习记录的单元；
+     *         尚未重建、超出保留期或Redis不可用时为空
+     */
+    public Optional<Map<Integer, Map<Integer, Integer>>> getHourOfWeek(Long userId, Long courseId,
+                                                                       LocalDate startDate, LocalDate endDate) {
+        return read(userId, courseId, startDate, endDate).map(days -> {
+            Map<Integer, Map<Integer, Integer>> heatmap = new HashMap<>();
+            days.forEach((date, hours) -> {
+                int weekday = date.getDayOfWeek().getValue() % 7 + 1;
+                hours.forEach((hour, duration) -> heatmap.computeIfAbsent(weekday, k -> new HashMap<>())
+                        .merge(hour, (int) (long) duration, Integer::sum));
+            });
+            return heatmap;
+        });
+    }
+
+    /**
+     * 按星期和小时汇总用户在课程中的学习时长
+     * 与原查询口径一致，只统计处于正常状态的用户课程，已退款或过期时热力图为空
+     */
+    public Optional<Map<Integer, Map<Integer, Integer>>> getCourseHourOfWeek(Long userId, Long courseId,
+                                                                             LocalDate startDate, LocalDate endDate) {
+        if (!courseEntitlementCache.hasEntitlement(userId, courseId)) {
+            return Optional.of(new HashMap<>());
+        }
+        return getHourOfWeek(userId, courseId, startDate, endDate);
+    }
+
+    /**
+     * 按日期汇总日期范围内的学习时长
+     *
+     * @return 日期(yyyy-MM-dd) -> 学习时长，只包含有学习记录的日期；尚未重建、超出保留期或Redis不可用时为空
+     */
+    public Optional<Map<String, Integer>> getByDate(Long userId, Long courseId, LocalDate startDate, LocalDate endDate) {
+        return read(userId, courseId, startDate, endDate).map(days -> {
+            Map<String, Integer> heatmap = new HashMap<>();
+            days.forEach((date, hours) -> heatmap.put(date.toString(),
+                    (int) hours.values().stream().mapToLong(Long::longValue).sum()));
+            return heatmap;
+        });
+    }
+
+    /**
+     * 转换为与星期-小时热力图查询相同的行：星期、小时、学习时长
+     */
+    public static List<Object[]> toHourOfWeekRows(Map<Integer, Map<Integer, Integer>> heatmap) {
+        List<Object[]> rows = new ArrayList<>();
+        heatmap.forEach((weekday, hours) -> hours.forEach((hour, duration) ->
+                rows.add(new Object[]{weekday, hour, duration})));
+        return rows;
+    }
+
+    /**
+     * 转换为与按日期热力图查询相同的行：日期、学习时长
+     */
+    public static List<Object[]> toDateRows(Map<String, Integer> heatmap) {
+        List<Object[]> rows = new ArrayList<>(heatmap.size());
+        heatmap.forEach((date, duration) -> rows.add(new Object[]{date, duration}));
+        return rows;
+    }
+
+    /**
+     * 从学习记录表重建保留期内的热力图
+     * 记录按用户排序，每个用户的数据汇总完成后删除旧键并整体写入，重复执行结果相同
+     */
+    @Override
+    protected long rebuildFromSource() {
+        LocalDate cutoff = LocalDate.now().minusDays(retentionDays - 1L).withDayOfMonth(1);
+        Map<String, Map<String, Long>> userCounters = new HashMap<>();
+        long[] current = {-1L, 0L};
+        Timestamp from = Timestamp.valueOf(cutoff.atStartOfDay());
+        jdbcTemplate.query(JdbcStreamUtil.streaming(REBUILD_SQL, from), (RowCallbackHandler) rs -> {
+            long userId = rs.getLong(1);
+            if (userId != current[0]) {
+                pipeline(userCounters, true);
+                userCounters.clear();
+                current[0] = userId;
+            }
+            accumulate(userCounters, userId, rs.getLong(2),
+                    rs.getTimestamp(3).toLocalDateTime(), rs.getInt(4));
+            current[1]++;
+        });
+        pipeline(userCounters, true);
+        return current[1];
+    }
+
+    /**
+     * 读取日期范围内各月的哈希
+     *
+     * @return 日期 -> 小时 -> 学习时长
+     */
+    private Optional<Map<LocalDate, Map<Integer, Long>>> read(Long userId, Long courseId,
+                                                             LocalDate startDate, LocalDate endDate) {
+        try {
+            if (startDate.isBefore(LocalDate.now().minusDays(retentionDays - 1L))
+                    || !isReady()) {
+                return Optional.empty();
+            }
+            List<YearMonth> months = new ArrayList<>();
+            for (YearMonth month = YearMonth.from(startDate); !month.isAfter(YearMonth.from(endDate)); month = month.plusMonths(1)) {
+                months.add(month);
+            }
+            List<Object> hashes = stringRedisTemplate.executePipelined(new SessionCallback<List<Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public List<Object> execute(RedisOperations operations) {
+                    for (YearMonth month : months) {
+                        operations.opsForHash().entries(key(userId, courseId, month));
+                    }
+                    return null;
+                }
+            });
+
+            Map<LocalDate, Map<Integer, Long>> days = new TreeMap<>();
+            for (int i = 0; i < months.size(); i++) {
+                @SuppressWarnings("unchecked")
+                Map<Object, Object> fields = (Map<Object, Object>) hashes.get(i);
+                if (fields == null) {
+                    continue;
+                }
+                for (Map.Entry<Object, Object> field : fields.entrySet()) {
+                    String slot = (String) field.getKey();
+                    LocalDate date = months.get(i).atDay(Integer.parseInt(slot.substring(0, 2)));
+                    if (date.isBefore(startDate) || date.isAfter(endDate)) {
+                        continue;
+                    }
+                    days.computeIfAbsent(date, k -> new TreeMap<>())
+                            .merge(Integer.parseInt(slot.substring(2)), Long.parseLong((String) field.getValue()), Long::sum);
+                }
+            }
+            return Optional.of(days);
+        } catch (Exception e) {
+            log.warn("读取学习热力图失败, 用户ID: {}, 课程ID: {}", userId, courseId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 把一条记录累加到用户总体和用户课程两个哈希
+     */
+    private static void accumulate(Map<String, Map<String, Long>> counters, long userId, long courseId,
+                                   LocalDateTime startTime, long duration) {
+        YearMonth month = YearMonth.from(startTime);
+        String slot = String.format("%02d%02d", startTime.getDayOfMonth(), startTime.getHour());
+        counters.computeIfAbsent(key(userId, null, month), k -> new HashMap<>()).merge(slot, duration, Long::sum);
+        counters.computeIfAbsent(key(userId, courseId, month), k -> new HashMap<>()).merge(slot, duration, Long::sum);
+    }
+
+    /**
+     * 在一个管道中写入计数，累加时使用HINCRBY，重建时删除旧键后整体写入
+     */
+    private void pipeline(Map<String, Map<String, Long>> counters, boolean overwrite) {
+        if (counters.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) {
+                for (Map.Entry<String, Map<String, Long>> entry : counters.entrySet()) {
+                    String key = entry.getKey();
+                    if (overwrite) {
+                        Map<String, String> values = new HashMap<>();
+                        entry.getValue().forEach((slot, duration) -> values.put(slot, String.valueOf(duration)));
+                        operations.delete(key);
+                        operations.opsForHash().putAll(key, values);
+                    } else {
+                        entry.getValue().forEach((slot, duration) -> operations.opsForHash().increment(key, slot, duration));
+                    }
+                    operations.expire(key, retentionDays, TimeUnit.DAYS);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static String key(long userId, Long courseId, YearMonth month) {
+        return courseId != null
+                ? KEY_PREFIX + userId + ":course:" + courseId + ":" + month.format(MONTH_FORMAT)
+                : KEY_PREFIX + userId + ":" + month.format(MONTH_FORMAT);
+    }
+}
@@ -0,0 +1,435 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.exception.BusinessException;
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 学习排行榜
+ * 写入学习记录时按学习时长和活动次数增量更新Redis有序集合，
+ * 包括机构内用户排行、机构内课程排行、全平台课程排行和全平台机构排行，
+ * 每个排行分为当日、本周和累计三个时间窗口；读取排行使用ZREVRANGE，复杂度为O(log n + k)。
+ * 累计窗口在启动时（未就绪）和每天凌晨从日汇总表校准，修正写入失败等原因造成的偏差
+ */
+@Slf4j
+@Service
+public class LearningLeaderboardService extends RedisProjection {
+
+    private static final String KEY_PREFIX = "leaderboard:";
+
+    private static final Duration REBUILD_LOCK_TTL = Duration.ofHours(1);
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final String RECENT_ROLLUPS_SQL = "SELECT stat_date, institution_id, course_id, user_id, " +
+            "total_duration, activity_count FROM learning_daily_rollups WHERE stat_date >= ?";
+
+    private static final String INSTITUTION_USER_TOTALS_SQL = "SELECT institution_id, user_id, " +
+            "SUM(total_duration), SUM(activity_count) FROM learning_daily_rollups GROUP BY institution_id, user_id";
+
+    private static final String COURSE_TOTALS_SQL = "SELECT institution_id, course_id, " +
+            "SUM(total_duration), SUM(activity_count) FROM learning_daily_rollups GROUP BY institution_id, course_id";
+
+    private static final String INSTITUTION_TOTALS_SQL = "SELECT institution_id, " +
+            "SUM(total_duration), SUM(activity_count) FROM learning_daily_rollups GROUP BY institution_id";
+
+    private final CourseInstitutionCache courseInstitutionCache;
+    private final JdbcTemplate jdbcTemplate;
+
+    // 当日窗口键的保留天数
+    @Value("${learning.leaderboard.daily-retention-days:8}")
+    private int dailyRetentionDays = 8;
+
+    // 本周窗口键的保留周数
+    @Value("${learning.leaderboard.weekly-retention-weeks:5}")
+    private int weeklyRetentionWeeks = 5;
+
+    // 重建时每个管道写入的行数
+    @Value("${learning.leaderboard.rebuild-batch-size:2000}")
+    private int rebuildBatchSize = 2000;
+
+    public LearningLeaderboardService(StringRedisTemplate stringRedisTemplate, RedisTaskLock redisTaskLock,
+                                      CourseInstitutionCache courseInstitutionCache, JdbcTemplate jdbcTemplate,
+                                      @Qualifier("learningAggregationExecutor") Executor learningAggregationExecutor) {
+        super("学习排行榜", KEY_PREFIX, REBUILD_LOCK_TTL, stringRedisTemplate, redisTaskLock,
+                learningAggregationExecutor);
+        this.courseInstitutionCache = courseInstitutionCache;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 排行榜
+     */
+    public enum Board {
+        // 机构内用户排行，按机构区分
+        INSTITUTION_USERS("institution:%d:users"),
+        // 机构内课程排行，按机构区分
+        INSTITUTION_COURSES("institution:%d:courses"),
+        // 全平台课程排行
+        PLATFORM_COURSES("platform:courses"),
+        // 全平台机构排行
+        PLATFORM_INSTITUTIONS("platform:institutions");
+
+        private final String path;
+
+        Board(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * 排行指标
+     */
+    public enum Metric {
+        DURATION, ACTIVITIES
+    }
+
+    /**
+     * 时间窗口
+     */
+    public enum Window {
+        DAY, WEEK, ALL;
+
+        /**
+         * 解析时间窗口参数(day/week/all)
+         */
+        public static Window of(String value) {
+            if (value == null || value.isEmpty()) {
+                return ALL;
+            }
+            for (Window window : values()) {
+                if (window.name().equalsIgnoreCase(value)) {
+                    return window;
+                }
+            }
+            throw new BusinessException(400, "不支持的时间范围: " + value);
+        }
+    }
+
+    /**
+     * 排行条目
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class RankEntry {
+        private final Long id;
+        private final long duration;
+        private final long activityCount;
+    }
+
+    /**
+     * 学习记录提交后累加已结束的学习记录，与日汇总使用相同的口径
+     * 写入失败只记录日志，由每日校准修正
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onRecordsCommitted(LearningRecordsCommittedEvent event) {
+        List<LearningRecord> ended = event.getEndedRecords();
+        if (ended.isEmpty()) {
+            return;
+        }
+        try {
+            Set<Long> courseIds = new HashSet<>();
+            ended.forEach(record -> courseIds.add(record.getCourseId()));
+            Map<Long, Long> institutions = courseInstitutionCache.getInstitutionIds(courseIds);
+
+            Map<String, Map<String, Double>> increments = new HashMap<>();
+            LocalDate today = LocalDate.now();
+            for (LearningRecord record : ended) {
+                LocalDate date = record.getActivityStartTime().toLocalDate();
+                List<String> windows = windowSuffixes(date, today);
+                windows.add(Window.ALL.name().toLowerCase());
+                accumulate(increments, windows, institutions.get(record.getCourseId()),
+                        record.getCourseId(), record.getUserId(), record.getDurationSeconds(), event.activityCount(record));
+            }
+            increment(Structure.ZSET, increments, this::ttlSeconds);
+        } catch (Exception e) {
+            log.warn("更新学习排行榜失败, 记录数: {}", ended.size(), e);
+        }
+    }
+
+    /**
+     * 获取当前时间窗口的前k名
+     *
+     * @param board 排行榜
+     * @param ownerId 机构排行榜的机构ID，全平台排行榜忽略
+     * @param metric 排序指标
+     * @param window 时间窗口
+     * @param limit 数量
+     * @return 按指标降序排列的条目，排行榜尚未就绪或Redis不可用时为空
+     */
+    public Optional<List<RankEntry>> top(Board board, Long ownerId, Metric metric, Window window, int limit) {
+        try {
+            if (!isReady()) {
+                return Optional.empty();
+            }
+            String suffix = currentSuffix(window);
+            ZSetOperations<String, String> zSet = stringRedisTemplate.opsForZSet();
+            Set<ZSetOperations.TypedTuple<String>> tuples = zSet.reverseRangeWithScores(
+                    key(board, ownerId, metric, suffix), 0, limit - 1L);
+            if (tuples == null || tuples.isEmpty()) {
+                return Optional.of(Collections.emptyList());
+            }
+
+            List<String> members = new ArrayList<>(tuples.size());
+            tuples.forEach(tuple -> members.add(tuple.getValue()));
+            // 另一个指标一次批量读取
+            Metric other = metric == Metric.DURATION ? Metric.ACTIVITIES : Metric.DURATION;
+            List<Double> otherScores = zSet.score(key(board, ownerId, other, suffix), members.toArray());
+
+            List<RankEntry> entries = new ArrayList<>(tuples.size());
+            int index = 0;
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                long score = tuple.getScore() != null ? tuple.getScore().longValue() : 0L;
+                Double otherScore = otherScores != null ? otherScores.get(index) : null;
+                long otherValue = otherScore != null ? otherScore.longValue() : 0L;
+                Long id = Long.valueOf(tuple.getValue());
+                entries.add(metric == Metric.DURATION
+                        ? new RankEntry(id, score, otherValue)
+                        : new RankEntry(id, otherValue, score));
+                index++;
+            }
+            return Optional.of(entries);
+        } catch (Exception e) {
+            log.warn("读取学习排行榜失败, 排行榜: {}, 归属ID: {}", board, ownerId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 获取当前时间窗口内上榜的成员数量
+     *
+     * @return 成员数量，排行榜尚未就绪或Redis不可用时为空
+     */
+    public Optional<Long> size(Board board, Long ownerId, Window window) {
+        try {
+            if (!isReady()) {
+                return Optional.empty();
+            }
+            Long size = stringRedisTemplate.opsForZSet().zCard(key(board, ownerId, Metric.DURATION, currentSuffix(window)));
+            return Optional.of(size != null ? size : 0L);
+        } catch (Exception e) {
+            log.warn("读取学习排行榜失败, 排行榜: {}, 归属ID: {}", board, ownerId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 每天从日汇总表校准排行榜
+     */
+    @Scheduled(cron = "${learning.leaderboard.reconcile-cron:0 40 3 * * ?}")
+    public void reconcile() {
+        reconcileInBackground();
+    }
+
+    /**
+     * 从日汇总表重建排行榜
+     * 分数是ZINCRBY累加的，直接用ZADD覆盖会丢失读取日汇总表之后写入的增量，
+     * 因此汇总值先写入暂存键，重建期间的增量由变化捕获缓冲，最后合并到暂存键后改名为排行榜键；
+     * 日汇总表中已没有数据的排行榜键一并删除
+     */
+    @Override
+    protected long rebuildFromSource() {
+        beginCapture();
+        try {
+            String all = Window.ALL.name().toLowerCase();
+            Set<String> staged = new HashSet<>();
+
+            // 当日和本周窗口：只读取保留期内的日汇总行，在内存中按窗口合并
+            LocalDate today = LocalDate.now();
+            LocalDate oldestDay = today.minusDays(dailyRetentionDays - 1L);
+            LocalDate oldestWeek = today.with(DayOfWeek.MONDAY).minusWeeks(weeklyRetentionWeeks - 1L);
+            Map<String, Map<String, Double>> recent = new HashMap<>();
+            jdbcTemplate.query(RECENT_ROLLUPS_SQL, (RowCallbackHandler) rs -> accumulate(recent,
+                    windowSuffixes(rs.getDate(1).toLocalDate(), today),
+                    rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5), rs.getLong(6)),
+                    Date.valueOf(oldestDay.isBefore(oldestWeek) ? oldestDay : oldestWeek));
+            stage(recent, staged);
+
+            // 累计窗口：每个排行榜一条分组查询，每个成员只出现一次，分批写入暂存键
+            Map<String, Map<String, Double>> batch = new HashMap<>();
+            long[] rows = new long[1];
+            jdbcTemplate.query(INSTITUTION_USER_TOTALS_SQL, (RowCallbackHandler) rs -> {
+                put(batch, Board.INSTITUTION_USERS, rs.getLong(1), all, String.valueOf(rs.getLong(2)),
+                        rs.getLong(3), rs.getLong(4));
+                flushIfFull(batch, ++rows[0], staged);
+            });
+            jdbcTemplate.query(COURSE_TOTALS_SQL, (RowCallbackHandler) rs -> {
+                String courseId = String.valueOf(rs.getLong(2));
+                put(batch, Board.INSTITUTION_COURSES, rs.getLong(1), all, courseId, rs.getLong(3), rs.getLong(4));
+                put(batch, Board.PLATFORM_COURSES, null, all, courseId, rs.getLong(3), rs.getLong(4));
+                flushIfFull(batch, ++rows[0], staged);
+            });
+            jdbcTemplate.query(INSTITUTION_TOTALS_SQL, (RowCallbackHandler) rs -> {
+                put(batch, Board.PLATFORM_INSTITUTIONS, null, all, String.valueOf(rs.getLong(1)),
+                        rs.getLong(2), rs.getLong(3));
+                flushIfFull(batch, ++rows[0], staged);
+            });
+            stage(batch, staged);
+
+            Set<String> keys = new HashSet<>(staged);
+            keys.addAll(scanKeys(KEY_PREFIX + "institution:*"));
+            keys.addAll(scanKeys(KEY_PREFIX + "platform:*"));
+            switchKeys(Structure.ZSET, keys, this::ttlSeconds);
+            return rows[0];
+        } finally {
+            endCapture();
+        }
+    }
+
+    private void flushIfFull(Map<String, Map<String, Double>> batch, long rows, Set<String> staged) {
+        if (rows % rebuildBatchSize == 0) {
+            stage(batch, staged);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 把一次学习计入所有相关排行榜的指定窗口
+     */
+    private void accumulate(Map<String, Map<String, Double>> scores, List<String> windows, Long institutionId,
+                            Long courseId, Long userId, long duration, long activityCount) {
+        for (String window : windows) {
+            add(scores, Board.PLATFORM_COURSES, null, window, String.valueOf(courseId), duration, activityCount);
+            if (institutionId != null) {
+                add(scores, Board.INSTITUTION_USERS, institutionId, window, String.valueOf(userId), duration, activityCount);
+                add(scores, Board.INSTITUTION_COURSES, institutionId, window, String.valueOf(courseId), duration, activityCount);
+                add(scores, Board.PLATFORM_INSTITUTIONS, null, window, String.valueOf(institutionId), duration, activityCount);
+            }
+        }
+    }
+
+    private void add(Map<String, Map<String, Double>> scores, Board board, Long ownerId, String window,
+                     String member, long duration, long activityCount) {
+        scores.computeIfAbsent(key(board, ownerId, Metric.DURATION, window), k -> new HashMap<>())
+                .merge(member, (double) duration, Double::sum);
+        scores.computeIfAbsent(key(board, ownerId, Metric.ACTIVITIES, window), k -> new HashMap<>())
+                .merge(member, (double) activityCount, Double::sum);
+    }
+
+    private void put(Map<String, Map<String, Double>> scores, Board board, Long ownerId, String window,
+                     String member, long duration, long activityCount) {
+        scores.computeIfAbsent(key(board, ownerId, Metric.DURATION, window), k -> new HashMap<>())
+                .put(member, (double) duration);
+        scores.computeIfAbsent(key(board, ownerId, Metric.ACTIVITIES, window), k -> new HashMap<>())
+                .put(member, (double) activityCount);
+    }
+
+    /**
+     * 在一个管道中把分数写入暂存键，键在本次重建中第一次写入时先清除上一次中断的重建留下的数据；
+     * 暂存键在重建锁到期时过期
+     */
+    private void stage(Map<String, Map<String, Double>> scores, Set<String> staged) {
+        if (scores.isEmpty()) {
+            return;
+        }
+        Set<String> first = new HashSet<>();
+        scores.keySet().forEach(key -> {
+            if (staged.add(key)) {
+                first.add(key);
+            }
+        });
+        stringRedisTemplate.executePipelined(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) {
+                for (Map.Entry<String, Map<String, Double>> entry : scores.entrySet()) {
+                    String stagingKey = stagingKey(entry.getKey());
+                    if (first.contains(entry.getKey())) {
+                        operations.delete(stagingKey);
+                    }
+                    for (Map.Entry<String, Double> member : entry.getValue().entrySet()) {
+                        operations.opsForZSet().add(stagingKey, member.getKey(), member.getValue());
+                    }
+                    operations.expire(stagingKey, REBUILD_LOCK_TTL.toSeconds(), TimeUnit.SECONDS);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 学习日期所在的、仍在保留期内的当日和本周窗口
+     */
+    private List<String> windowSuffixes(LocalDate date, LocalDate today) {
+        List<String> windows = new ArrayList<>(3);
+        if (!date.isBefore(today.minusDays(dailyRetentionDays - 1L))) {
+            windows.add(daySuffix(date));
+        }
+        if (!date.with(DayOfWeek.MONDAY).isBefore(today.with(DayOfWeek.MONDAY).minusWeeks(weeklyRetentionWeeks - 1L))) {
+            windows.add(weekSuffix(date));
+        }
+        return windows;
+    }
+
+    private String currentSuffix(Window window) {
+        LocalDate today = LocalDate.now();
+        switch (window) {
+            case DAY:
+                return daySuffix(today);
+            case WEEK:
+                return weekSuffix(today);
+            case ALL:
+            default:
+                return Window.ALL.name().toLowerCase();
+        }
+    }
+
+    /**
+     * 排行榜键的过期秒数，累计窗口不过期
+     */
+    private long ttlSeconds(String key) {
+        if (key.contains(":day:")) {
+            return TimeUnit.DAYS.toSeconds(dailyRetentionDays);
+        }
+        if (key.contains(":week:")) {
+            return TimeUnit.DAYS.toSeconds(weeklyRetentionWeeks * 7L);
+        }
+        return 0;
+    }
+
+    private static String daySuffix(LocalDate date) {
+        return "day:" + date.format(DATE_FORMAT);
+    }
+
+    /**
+     * 本周窗口以周一的日期标识
+     */
+    private static String weekSuffix(LocalDate date) {
+        return "week:" + date.with(DayOfWeek.MONDAY).format(DATE_FORMAT);
+    }
+
+    private static String key(Board board, Long ownerId, Metric metric, String window) {
+        return KEY_PREFIX + String.format(board.path, ownerId) + ":" + metric.name().toLowerCase() + ":" + window;
+    }
+}
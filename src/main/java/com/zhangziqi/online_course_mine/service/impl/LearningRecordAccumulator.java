@@ -0,0 +1,236 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.service.impl.RedisLearningRecordService.LearningRecordIncrement;
+import jakarta.annotation.PreDestroy;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 学习时长写后累加器
+ * 在内存中按（日期、用户、课程、活动类型）累加学习时长，定期批量刷新到Redis，
+ * 用于降低心跳式上报产生的Redis写入量
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LearningRecordAccumulator {
+
+    private final RedisLearningRecordService redisLearningRecordService;
+
+    // 每次脚本调用写入的最大键数量
+    @Value("${learning.record.accumulator.flush-batch-size:500}")
+    private int flushBatchSize = 500;
+
+    private final ConcurrentHashMap<AccumulatorKey, Slot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * 累加学习时长
+     * 只涉及一次Map查找和一次LongAdder累加，不访问Redis
+     */
+    public void add(Long userId, Long courseId, Long chapterId, Long sectionId,
+                    String activityType, int durationSeconds, String contextData) {
+        AccumulatorKey key = new AccumulatorKey(LocalDate.now(), userId, courseId, activityType);
+        while (true) {
+            Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+            if (slot.tryAcquire()) {
+                try {
+                    slot.duration.add(durationSeconds);
+                    slot.update(chapterId, sectionId, contextData);
+                } finally {
+                    slot.release();
+                }
+                return;
+            }
+            // 槽位已被刷新线程回收，移除后重试
+            slots.remove(key, slot);
+        }
+    }
+
+    /**
+     * 定期把累加的时长刷新到Redis
+     */
+    @Scheduled(fixedDelayString = "${learning.record.accumulator.flush-interval-ms:5000}")
+    public void scheduledFlush() {
+        flush();
+    }
+
+    /**
+     * 应用关闭时刷新剩余的时长
+     */
+    @PreDestroy
+    public void drainOnShutdown() {
+        int flushed = flush();
+        log.info("应用关闭，已刷新累加器中的学习记录, 键数: {}", flushed);
+    }
+
+    /**
+     * 刷新累加的时长到Redis
+     * 上一轮刷新后没有新增量的槽位会被回收，避免Map无限增长
+     *
+     * @return 刷新的键数量
+     */
+    public synchronized int flush() {
+        List<LearningRecordIncrement> increments = new ArrayList<>();
+        for (Map.Entry<AccumulatorKey, Slot> entry : slots.entrySet()) {
+            AccumulatorKey key = entry.getKey();
+            Slot slot = entry.getValue();
+
+            long duration = slot.duration.sumThenReset();
+            if (duration == 0 && slot.tryRetire()) {
+                // 回收前再取一次，包含回收前最后一刻完成的累加
+                slots.remove(key, slot);
+                duration = slot.duration.sumThenReset();
+            }
+            if (duration > 0) {
+                increments.add(slot.toIncrement(key, duration));
+            }
+        }
+
+        if (increments.isEmpty()) {
+            return 0;
+        }
+
+        int flushed = 0;
+        for (int from = 0; from < increments.size(); from += flushBatchSize) {
+            List<LearningRecordIncrement> batch = increments.subList(from, Math.min(from + flushBatchSize, increments.size()));
+            try {
+                flushed += redisLearningRecordService.batchUpdateLearningRecords(batch);
+            } catch (Exception e) {
+                // 写入失败时把时长放回累加器，下次刷新重试
+                log.error("刷新学习记录累加器失败, 键数: {}", batch.size(), e);
+                batch.forEach(this::restore);
+            }
+        }
+
+        log.debug("刷新学习记录累加器, 键数: {}", flushed);
+        return flushed;
+    }
+
+    /**
+     * 当前待刷新的键数量
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    private void restore(LearningRecordIncrement increment) {
+        AccumulatorKey key = new AccumulatorKey(increment.getDate(), increment.getUserId(),
+                increment.getCourseId(), increment.getActivityType());
+        while (true) {
+            Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+            if (slot.tryAcquire()) {
+                try {
+                    slot.duration.add(increment.getDurationSeconds());
+                    // 恢复时不覆盖之后写入的新位置信息
+                    slot.updateIfAbsent(increment.getChapterId(), increment.getSectionId(), increment.getContextData());
+                } finally {
+                    slot.release();
+                }
+                return;
+            }
+            slots.remove(key, slot);
+        }
+    }
+
+    /**
+     * 累加器键
+     */
+    @EqualsAndHashCode
+    private static final class AccumulatorKey {
+        private final LocalDate date;
+        private final Long userId;
+        private final Long courseId;
+        private final String activityType;
+
+        private AccumulatorKey(LocalDate date, Long userId, Long courseId, String activityType) {
+            this.date = date;
+            this.userId = userId;
+            this.courseId = courseId;
+            this.activityType = activityType;
+        }
+    }
+
+    /**
+     * 累加槽位
+     * writers记录正在累加的线程数，为-1表示槽位已回收；
+     * 只有没有正在累加的线程时才能回收，保证累加不会丢失
+     */
+    private static final class Slot {
+        private static final int RETIRED = -1;
+
+        private final LongAdder duration = new LongAdder();
+        private final AtomicInteger writers = new AtomicInteger();
+        private volatile Long chapterId;
+        private volatile Long sectionId;
+        private volatile String contextData;
+
+        boolean tryAcquire() {
+            while (true) {
+                int current = writers.get();
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (writers.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            writers.decrementAndGet();
+        }
+
+        boolean tryRetire() {
+            return writers.compareAndSet(0, RETIRED);
+        }
+
+        void update(Long chapterId, Long sectionId, String contextData) {
+            if (chapterId != null) {
+                this.chapterId = chapterId;
+            }
+            if (sectionId != null) {
+                this.sectionId = sectionId;
+            }
+            if (contextData != null) {
+                this.contextData = contextData;
+            }
+        }
+
+        void updateIfAbsent(Long chapterId, Long sectionId, String contextData) {
+            if (this.chapterId == null) {
+                this.chapterId = chapterId;
+            }
+            if (this.sectionId == null) {
+                this.sectionId = sectionId;
+            }
+            if (this.contextData == null) {
+                this.contextData = contextData;
+            }
+        }
+
+        LearningRecordIncrement toIncrement(AccumulatorKey key, long duration) {
+            return LearningRecordIncrement.builder()
+                    .date(key.date)
+                    .userId(key.userId)
+                    .courseId(key.courseId)
+                    .chapterId(chapterId)
+                    .sectionId(sectionId)
+                    .activityType(key.activityType)
+                    .durationSeconds(duration)
+                    .contextData(contextData)
+                    .build();
+        }
+    }
+}
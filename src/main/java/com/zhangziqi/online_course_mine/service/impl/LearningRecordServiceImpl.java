@@ -1,6 +1,7 @@
 package com.zhangziqi.online_course_mine.service.impl;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
 import com.zhangziqi.online_course_mine.exception.BusinessException;
 import com.zhangziqi.online_course_mine.exception.ResourceNotFoundException;
 import com.zhangziqi.online_course_mine.model.dto.LearningRecordCompletedDTO;
@@ -8,21 +9,25 @@ import com.zhangziqi.online_course_mine.model.dto.LearningRecordEndDTO;
 import com.zhangziqi.online_course_mine.model.dto.LearningRecordStartDTO;
 import com.zhangziqi.online_course_mine.model.entity.*;
 import com.zhangziqi.online_course_mine.model.enums.LearningActivityType;
-import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
 import com.zhangziqi.online_course_mine.model.vo.ActivityTypeStatVO;
 import com.zhangziqi.online_course_mine.model.vo.DailyLearningStatVO;
 import com.zhangziqi.online_course_mine.model.vo.DateLearningHeatmapVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningHeatmapVO;
+import com.zhangziqi.online_course_mine.model.vo.LearningRecordBatchResultVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningRecordVO;
 import com.zhangziqi.online_course_mine.repository.*;
 import com.zhangziqi.online_course_mine.service.LearningRecordService;
+import com.zhangziqi.online_course_mine.service.impl.LearningSessionService.LearningSession;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -31,7 +36,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -43,13 +51,48 @@ import java.util.stream.Collectors;
 public class LearningRecordServiceImpl implements LearningRecordService {
 
     private final LearningRecordRepository learningRecordRepository;
+    private final LearningRecordJdbcRepository learningRecordJdbcRepository;
     private final UserRepository userRepository;
     private final CourseRepository courseRepository;
     private final ChapterRepository chapterRepository;
     private final SectionRepository sectionRepository;
-    private final UserCourseRepository userCourseRepository;
     private final ObjectMapper objectMapper;
     private final RedisLearningRecordService redisLearningRecordService;
+    private final LearningRecordAccumulator learningRecordAccumulator;
+    private final LearningRecordStreamService learningRecordStreamService;
+    private final LearningSessionService learningSessionService;
+    private final CourseEntitlementCache courseEntitlementCache;
+    private final LearnerSketchService learnerSketchService;
+    private final LearningHeatmapService learningHeatmapService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 是否启用学习事件流，默认关闭
+     * 启用后已完成的学习活动追加到Redis Stream，由消费组持续写入数据库，优先于内存累加模式；
+     * 两者都未启用时通过Lua脚本直接写入Redis，由定时聚合任务写入数据库
+     */
+    @Value("${learning.record.stream.enabled:false}")
+    private boolean streamEnabled;
+
+    /**
+     * 是否启用内存累加模式
+     * 启用后学习时长先在内存中累加，再由累加器定期批量写入Redis
+     */
+    @Value("${learning.record.accumulator.enabled:false}")
+    private boolean accumulatorEnabled;
+
+    /**
+     * 批量上报时单次允许的最大条目数
+     */
+    @Value("${learning.record.batch.max-size:500}")
+    private int maxBatchSize = 500;
+
+    /**
+     * 是否启用学习会话模式
+     * 启用后进行中的活动只保存在Redis中，结束后才通过批量写入路径记录，不再插入和更新数据库记录
+     */
+    @Value("${learning.record.session.enabled:false}")
+    private boolean sessionEnabled;
 
     @Override
     @Transactional
@@ -66,19 +109,21 @@ public class LearningRecordServiceImpl implements LearningRecordService {
                 .orElseThrow(() -> new ResourceNotFoundException("课程不存在"));
 
         // 验证用户是否已购买课程，并且课程状态为正常（未退款、未过期）
-        if (!userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(userId, dto.getCourseId(),
-                UserCourseStatus.NORMAL.getValue())) {
+        if (!courseEntitlementCache.hasEntitlement(userId, dto.getCourseId())) {
             throw new BusinessException(403, "请先购买课程再进行学习，或检查课程是否已过期或退款");
         }
 
-        // 如果有正在进行的活动，先结束它
-        Optional<LearningRecord> ongoingActivity = learningRecordRepository.findByUser_IdAndActivityEndTimeIsNull(userId);
+        // 如果有正在进行的活动，先结束它（会话模式下在替换会话时结束）
+        Optional<LearningRecord> ongoingActivity = sessionEnabled ? Optional.empty()
+                : learningRecordRepository.findByUser_IdAndActivityEndTimeIsNull(userId);
         if (ongoingActivity.isPresent()) {
             LearningRecord ongoing = ongoingActivity.get();
             ongoing.setActivityEndTime(LocalDateTime.now());
             ongoing.setDurationSeconds((int) (ongoing.getActivityEndTime().toEpochSecond(ZoneOffset.UTC) -
                     ongoing.getActivityStartTime().toEpochSecond(ZoneOffset.UTC)));
             learningRecordRepository.save(ongoing);
+            learningRecordJdbcRepository.upsertDailyRollups(List.of(ongoing));
+            eventPublisher.publishEvent(new LearningRecordsCommittedEvent(List.of(ongoing)));
             log.info("自动结束之前未完成的学习活动, ID: {}", ongoing.getId());
         }
 
@@ -99,6 +144,13 @@ public class LearningRecordServiceImpl implements LearningRecordService {
             throw new BusinessException(400, "无效的活动类型");
         }
 
+        // 开始学习即计入学习人数，与按学习记录统计人数的口径一致
+        learnerSketchService.add(userId, course.getId(), course.getInstitutionId(), LocalDate.now());
+
+        if (sessionEnabled) {
+            return startSession(userId, course, chapter, section, dto);
+        }
+
         // 创建学习记录
         LearningRecord record = LearningRecord.builder()
                 .user(user)
@@ -121,6 +173,13 @@ public class LearningRecordServiceImpl implements LearningRecordService {
     public LearningRecordVO endActivity(Long userId, Long recordId, LearningRecordEndDTO dto) {
         log.info("结束学习活动, 用户ID: {}, 记录ID: {}", userId, recordId);
 
+        // 会话ID为负数，与学习记录ID不会重叠；正数ID按数据库记录处理，兼容启用会话模式前开始的活动
+        if (LearningSessionService.isSessionId(recordId)) {
+            return learningSessionService.finishSession(userId, recordId)
+                    .map(session -> completeSession(session, LocalDateTime.now(), dto.getContextData()))
+                    .orElseThrow(() -> new ResourceNotFoundException("学习会话不存在或已结束"));
+        }
+
         // 获取学习记录
         LearningRecord record = learningRecordRepository.findById(recordId)
                 .orElseThrow(() -> new ResourceNotFoundException("学习记录不存在"));
@@ -146,6 +205,9 @@ public class LearningRecordServiceImpl implements LearningRecordService {
         }
 
         LearningRecord updatedRecord = learningRecordRepository.save(record);
+        // 活动结束后才有持续时长，此时累加日汇总
+        learningRecordJdbcRepository.upsertDailyRollups(List.of(updatedRecord));
+        eventPublisher.publishEvent(new LearningRecordsCommittedEvent(List.of(updatedRecord)));
         log.info("成功结束学习活动, ID: {}, 持续时间: {}秒", updatedRecord.getId(), updatedRecord.getDurationSeconds());
 
         return LearningRecordVO.fromEntity(updatedRecord);
@@ -166,8 +228,7 @@ public class LearningRecordServiceImpl implements LearningRecordService {
                 .orElseThrow(() -> new ResourceNotFoundException("课程不存在"));
 
         // 验证用户是否已购买课程，并且课程状态为正常（未退款、未过期）
-        if (!userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(userId, dto.getCourseId(),
-                UserCourseStatus.NORMAL.getValue())) {
+        if (!courseEntitlementCache.hasEntitlement(userId, dto.getCourseId())) {
             throw new BusinessException(403, "请先购买课程再进行学习，或检查课程是否已过期或退款");
         }
 
@@ -193,18 +254,205 @@ public class LearningRecordServiceImpl implements LearningRecordService {
             throw new BusinessException(400, "持续时间必须大于0");
         }
 
-        // 使用Redis服务存储学习记录
-        redisLearningRecordService.updateLearningRecord(
-                userId,
-                dto.getCourseId(),
-                dto.getChapterId(),
-                dto.getSectionId(),
-                dto.getActivityType(),
-                dto.getDurationSeconds(),
-                dto.getContextData()
-        );
+        if (streamEnabled) {
+            // 追加到学习事件流，由消费组折叠后写入学习记录和日汇总
+            learningRecordStreamService.publish(
+                    userId,
+                    dto.getCourseId(),
+                    dto.getChapterId(),
+                    dto.getSectionId(),
+                    dto.getActivityType(),
+                    dto.getDurationSeconds(),
+                    dto.getContextData()
+            );
+        } else if (accumulatorEnabled) {
+            // 累加到内存，由累加器定期批量写入Redis
+            learningRecordAccumulator.add(
+                    userId,
+                    dto.getCourseId(),
+                    dto.getChapterId(),
+                    dto.getSectionId(),
+                    dto.getActivityType(),
+                    dto.getDurationSeconds(),
+                    dto.getContextData()
+            );
+        } else {
+            // 使用Redis服务存储学习记录
+            redisLearningRecordService.updateLearningRecord(
+                    userId,
+                    dto.getCourseId(),
+                    dto.getChapterId(),
+                    dto.getSectionId(),
+                    dto.getActivityType(),
+                    dto.getDurationSeconds(),
+                    dto.getContextData()
+            );
+        }
 
         // 构建返回对象
+        LearningRecordVO vo = buildCompletedActivityVO(userId, dto, activityType, course, chapter, section);
+
+        log.info("成功记录已完成学习活动到Redis, 用户ID: {}, 课程ID: {}, 活动类型: {}, 持续时间: {}秒",
+                userId, dto.getCourseId(), dto.getActivityType(), dto.getDurationSeconds());
+
+        return vo;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public LearningRecordBatchResultVO recordCompletedActivities(Long userId, List<LearningRecordCompletedDTO> dtos) {
+        if (dtos == null || dtos.isEmpty()) {
+            throw new BusinessException(400, "学习活动列表不能为空");
+        }
+        if (dtos.size() > maxBatchSize) {
+            throw new BusinessException(400, "单次最多上报" + maxBatchSize + "条学习活动");
+        }
+        log.info("批量记录已完成学习活动, 用户ID: {}, 条目数: {}", userId, dtos.size());
+
+        // 验证用户
+        if (!userRepository.existsById(userId)) {
+            throw new ResourceNotFoundException("用户不存在");
+        }
+
+        // 课程、章节、小节各只查询一次，购买状态从课程权限缓存中一次取出
+        Set<Long> courseIds = dtos.stream()
+                .filter(Objects::nonNull)
+                .map(LearningRecordCompletedDTO::getCourseId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, Course> courses = courseIds.isEmpty() ? Map.of() : courseRepository.findAllById(courseIds).stream()
+                .collect(Collectors.toMap(Course::getId, Function.identity()));
+        Set<Long> entitledCourseIds = courseEntitlementCache.getEntitledCourseIds(userId);
+        Map<Long, Chapter> chapters = findAllById(dtos, LearningRecordCompletedDTO::getChapterId,
+                chapterRepository::findAllById, Chapter::getId);
+        Map<Long, Section> sections = findAllById(dtos, LearningRecordCompletedDTO::getSectionId,
+                sectionRepository::findAllById, Section::getId);
+
+        List<LearningRecordBatchResultVO.ItemResult> items = new ArrayList<>(dtos.size());
+        List<LearningRecordCompletedDTO> accepted = new ArrayList<>(dtos.size());
+        for (int i = 0; i < dtos.size(); i++) {
+            LearningRecordCompletedDTO dto = dtos.get(i);
+            LearningRecordBatchResultVO.ItemResult item = LearningRecordBatchResultVO.ItemResult.builder()
+                    .index(i)
+                    .build();
+            items.add(item);
+
+            String error = validateCompletedActivity(dto, courses, entitledCourseIds);
+            if (error != null) {
+                item.setSuccess(false);
+                item.setErrorMessage(error);
+                continue;
+            }
+
+            LearningActivityType activityType = LearningActivityType.getByCode(dto.getActivityType());
+            item.setSuccess(true);
+            item.setRecord(buildCompletedActivityVO(userId, dto, activityType, courses.get(dto.getCourseId()),
+                    dto.getChapterId() != null ? chapters.get(dto.getChapterId()) : null,
+                    dto.getSectionId() != null ? sections.get(dto.getSectionId()) : null));
+            accepted.add(dto);
+        }
+
+        // 所有有效条目一次写入
+        writeCompletedActivities(userId, accepted);
+
+        log.info("批量记录已完成学习活动完成, 用户ID: {}, 成功: {}, 失败: {}",
+                userId, accepted.size(), dtos.size() - accepted.size());
+
+        return LearningRecordBatchResultVO.builder()
+                .totalCount(dtos.size())
+                .successCount(accepted.size())
+                .failureCount(dtos.size() - accepted.size())
+                .items(items)
+                .build();
+    }
+
+    /**
+     * 验证批量上报中的单条学习活动
+     *
+     * @return 错误信息，验证通过时返回null
+     */
+    private String validateCompletedActivity(LearningRecordCompletedDTO dto, Map<Long, Course> courses,
+                                             Set<Long> entitledCourseIds) {
+        if (dto == null || dto.getCourseId() == null) {
+            return "课程ID不能为空";
+        }
+        if (!courses.containsKey(dto.getCourseId())) {
+            return "课程不存在";
+        }
+        if (!entitledCourseIds.contains(dto.getCourseId())) {
+            return "请先购买课程再进行学习，或检查课程是否已过期或退款";
+        }
+        if (LearningActivityType.getByCode(dto.getActivityType()) == null) {
+            return "无效的活动类型";
+        }
+        if (dto.getDurationSeconds() == null || dto.getDurationSeconds() <= 0) {
+            return "持续时间必须大于0";
+        }
+        return null;
+    }
+
+    /**
+     * 按ID批量查询关联实体
+     */
+    private <T> Map<Long, T> findAllById(List<LearningRecordCompletedDTO> dtos,
+                                         Function<LearningRecordCompletedDTO, Long> idGetter,
+                                         Function<Set<Long>, List<T>> finder,
+                                         Function<T, Long> entityId) {
+        Set<Long> ids = dtos.stream()
+                .filter(Objects::nonNull)
+                .map(idGetter)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        return finder.apply(ids).stream().collect(Collectors.toMap(entityId, Function.identity()));
+    }
+
+    /**
+     * 一次写入多条已完成的学习活动，写入方式与单条上报一致
+     */
+    private void writeCompletedActivities(Long userId, List<LearningRecordCompletedDTO> dtos) {
+        if (dtos.isEmpty()) {
+            return;
+        }
+
+        List<RedisLearningRecordService.LearningRecordIncrement> increments = dtos.stream()
+                .map(dto -> RedisLearningRecordService.LearningRecordIncrement.builder()
+                        .userId(userId)
+                        .courseId(dto.getCourseId())
+                        .chapterId(dto.getChapterId())
+                        .sectionId(dto.getSectionId())
+                        .activityType(dto.getActivityType())
+                        .durationSeconds(dto.getDurationSeconds())
+                        .contextData(dto.getContextData())
+                        .build())
+                .collect(Collectors.toList());
+
+        if (streamEnabled) {
+            // 通过管道一次追加到学习事件流
+            learningRecordStreamService.publishBatch(increments);
+        } else if (accumulatorEnabled) {
+            increments.forEach(increment -> learningRecordAccumulator.add(
+                    increment.getUserId(),
+                    increment.getCourseId(),
+                    increment.getChapterId(),
+                    increment.getSectionId(),
+                    increment.getActivityType(),
+                    (int) increment.getDurationSeconds(),
+                    increment.getContextData()));
+        } else {
+            // 一次脚本调用写入所有Redis键
+            redisLearningRecordService.batchUpdateLearningRecords(increments);
+        }
+    }
+
+    /**
+     * 构建已完成学习活动的返回对象
+     */
+    private LearningRecordVO buildCompletedActivityVO(Long userId, LearningRecordCompletedDTO dto,
+                                                      LearningActivityType activityType, Course course,
+                                                      Chapter chapter, Section section) {
         LearningRecordVO vo = new LearningRecordVO();
         vo.setUserId(userId);
         vo.setCourseId(dto.getCourseId());
@@ -229,9 +477,84 @@ public class LearningRecordServiceImpl implements LearningRecordService {
         vo.setActivityStartTime(now.minusSeconds(dto.getDurationSeconds()));
         vo.setActivityEndTime(now);
 
-        log.info("成功记录已完成学习活动到Redis, 用户ID: {}, 课程ID: {}, 活动类型: {}, 持续时间: {}秒",
-                userId, dto.getCourseId(), dto.getActivityType(), dto.getDurationSeconds());
+        return vo;
+    }
+
+    /**
+     * 在Redis中开始学习会话，用户之前未结束的会话在此结束并记录
+     */
+    private LearningRecordVO startSession(Long userId, Course course, Chapter chapter, Section section,
+                                          LearningRecordStartDTO dto) {
+        LocalDateTime now = LocalDateTime.now();
+        LearningSession session = LearningSession.builder()
+                .userId(userId)
+                .courseId(course.getId())
+                .courseTitle(course.getTitle())
+                .chapterId(chapter != null ? chapter.getId() : null)
+                .chapterTitle(chapter != null ? chapter.getTitle() : null)
+                .sectionId(section != null ? section.getId() : null)
+                .sectionTitle(section != null ? section.getTitle() : null)
+                .activityType(dto.getActivityType())
+                .startTime(now)
+                .contextData(dto.getContextData())
+                .build();
+
+        learningSessionService.startSession(session).ifPresent(previous -> {
+            completeSession(previous, now, null);
+            log.info("自动结束之前未完成的学习会话, ID: {}", previous.getSessionId());
+        });
+
+        log.info("成功开始学习会话, ID: {}", session.getSessionId());
+        return toSessionVO(session, null);
+    }
+
+    /**
+     * 结束学习会话，通过与已完成活动相同的批量写入路径记录
+     */
+    private LearningRecordVO completeSession(LearningSession session, LocalDateTime endTime, String contextData) {
+        if (contextData != null && !contextData.isEmpty()) {
+            session.setContextData(contextData);
+        }
+
+        int duration = (int) Math.max(0, Duration.between(session.getStartTime(), endTime).getSeconds());
+        if (duration > 0) {
+            writeCompletedActivities(session.getUserId(), List.of(LearningRecordCompletedDTO.builder()
+                    .courseId(session.getCourseId())
+                    .chapterId(session.getChapterId())
+                    .sectionId(session.getSectionId())
+                    .activityType(session.getActivityType())
+                    .durationSeconds(duration)
+                    .contextData(session.getContextData())
+                    .build()));
+        }
 
+        LearningRecordVO vo = toSessionVO(session, endTime);
+        vo.setDurationSeconds(duration);
+        log.info("成功结束学习会话, ID: {}, 持续时间: {}秒", session.getSessionId(), duration);
+        return vo;
+    }
+
+    /**
+     * 构建学习会话的返回对象，会话ID作为记录ID返回，用于结束活动
+     */
+    private LearningRecordVO toSessionVO(LearningSession session, LocalDateTime endTime) {
+        LearningActivityType activityType = LearningActivityType.getByCode(session.getActivityType());
+
+        LearningRecordVO vo = new LearningRecordVO();
+        vo.setId(session.getSessionId());
+        vo.setUserId(session.getUserId());
+        vo.setCourseId(session.getCourseId());
+        vo.setCourseTitle(session.getCourseTitle());
+        vo.setChapterId(session.getChapterId());
+        vo.setChapterTitle(session.getChapterTitle());
+        vo.setSectionId(session.getSectionId());
+        vo.setSectionTitle(session.getSectionTitle());
+        vo.setActivityType(session.getActivityType());
+        vo.setActivityTypeDescription(activityType != null ? activityType.getDescription() : null);
+        vo.setActivityStartTime(session.getStartTime());
+        vo.setActivityEndTime(endTime);
+        vo.setContextData(session.getContextData());
+        vo.setCreatedAt(session.getStartTime());
         return vo;
     }
 
@@ -240,6 +563,10 @@ public class LearningRecordServiceImpl implements LearningRecordService {
     public Optional<LearningRecordVO> findOngoingActivity(Long userId) {
         log.info("查找用户当前进行中的学习活动, 用户ID: {}", userId);
 
+        if (sessionEnabled) {
+            return learningSessionService.getSession(userId).map(session -> toSessionVO(session, null));
+        }
+
         Optional<LearningRecord> record = learningRecordRepository.findByUser_IdAndActivityEndTimeIsNull(userId);
         return record.map(LearningRecordVO::fromEntity);
     }
@@ -353,9 +680,11 @@ public class LearningRecordServiceImpl implements LearningRecordService {
         LocalDateTime startDateTime = startDate.atStartOfDay();
         LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
 
-        // 查询热力图数据
-        List<Object[]> results = learningRecordRepository.findLearningHeatmapDataByUser(
-                userId, startDateTime, endDateTime);
+        // 优先汇总Redis中的热力图计数，尚未就绪时查询学习记录
+        List<Object[]> results = learningHeatmapService.getHourOfWeek(userId, null, startDate, endDate)
+                .map(LearningHeatmapService::toHourOfWeekRows)
+                .orElseGet(() -> learningRecordRepository.findLearningHeatmapDataByUser(
+                        userId, startDateTime, endDateTime));
 
         // 处理查询结果
         Map<Integer, Map<Integer, Integer>> heatmapData = new HashMap<>();
@@ -396,9 +725,11 @@ public class LearningRecordServiceImpl implements LearningRecordService {
         LocalDateTime startDateTime = startDate.atStartOfDay();
         LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
 
-        // 查询按日期分组的热力图数据
-        List<Object[]> results = learningRecordRepository.findLearningHeatmapDataByUserGroupByDate(
-                userId, startDateTime, endDateTime);
+        // 查询按日期分组的热力图数据，Redis中的热力图计数尚未就绪时查询学习记录
+        List<Object[]> results = learningHeatmapService.getByDate(userId, null, startDate, endDate)
+                .map(LearningHeatmapService::toDateRows)
+                .orElseGet(() -> learningRecordRepository.findLearningHeatmapDataByUserGroupByDate(
+                        userId, startDateTime, endDateTime));
 
         // 处理查询结果
         Map<String, Integer> heatmapData = new HashMap<>();
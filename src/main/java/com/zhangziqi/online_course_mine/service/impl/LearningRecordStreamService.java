@@ -0,0 +1,270 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.vo.LearningStreamMetricsVO;
+import com.zhangziqi.online_course_mine.service.impl.RedisLearningRecordService.LearningRecordIncrement;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 学习事件流服务
+ * 已完成的学习活动追加到Redis Stream，由消费组中的各个实例持续读取并写入数据库
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LearningRecordStreamService {
+
+    // 学习事件流
+    public static final String STREAM_KEY = "learning:stream:events";
+
+    // 多次投递仍处理失败的事件转入死信流
+    public static final String DEAD_LETTER_STREAM_KEY = "learning:stream:dead";
+
+    // 消费组名称
+    public static final String CONSUMER_GROUP = "learning-aggregators";
+
+    // 事件字段
+    public static final String FIELD_USER_ID = "userId";
+    public static final String FIELD_COURSE_ID = "courseId";
+    public static final String FIELD_CHAPTER_ID = "chapterId";
+    public static final String FIELD_SECTION_ID = "sectionId";
+    public static final String FIELD_ACTIVITY_TYPE = "activityType";
+    public static final String FIELD_DURATION = "durationSeconds";
+    public static final String FIELD_CONTEXT_DATA = "contextData";
+    public static final String FIELD_OCCURRED_AT = "occurredAt";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 追加一条已完成的学习活动事件
+     *
+     * @return 事件ID
+     */
+    public RecordId publish(Long userId, Long courseId, Long chapterId, Long sectionId,
+                            String activityType, int durationSeconds, String contextData) {
+        return stringRedisTemplate.opsForStream().add(STREAM_KEY, buildFields(userId, courseId, chapterId,
+                sectionId, activityType, durationSeconds, contextData, System.currentTimeMillis()));
+    }
+
+    /**
+     * 通过管道一次追加多条已完成的学习活动事件
+     *
+     * @param increments 学习活动
+     * @return 追加的事件数量
+     */
+    public int publishBatch(List<LearningRecordIncrement> increments) {
+        if (increments.isEmpty()) {
+            return 0;
+        }
+
+        long occurredAt = System.currentTimeMillis();
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (LearningRecordIncrement increment : increments) {
+                    operations.opsForStream().add(STREAM_KEY, buildFields(increment.getUserId(),
+                            increment.getCourseId(), increment.getChapterId(), increment.getSectionId(),
+                            increment.getActivityType(), (int) increment.getDurationSeconds(),
+                            increment.getContextData(), occurredAt));
+                }
+                return null;
+            }
+        });
+        return increments.size();
+    }
+
+    private Map<String, String> buildFields(Long userId, Long courseId, Long chapterId, Long sectionId,
+                                            String activityType, int durationSeconds, String contextData,
+                                            long occurredAt) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put(FIELD_USER_ID, userId.toString());
+        fields.put(FIELD_COURSE_ID, courseId.toString());
+        if (chapterId != null) {
+            fields.put(FIELD_CHAPTER_ID, chapterId.toString());
+        }
+        if (sectionId != null) {
+            fields.put(FIELD_SECTION_ID, sectionId.toString());
+        }
+        fields.put(FIELD_ACTIVITY_TYPE, activityType);
+        fields.put(FIELD_DURATION, String.valueOf(durationSeconds));
+        if (contextData != null) {
+            fields.put(FIELD_CONTEXT_DATA, contextData);
+        }
+        fields.put(FIELD_OCCURRED_AT, String.valueOf(occurredAt));
+        return fields;
+    }
+
+    /**
+     * 创建消费组（流不存在时一并创建），消费组已存在时忽略
+     */
+    public void ensureConsumerGroup() {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), CONSUMER_GROUP);
+            log.info("创建学习事件消费组: {}", CONSUMER_GROUP);
+        } catch (RedisSystemException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                Throwable cause = e.getMostSpecificCause();
+                if (cause.getMessage() == null || !cause.getMessage().contains("BUSYGROUP")) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取尚未投递给消费组的新事件，不阻塞
+     */
+    public List<MapRecord<String, Object, Object>> readNew(String consumerName, int count) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                Consumer.from(CONSUMER_GROUP, consumerName),
+                StreamReadOptions.empty().count(count),
+                StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed()));
+        return records != null ? records : Collections.emptyList();
+    }
+
+    /**
+     * 查询消费组中已投递但未确认的事件
+     */
+    public PendingMessages findPending(int count) {
+        return stringRedisTemplate.opsForStream().pending(STREAM_KEY, CONSUMER_GROUP, Range.unbounded(), count);
+    }
+
+    /**
+     * 把空闲时间超过minIdle的未确认事件转移给指定消费者
+     */
+    public List<MapRecord<String, Object, Object>> claim(String consumerName, Duration minIdle,
+                                                         Collection<RecordId> recordIds) {
+        if (recordIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                STREAM_KEY, CONSUMER_GROUP, consumerName, minIdle, recordIds.toArray(new RecordId[0]));
+        return records != null ? records : Collections.emptyList();
+    }
+
+    /**
+     * 确认事件已处理
+     */
+    public long acknowledge(Collection<RecordId> recordIds) {
+        if (recordIds.isEmpty()) {
+            return 0;
+        }
+        Long acked = stringRedisTemplate.opsForStream().acknowledge(
+                STREAM_KEY, CONSUMER_GROUP, recordIds.toArray(new RecordId[0]));
+        return acked != null ? acked : 0;
+    }
+
+    /**
+     * 把事件转入死信流并确认
+     */
+    public void moveToDeadLetter(List<MapRecord<String, Object, Object>> records) {
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> fields = new HashMap<>(record.getValue());
+            fields.put("sourceId", record.getId().getValue());
+            stringRedisTemplate.opsForStream().add(DEAD_LETTER_STREAM_KEY, fields);
+        }
+        acknowledge(records.stream().map(MapRecord::getId).toList());
+    }
+
+    /**
+     * 裁剪消费组已处理完的事件
+     * 有未确认事件时保留最早的未确认事件及之后的事件，否则保留最后投递的事件及之后的事件，
+     * 尚未投递和尚未确认的事件不会被裁剪
+     *
+     * @return 删除的事件数量
+     */
+    public long trim() {
+        String minId = findTrimMinId();
+        if (minId == null) {
+            return 0;
+        }
+        Long trimmed = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                (Long) connection.execute("XTRIM", STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                        "MINID".getBytes(StandardCharsets.UTF_8), minId.getBytes(StandardCharsets.UTF_8)));
+        return trimmed != null ? trimmed : 0;
+    }
+
+    /**
+     * 可以安全裁剪到的事件ID，消费组不存在时返回null
+     * 读取之后新投递的事件ID只会更大，确认只会让更早的事件可以裁剪，因此读取和裁剪之间不需要加锁
+     */
+    private String findTrimMinId() {
+        StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream().groups(STREAM_KEY).stream()
+                .filter(g -> CONSUMER_GROUP.equals(g.groupName()))
+                .findFirst()
+                .orElse(null);
+        if (group == null) {
+            return null;
+        }
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(STREAM_KEY, CONSUMER_GROUP);
+        if (pending != null && pending.getTotalPendingMessages() > 0) {
+            return pending.minMessageId();
+        }
+        return group.lastDeliveredId();
+    }
+
+    /**
+     * 获取消费组在Redis侧的指标（长度、未确认数量、延迟）
+     */
+    public LearningStreamMetricsVO getStreamMetrics() {
+        StreamInfo.XInfoStream streamInfo = stringRedisTemplate.opsForStream().info(STREAM_KEY);
+        StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream().groups(STREAM_KEY).stream()
+                .filter(g -> CONSUMER_GROUP.equals(g.groupName()))
+                .findFirst()
+                .orElse(null);
+
+        LearningStreamMetricsVO metrics = LearningStreamMetricsVO.builder()
+                .streamLength(streamInfo.streamLength())
+                .build();
+        if (group == null) {
+            return metrics;
+        }
+
+        metrics.setPendingCount(group.pendingCount());
+        metrics.setConsumerCount(group.consumerCount());
+        metrics.setLastDeliveredId(group.lastDeliveredId());
+
+        // Redis 7开始XINFO GROUPS返回lag字段
+        Object lag = group.getRaw().get("lag");
+        if (lag instanceof Number) {
+            metrics.setLagCount(((Number) lag).longValue());
+        }
+
+        // 事件ID的前半部分是写入时间戳（毫秒）
+        metrics.setLagMillis(Math.max(0, idTimestamp(streamInfo.lastGeneratedId()) - idTimestamp(group.lastDeliveredId())));
+        return metrics;
+    }
+
+    private static long idTimestamp(String recordId) {
+        if (recordId == null || recordId.isEmpty()) {
+            return 0;
+        }
+        int separator = recordId.indexOf('-');
+        return Long.parseLong(separator > 0 ? recordId.substring(0, separator) : recordId);
+    }
+}
@@ -0,0 +1,221 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 学习会话服务
+ * 进行中的学习活动以哈希形式保存在Redis中（每个用户一个），结束后才写入学习记录；
+ * 会话设置过期时间，客户端崩溃未结束的会话会自动清除。
+ * 会话ID与学习记录ID一样通过结束活动接口回传，会话ID取负数，与数据库中的学习记录ID互不重叠
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LearningSessionService {
+
+    // 会话键前缀，后接用户ID
+    private static final String SESSION_KEY_PREFIX = "learning:session:";
+
+    // 会话ID序列
+    private static final String SESSION_ID_KEY = "learning:session-id";
+
+    // 会话字段
+    private static final String FIELD_SESSION_ID = "sessionId";
+    private static final String FIELD_COURSE_ID = "courseId";
+    private static final String FIELD_COURSE_TITLE = "courseTitle";
+    private static final String FIELD_CHAPTER_ID = "chapterId";
+    private static final String FIELD_CHAPTER_TITLE = "chapterTitle";
+    private static final String FIELD_SECTION_ID = "sectionId";
+    private static final String FIELD_SECTION_TITLE = "sectionTitle";
+    private static final String FIELD_ACTIVITY_TYPE = "activityType";
+    private static final String FIELD_START_TIME = "startTime";
+    private static final String FIELD_CONTEXT_DATA = "contextData";
+
+    /**
+     * 会话替换脚本
+     * 原子地取出旧会话并写入新会话，ARGV[1]为过期秒数，之后为字段和值；返回旧会话的字段和值
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> REPLACE_SESSION_SCRIPT = new DefaultRedisScript<>(
+            "local old = redis.call('HGETALL', KEYS[1]) " +
+            "redis.call('DEL', KEYS[1]) " +
+            "redis.call('HSET', KEYS[1], unpack(ARGV, 2)) " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+            "return old",
+            List.class);
+
+    /**
+     * 会话结束脚本
+     * 会话ID与ARGV[1]一致时原子地取出并删除会话，否则返回空
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> FINISH_SESSION_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HGET', KEYS[1], '" + FIELD_SESSION_ID + "') ~= ARGV[1] then return {} end " +
+            "local data = redis.call('HGETALL', KEYS[1]) " +
+            "redis.call('DEL', KEYS[1]) " +
+            "return data",
+            List.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 会话过期时间（小时）
+    @Value("${learning.record.session.ttl-hours:4}")
+    private long ttlHours = 4;
+
+    /**
+     * 判断ID是否为会话ID
+     * 会话ID为负数，学习记录ID为正数
+     */
+    public static boolean isSessionId(Long id) {
+        return id != null && id < 0;
+    }
+
+    /**
+     * 开始新会话
+     * 用户已有进行中的会话时将其取出返回，由调用方结束
+     *
+     * @param session 新会话，会话ID由本方法分配
+     * @return 被替换的旧会话
+     */
+    public Optional<LearningSession> startSession(LearningSession session) {
+        session.setSessionId(-stringRedisTemplate.opsForValue().increment(SESSION_ID_KEY));
+
+        Map<String, String> fields = toHash(session);
+        List<String> args = new ArrayList<>(1 + fields.size() * 2);
+        args.add(String.valueOf(TimeUnit.HOURS.toSeconds(ttlHours)));
+        fields.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+
+        List<?> previous = stringRedisTemplate.execute(REPLACE_SESSION_SCRIPT,
+                List.of(sessionKey(session.getUserId())), args.toArray());
+        return fromHash(session.getUserId(), previous);
+    }
+
+    /**
+     * 结束会话
+     *
+     * @return 会话ID匹配时返回被结束的会话
+     */
+    public Optional<LearningSession> finishSession(Long userId, Long sessionId) {
+        List<?> data = stringRedisTemplate.execute(FINISH_SESSION_SCRIPT,
+                List.of(sessionKey(userId)), String.valueOf(sessionId));
+        return fromHash(userId, data);
+    }
+
+    /**
+     * 获取用户进行中的会话
+     */
+    public Optional<LearningSession> getSession(Long userId) {
+        Map<Object, Object> data = stringRedisTemplate.opsForHash().entries(sessionKey(userId));
+        if (data.isEmpty()) {
+            return Optional.empty();
+        }
+        Map<String, String> fields = new HashMap<>();
+        data.forEach((field, value) -> fields.put(field.toString(), value.toString()));
+        return Optional.of(fromFields(userId, fields));
+    }
+
+    private String sessionKey(Long userId) {
+        return SESSION_KEY_PREFIX + userId;
+    }
+
+    private Map<String, String> toHash(LearningSession session) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put(FIELD_SESSION_ID, session.getSessionId().toString());
+        fields.put(FIELD_COURSE_ID, session.getCourseId().toString());
+        fields.put(FIELD_ACTIVITY_TYPE, session.getActivityType());
+        fields.put(FIELD_START_TIME, String.valueOf(
+                session.getStartTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        putIfNotNull(fields, FIELD_COURSE_TITLE, session.getCourseTitle());
+        putIfNotNull(fields, FIELD_CHAPTER_ID, session.getChapterId());
+        putIfNotNull(fields, FIELD_CHAPTER_TITLE, session.getChapterTitle());
+        putIfNotNull(fields, FIELD_SECTION_ID, session.getSectionId());
+        putIfNotNull(fields, FIELD_SECTION_TITLE, session.getSectionTitle());
+        putIfNotNull(fields, FIELD_CONTEXT_DATA, session.getContextData());
+        return fields;
+    }
+
+    private void putIfNotNull(Map<String, String> fields, String field, Object value) {
+        if (value != null) {
+            fields.put(field, value.toString());
+        }
+    }
+
+    /**
+     * 解析脚本返回的字段和值列表
+     */
+    private Optional<LearningSession> fromHash(Long userId, List<?> data) {
+        if (data == null || data.isEmpty()) {
+            return Optional.empty();
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i + 1 < data.size(); i += 2) {
+            fields.put(data.get(i).toString(), data.get(i + 1).toString());
+        }
+        return Optional.of(fromFields(userId, fields));
+    }
+
+    private LearningSession fromFields(Long userId, Map<String, String> fields) {
+        return LearningSession.builder()
+                .sessionId(Long.parseLong(fields.get(FIELD_SESSION_ID)))
+                .userId(userId)
+                .courseId(Long.parseLong(fields.get(FIELD_COURSE_ID)))
+                .courseTitle(fields.get(FIELD_COURSE_TITLE))
+                .chapterId(parseLong(fields.get(FIELD_CHAPTER_ID)))
+                .chapterTitle(fields.get(FIELD_CHAPTER_TITLE))
+                .sectionId(parseLong(fields.get(FIELD_SECTION_ID)))
+                .sectionTitle(fields.get(FIELD_SECTION_TITLE))
+                .activityType(fields.get(FIELD_ACTIVITY_TYPE))
+                .startTime(LocalDateTime.ofInstant(
+                        Instant.ofEpochMilli(Long.parseLong(fields.get(FIELD_START_TIME))), ZoneId.systemDefault()))
+                .contextData(fields.get(FIELD_CONTEXT_DATA))
+                .build();
+    }
+
+    private Long parseLong(String value) {
+        return value != null ? Long.parseLong(value) : null;
+    }
+
+    /**
+     * 进行中的学习会话
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LearningSession {
+        private Long sessionId;
+        private Long userId;
+        private Long courseId;
+        private String courseTitle;
+        private Long chapterId;
+        private String chapterTitle;
+        private Long sectionId;
+        private String sectionTitle;
+        private String activityType;
+        private LocalDateTime startTime;
+        private String contextData;
+    }
+}
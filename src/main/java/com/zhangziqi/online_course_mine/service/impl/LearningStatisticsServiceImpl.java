@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 /**
@@ -42,6 +43,7 @@ public class LearningStatisticsServiceImpl implements LearningStatisticsService
     private final UserCourseRepository userCourseRepository;
     private final UserWrongQuestionRepository wrongQuestionRepository;
     private final WrongQuestionService wrongQuestionService;
+    private final LearningStreakService learningStreakService;
     
     @Value("${learning.statistics.days:30}")
     private int statisticsDays;
@@ -78,6 +80,10 @@ public class LearningStatisticsServiceImpl implements LearningStatisticsService
         // 获取每日学习时长统计
         List<LearningStatisticsVO.DailyLearningVO> dailyLearning = getDailyLearningStatistics(userId);
         
+        // 学习天数和连续天数优先由打卡日历位图计算
+        Optional<LearningStreakService.Streaks> streaks = learningStreakService.getStreaks(userId, statisticsDays);
+        long[] questionCounts = learningStreakService.getQuestionCounts(userId).orElse(new long[]{0L, 0L});
+        
         // 获取课程学习统计
         List<LearningStatisticsVO.CourseStatisticsVO> courseStatistics = userCourses.stream()
                 .map(this::mapToCourseStatistics)
@@ -92,11 +98,14 @@ public class LearningStatisticsServiceImpl implements LearningStatisticsService
                 .todayLearningDuration(calculateTodayLearningDuration(dailyLearning))
                 .weekLearningDuration(calculateWeekLearningDuration(dailyLearning))
                 .monthLearningDuration(calculateMonthLearningDuration(dailyLearning))
-                .learningDays(calculateLearningDays(dailyLearning))
-                .maxConsecutiveDays(calculateMaxConsecutiveDays(dailyLearning))
-                .currentConsecutiveDays(calculateCurrentConsecutiveDays(dailyLearning))
-                .totalQuestions(0) // 暂不统计
-                .correctQuestions(0) // 暂不统计
+                .learningDays(streaks.map(LearningStreakService.Streaks::getLearningDays)
+                        .orElseGet(() -> calculateLearningDays(dailyLearning)))
+                .maxConsecutiveDays(streaks.map(LearningStreakService.Streaks::getMaxConsecutiveDays)
+                        .orElseGet(() -> calculateMaxConsecutiveDays(dailyLearning)))
+                .currentConsecutiveDays(streaks.map(LearningStreakService.Streaks::getCurrentConsecutiveDays)
+                        .orElseGet(() -> calculateCurrentConsecutiveDays(dailyLearning)))
+                .totalQuestions((int) questionCounts[0])
+                .correctQuestions((int) questionCounts[1])
                 .wrongQuestions((int) wrongQuestions)
                 .dailyLearning(dailyLearning)
                 .courseStatistics(courseStatistics)
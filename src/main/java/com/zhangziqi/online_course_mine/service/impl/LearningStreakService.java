@@ -0,0 +1,312 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import com.zhangziqi.online_course_mine.utils.JdbcStreamUtil;
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 学习打卡日历与答题计数
+ * 每个用户每年一个Redis位图，第n位表示当年第n+1天是否有学习时长，写入学习记录时SETBIT；
+ * 学习天数和连续天数读取范围内的位图后按64位字计算，不再逐日遍历学习时长序列。
+ * 答题数和答对数在提交答案时累加到用户的计数哈希
+ */
+@Slf4j
+@Service
+public class LearningStreakService extends RedisProjection {
+
+    private static final String KEY_PREFIX = "streak:user:";
+
+    private static final String QUESTION_KEY_PREFIX = "questions:user:";
+
+    private static final Duration REBUILD_LOCK_TTL = Duration.ofHours(1);
+
+    private static final String TOTAL_FIELD = "total";
+
+    private static final String CORRECT_FIELD = "correct";
+
+    private static final String REBUILD_SQL = "SELECT DISTINCT user_id, stat_date FROM learning_daily_rollups " +
+            "WHERE stat_date >= ? AND total_duration > 0";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // 位图的保留天数，覆盖当年和上一年
+    @Value("${learning.streak.retention-days:800}")
+    private int retentionDays = 800;
+
+    // 重建时每个管道写入的行数
+    @Value("${learning.streak.rebuild-batch-size:2000}")
+    private int rebuildBatchSize = 2000;
+
+    public LearningStreakService(StringRedisTemplate stringRedisTemplate, RedisTaskLock redisTaskLock,
+                                 JdbcTemplate jdbcTemplate,
+                                 @Qualifier("learningAggregationExecutor") Executor learningAggregationExecutor) {
+        super("学习打卡日历", "streak:", REBUILD_LOCK_TTL, stringRedisTemplate, redisTaskLock,
+                learningAggregationExecutor);
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 统计窗口内的学习天数和连续学习天数
+     */
+    @Data
+    @Builder
+    public static class Streaks {
+        private int learningDays;
+        private int maxConsecutiveDays;
+        private int currentConsecutiveDays;
+    }
+
+    /**
+     * 学习记录提交后标记学习日，有学习时长的记录的活动开始日期记为学习日
+     * 写入失败只记录日志
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onRecordsCommitted(LearningRecordsCommittedEvent event) {
+        Set<String> marks = new LinkedHashSet<>();
+        for (LearningRecord record : event.getEndedRecords()) {
+            if (record.getDurationSeconds() > 0) {
+                marks.add(record.getUserId() + ":" + record.getActivityStartTime().toLocalDate());
+            }
+        }
+        if (marks.isEmpty()) {
+            return;
+        }
+        try {
+            pipeline(marks);
+        } catch (Exception e) {
+            log.warn("更新学习打卡日历失败, 标记数: {}", marks.size(), e);
+        }
+    }
+
+    /**
+     * 记录一次答题
+     */
+    public void recordAnswer(Long userId, boolean correct) {
+        try {
+            String key = QUESTION_KEY_PREFIX + userId;
+            stringRedisTemplate.executePipelined(new SessionCallback<List<Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public List<Object> execute(RedisOperations operations) {
+                    operations.opsForHash().increment(key, TOTAL_FIELD, 1L);
+                    if (correct) {
+                        operations.opsForHash().increment(key, CORRECT_FIELD, 1L);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.warn("更新答题计数失败, 用户ID: {}", userId, e);
+        }
+    }
+
+    /**
+     * 获取用户的答题数和答对数
+     *
+     * @return {答题数, 答对数}，Redis不可用时为空
+     */
+    public Optional<long[]> getQuestionCounts(Long userId) {
+        try {
+            Map<Object, Object> counts = stringRedisTemplate.opsForHash().entries(QUESTION_KEY_PREFIX + userId);
+            return Optional.of(new long[]{parse(counts.get(TOTAL_FIELD)), parse(counts.get(CORRECT_FIELD))});
+        } catch (Exception e) {
+            log.warn("读取答题计数失败, 用户ID: {}", userId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 统计截至今天的最近若干天内的学习天数、最长连续天数和当前连续天数
+     *
+     * @param userId 用户ID
+     * @param days 统计天数
+     * @return 统计结果，尚未重建、超出保留期或Redis不可用时为空
+     */
+    public Optional<Streaks> getStreaks(Long userId, int days) {
+        LocalDate today = LocalDate.now();
+        LocalDate startDate = today.minusDays(days - 1L);
+        try {
+            if (days <= 0 || days > retentionDays
+                    || !isReady()) {
+                return Optional.empty();
+            }
+            List<Integer> years = new ArrayList<>();
+            for (int year = startDate.getYear(); year <= today.getYear(); year++) {
+                years.add(year);
+            }
+            // 位图是二进制值，需要按字节数组读取
+            List<Object> bitmaps = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Integer year : years) {
+                    connection.stringCommands().get(key(userId, year).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            }, RedisSerializer.byteArray());
+
+            // 第i位表示startDate之后第i天
+            long[] words = new long[(days + 63) >>> 6];
+            long startEpochDay = startDate.toEpochDay();
+            for (int i = 0; i < years.size(); i++) {
+                byte[] bitmap = (byte[]) bitmaps.get(i);
+                if (bitmap == null) {
+                    continue;
+                }
+                long yearStart = LocalDate.ofYearDay(years.get(i), 1).toEpochDay();
+                for (int b = 0; b < bitmap.length; b++) {
+                    int value = bitmap[b] & 0xff;
+                    while (value != 0) {
+                        // Redis位图的第0位是首字节的最高位
+                        int bit = Integer.numberOfLeadingZeros(value) - 24;
+                        value &= ~(0x80 >>> bit);
+                        long index = yearStart + b * 8L + bit - startEpochDay;
+                        if (index >= 0 && index < days) {
+                            words[(int) (index >>> 6)] |= 1L << index;
+                        }
+                    }
+                }
+            }
+            return Optional.of(Streaks.builder()
+                    .learningDays(cardinality(words))
+                    .maxConsecutiveDays(longestRun(words))
+                    .currentConsecutiveDays(trailingRun(words, days))
+                    .build());
+        } catch (Exception e) {
+            log.warn("读取学习打卡日历失败, 用户ID: {}", userId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 从日汇总表重建保留期内的位图
+     * SETBIT重复执行结果相同，不需要清空旧键，重建期间新写入的学习日同样标记
+     */
+    @Override
+    protected long rebuildFromSource() {
+        Set<String> batch = new LinkedHashSet<>();
+        long[] rows = new long[1];
+        LocalDate cutoff = LocalDate.now().minusDays(retentionDays - 1L).withDayOfYear(1);
+        jdbcTemplate.query(JdbcStreamUtil.streaming(REBUILD_SQL, Date.valueOf(cutoff)), (RowCallbackHandler) rs -> {
+            batch.add(rs.getLong(1) + ":" + rs.getDate(2).toLocalDate());
+            rows[0]++;
+            if (batch.size() >= rebuildBatchSize) {
+                pipeline(batch);
+                batch.clear();
+            }
+        });
+        pipeline(batch);
+        return rows[0];
+    }
+
+    /**
+     * 置位的天数
+     */
+    static int cardinality(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * 最长的连续置位长度
+     * 每个字的低位连续段接上一字的高位连续段，字内的最长段通过反复x &= x >>> 1求得
+     */
+    static int longestRun(long[] words) {
+        int best = 0;
+        int carry = 0;
+        for (long word : words) {
+            if (word == -1L) {
+                carry += 64;
+                continue;
+            }
+            int low = Long.numberOfTrailingZeros(~word);
+            best = Math.max(best, carry + low);
+            int inner = 0;
+            for (long x = word >>> low; x != 0; x &= x >>> 1) {
+                inner++;
+            }
+            best = Math.max(best, inner);
+            carry = Long.numberOfLeadingZeros(~word);
+        }
+        return Math.max(best, carry);
+    }
+
+    /**
+     * 以第length-1位结尾的连续置位长度
+     */
+    static int trailingRun(long[] words, int length) {
+        int run = 0;
+        int index = length - 1;
+        while (index >= 0) {
+            int bit = index & 63;
+            // 把第bit位移到最高位后数前导1的个数
+            int ones = Long.numberOfLeadingZeros(~(words[index >>> 6] << (63 - bit)));
+            if (ones <= bit) {
+                return run + ones;
+            }
+            run += bit + 1;
+            index -= bit + 1;
+        }
+        return run;
+    }
+
+    /**
+     * 在一个管道中设置学习日标记，标记格式为"用户ID:日期"
+     */
+    private void pipeline(Set<String> marks) {
+        if (marks.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) {
+                for (String mark : marks) {
+                    int separator = mark.indexOf(':');
+                    long userId = Long.parseLong(mark.substring(0, separator));
+                    LocalDate date = LocalDate.parse(mark.substring(separator + 1));
+                    String key = key(userId, date.getYear());
+                    operations.opsForValue().setBit(key, date.getDayOfYear() - 1L, true);
+                    operations.expire(key, retentionDays, TimeUnit.DAYS);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static String key(long userId, int year) {
+        return KEY_PREFIX + userId + ":" + year;
+    }
+
+    private static long parse(Object value) {
+        return value != null ? Long.parseLong(value.toString()) : 0L;
+    }
+}
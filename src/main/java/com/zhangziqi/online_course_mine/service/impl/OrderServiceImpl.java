@@ -19,12 +19,14 @@ import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
 import com.zhangziqi.online_course_mine.model.vo.*;
 import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.InstitutionIncomeLedgerRepository;
 import com.zhangziqi.online_course_mine.repository.OrderRepository;
 import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.service.OrderService;
 import com.zhangziqi.online_course_mine.service.impl.RedisOrderService;
 import com.zhangziqi.online_course_mine.service.UserCourseService;
+import com.zhangziqi.online_course_mine.utils.TopKUtil;
 import jakarta.persistence.criteria.Predicate;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -47,7 +49,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.Objects;
-import java.util.Random;
 import java.util.ArrayList;
 import java.util.Comparator;
 import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
@@ -67,6 +68,13 @@ import com.alibaba.fastjson.JSONObject;
 @RequiredArgsConstructor
 public class OrderServiceImpl implements OrderService {
 
+    /**
+     * 课程收入排行的排序规则：净收入从高到低，相同时按课程ID
+     */
+    private static final Comparator<Object[]> COURSE_INCOME_ORDER = Comparator
+            .comparing((Object[] row) -> (BigDecimal) row[1], Comparator.reverseOrder())
+            .thenComparing(row -> (Long) row[0]);
+
     private final OrderRepository orderRepository;
     private final UserRepository userRepository;
     private final CourseRepository courseRepository;
@@ -75,6 +83,11 @@ public class OrderServiceImpl implements OrderService {
     private final AlipayClient alipayClient;
     private final AlipayConfig alipayConfig;
     private final RedisOrderService redisOrderService;
+    private final IncomeLedgerService incomeLedgerService;
+    private final InstitutionIncomeLedgerRepository incomeLedgerRepository;
+    private final OrderStatusCounter orderStatusCounter;
+    private final SnowflakeIdGenerator idGenerator;
+    private final PaymentNotifyProcessor paymentNotifyProcessor;
 
     @Override
     @Transactional
@@ -128,6 +141,7 @@ public class OrderServiceImpl implements OrderService {
             order.setTitle(course.getTitle());
 
             orderRepository.save(order);
+            orderStatusCounter.transition(order, null);
             log.info("付费课程订单创建成功：{}", order.getOrderNo());
 
             // 设置订单超时（30分钟后自动取消）
@@ -165,30 +179,11 @@ public class OrderServiceImpl implements OrderService {
 
                 log.info("验签成功，订单号: {}, 支付宝交易号: {}, 金额: {}", outTradeNo, tradeNo, totalAmount);
 
-                // 处理订单状态
-                Order order = orderRepository.findByOrderNo(outTradeNo)
-                        .orElseThrow(() -> new ResourceNotFoundException("订单不存在，订单号: " + outTradeNo));
-
-                // 如果订单未支付，标记为已支付
-                if (order.getStatus() == OrderStatus.PENDING.getValue()) {
-                    order.setStatus(OrderStatus.PAID.getValue());
-                    order.setTradeNo(tradeNo);
-                    order.setPaidAt(LocalDateTime.now());
-                    orderRepository.save(order);
-
-                    // 创建用户课程关系
-                    userCourseService.createUserCourseRelation(
-                            order.getUser().getId(),
-                            order.getCourse().getId(),
-                            order.getId(),
-                            true);
-
-                    // 取消Redis中的订单超时
-                    redisOrderService.cancelOrderTimeout(outTradeNo);
-                    log.info("取消订单超时计时，订单号：{}", outTradeNo);
-                }
-
-                return "支付成功！订单号: " + outTradeNo;
+                // 与异步通知进入同一个收件箱，由后台处理订单状态和开通课程
+                paymentNotifyProcessor.receive(params, OrderConstants.ALIPAY_TRADE_SUCCESS);
+
+                // 订单状态在后台更新，此时可能仍是待支付，前端以订单查询结果为准
+                return "支付结果已提交，订单处理中，订单号: " + outTradeNo;
             } else {
                 log.warn("支付宝同步回调验签失败");
                 return "验签失败";
@@ -196,6 +191,9 @@ public class OrderServiceImpl implements OrderService {
         } catch (AlipayApiException e) {
             log.error("支付宝同步回调验签异常", e);
             return "验签异常: " + e.getMessage();
+        } catch (IllegalArgumentException e) {
+            log.warn("支付宝同步回调参数不完整: {}", e.getMessage());
+            return "参数不完整";
         }
     }
 
@@ -225,38 +223,8 @@ public class OrderServiceImpl implements OrderService {
                 log.info("交易状态:{}, 订单号:{}, 支付宝交易号:{}, 金额:{}",
                         tradeStatus, outTradeNo, tradeNo, totalAmount);
 
-                // 查询订单
-                Order order = orderRepository.findByOrderNo(outTradeNo)
-                        .orElseThrow(() -> new ResourceNotFoundException("订单不存在，订单号: " + outTradeNo));
-
-                // 根据交易状态处理订单
-                if (OrderConstants.ALIPAY_TRADE_SUCCESS.equals(tradeStatus)
-                        || OrderConstants.ALIPAY_TRADE_FINISHED.equals(tradeStatus)) {
-                    // 如果订单未支付，标记为已支付
-                    if (order.getStatus() == OrderStatus.PENDING.getValue()) {
-                        order.setStatus(OrderStatus.PAID.getValue());
-                        order.setTradeNo(tradeNo);
-                        order.setPaidAt(LocalDateTime.now());
-                        orderRepository.save(order);
-
-                        // 创建用户课程关系
-                        userCourseService.createUserCourseRelation(
-                                order.getUser().getId(),
-                                order.getCourse().getId(),
-                                order.getId(),
-                                true);
-
-                        // 取消Redis中的订单超时
-                        redisOrderService.cancelOrderTimeout(outTradeNo);
-                        log.info("取消订单超时计时，订单号：{}", outTradeNo);
-                    }
-                } else if (OrderConstants.ALIPAY_TRADE_CLOSED.equals(tradeStatus)) {
-                    // 交易关闭
-                    if (order.getStatus() == OrderStatus.PENDING.getValue()) {
-                        order.setStatus(OrderStatus.CLOSED.getValue());
-                        orderRepository.save(order);
-                    }
-                }
+                // 写入收件箱后立即应答，订单状态和开通课程由后台处理，重复通知被忽略
+                paymentNotifyProcessor.receive(params, null);
 
                 return OrderConstants.NOTIFY_SUCCESS;
             } else {
@@ -266,6 +234,9 @@ public class OrderServiceImpl implements OrderService {
         } catch (AlipayApiException e) {
             log.error("支付宝异步通知验签异常", e);
             return OrderConstants.NOTIFY_FAIL;
+        } catch (IllegalArgumentException e) {
+            log.warn("支付宝异步通知参数不完整: {}", e.getMessage());
+            return OrderConstants.NOTIFY_FAIL;
         }
     }
 
@@ -337,6 +308,7 @@ public class OrderServiceImpl implements OrderService {
         order.setRefundReason(dto.getRefundReason());
 
         Order updatedOrder = orderRepository.save(order);
+        orderStatusCounter.transition(order, OrderStatus.PAID.getValue());
 
         return OrderVO.fromEntity(updatedOrder);
     }
@@ -353,6 +325,8 @@ public class OrderServiceImpl implements OrderService {
             throw new BusinessException(400, "当前订单状态不支持处理退款");
         }
 
+        IncomeLedgerService.Contribution before;
+        Integer previousStatus;
         if (approved) {
             log.info("管理员(ID:{})批准订单(ID:{})的退款申请", operatorId, id);
 
@@ -362,6 +336,9 @@ public class OrderServiceImpl implements OrderService {
                     order.getRefundAmount(),
                     order.getRefundReason());
 
+            // 退款成功时executeAlipayRefund已记入收入台账，这里只记录本方法中的状态变化
+            before = incomeLedgerService.snapshot(order);
+            previousStatus = order.getStatus();
             if (!refundSuccess) {
                 // 退款失败
                 order.setStatus(OrderStatus.REFUND_FAILED.getValue());
@@ -373,10 +350,14 @@ public class OrderServiceImpl implements OrderService {
         } else {
             // 拒绝退款
             log.info("管理员(ID:{})拒绝订单(ID:{})的退款申请", operatorId, id);
+            before = incomeLedgerService.snapshot(order);
+            previousStatus = order.getStatus();
             order.setStatus(OrderStatus.REFUND_FAILED.getValue());
         }
 
         Order updatedOrder = orderRepository.save(order);
+        incomeLedgerService.apply(order, before);
+        orderStatusCounter.transition(order, previousStatus);
 
         return OrderVO.fromEntity(updatedOrder);
     }
@@ -385,8 +366,8 @@ public class OrderServiceImpl implements OrderService {
      * 生成订单号
      */
     private String generateOrderNo() {
-        // 使用时间戳+随机数生成订单号
-        return System.currentTimeMillis() + String.format("%04d", new Random().nextInt(10000));
+        // 使用分布式ID作为订单号，多实例并发下不会重复
+        return idGenerator.nextIdString();
     }
 
     /**
@@ -428,16 +409,8 @@ public class OrderServiceImpl implements OrderService {
     @Override
     @Transactional(readOnly = true)
     public BigDecimal calculateInstitutionTotalIncome(Long institutionId) {
-        // 查询状态为"已支付"和"申请退款"的订单，因为申请退款中的订单仍然应该计入收入
-        List<Order> validOrders = orderRepository.findByInstitution_IdAndStatusIn(
-                institutionId,
-                List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue())
-        );
-
-        return validOrders.stream()
-                .map(Order::getAmount)
-                .filter(Objects::nonNull)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        // 台账中的收入包含"已支付"和"申请退款"状态的订单，因为申请退款中的订单仍然应该计入收入
+        return incomeLedgerRepository.sumIncomeByInstitution(institutionId);
     }
 
     /**
@@ -446,14 +419,8 @@ public class OrderServiceImpl implements OrderService {
     @Override
     @Transactional(readOnly = true)
     public BigDecimal calculateInstitutionTotalRefund(Long institutionId) {
-        // 只统计状态为"已退款"的订单
-        List<Order> refundedOrders = orderRepository.findByInstitution_IdAndStatus(
-                institutionId, OrderStatus.REFUNDED.getValue());
-
-        return refundedOrders.stream()
-                .map(Order::getRefundAmount)
-                .filter(Objects::nonNull)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        // 台账中的退款只包含状态为"已退款"的订单
+        return incomeLedgerRepository.sumRefundByInstitution(institutionId);
     }
 
     /**
@@ -545,11 +512,15 @@ public class OrderServiceImpl implements OrderService {
             if (response.isSuccess()) {
                 log.info("支付宝退款成功, 订单号: {}", orderNo);
                 // 更新订单状态
+                IncomeLedgerService.Contribution before = incomeLedgerService.snapshot(order);
+                Integer previousStatus = order.getStatus();
                 order.setStatus(OrderStatus.REFUNDED.getValue());
                 order.setRefundAmount(refundAmount);
                 order.setRefundReason(refundReason);
                 order.setRefundedAt(LocalDateTime.now());
                 orderRepository.save(order);
+                incomeLedgerService.apply(order, before);
+                orderStatusCounter.transition(order, previousStatus);
 
                 // 更新用户课程状态为已退款
                 userCourseService.updateUserCourseRefunded(order.getId());
@@ -585,6 +556,8 @@ public class OrderServiceImpl implements OrderService {
 
         // 保存订单
         orderRepository.save(order);
+        incomeLedgerService.apply(order, IncomeLedgerService.Contribution.NONE);
+        orderStatusCounter.transition(order, null);
 
         // 创建用户课程关系
         userCourseService.createUserCourseRelation(user.getId(), course.getId(), order.getId(), true);
@@ -612,9 +585,13 @@ public class OrderServiceImpl implements OrderService {
         }
 
         // 更新订单状态
+        IncomeLedgerService.Contribution before = incomeLedgerService.snapshot(order);
+        Integer previousStatus = order.getStatus();
         order.setStatus(OrderStatus.PAID.getValue());
         order.setPaidAt(LocalDateTime.now());
         orderRepository.save(order);
+        incomeLedgerService.apply(order, before);
+        orderStatusCounter.transition(order, previousStatus);
 
         // 检查是否存在退款记录
         Optional<UserCourse> refundedRecord = userCourseService.findByUserIdAndCourseIdAndStatus(
@@ -675,6 +652,7 @@ public class OrderServiceImpl implements OrderService {
         // 更新订单状态
         order.setStatus(OrderStatus.CLOSED.getValue());
         orderRepository.save(order);
+        orderStatusCounter.transition(order, OrderStatus.PENDING.getValue());
 
         // 取消Redis中的订单超时
         if (order.getOrderNo() != null) {
@@ -686,6 +664,36 @@ public class OrderServiceImpl implements OrderService {
         return OrderVO.fromEntity(order);
     }
 
+    @Override
+    @Transactional
+    public boolean closeTimeoutOrder(String orderNo) {
+        Optional<Order> found = orderRepository.findByOrderNo(orderNo);
+        if (found.isEmpty()) {
+            log.warn("超时订单不存在，订单号：{}", orderNo);
+            return false;
+        }
+
+        // 到期前已支付或已取消的订单不再处理
+        Order order = found.get();
+        if (order.getStatus() != OrderStatus.PENDING.getValue()) {
+            log.info("订单已不是待支付状态，无需关闭，订单号：{}，状态：{}", orderNo, order.getStatus());
+            return false;
+        }
+
+        // 条件更新，读取之后被支付回调改为已支付的订单不会被覆盖为已关闭
+        int updated = orderRepository.updateStatusIfCurrent(orderNo,
+                OrderStatus.PENDING.getValue(), OrderStatus.CLOSED.getValue(), LocalDateTime.now());
+        if (updated != 1) {
+            log.info("订单状态已变化，无需关闭，订单号：{}", orderNo);
+            return false;
+        }
+        order.setStatus(OrderStatus.CLOSED.getValue());
+        orderStatusCounter.transition(order, OrderStatus.PENDING.getValue());
+
+        log.info("超时订单已关闭，订单号：{}", orderNo);
+        return true;
+    }
+
     @Override
     @Transactional(readOnly = true)
     public Page<OrderVO> searchUserOrders(OrderSearchDTO searchDTO, Long userId) {
@@ -918,6 +926,7 @@ public class OrderServiceImpl implements OrderService {
             // 更新订单状态为已关闭
             order.setStatus(OrderStatus.CLOSED.getValue());
             orderRepository.save(order);
+            orderStatusCounter.transition(order, OrderStatus.PENDING.getValue());
             throw new BusinessException(400, "订单已超时，请重新下单");
         }
 
@@ -933,18 +942,9 @@ public class OrderServiceImpl implements OrderService {
     public BigDecimal calculateInstitutionTotalIncome(Long institutionId, LocalDateTime startTime, LocalDateTime endTime) {
         log.info("统计机构在时间范围内的总收入，机构ID: {}, 开始时间: {}, 结束时间: {}", institutionId, startTime, endTime);
 
-        // 查询指定时间范围内状态为"已支付"和"申请退款"的订单
-        List<Order> validOrders = orderRepository.findByInstitution_IdAndStatusInAndPaidAtBetween(
-                institutionId,
-                List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue()),
-                startTime,
-                endTime
-        );
-
-        BigDecimal totalIncome = validOrders.stream()
-                .map(Order::getAmount)
-                .filter(Objects::nonNull)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        // 按支付日期汇总"已支付"和"申请退款"状态订单的金额
+        BigDecimal totalIncome = incomeLedgerRepository.sumIncomeByInstitutionBetween(
+                institutionId, startTime.toLocalDate(), ledgerEndDate(endTime));
 
         log.info("机构在时间范围内的总收入: {}", totalIncome);
         return totalIncome;
@@ -958,18 +958,9 @@ public class OrderServiceImpl implements OrderService {
     public BigDecimal calculateInstitutionTotalRefund(Long institutionId, LocalDateTime startTime, LocalDateTime endTime) {
         log.info("统计机构在时间范围内的总退款，机构ID: {}, 开始时间: {}, 结束时间: {}", institutionId, startTime, endTime);
 
-        // 只统计指定时间范围内状态为"已退款"的订单
-        List<Order> refundedOrders = orderRepository.findByInstitution_IdAndStatusAndRefundedAtBetween(
-                institutionId,
-                OrderStatus.REFUNDED.getValue(),
-                startTime,
-                endTime
-        );
-
-        BigDecimal totalRefund = refundedOrders.stream()
-                .map(Order::getRefundAmount)
-                .filter(Objects::nonNull)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        // 按退款日期汇总"已退款"状态订单的退款金额
+        BigDecimal totalRefund = incomeLedgerRepository.sumRefundByInstitutionBetween(
+                institutionId, startTime.toLocalDate(), ledgerEndDate(endTime));
 
         log.info("机构在时间范围内的总退款: {}", totalRefund);
         return totalRefund;
@@ -1127,49 +1118,17 @@ public class OrderServiceImpl implements OrderService {
                 startDate = endDate.minusDays(30); // 默认30天
         }
 
-        // 查询时间范围内的所有订单
-        List<Order> paidOrders = orderRepository.findByInstitution_IdAndStatusInAndPaidAtBetween(
-                institutionId,
-                List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue()),
-                startDate,
-                endDate
-        );
+        // 从台账中按天取得收入和退款，再按分组方式合并
+        List<Object[]> dailyIncome = incomeLedgerRepository.findDailyIncomeByInstitution(
+                institutionId, startDate.toLocalDate(), ledgerEndDate(endDate));
 
-        List<Order> refundedOrders = orderRepository.findByInstitution_IdAndStatusAndRefundedAtBetween(
-                institutionId,
-                OrderStatus.REFUNDED.getValue(),
-                startDate,
-                endDate
-        );
-
-        // 根据分组方式聚合数据
         Map<String, IncomeTrendVO> trendMap = new HashMap<>();
+        for (Object[] row : dailyIncome) {
+            LocalDate date = (LocalDate) row[0];
+            BigDecimal income = (BigDecimal) row[1];
+            BigDecimal refund = (BigDecimal) row[2];
 
-        // 处理已支付订单
-        for (Order order : paidOrders) {
-            if (order.getPaidAt() == null) continue;
-
-            String dateKey = formatDateByGroupBy(order.getPaidAt(), groupBy);
-
-            IncomeTrendVO trendVO = trendMap.getOrDefault(dateKey, IncomeTrendVO.builder()
-                    .date(dateKey)
-                    .income(BigDecimal.ZERO)
-                    .refund(BigDecimal.ZERO)
-                    .netIncome(BigDecimal.ZERO)
-                    .build());
-
-            // 累加收入
-            trendVO.setIncome(trendVO.getIncome().add(order.getAmount()));
-            trendVO.setNetIncome(trendVO.getNetIncome().add(order.getAmount()));
-
-            trendMap.put(dateKey, trendVO);
-        }
-
-        // 处理已退款订单
-        for (Order order : refundedOrders) {
-            if (order.getRefundedAt() == null || order.getRefundAmount() == null) continue;
-
-            String dateKey = formatDateByGroupBy(order.getRefundedAt(), groupBy);
+            String dateKey = formatDateByGroupBy(date.atStartOfDay(), groupBy);
 
             IncomeTrendVO trendVO = trendMap.getOrDefault(dateKey, IncomeTrendVO.builder()
                     .date(dateKey)
@@ -1178,9 +1137,9 @@ public class OrderServiceImpl implements OrderService {
                     .netIncome(BigDecimal.ZERO)
                     .build());
 
-            // 累加退款
-            trendVO.setRefund(trendVO.getRefund().add(order.getRefundAmount()));
-            trendVO.setNetIncome(trendVO.getNetIncome().subtract(order.getRefundAmount()));
+            trendVO.setIncome(trendVO.getIncome().add(income));
+            trendVO.setRefund(trendVO.getRefund().add(refund));
+            trendVO.setNetIncome(trendVO.getNetIncome().add(income).subtract(refund));
 
             trendMap.put(dateKey, trendVO);
         }
@@ -1203,39 +1162,10 @@ public class OrderServiceImpl implements OrderService {
     public List<OrderStatusDistributionVO> getInstitutionOrderStatusDistribution(Long institutionId) {
         log.info("获取机构订单状态分布, 机构ID: {}", institutionId);
 
-        // 查询机构所有订单
-        List<Order> orders = orderRepository.findByInstitution_Id(institutionId);
+        Map<Integer, Long> statusCountMap = orderStatusCounter.getCounts(institutionId)
+                .orElseGet(() -> toStatusCountMap(orderRepository.countByInstitutionGroupByStatus(institutionId)));
 
-        // 按状态分组统计
-        Map<Integer, Long> statusCountMap = orders.stream()
-                .collect(Collectors.groupingBy(Order::getStatus, Collectors.counting()));
-
-        // 计算总订单数
-        long totalOrders = orders.size();
-
-        // 构建结果列表
-        List<OrderStatusDistributionVO> result = new ArrayList<>();
-
-        // 遍历所有可能的订单状态
-        for (OrderStatus status : OrderStatus.values()) {
-            Integer statusValue = status.getValue();
-            Long count = statusCountMap.getOrDefault(statusValue, 0L);
-
-            // 计算百分比
-            double percentage = totalOrders > 0 ? (count * 100.0 / totalOrders) : 0;
-
-            // 创建VO对象
-            OrderStatusDistributionVO vo = OrderStatusDistributionVO.builder()
-                    .status(statusValue)
-                    .statusName(status.getDesc())
-                    .count(count)
-                    .percentage(Math.round(percentage * 100) / 100.0) // 保留两位小数
-                    .build();
-
-            result.add(vo);
-        }
-
-        return result;
+        return buildStatusDistribution(statusCountMap);
     }
 
     /**
@@ -1246,57 +1176,26 @@ public class OrderServiceImpl implements OrderService {
     public List<CourseIncomeRankingVO> getInstitutionCourseIncomeRanking(Long institutionId, int limit) {
         log.info("获取机构课程收入排行, 机构ID: {}, 限制数量: {}", institutionId, limit);
 
-        // 查询机构下所有已支付订单
-        List<Order> paidOrders = orderRepository.findByInstitution_IdAndStatusIn(
-                institutionId,
-                List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue())
-        );
-
-        // 按课程分组统计收入
-        Map<Long, CourseIncomeRankingVO> courseIncomeMap = new HashMap<>();
+        // 按课程汇总净收入，用有界堆选出前limit名
+        List<Object[]> topRows = TopKUtil.select(
+                toNetIncomeRows(incomeLedgerRepository.sumCourseIncomeByInstitution(institutionId)),
+                limit, COURSE_INCOME_ORDER);
 
-        for (Order order : paidOrders) {
-            Long courseId = order.getCourse().getId();
-            String courseTitle = order.getCourse().getTitle();
-            String courseCover = order.getCourse().getCoverImage();
-            BigDecimal amount = order.getAmount();
+        // 一次查询取得入选课程的信息
+        Map<Long, Course> courses = findCourses(topRows);
 
-            CourseIncomeRankingVO vo = courseIncomeMap.getOrDefault(courseId, CourseIncomeRankingVO.builder()
+        List<CourseIncomeRankingVO> result = new ArrayList<>(topRows.size());
+        for (Object[] row : topRows) {
+            Long courseId = (Long) row[0];
+            Course course = courses.get(courseId);
+            result.add(CourseIncomeRankingVO.builder()
                     .courseId(courseId)
-                    .courseTitle(courseTitle)
-                    .courseCover(courseCover)
-                    .income(BigDecimal.ZERO)
+                    .courseTitle(course != null ? course.getTitle() : null)
+                    .courseCover(course != null ? course.getCoverImage() : null)
+                    .income((BigDecimal) row[1])
                     .build());
-
-            // 累加收入
-            vo.setIncome(vo.getIncome().add(amount));
-
-            courseIncomeMap.put(courseId, vo);
-        }
-
-        // 处理退款
-        List<Order> refundedOrders = orderRepository.findByInstitution_IdAndStatus(
-                institutionId, OrderStatus.REFUNDED.getValue());
-
-        for (Order order : refundedOrders) {
-            if (order.getRefundAmount() == null) continue;
-
-            Long courseId = order.getCourse().getId();
-            CourseIncomeRankingVO vo = courseIncomeMap.get(courseId);
-
-            if (vo != null) {
-                // 减去退款金额
-                vo.setIncome(vo.getIncome().subtract(order.getRefundAmount()));
-                courseIncomeMap.put(courseId, vo);
-            }
         }
-
-        // 转换为列表并按收入排序
-        List<CourseIncomeRankingVO> result = new ArrayList<>(courseIncomeMap.values());
-        result.sort((a, b) -> b.getIncome().compareTo(a.getIncome()));
-
-        // 限制返回数量
-        return result.stream().limit(limit).collect(Collectors.toList());
+        return result;
     }
 
     /**
@@ -1399,39 +1298,10 @@ public class OrderServiceImpl implements OrderService {
     public List<OrderStatusDistributionVO> getPlatformOrderStatusDistribution() {
         log.info("获取平台订单状态分布");
 
-        // 查询所有订单
-        List<Order> orders = orderRepository.findAll();
-
-        // 按状态分组统计
-        Map<Integer, Long> statusCountMap = orders.stream()
-                .collect(Collectors.groupingBy(Order::getStatus, Collectors.counting()));
-
-        // 计算总订单数
-        long totalOrders = orders.size();
-
-        // 构建结果列表
-        List<OrderStatusDistributionVO> result = new ArrayList<>();
-
-        // 遍历所有可能的订单状态
-        for (OrderStatus status : OrderStatus.values()) {
-            Integer statusValue = status.getValue();
-            Long count = statusCountMap.getOrDefault(statusValue, 0L);
+        Map<Integer, Long> statusCountMap = orderStatusCounter.getCounts(null)
+                .orElseGet(() -> toStatusCountMap(orderRepository.countGroupByStatus()));
 
-            // 计算百分比
-            double percentage = totalOrders > 0 ? (count * 100.0 / totalOrders) : 0;
-
-            // 创建VO对象
-            OrderStatusDistributionVO vo = OrderStatusDistributionVO.builder()
-                    .status(statusValue)
-                    .statusName(status.getDesc())
-                    .count(count)
-                    .percentage(Math.round(percentage * 100) / 100.0) // 保留两位小数
-                    .build();
-
-            result.add(vo);
-        }
-
-        return result;
+        return buildStatusDistribution(statusCountMap);
     }
 
     /**
@@ -1442,59 +1312,28 @@ public class OrderServiceImpl implements OrderService {
     public List<AdminCourseIncomeRankingVO> getPlatformCourseIncomeRanking(int limit) {
         log.info("获取平台课程收入排行, 限制数量: {}", limit);
 
-        // 查询所有已支付订单
-        List<Order> paidOrders = orderRepository.findByStatusIn(
-                List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue())
-        );
+        // 按课程汇总净收入，用有界堆选出前limit名
+        List<Object[]> topRows = TopKUtil.select(
+                toNetIncomeRows(incomeLedgerRepository.sumCourseIncome()), limit, COURSE_INCOME_ORDER);
 
-        // 按课程分组统计收入
-        Map<Long, AdminCourseIncomeRankingVO> courseIncomeMap = new HashMap<>();
+        // 一次查询取得入选课程及其机构的信息
+        Map<Long, Course> courses = findCourses(topRows);
 
-        for (Order order : paidOrders) {
-            Long courseId = order.getCourse().getId();
-            String courseTitle = order.getCourse().getTitle();
-            String courseCover = order.getCourse().getCoverImage();
-            Long institutionId = order.getInstitution().getId();
-            String institutionName = order.getInstitution().getName();
-            BigDecimal amount = order.getAmount();
-
-            AdminCourseIncomeRankingVO vo = courseIncomeMap.getOrDefault(courseId, AdminCourseIncomeRankingVO.builder()
+        List<AdminCourseIncomeRankingVO> result = new ArrayList<>(topRows.size());
+        for (Object[] row : topRows) {
+            Long courseId = (Long) row[0];
+            Course course = courses.get(courseId);
+            Institution institution = course != null ? course.getInstitution() : null;
+            result.add(AdminCourseIncomeRankingVO.builder()
                     .courseId(courseId)
-                    .courseTitle(courseTitle)
-                    .courseCover(courseCover)
-                    .institutionId(institutionId)
-                    .institutionName(institutionName)
-                    .income(BigDecimal.ZERO)
+                    .courseTitle(course != null ? course.getTitle() : null)
+                    .courseCover(course != null ? course.getCoverImage() : null)
+                    .institutionId(institution != null ? institution.getId() : null)
+                    .institutionName(institution != null ? institution.getName() : null)
+                    .income((BigDecimal) row[1])
                     .build());
-
-            // 累加收入
-            vo.setIncome(vo.getIncome().add(amount));
-
-            courseIncomeMap.put(courseId, vo);
-        }
-
-        // 处理退款
-        List<Order> refundedOrders = orderRepository.findByStatus(OrderStatus.REFUNDED.getValue());
-
-        for (Order order : refundedOrders) {
-            if (order.getRefundAmount() == null) continue;
-
-            Long courseId = order.getCourse().getId();
-            AdminCourseIncomeRankingVO vo = courseIncomeMap.get(courseId);
-
-            if (vo != null) {
-                // 减去退款金额
-                vo.setIncome(vo.getIncome().subtract(order.getRefundAmount()));
-                courseIncomeMap.put(courseId, vo);
-            }
         }
-
-        // 转换为列表并按收入排序
-        List<AdminCourseIncomeRankingVO> result = new ArrayList<>(courseIncomeMap.values());
-        result.sort((a, b) -> b.getIncome().compareTo(a.getIncome()));
-
-        // 限制返回数量
-        return result.stream().limit(limit).collect(Collectors.toList());
+        return result;
     }
 
     /**
@@ -1618,6 +1457,89 @@ public class OrderServiceImpl implements OrderService {
                 .build();
     }
 
+    /**
+     * 把按课程汇总的收入和退款转换为课程ID和净收入
+     * 与按订单统计时一致：只有当前仍有已支付或申请退款订单的课程才参与排行，
+     * 只有退款的课程不出现，不会以负的净收入排在末尾
+     */
+    private List<Object[]> toNetIncomeRows(List<Object[]> rows) {
+        List<Object[]> result = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            if (((Number) row[3]).longValue() <= 0) {
+                continue;
+            }
+            result.add(new Object[]{row[0], ((BigDecimal) row[1]).subtract((BigDecimal) row[2])});
+        }
+        return result;
+    }
+
+    /**
+     * 批量查询课程收入排行中的课程，同时加载所属机构
+     */
+    private Map<Long, Course> findCourses(List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return new HashMap<>();
+        }
+        List<Long> courseIds = rows.stream().map(row -> (Long) row[0]).collect(Collectors.toList());
+        return courseRepository.findAllWithInstitutionByIdIn(courseIds).stream()
+                .collect(Collectors.toMap(Course::getId, course -> course));
+    }
+
+    /**
+     * 把按状态分组的统计结果转换为状态值到订单数的映射
+     */
+    private Map<Integer, Long> toStatusCountMap(List<Object[]> rows) {
+        Map<Integer, Long> statusCountMap = new HashMap<>();
+        for (Object[] row : rows) {
+            statusCountMap.put(((Number) row[0]).intValue(), ((Number) row[1]).longValue());
+        }
+        return statusCountMap;
+    }
+
+    /**
+     * 按各状态的订单数构建状态分布，包含所有订单状态
+     */
+    private List<OrderStatusDistributionVO> buildStatusDistribution(Map<Integer, Long> statusCountMap) {
+        // 计算总订单数
+        long totalOrders = 0;
+        for (OrderStatus status : OrderStatus.values()) {
+            totalOrders += statusCountMap.getOrDefault(status.getValue(), 0L);
+        }
+
+        // 构建结果列表
+        List<OrderStatusDistributionVO> result = new ArrayList<>();
+
+        // 遍历所有可能的订单状态
+        for (OrderStatus status : OrderStatus.values()) {
+            Integer statusValue = status.getValue();
+            Long count = statusCountMap.getOrDefault(statusValue, 0L);
+
+            // 计算百分比
+            double percentage = totalOrders > 0 ? (count * 100.0 / totalOrders) : 0;
+
+            // 创建VO对象
+            OrderStatusDistributionVO vo = OrderStatusDistributionVO.builder()
+                    .status(statusValue)
+                    .statusName(status.getDesc())
+                    .count(count)
+                    .percentage(Math.round(percentage * 100) / 100.0) // 保留两位小数
+                    .build();
+
+            result.add(vo);
+        }
+
+        return result;
+    }
+
+    /**
+     * 收入台账按天记录，查询的结束日期不包含在内：
+     * 结束时间恰好是零点时到前一天为止，否则包含结束时间所在的一天
+     */
+    private LocalDate ledgerEndDate(LocalDateTime endTime) {
+        LocalDate endDate = endTime.toLocalDate();
+        return endTime.equals(endDate.atStartOfDay()) ? endDate : endDate.plusDays(1);
+    }
+
     /**
      * 根据分组方式格式化日期
      */
@@ -0,0 +1,174 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Order;
+import com.zhangziqi.online_course_mine.repository.OrderRepository;
+import com.zhangziqi.online_course_mine.utils.TransactionUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单状态计数器
+ * 全平台和每个机构各一个Redis哈希，字段为订单状态值，值为处于该状态的订单数；
+ * 订单创建和每次状态变化时在事务提交后用HINCRBY把订单从原状态移到新状态，
+ * 状态分布的读取只需一次HGETALL。启动时（未就绪）和每天凌晨按订单表的分组统计校准，
+ * 校准是一次分组查询，在统计线程池中执行，不占用学习记录聚合的线程
+ */
+@Slf4j
+@Service
+public class OrderStatusCounter extends RedisProjection {
+
+    private static final String KEY_PREFIX = "order:status-count:";
+
+    private static final String PLATFORM_KEY = KEY_PREFIX + "platform";
+
+    private static final Duration REBUILD_LOCK_TTL = Duration.ofMinutes(10);
+
+    private final OrderRepository orderRepository;
+
+    public OrderStatusCounter(StringRedisTemplate stringRedisTemplate, RedisTaskLock redisTaskLock,
+                              OrderRepository orderRepository,
+                              @Qualifier("statisticsExecutor") Executor statisticsExecutor) {
+        super("订单状态计数", KEY_PREFIX, REBUILD_LOCK_TTL, stringRedisTemplate, redisTaskLock,
+                statisticsExecutor);
+        this.orderRepository = orderRepository;
+    }
+
+    /**
+     * 记录订单状态变化
+     * 在事务中调用时推迟到提交之后，写入失败只记录日志
+     *
+     * @param order 状态已变化的订单
+     * @param previousStatus 变化前的状态，新建的订单为null
+     */
+    public void transition(Order order, Integer previousStatus) {
+        Integer status = order.getStatus();
+        if (Objects.equals(previousStatus, status)) {
+            return;
+        }
+        Long institutionId = order.getInstitution() != null ? order.getInstitution().getId() : null;
+        Map<String, Map<String, Long>> deltas = new HashMap<>();
+        move(deltas, PLATFORM_KEY, previousStatus, status);
+        if (institutionId != null) {
+            move(deltas, institutionKey(institutionId), previousStatus, status);
+        }
+        TransactionUtil.afterCommit(() -> {
+            try {
+                increment(Structure.HASH, deltas, key -> 0L);
+            } catch (Exception e) {
+                log.warn("更新订单状态计数失败, 订单号: {}, 状态: {} -> {}",
+                        order.getOrderNo(), previousStatus, status, e);
+            }
+        });
+    }
+
+    /**
+     * 获取机构各状态的订单数
+     *
+     * @param institutionId 机构ID，为null时获取全平台
+     * @return 状态值 -> 订单数，只包含出现过的状态；尚未就绪或Redis不可用时为空
+     */
+    public Optional<Map<Integer, Long>> getCounts(Long institutionId) {
+        try {
+            if (!isReady()) {
+                return Optional.empty();
+            }
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash()
+                    .entries(institutionId != null ? institutionKey(institutionId) : PLATFORM_KEY);
+            Map<Integer, Long> counts = new HashMap<>();
+            entries.forEach((status, count) -> counts.put(Integer.valueOf(status.toString()),
+                    // 校准前可能因写入顺序出现短暂的负数
+                    Math.max(0L, Long.parseLong(count.toString()))));
+            return Optional.of(counts);
+        } catch (Exception e) {
+            log.warn("读取订单状态计数失败, 机构ID: {}", institutionId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 每天从订单表校准计数
+     */
+    @Scheduled(cron = "${order.status-count.reconcile-cron:0 20 3 * * ?}")
+    public void reconcile() {
+        reconcileInBackground();
+    }
+
+    /**
+     * 按订单表的分组统计覆盖所有计数哈希，重建只有一条分组查询
+     * 计数是HINCRBY累加的，统计值先写入暂存哈希，统计期间的状态变化由变化捕获缓冲，
+     * 合并后改名为计数哈希，不会覆盖统计之后的变化；已没有订单的机构的计数哈希一并删除
+     */
+    @Override
+    protected long rebuildFromSource() {
+        beginCapture();
+        try {
+            Map<String, Map<String, Long>> counts = new HashMap<>();
+            long rows = 0;
+            for (Object[] row : orderRepository.countGroupByInstitutionAndStatus()) {
+                String status = String.valueOf(row[1]);
+                long count = ((Number) row[2]).longValue();
+                counts.computeIfAbsent(PLATFORM_KEY, k -> new HashMap<>()).merge(status, count, Long::sum);
+                if (row[0] != null) {
+                    counts.computeIfAbsent(institutionKey(((Number) row[0]).longValue()), k -> new HashMap<>())
+                            .put(status, count);
+                }
+                rows++;
+            }
+
+            stringRedisTemplate.executePipelined(new SessionCallback<List<Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public List<Object> execute(RedisOperations operations) {
+                    for (Map.Entry<String, Map<String, Long>> entry : counts.entrySet()) {
+                        String stagingKey = stagingKey(entry.getKey());
+                        Map<String, String> values = new HashMap<>();
+                        entry.getValue().forEach((status, count) -> values.put(status, String.valueOf(count)));
+                        operations.delete(stagingKey);
+                        operations.opsForHash().putAll(stagingKey, values);
+                        operations.expire(stagingKey, REBUILD_LOCK_TTL.toSeconds(), TimeUnit.SECONDS);
+                    }
+                    return null;
+                }
+            });
+
+            Set<String> keys = new HashSet<>(counts.keySet());
+            keys.add(PLATFORM_KEY);
+            keys.addAll(scanKeys(KEY_PREFIX + "institution:*"));
+            switchKeys(Structure.HASH, keys, key -> 0L);
+            return rows;
+        } finally {
+            endCapture();
+        }
+    }
+
+    private static void move(Map<String, Map<String, Long>> deltas, String key, Integer from, Integer to) {
+        Map<String, Long> fields = deltas.computeIfAbsent(key, k -> new HashMap<>());
+        if (from != null) {
+            fields.merge(String.valueOf(from), -1L, Long::sum);
+        }
+        if (to != null) {
+            fields.merge(String.valueOf(to), 1L, Long::sum);
+        }
+    }
+
+    private static String institutionKey(Long institutionId) {
+        return KEY_PREFIX + "institution:" + institutionId;
+    }
+
+}
@@ -0,0 +1,301 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.zhangziqi.online_course_mine.constant.OrderConstants;
+import com.zhangziqi.online_course_mine.model.entity.Order;
+import com.zhangziqi.online_course_mine.model.entity.PaymentNotifyInbox;
+import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
+import com.zhangziqi.online_course_mine.model.enums.PaymentNotifyStatus;
+import com.zhangziqi.online_course_mine.repository.OrderRepository;
+import com.zhangziqi.online_course_mine.repository.PaymentNotifyInboxRepository;
+import com.zhangziqi.online_course_mine.service.UserCourseService;
+import com.zhangziqi.online_course_mine.utils.TransactionUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 支付通知处理器
+ * 回调线程只负责把验签通过的通知写入收件箱（按交易号和交易状态去重）后立即应答，
+ * 订单状态的变更和后续步骤在后台执行：
+ * 1. 用带状态条件的UPDATE把待支付订单改为已支付（或已关闭），并发的重复通知只有一个能成功，
+ *    同一事务内更新收入台账并把通知标记为订单已更新；超时关闭后才到达的支付成功通知同样把订单改为已支付，
+ *    其他无法应用的支付成功通知（订单不存在或已由另一笔交易支付）标记为待人工处理，由人工核对退款；
+ * 2. 开通课程（含学员数）、取消订单超时计时，这些步骤都是幂等的，失败后整体重试直到完成。
+ * 通知通过条件更新领取，领取后在租约时间内不会被其他线程或实例重复处理，失败时按退避时间重试
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PaymentNotifyProcessor {
+
+    private static final List<Integer> PENDING_STATUSES = List.of(
+            PaymentNotifyStatus.RECEIVED.getValue(), PaymentNotifyStatus.APPLIED.getValue());
+
+    // 单次重试的最大间隔（秒）
+    private static final long MAX_BACKOFF_SECONDS = 600;
+
+    private final PaymentNotifyInboxRepository inboxRepository;
+    private final OrderRepository orderRepository;
+    private final UserCourseService userCourseService;
+    private final RedisOrderService redisOrderService;
+    private final IncomeLedgerService incomeLedgerService;
+    private final OrderStatusCounter orderStatusCounter;
+    private final PlatformTransactionManager transactionManager;
+
+    @Qualifier("paymentNotifyExecutor")
+    private final Executor paymentNotifyExecutor;
+
+    // 领取后完成处理的租约时间（秒）
+    @Value("${payment.notify.lease-seconds:60}")
+    private long leaseSeconds = 60;
+
+    // 最大处理次数，超过后标记为处理失败
+    @Value("${payment.notify.max-attempts:10}")
+    private int maxAttempts = 10;
+
+    // 每次重试处理的通知数量
+    @Value("${payment.notify.batch-size:100}")
+    private int batchSize = 100;
+
+    /**
+     * 保存验签通过的通知，事务提交后提交到后台处理
+     *
+     * @param params 通知参数
+     * @param defaultTradeStatus 参数中没有交易状态时使用的状态（同步回调不带交易状态）
+     * @return 是否为新通知，重复通知返回false
+     */
+    public boolean receive(Map<String, String> params, String defaultTradeStatus) {
+        String tradeNo = params.get("trade_no");
+        String outTradeNo = params.get("out_trade_no");
+        String tradeStatus = params.getOrDefault("trade_status", defaultTradeStatus);
+        if (tradeNo == null || outTradeNo == null || tradeStatus == null) {
+            throw new IllegalArgumentException("支付通知缺少交易号、订单号或交易状态");
+        }
+
+        int inserted = inboxRepository.insertIgnore(tradeNo, tradeStatus, outTradeNo,
+                JSON.toJSONString(params), PaymentNotifyStatus.RECEIVED.getValue(), LocalDateTime.now());
+        if (inserted == 0) {
+            log.info("重复的支付通知，已忽略，支付宝交易号: {}, 交易状态: {}", tradeNo, tradeStatus);
+            return false;
+        }
+
+        inboxRepository.findIdByTradeNoAndTradeStatus(tradeNo, tradeStatus)
+                .ifPresent(id -> TransactionUtil.afterCommit(() -> dispatch(id)));
+        log.info("支付通知已保存，订单号: {}, 支付宝交易号: {}, 交易状态: {}", outTradeNo, tradeNo, tradeStatus);
+        return true;
+    }
+
+    /**
+     * 定期处理到期未完成的通知，包括提交失败、处理失败和租约过期的通知
+     */
+    @Scheduled(fixedDelayString = "${payment.notify.retry-interval-ms:5000}")
+    public void processDue() {
+        List<Long> ids;
+        try {
+            ids = inboxRepository.findDueIds(PENDING_STATUSES, LocalDateTime.now(), PageRequest.of(0, batchSize));
+        } catch (Exception e) {
+            log.error("查询待处理的支付通知失败", e);
+            return;
+        }
+        for (Long id : ids) {
+            process(id);
+        }
+    }
+
+    /**
+     * 处理一条通知，未领取到时直接返回
+     *
+     * @param id 通知ID
+     */
+    public void process(Long id) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        LocalDateTime now = LocalDateTime.now();
+        Integer claimed = transactionTemplate.execute(status ->
+                inboxRepository.claim(id, PENDING_STATUSES, now, now.plusSeconds(leaseSeconds)));
+        if (claimed == null || claimed == 0) {
+            return;
+        }
+
+        PaymentNotifyInbox inbox = inboxRepository.findById(id).orElse(null);
+        if (inbox == null) {
+            return;
+        }
+
+        try {
+            int state = inbox.getStatus();
+            if (state == PaymentNotifyStatus.RECEIVED.getValue()) {
+                Integer applied = transactionTemplate.execute(status -> applyTransition(inbox));
+                state = applied != null ? applied : state;
+            }
+            if (state == PaymentNotifyStatus.APPLIED.getValue()) {
+                runFollowUpSteps(inbox);
+                markStatus(inbox, PaymentNotifyStatus.DONE, null);
+            }
+        } catch (Exception e) {
+            scheduleRetry(inbox, e);
+        }
+    }
+
+    /**
+     * 按通知更新订单状态，与收件箱状态在同一事务中提交
+     *
+     * @return 更新后的收件箱状态
+     */
+    private int applyTransition(PaymentNotifyInbox inbox) {
+        String outTradeNo = inbox.getOutTradeNo();
+        String tradeStatus = inbox.getTradeStatus();
+        LocalDateTime now = LocalDateTime.now();
+
+        PaymentNotifyStatus next;
+        String error = null;
+        if (OrderConstants.ALIPAY_TRADE_SUCCESS.equals(tradeStatus)
+                || OrderConstants.ALIPAY_TRADE_FINISHED.equals(tradeStatus)) {
+            int previousStatus = OrderStatus.PENDING.getValue();
+            int updated = orderRepository.markPaidIfStatus(outTradeNo, inbox.getTradeNo(), now,
+                    previousStatus, OrderStatus.PAID.getValue());
+            if (updated == 0) {
+                // 订单超时关闭后才收到支付成功：款项已经到账，按已支付开通课程
+                previousStatus = OrderStatus.CLOSED.getValue();
+                updated = orderRepository.markPaidIfStatus(outTradeNo, inbox.getTradeNo(), now,
+                        previousStatus, OrderStatus.PAID.getValue());
+                if (updated == 1) {
+                    log.warn("订单关闭后收到支付成功通知，已改为已支付，订单号: {}, 支付宝交易号: {}",
+                            outTradeNo, inbox.getTradeNo());
+                }
+            }
+            if (updated == 1) {
+                Order order = findOrder(outTradeNo);
+                incomeLedgerService.apply(order, IncomeLedgerService.Contribution.NONE);
+                orderStatusCounter.transition(order, previousStatus);
+                log.info("订单已支付，订单号: {}, 支付宝交易号: {}", outTradeNo, inbox.getTradeNo());
+                next = PaymentNotifyStatus.APPLIED;
+            } else {
+                error = checkUnappliedPayment(inbox);
+                next = error != null ? PaymentNotifyStatus.MANUAL_REVIEW : PaymentNotifyStatus.DONE;
+            }
+        } else if (OrderConstants.ALIPAY_TRADE_CLOSED.equals(tradeStatus)) {
+            int updated = orderRepository.updateStatusIfCurrent(outTradeNo,
+                    OrderStatus.PENDING.getValue(), OrderStatus.CLOSED.getValue(), now);
+            if (updated == 1) {
+                orderStatusCounter.transition(findOrder(outTradeNo), OrderStatus.PENDING.getValue());
+                log.info("订单交易已关闭，订单号: {}", outTradeNo);
+                next = PaymentNotifyStatus.APPLIED;
+            } else {
+                logSkipped(inbox);
+                next = PaymentNotifyStatus.DONE;
+            }
+        } else {
+            // 其他交易状态（如等待付款）不改变订单
+            next = PaymentNotifyStatus.DONE;
+        }
+
+        inboxRepository.updateStatus(inbox.getId(), next.getValue(), error, inbox.getNextAttemptAt(), now);
+        inbox.setStatus(next.getValue());
+        return next.getValue();
+    }
+
+    /**
+     * 订单更新后的后续步骤，每一步都可以重复执行
+     */
+    private void runFollowUpSteps(PaymentNotifyInbox inbox) {
+        String outTradeNo = inbox.getOutTradeNo();
+        if (OrderConstants.ALIPAY_TRADE_SUCCESS.equals(inbox.getTradeStatus())
+                || OrderConstants.ALIPAY_TRADE_FINISHED.equals(inbox.getTradeStatus())) {
+            Order order = findOrder(outTradeNo);
+            // 开通课程，已开通时不会重复创建，也不会重复增加学员数
+            userCourseService.createUserCourseRelation(order.getUserId(), order.getCourseId(), order.getId(), true);
+        }
+        redisOrderService.cancelOrderTimeout(outTradeNo);
+    }
+
+    private Order findOrder(String outTradeNo) {
+        return orderRepository.findByOrderNo(outTradeNo)
+                .orElseThrow(() -> new IllegalStateException("订单不存在，订单号: " + outTradeNo));
+    }
+
+    /**
+     * 检查没有更新订单的支付成功通知
+     * 订单已由同一笔交易支付（如TRADE_SUCCESS之后的TRADE_FINISHED）时无需处理；
+     * 订单不存在或已由另一笔交易支付时用户重复付款，需要人工核对并退款
+     *
+     * @return 需要人工处理的原因，无需处理时为null
+     */
+    private String checkUnappliedPayment(PaymentNotifyInbox inbox) {
+        Order order = orderRepository.findByOrderNo(inbox.getOutTradeNo()).orElse(null);
+        if (order != null && inbox.getTradeNo().equals(order.getTradeNo())) {
+            log.info("订单已按该交易更新，通知无需处理，订单号: {}, 订单状态: {}, 交易状态: {}",
+                    inbox.getOutTradeNo(), order.getStatus(), inbox.getTradeStatus());
+            return null;
+        }
+        String reason = order == null
+                ? "支付成功但订单不存在"
+                : "支付成功但订单状态为" + order.getStatus() + "，订单交易号: " + order.getTradeNo();
+        log.error("支付成功通知无法应用到订单，需要人工核对并退款，订单号: {}, 支付宝交易号: {}, 原因: {}",
+                inbox.getOutTradeNo(), inbox.getTradeNo(), reason);
+        return reason;
+    }
+
+    private void logSkipped(PaymentNotifyInbox inbox) {
+        Integer orderStatus = orderRepository.findByOrderNo(inbox.getOutTradeNo())
+                .map(Order::getStatus)
+                .orElse(null);
+        if (orderStatus == null) {
+            log.warn("支付通知对应的订单不存在，订单号: {}, 支付宝交易号: {}", inbox.getOutTradeNo(), inbox.getTradeNo());
+        } else {
+            log.info("订单已不是待支付状态，通知无需处理，订单号: {}, 订单状态: {}, 交易状态: {}",
+                    inbox.getOutTradeNo(), orderStatus, inbox.getTradeStatus());
+        }
+    }
+
+    private void scheduleRetry(PaymentNotifyInbox inbox, Exception e) {
+        // 领取时已计入本次处理
+        int attempts = inbox.getAttempts();
+        String message = e.getClass().getSimpleName() + ": " + e.getMessage();
+        String error = message.length() > 500 ? message.substring(0, 500) : message;
+        try {
+            if (attempts >= maxAttempts) {
+                log.error("支付通知处理失败且不再重试，订单号: {}, 支付宝交易号: {}",
+                        inbox.getOutTradeNo(), inbox.getTradeNo(), e);
+                markStatus(inbox, PaymentNotifyStatus.FAILED, error);
+                return;
+            }
+            long backoffSeconds = Math.min(MAX_BACKOFF_SECONDS, 1L << Math.min(attempts, 20));
+            log.warn("支付通知处理失败，{}秒后重试，订单号: {}, 支付宝交易号: {}",
+                    backoffSeconds, inbox.getOutTradeNo(), inbox.getTradeNo(), e);
+            LocalDateTime now = LocalDateTime.now();
+            new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                    inboxRepository.updateStatus(inbox.getId(), inbox.getStatus(), error,
+                            now.plusSeconds(backoffSeconds), now));
+        } catch (Exception updateError) {
+            // 更新失败时租约到期后自动重试
+            log.error("记录支付通知处理失败时出错，通知ID: {}", inbox.getId(), updateError);
+        }
+    }
+
+    private void markStatus(PaymentNotifyInbox inbox, PaymentNotifyStatus status, String error) {
+        LocalDateTime now = LocalDateTime.now();
+        new TransactionTemplate(transactionManager).executeWithoutResult(tx ->
+                inboxRepository.updateStatus(inbox.getId(), status.getValue(), error, now, now));
+    }
+
+    private void dispatch(Long id) {
+        try {
+            paymentNotifyExecutor.execute(() -> process(id));
+        } catch (RejectedExecutionException e) {
+            log.warn("支付通知处理线程池已满，等待定时重试，通知ID: {}", id);
+        }
+    }
+}
@@ -1,15 +1,33 @@
 package com.zhangziqi.online_course_mine.service.impl;
 
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Redis学习记录服务
@@ -19,17 +37,62 @@ import java.util.concurrent.TimeUnit;
 @Service
 @RequiredArgsConstructor
 public class RedisLearningRecordService {
-    
+
     private final RedisTemplate<String, Object> redisTemplate;
-    
+
     // Redis键前缀
     private static final String LEARNING_RECORD_KEY_PREFIX = "learning:record:";
-    
+
+    // 聚合中的学习记录键前缀，键被聚合任务认领后重命名到该前缀下
+    private static final String AGGREGATING_KEY_PREFIX = "learning:aggregating:";
+
     // 记录过期时间（天）
     private static final int RECORD_EXPIRATION_DAYS = 3;
-    
+
+    // 每个键在脚本参数中占用的参数个数：时长、章节ID、小节ID、上下文数据
+    private static final int ARGS_PER_KEY = 4;
+
+    /**
+     * 学习记录更新脚本
+     * ARGV[1]为过期秒数，ARGV[2]为更新时间，之后每个键依次对应4个参数；
+     * 空字符串表示该字段不更新（序列化器会将null序列化为空字节数组）
+     */
+    private static final RedisScript<Long> UPDATE_LEARNING_RECORD_SCRIPT = new DefaultRedisScript<>(
+            "local ttl = ARGV[1] " +
+            "local now = ARGV[2] " +
+            "for i, key in ipairs(KEYS) do " +
+            "  local base = 2 + (i - 1) * " + ARGS_PER_KEY + " " +
+            "  redis.call('HINCRBY', key, 'totalDuration', ARGV[base + 1]) " +
+            "  redis.call('HSET', key, 'lastUpdate', now) " +
+            "  if ARGV[base + 2] ~= '' then redis.call('HSET', key, 'chapterId', ARGV[base + 2]) end " +
+            "  if ARGV[base + 3] ~= '' then redis.call('HSET', key, 'sectionId', ARGV[base + 3]) end " +
+            "  if ARGV[base + 4] ~= '' then redis.call('HSET', key, 'contextData', ARGV[base + 4]) end " +
+            "  redis.call('EXPIRE', key, ttl) " +
+            "end " +
+            "return #KEYS",
+            Long.class);
+
+    /**
+     * 学习记录认领脚本
+     * KEYS前一半为待认领的键，后一半为对应的认领键；
+     * 只有源键存在且认领键不存在时才重命名，返回认领成功的键
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CLAIM_LEARNING_RECORD_SCRIPT = new DefaultRedisScript<>(
+            "local n = #KEYS / 2 " +
+            "local claimed = {} " +
+            "for i = 1, n do " +
+            "  if redis.call('EXISTS', KEYS[i]) == 1 and redis.call('EXISTS', KEYS[n + i]) == 0 then " +
+            "    redis.call('RENAME', KEYS[i], KEYS[n + i]) " +
+            "    table.insert(claimed, KEYS[n + i]) " +
+            "  end " +
+            "end " +
+            "return claimed",
+            List.class);
+
     /**
      * 更新学习记录
+     * 所有字段更新和过期设置在一次脚本调用中完成，只需一次网络往返
      * @param userId 用户ID
      * @param courseId 课程ID
      * @param chapterId 章节ID
@@ -38,66 +101,259 @@ public class RedisLearningRecordService {
      * @param durationSeconds 持续时间（秒）
      * @param contextData 上下文数据
      */
-    public void updateLearningRecord(Long userId, Long courseId, Long chapterId, Long sectionId, 
+    public void updateLearningRecord(Long userId, Long courseId, Long chapterId, Long sectionId,
                                     String activityType, int durationSeconds, String contextData) {
-        // 生成当前日期字符串
-        String dateStr = LocalDate.now().format(DateTimeFormatter.ISO_DATE);
-        
-        // 构建Redis键
-        String redisKey = buildRedisKey(dateStr, userId, courseId, activityType);
-        
-        // 使用Hash结构存储数据
-        redisTemplate.opsForHash().increment(redisKey, "totalDuration", durationSeconds);
-        redisTemplate.opsForHash().put(redisKey, "lastUpdate", System.currentTimeMillis());
-        
-        // 更新章节和小节信息
-        if (chapterId != null) {
-            redisTemplate.opsForHash().put(redisKey, "chapterId", chapterId.toString());
+        batchUpdateLearningRecords(List.of(LearningRecordIncrement.builder()
+                .userId(userId)
+                .courseId(courseId)
+                .chapterId(chapterId)
+                .sectionId(sectionId)
+                .activityType(activityType)
+                .durationSeconds(durationSeconds)
+                .contextData(contextData)
+                .build()));
+    }
+
+    /**
+     * 批量更新学习记录
+     * 相同Redis键的增量先在内存中合并（时长累加，章节、小节和上下文取最后一个非空值），
+     * 然后通过一次脚本调用写入Redis
+     * @param increments 学习记录增量
+     * @return 实际写入的Redis键数量
+     */
+    public int batchUpdateLearningRecords(Collection<LearningRecordIncrement> increments) {
+        if (increments == null || increments.isEmpty()) {
+            return 0;
         }
-        
-        if (sectionId != null) {
-            redisTemplate.opsForHash().put(redisKey, "sectionId", sectionId.toString());
+
+        // 生成当前日期字符串
+        String todayStr = LocalDate.now().format(DateTimeFormatter.ISO_DATE);
+
+        // 按Redis键合并增量
+        Map<String, LearningRecordIncrement> merged = new LinkedHashMap<>();
+        for (LearningRecordIncrement increment : increments) {
+            String dateStr = increment.getDate() != null
+                    ? increment.getDate().format(DateTimeFormatter.ISO_DATE) : todayStr;
+            String redisKey = buildRedisKey(dateStr, increment.getUserId(), increment.getCourseId(),
+                    increment.getActivityType());
+            merged.merge(redisKey, increment.copy(), LearningRecordIncrement::mergeWith);
         }
-        
-        // 更新上下文数据（可选）
-        if (contextData != null) {
-            redisTemplate.opsForHash().put(redisKey, "contextData", contextData);
+
+        List<String> keys = new ArrayList<>(merged.keySet());
+        Object[] args = new Object[2 + keys.size() * ARGS_PER_KEY];
+        args[0] = TimeUnit.DAYS.toSeconds(RECORD_EXPIRATION_DAYS);
+        args[1] = System.currentTimeMillis();
+        int index = 2;
+        for (LearningRecordIncrement increment : merged.values()) {
+            args[index++] = increment.getDurationSeconds();
+            args[index++] = increment.getChapterId() != null ? increment.getChapterId().toString() : null;
+            args[index++] = increment.getSectionId() != null ? increment.getSectionId().toString() : null;
+            args[index++] = increment.getContextData();
         }
-        
-        // 设置过期时间
-        redisTemplate.expire(redisKey, RECORD_EXPIRATION_DAYS, TimeUnit.DAYS);
-        
-        log.debug("更新Redis学习记录: {}, 用户: {}, 课程: {}, 活动: {}, 时长: {}秒", 
-                redisKey, userId, courseId, activityType, durationSeconds);
+
+        redisTemplate.execute(UPDATE_LEARNING_RECORD_SCRIPT, keys, args);
+
+        log.debug("批量更新Redis学习记录, 增量数: {}, 合并后键数: {}", increments.size(), keys.size());
+        return keys.size();
     }
-    
+
     /**
      * 构建Redis键
      */
     private String buildRedisKey(String dateStr, Long userId, Long courseId, String activityType) {
         return LEARNING_RECORD_KEY_PREFIX + dateStr + ":" + userId + ":" + courseId + ":" + activityType;
     }
-    
+
     /**
      * 获取指定日期的所有学习记录键
+     * 使用SCAN遍历，避免KEYS命令阻塞Redis
      */
     public Set<String> getLearningRecordKeys(LocalDate date) {
-        String dateStr = date.format(DateTimeFormatter.ISO_DATE);
-        String pattern = LEARNING_RECORD_KEY_PREFIX + dateStr + ":*";
-        return redisTemplate.keys(pattern);
+        Set<String> keys = new HashSet<>();
+        scanLearningRecordKeys(date, 1000, keys::addAll);
+        return keys;
+    }
+
+    /**
+     * 分批遍历指定日期的学习记录键
+     * @param date 日期
+     * @param batchSize 每批键数量
+     * @param consumer 批次处理器
+     */
+    public void scanLearningRecordKeys(LocalDate date, int batchSize, Consumer<List<String>> consumer) {
+        scanKeys(LEARNING_RECORD_KEY_PREFIX + date.format(DateTimeFormatter.ISO_DATE) + ":*", batchSize, consumer);
+    }
+
+    /**
+     * 分批遍历指定日期已被认领但尚未完成聚合的学习记录键
+     * 这些键通常是之前聚合失败后遗留的
+     * @param date 日期
+     * @param batchSize 每批键数量
+     * @param consumer 批次处理器
+     */
+    public void scanClaimedLearningRecordKeys(LocalDate date, int batchSize, Consumer<List<String>> consumer) {
+        scanKeys(AGGREGATING_KEY_PREFIX + date.format(DateTimeFormatter.ISO_DATE) + ":*", batchSize, consumer);
+    }
+
+    /**
+     * 使用SCAN游标分批遍历键
+     * SCAN可能返回重复的键，调用方需通过认领保证幂等
+     */
+    private void scanKeys(String pattern, int batchSize, Consumer<List<String>> consumer) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(batchSize).build();
+        List<String> batch = new ArrayList<>(batchSize);
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * 认领学习记录键
+     * 将键原子地重命名到聚合前缀下，认领后到达的新增量会写入新的键，不会在聚合删除时丢失；
+     * 已经被认领的键（聚合前缀）直接返回
+     * @param keys 学习记录键
+     * @return 认领成功的键
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<String> claimLearningRecords(List<String> keys) {
+        List<String> claimed = new ArrayList<>();
+        List<String> scriptKeys = new ArrayList<>();
+        List<String> targetKeys = new ArrayList<>();
+        for (String key : keys) {
+            if (key.startsWith(AGGREGATING_KEY_PREFIX)) {
+                claimed.add(key);
+            } else if (key.startsWith(LEARNING_RECORD_KEY_PREFIX)) {
+                scriptKeys.add(key);
+                targetKeys.add(AGGREGATING_KEY_PREFIX + key.substring(LEARNING_RECORD_KEY_PREFIX.length()));
+            }
+        }
+        if (!scriptKeys.isEmpty()) {
+            scriptKeys.addAll(targetKeys);
+            // 键和返回值都按普通字符串处理
+            RedisSerializer serializer = StringRedisSerializer.UTF_8;
+            List<String> result = redisTemplate.execute(CLAIM_LEARNING_RECORD_SCRIPT, serializer, serializer, scriptKeys);
+            if (result != null) {
+                claimed.addAll(result);
+            }
+        }
+        return claimed;
     }
-    
+
     /**
      * 获取学习记录数据
      */
     public Map<Object, Object> getLearningRecordData(String redisKey) {
         return redisTemplate.opsForHash().entries(redisKey);
     }
-    
+
+    /**
+     * 批量获取学习记录数据
+     * 通过管道一次性发送所有HGETALL命令
+     * @param redisKeys 学习记录键
+     * @return 键到数据的映射，保持传入顺序，不存在的键对应空Map
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<Object, Object>> getLearningRecordDataBatch(List<String> redisKeys) {
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                for (String key : redisKeys) {
+                    operations.opsForHash().entries((K) key);
+                }
+                return null;
+            }
+        });
+
+        Map<String, Map<Object, Object>> data = new LinkedHashMap<>();
+        for (int i = 0; i < redisKeys.size(); i++) {
+            Object result = i < results.size() ? results.get(i) : null;
+            data.put(redisKeys.get(i), result instanceof Map ? (Map<Object, Object>) result : Map.of());
+        }
+        return data;
+    }
+
     /**
      * 删除学习记录
      */
     public void deleteLearningRecord(String redisKey) {
         redisTemplate.delete(redisKey);
     }
+
+    /**
+     * 批量删除学习记录
+     * 使用UNLINK在后台释放内存，不阻塞Redis
+     */
+    public void deleteLearningRecords(Collection<String> redisKeys) {
+        if (redisKeys == null || redisKeys.isEmpty()) {
+            return;
+        }
+        redisTemplate.unlink(redisKeys);
+    }
+
+    /**
+     * 学习记录增量
+     * 表示一次待写入Redis的学习时长累加
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LearningRecordIncrement {
+
+        /**
+         * 记录日期，为null时使用当天
+         */
+        private LocalDate date;
+
+        private Long userId;
+
+        private Long courseId;
+
+        private Long chapterId;
+
+        private Long sectionId;
+
+        private String activityType;
+
+        /**
+         * 持续时间（秒）
+         */
+        private long durationSeconds;
+
+        private String contextData;
+
+        /**
+         * 复制增量，避免合并时修改调用方的对象
+         */
+        LearningRecordIncrement copy() {
+            return new LearningRecordIncrement(date, userId, courseId, chapterId, sectionId,
+                    activityType, durationSeconds, contextData);
+        }
+
+        /**
+         * 合并同一键的后续增量
+         */
+        LearningRecordIncrement mergeWith(LearningRecordIncrement other) {
+            this.durationSeconds += other.durationSeconds;
+            if (other.chapterId != null) {
+                this.chapterId = other.chapterId;
+            }
+            if (other.sectionId != null) {
+                this.sectionId = other.sectionId;
+            }
+            if (other.contextData != null) {
+                this.contextData = other.contextData;
+            }
+            return this;
+        }
+    }
 }
@@ -2,16 +2,26 @@ package com.zhangziqi.online_course_mine.service.impl;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Redis订单服务实现
- * 处理订单超时计时、缓存等Redis相关操作
- * 注意：不再负责订单超时事件触发，仅提供计时功能
+ * 处理订单超时计时、缓存等Redis相关操作。
+ * 待支付订单同时加入一个以支付截止时间为分数的有序集合作为延时队列，
+ * 各节点通过脚本原子地领取已到期的订单，领取后在租约时间内完成关闭并移出队列；
+ * 节点在租约内未完成时订单重新到期，由其他节点再次领取
  */
 @Slf4j
 @Service
@@ -19,35 +29,98 @@ import java.util.concurrent.TimeUnit;
 public class RedisOrderService {
     
     private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
     
     // Redis键前缀
     private static final String ORDER_TIMEOUT_PREFIX = "order:timeout:";
+
+    // 延时队列，成员为订单号，分数为支付截止时间（毫秒）
+    private static final String ORDER_TIMEOUT_QUEUE_KEY = "order:timeout-queue";
+
+    /**
+     * 领取到期订单脚本
+     * 取出分数不大于ARGV[1]的前ARGV[2]个成员，把它们的分数推迟到ARGV[3]（租约到期时间）后返回，
+     * 同一成员在租约期内不会被其他节点再次领取
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) " +
+            "for _, member in ipairs(due) do redis.call('ZADD', KEYS[1], ARGV[3], member) end " +
+            "return due",
+            List.class);
+
+    // 订单支付超时时间（分钟）
+    @Value("${order.timeout.minutes:30}")
+    private long timeoutMinutes = 30;
+
+    // 领取后完成关闭的租约时间（秒）
+    @Value("${order.timeout.lease-seconds:60}")
+    private long leaseSeconds = 60;
     
     /**
-     * 设置订单超时计时
+     * 设置订单超时计时，并把订单加入延时队列
      * @param orderNo 订单号
      * @param userId 用户ID
      * @param orderId 订单ID
      */
     public void setOrderTimeout(String orderNo, Long userId, Long orderId) {
         String key = ORDER_TIMEOUT_PREFIX + orderNo;
-        log.info("设置订单超时计时，订单号：{}，用户ID：{}，超时时间：29分钟", orderNo, userId);
+        log.info("设置订单超时计时，订单号：{}，用户ID：{}，超时时间：{}分钟", orderNo, userId, timeoutMinutes);
         
         // 存储订单ID和用户ID，用于查询
         OrderTimeoutInfo timeoutInfo = new OrderTimeoutInfo(orderId, userId, orderNo);
-        
-        // 设置29分钟超时（比定时任务的30分钟稍短，确保在定时任务检查前Redis已过期）
-        redisTemplate.opsForValue().set(key, timeoutInfo, 29, TimeUnit.MINUTES);
+        redisTemplate.opsForValue().set(key, timeoutInfo, timeoutMinutes, TimeUnit.MINUTES);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(timeoutMinutes);
+        stringRedisTemplate.opsForZSet().add(ORDER_TIMEOUT_QUEUE_KEY, orderNo, deadline);
+    }
+
+    /**
+     * 把订单加入延时队列，队列中已有该订单时保留原截止时间
+     * 用于补登记启用延时队列之前创建的待支付订单
+     * @param orderNo 订单号
+     * @param createdAt 订单创建时间
+     */
+    public void enqueueOrderTimeout(String orderNo, LocalDateTime createdAt) {
+        long deadline = createdAt.plusMinutes(timeoutMinutes)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        stringRedisTemplate.opsForZSet().addIfAbsent(ORDER_TIMEOUT_QUEUE_KEY, orderNo, deadline);
     }
     
     /**
-     * 取消订单超时计时
+     * 取消订单超时计时，并把订单移出延时队列
      * @param orderNo 订单号
      */
     public void cancelOrderTimeout(String orderNo) {
         String key = ORDER_TIMEOUT_PREFIX + orderNo;
         log.info("取消订单超时计时，订单号：{}", orderNo);
         redisTemplate.delete(key);
+        stringRedisTemplate.opsForZSet().remove(ORDER_TIMEOUT_QUEUE_KEY, orderNo);
+    }
+
+    /**
+     * 领取已到期的订单
+     * @param limit 最多领取的数量
+     * @return 到期的订单号，处理完成后需调用{@link #completeOrderTimeout(String)}
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> claimDueOrders(int limit) {
+        long now = System.currentTimeMillis();
+        List<String> due = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                Collections.singletonList(ORDER_TIMEOUT_QUEUE_KEY),
+                String.valueOf(now),
+                String.valueOf(limit),
+                String.valueOf(now + TimeUnit.SECONDS.toMillis(leaseSeconds)));
+        return due != null ? due : Collections.emptyList();
+    }
+
+    /**
+     * 超时订单处理完成，移出延时队列
+     * @param orderNo 订单号
+     */
+    public void completeOrderTimeout(String orderNo) {
+        stringRedisTemplate.opsForZSet().remove(ORDER_TIMEOUT_QUEUE_KEY, orderNo);
+        redisTemplate.delete(ORDER_TIMEOUT_PREFIX + orderNo);
     }
     
     /**
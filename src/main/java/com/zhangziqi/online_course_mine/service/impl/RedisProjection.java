@@ -0,0 +1,312 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.ToLongFunction;
+
+/**
+ * 由数据库历史数据重建的Redis投影
+ * 写入方在数据提交后增量更新投影，但首次部署、Redis数据丢失或增量写入失败时投影与数据库不一致，
+ * 因此重建完成后写入就绪标记，读取方只在标记存在时使用投影，否则回退到数据库。
+ * 启动后没有就绪标记时在子类指定的线程池中重建，多个实例同时执行时只有获得锁的实例重建。
+ * <p>
+ * 以覆盖方式重建的计数投影（哈希、有序集合）使用变化捕获：重建开始时写入重建标记，
+ * 此后的增量除写入投影键外还累加到该键的缓冲键；重建结果先写入暂存键，读取完数据源后
+ * 把缓冲的增量合并到暂存键并原子地改名为投影键，重建期间的增量不会被覆盖
+ */
+@Slf4j
+public abstract class RedisProjection {
+
+    /**
+     * 投影键的数据结构
+     */
+    protected enum Structure {
+        HASH, ZSET
+    }
+
+    /**
+     * 增量脚本
+     * KEYS: 重建标记、已切换的键集合，之后每两个为（投影键、缓冲键）；
+     * ARGV: 数据结构，之后每个投影键依次为过期秒数、成员数n和n对（成员、增量）。
+     * 重建进行中且该键尚未切换时，增量同时累加到缓冲键，缓冲键与重建标记同时过期
+     */
+    private static final RedisScript<Long> INCREMENT_SCRIPT = new DefaultRedisScript<>(
+            "local capturing = redis.call('EXISTS', KEYS[1]) == 1 " +
+            "local a = 2 " +
+            "for i = 3, #KEYS, 2 do " +
+            "  local key, buffer = KEYS[i], KEYS[i + 1] " +
+            "  local ttl, n = tonumber(ARGV[a]), tonumber(ARGV[a + 1]) " +
+            "  a = a + 2 " +
+            "  local buffered = capturing and redis.call('SISMEMBER', KEYS[2], key) == 0 " +
+            "  for j = 1, n do " +
+            "    if ARGV[1] == 'ZSET' then " +
+            "      redis.call('ZINCRBY', key, ARGV[a + 1], ARGV[a]) " +
+            "      if buffered then redis.call('ZINCRBY', buffer, ARGV[a + 1], ARGV[a]) end " +
+            "    else " +
+            "      redis.call('HINCRBY', key, ARGV[a], ARGV[a + 1]) " +
+            "      if buffered then redis.call('HINCRBY', buffer, ARGV[a], ARGV[a + 1]) end " +
+            "    end " +
+            "    a = a + 2 " +
+            "  end " +
+            "  if ttl > 0 then redis.call('EXPIRE', key, ttl) end " +
+            "  if buffered then redis.call('PEXPIRE', buffer, math.max(redis.call('PTTL', KEYS[1]), 1)) end " +
+            "end " +
+            "return 1",
+            Long.class);
+
+    /**
+     * 切换脚本
+     * KEYS: 已切换的键集合，之后每三个为（暂存键、投影键、缓冲键）；ARGV: 数据结构，之后为每个投影键的过期秒数。
+     * 把缓冲的增量合并到暂存键后改名为投影键；暂存键不存在（数据源中已没有数据）且没有缓冲的增量时删除投影键
+     */
+    private static final RedisScript<Long> SWITCH_SCRIPT = new DefaultRedisScript<>(
+            "for i = 2, #KEYS, 3 do " +
+            "  local staging, key, buffer = KEYS[i], KEYS[i + 1], KEYS[i + 2] " +
+            "  if redis.call('EXISTS', buffer) == 1 then " +
+            "    if ARGV[1] == 'ZSET' then " +
+            "      redis.call('ZUNIONSTORE', staging, 2, staging, buffer) " +
+            "    else " +
+            "      local fields = redis.call('HGETALL', buffer) " +
+            "      for j = 1, #fields, 2 do redis.call('HINCRBY', staging, fields[j], fields[j + 1]) end " +
+            "    end " +
+            "    redis.call('DEL', buffer) " +
+            "  end " +
+            "  if redis.call('EXISTS', staging) == 1 then " +
+            "    redis.call('RENAME', staging, key) " +
+            "    local ttl = tonumber(ARGV[(i + 1) / 3 + 1]) " +
+            "    if ttl > 0 then redis.call('EXPIRE', key, ttl) end " +
+            "  else " +
+            "    redis.call('DEL', key) " +
+            "  end " +
+            "  redis.call('SADD', KEYS[1], key) " +
+            "end " +
+            "return (#KEYS - 1) / 3",
+            Long.class);
+
+    // 每次切换脚本处理的键数量
+    private static final int SWITCH_BATCH_SIZE = 200;
+
+    protected final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisTaskLock redisTaskLock;
+
+    private final Executor rebuildExecutor;
+
+    private final String name;
+
+    private final String namespace;
+
+    private final Duration rebuildLockTtl;
+
+    /**
+     * @param name 投影名称，用于日志
+     * @param namespace 投影的键前缀，就绪标记、重建锁和变化捕获使用的键都在这个前缀下
+     * @param rebuildLockTtl 重建锁的有效期，应长于一次重建的正常执行时间
+     * @param rebuildExecutor 执行启动重建和定期校准的线程池
+     */
+    protected RedisProjection(String name, String namespace, Duration rebuildLockTtl,
+                              StringRedisTemplate stringRedisTemplate, RedisTaskLock redisTaskLock,
+                              Executor rebuildExecutor) {
+        this.name = name;
+        this.namespace = namespace;
+        this.rebuildLockTtl = rebuildLockTtl;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisTaskLock = redisTaskLock;
+        this.rebuildExecutor = rebuildExecutor;
+    }
+
+    /**
+     * 从数据源重新生成投影，在重建锁内执行
+     *
+     * @return 读取的数据源行数，用于日志
+     */
+    protected abstract long rebuildFromSource();
+
+    /**
+     * 启动后检查是否需要重建，在重建线程池中执行
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfMissing() {
+        submit("重建", () -> {
+            if (!isReady()) {
+                rebuild();
+            }
+        });
+    }
+
+    /**
+     * 在重建线程池中执行一次校准，供子类的定时任务调用，不占用调度线程
+     */
+    protected void reconcileInBackground() {
+        submit("校准", this::rebuild);
+    }
+
+    /**
+     * 从数据源重建投影，完成后写入就绪标记
+     *
+     * @return 是否执行了重建，其他实例正在重建时返回false
+     */
+    public boolean rebuild() {
+        boolean rebuilt = redisTaskLock.runExclusively(namespace + "rebuild-lock", rebuildLockTtl, () -> {
+            long startTime = System.currentTimeMillis();
+            log.info("开始重建{}", name);
+            long rows = rebuildFromSource();
+            stringRedisTemplate.opsForValue().set(namespace + "ready", "1");
+            log.info("{}重建完成, 数据源行数: {}, 耗时: {}ms", name, rows, System.currentTimeMillis() - startTime);
+        });
+        if (!rebuilt) {
+            log.info("其他实例正在重建{}", name);
+        }
+        return rebuilt;
+    }
+
+    /**
+     * 投影是否已经完成重建
+     */
+    protected boolean isReady() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(namespace + "ready"));
+    }
+
+    /**
+     * 累加增量
+     * 重建进行中时增量同时写入缓冲键，在切换时合并到重建结果
+     *
+     * @param structure 投影键的数据结构
+     * @param deltas 投影键 -> 成员 -> 增量，哈希的增量取整数
+     * @param ttlSeconds 投影键的过期秒数，不过期时为0
+     */
+    protected void increment(Structure structure, Map<String, ? extends Map<String, ? extends Number>> deltas,
+                             ToLongFunction<String> ttlSeconds) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(deltas.size() * 2 + 2);
+        keys.add(rebuildingKey());
+        keys.add(switchedKey());
+        List<String> args = new ArrayList<>();
+        args.add(structure.name());
+        for (Map.Entry<String, ? extends Map<String, ? extends Number>> entry : deltas.entrySet()) {
+            keys.add(entry.getKey());
+            keys.add(bufferKey(entry.getKey()));
+            args.add(String.valueOf(ttlSeconds.applyAsLong(entry.getKey())));
+            args.add(String.valueOf(entry.getValue().size()));
+            entry.getValue().forEach((member, delta) -> {
+                args.add(member);
+                args.add(structure == Structure.HASH ? String.valueOf(delta.longValue()) : String.valueOf(delta.doubleValue()));
+            });
+        }
+        stringRedisTemplate.execute(INCREMENT_SCRIPT, keys, args.toArray());
+    }
+
+    /**
+     * 开始捕获变化，必须在读取数据源之前调用；上一次中断的重建留下的状态一并清除
+     */
+    protected void beginCapture() {
+        stringRedisTemplate.delete(switchedKey());
+        stringRedisTemplate.opsForValue().set(rebuildingKey(), "1", rebuildLockTtl);
+    }
+
+    /**
+     * 结束捕获变化，切换完成或重建失败后调用
+     */
+    protected void endCapture() {
+        stringRedisTemplate.delete(List.of(rebuildingKey(), switchedKey()));
+    }
+
+    /**
+     * 投影键对应的暂存键，重建结果写入暂存键后再切换
+     */
+    protected String stagingKey(String key) {
+        return namespace + "rebuild-staging:" + key;
+    }
+
+    /**
+     * 把暂存键切换为投影键
+     *
+     * @param structure 投影键的数据结构
+     * @param keys 需要切换的投影键：已暂存的键以及数据源中已没有数据、需要删除的键
+     * @param ttlSeconds 投影键的过期秒数，不过期时为0
+     */
+    protected void switchKeys(Structure structure, Collection<String> keys, ToLongFunction<String> ttlSeconds) {
+        List<String> batch = new ArrayList<>(SWITCH_BATCH_SIZE);
+        for (String key : keys) {
+            batch.add(key);
+            if (batch.size() >= SWITCH_BATCH_SIZE) {
+                switchBatch(structure, batch, ttlSeconds);
+                batch.clear();
+            }
+        }
+        switchBatch(structure, batch, ttlSeconds);
+    }
+
+    private void switchBatch(Structure structure, List<String> batch, ToLongFunction<String> ttlSeconds) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(batch.size() * 3 + 1);
+        keys.add(switchedKey());
+        List<String> args = new ArrayList<>(batch.size() + 1);
+        args.add(structure.name());
+        for (String key : batch) {
+            keys.add(stagingKey(key));
+            keys.add(key);
+            keys.add(bufferKey(key));
+            args.add(String.valueOf(ttlSeconds.applyAsLong(key)));
+        }
+        stringRedisTemplate.execute(SWITCH_SCRIPT, keys, args.toArray());
+    }
+
+    /**
+     * 用SCAN列出匹配的投影键
+     */
+    protected Set<String> scanKeys(String pattern) {
+        Set<String> keys = new HashSet<>();
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(1000).build();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            cursor.forEachRemaining(keys::add);
+        }
+        return keys;
+    }
+
+    private void submit(String action, Runnable task) {
+        try {
+            rebuildExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.warn("{}{}失败", action, name, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("{}{}未执行，线程池已满", action, name);
+        }
+    }
+
+    private String rebuildingKey() {
+        return namespace + "rebuilding";
+    }
+
+    private String switchedKey() {
+        return namespace + "rebuild-switched";
+    }
+
+    private String bufferKey(String key) {
+        return namespace + "rebuild-buffer:" + key;
+    }
+}
@@ -0,0 +1,80 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * 基于Redis的任务互斥锁
+ * 用于多实例部署时只允许一个实例执行的重建、校准等任务；
+ * 加锁时写入本次持有的随机标识，释放时只删除仍属于自己的锁，
+ * 任务执行超过锁的有效期后不会误删其他实例随后获得的锁
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RedisTaskLock {
+
+    /**
+     * 释放脚本：锁的值仍是本次持有的标识时才删除
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end " +
+            "return 0",
+            Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 获得锁后执行任务，执行完成后释放
+     *
+     * @param key 锁的键
+     * @param ttl 锁的有效期，应长于任务的正常执行时间
+     * @param task 任务
+     * @return 是否获得了锁并执行了任务
+     */
+    public boolean runExclusively(String key, Duration ttl, Runnable task) {
+        return callExclusively(key, ttl, () -> {
+            task.run();
+            return Boolean.TRUE;
+        }) != null;
+    }
+
+    /**
+     * 获得锁后执行任务并返回结果，执行完成后释放
+     *
+     * @return 任务的结果，未获得锁时为null
+     */
+    public <T> T callExclusively(String key, Duration ttl, Supplier<T> task) {
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(key, token, ttl);
+        if (!Boolean.TRUE.equals(locked)) {
+            return null;
+        }
+        try {
+            return task.get();
+        } finally {
+            release(key, token);
+        }
+    }
+
+    private void release(String key, String token) {
+        try {
+            Long released = stringRedisTemplate.execute(RELEASE_SCRIPT, List.of(key), token);
+            if (released == null || released == 0) {
+                log.warn("任务锁已过期或被其他实例持有, 键: {}", key);
+            }
+        } catch (Exception e) {
+            // 释放失败时锁在有效期后自动过期
+            log.warn("释放任务锁失败, 键: {}", key, e);
+        }
+    }
+}
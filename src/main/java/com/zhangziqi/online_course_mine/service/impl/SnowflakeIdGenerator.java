@@ -0,0 +1,235 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 分布式ID生成器（Snowflake）
+ * 64位ID由41位毫秒时间戳、10位节点ID和12位毫秒内序号组成，同一节点内按生成顺序递增，
+ * 不同节点的节点ID不同，因此全局唯一。最后使用的时间戳和序号合并保存在一个AtomicLong中，
+ * 生成时只做一次CAS，不加锁。
+ * 节点ID启动时通过Redis租用（SET NX并定期续期），也可以通过配置固定指定；Redis不可用时必须通过配置指定，
+ * 租约超过租期未能续期时节点ID可能已被其他实例占用，此时拒绝生成，直到续期成功。
+ * 单个节点每毫秒最多生成4096个ID，用完时自旋等待下一毫秒；
+ * 时钟回拨时沿用上一次的时间戳继续分配序号，回拨超过阈值时拒绝生成
+ */
+@Slf4j
+@Service
+public class SnowflakeIdGenerator {
+
+    // 起始时间 2024-01-01 00:00:00 UTC，41位时间戳可使用约69年
+    private static final long EPOCH = 1704067200000L;
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    private static final String NODE_KEY_PREFIX = "id-generator:node:";
+    private static final String NODE_CURSOR_KEY = "id-generator:node-cursor";
+
+    // 节点ID租期，续期间隔为租期的三分之一
+    private static final long NODE_LEASE_SECONDS = 60;
+
+    /**
+     * 续期脚本：键仍属于本实例时延长租期，键已过期时重新占用
+     * 返回1表示续期成功，0表示节点ID已被其他实例占用
+     */
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "local owner = redis.call('GET', KEYS[1]) " +
+            "if owner == ARGV[1] or not owner then " +
+            "redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2]) return 1 end " +
+            "return 0",
+            Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final LongSupplier clock;
+
+    // 本实例的租用标识
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // 高位为上一次使用的时间戳（相对EPOCH），低12位为该毫秒内已分配的序号
+    private final AtomicLong lastState = new AtomicLong();
+
+    private volatile long nodeId = -1;
+
+    // 是否通过Redis租用的节点ID
+    private volatile boolean leased;
+
+    // 租约到期时间（毫秒），从发起租用或续期的时刻起算
+    private volatile long leaseExpiresAt;
+
+    // 固定的节点ID，小于0时通过Redis租用
+    @Value("${id-generator.node-id:-1}")
+    private long configuredNodeId = -1;
+
+    // 允许的最大时钟回拨（毫秒）
+    @Value("${id-generator.max-clock-backward-ms:5000}")
+    private long maxClockBackwardMillis = 5000;
+
+    @Autowired
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate) {
+        this(stringRedisTemplate, System::currentTimeMillis);
+    }
+
+    SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate, LongSupplier clock) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.clock = clock;
+    }
+
+    /**
+     * 确定节点ID
+     */
+    @PostConstruct
+    public void init() {
+        if (configuredNodeId >= 0) {
+            if (configuredNodeId > MAX_NODE_ID) {
+                throw new IllegalStateException("节点ID超出范围: " + configuredNodeId);
+            }
+            nodeId = configuredNodeId;
+            log.info("使用配置的ID生成器节点ID: {}", nodeId);
+            return;
+        }
+        try {
+            long requestedAt = clock.getAsLong();
+            nodeId = leaseNodeId();
+            leaseExpiresAt = requestedAt + NODE_LEASE_SECONDS * 1000;
+            leased = true;
+            log.info("已租用ID生成器节点ID: {}", nodeId);
+        } catch (Exception e) {
+            // 随机选择的节点ID可能与其他实例重复，生成重复的ID
+            throw new IllegalStateException("租用ID生成器节点ID失败，Redis不可用时需要配置id-generator.node-id", e);
+        }
+    }
+
+    /**
+     * 生成下一个ID
+     *
+     * @return 全局唯一、同一节点内递增的正数ID
+     */
+    public long nextId() {
+        while (true) {
+            long last = lastState.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long now = clock.getAsLong() - EPOCH;
+            if (leased && now + EPOCH >= leaseExpiresAt) {
+                throw new IllegalStateException("ID生成器节点ID " + nodeId + " 的租约已过期，拒绝生成ID");
+            }
+
+            long timestamp;
+            long sequence;
+            if (now > lastTimestamp) {
+                timestamp = now;
+                sequence = 0;
+            } else {
+                // 同一毫秒内或时钟回拨：沿用上一次的时间戳
+                timestamp = lastTimestamp;
+                sequence = (last & MAX_SEQUENCE) + 1;
+                if (sequence > MAX_SEQUENCE) {
+                    if (now == lastTimestamp) {
+                        // 本毫秒的序号已用完，等待下一毫秒
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    // 回拨期间序号用完时借用下一毫秒
+                    timestamp++;
+                    sequence = 0;
+                }
+                if (timestamp - now > maxClockBackwardMillis) {
+                    throw new IllegalStateException("时钟回拨超过" + maxClockBackwardMillis + "毫秒，拒绝生成ID");
+                }
+            }
+
+            if (lastState.compareAndSet(last, (timestamp << SEQUENCE_BITS) | sequence)) {
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | sequence;
+            }
+        }
+    }
+
+    /**
+     * 生成下一个ID的字符串形式
+     */
+    public String nextIdString() {
+        return Long.toString(nextId());
+    }
+
+    /**
+     * 定期续租节点ID，节点ID被其他实例占用时重新租用
+     * 续期失败时保留原租约到期时间，到期后生成ID失败，直到某次续期成功
+     */
+    @Scheduled(fixedDelay = NODE_LEASE_SECONDS * 1000 / 3)
+    public void renewNodeId() {
+        if (!leased) {
+            return;
+        }
+        try {
+            long requestedAt = clock.getAsLong();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(NODE_KEY_PREFIX + nodeId),
+                    instanceId, String.valueOf(NODE_LEASE_SECONDS));
+            if (renewed == null || renewed == 0) {
+                long previous = nodeId;
+                nodeId = leaseNodeId();
+                log.warn("ID生成器节点ID {} 已被其他实例占用，改用节点ID: {}", previous, nodeId);
+            }
+            leaseExpiresAt = requestedAt + NODE_LEASE_SECONDS * 1000;
+        } catch (Exception e) {
+            log.warn("续租ID生成器节点ID失败: {}", nodeId, e);
+        }
+    }
+
+    /**
+     * 释放租用的节点ID
+     */
+    @PreDestroy
+    public void releaseNodeId() {
+        if (!leased) {
+            return;
+        }
+        try {
+            String key = NODE_KEY_PREFIX + nodeId;
+            if (instanceId.equals(stringRedisTemplate.opsForValue().get(key))) {
+                stringRedisTemplate.delete(key);
+            }
+        } catch (Exception e) {
+            log.warn("释放ID生成器节点ID失败: {}", nodeId, e);
+        }
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 从递增游标开始依次尝试占用空闲的节点ID
+     */
+    private long leaseNodeId() {
+        Long cursor = stringRedisTemplate.opsForValue().increment(NODE_CURSOR_KEY);
+        long start = cursor != null ? cursor : 0;
+        for (int i = 0; i <= MAX_NODE_ID; i++) {
+            long candidate = Math.floorMod(start + i, MAX_NODE_ID + 1);
+            Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(
+                    NODE_KEY_PREFIX + candidate, instanceId, NODE_LEASE_SECONDS, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("没有可用的ID生成器节点ID");
+    }
+}
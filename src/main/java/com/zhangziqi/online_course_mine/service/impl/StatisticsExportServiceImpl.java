@@ -0,0 +1,112 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.excel.StreamingReportWriter;
+import com.zhangziqi.online_course_mine.exception.ResourceNotFoundException;
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.model.enums.ExportFormat;
+import com.zhangziqi.online_course_mine.model.excel.CourseStatisticsExcelData;
+import com.zhangziqi.online_course_mine.model.excel.IncomeTrendExcelData;
+import com.zhangziqi.online_course_mine.model.excel.StudentLearningExcelData;
+import com.zhangziqi.online_course_mine.model.vo.IncomeTrendVO;
+import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.CourseStatisticsJdbcRepository;
+import com.zhangziqi.online_course_mine.service.OrderService;
+import com.zhangziqi.online_course_mine.service.StatisticsExportService;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 统计报表导出服务实现类
+ * 课程统计和学生统计从流式结果集逐行转换后写入，收入趋势的行数只与时间范围有关，直接复用查询接口
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StatisticsExportServiceImpl implements StatisticsExportService {
+
+    private final CourseRepository courseRepository;
+    private final CourseStatisticsJdbcRepository courseStatisticsJdbcRepository;
+    private final OrderService orderService;
+
+    // 每批写出的行数
+    @Value("${statistics.export.batch-size:1000}")
+    private int batchSize = 1000;
+
+    @Override
+    public void exportCourseStatistics(Long institutionId, ExportFormat format,
+                                       HttpServletResponse response) throws IOException {
+        log.info("导出课程学习统计, 机构ID: {}, 格式: {}", institutionId, format.getCode());
+        long[] rows = new long[1];
+        try (StreamingReportWriter<CourseStatisticsExcelData> writer = StreamingReportWriter.open(
+                response, CourseStatisticsExcelData.class, "课程学习统计", format, batchSize)) {
+            courseStatisticsJdbcRepository.streamCourseStatistics(institutionId, stat -> {
+                writer.write(CourseStatisticsExcelData.builder()
+                        .courseId(stat.getCourseId())
+                        .courseTitle(stat.getCourseTitle())
+                        .learnerCount(stat.getLearnerCount())
+                        .totalDuration(stat.getTotalDuration())
+                        .activityCount(stat.getActivityCount())
+                        .completionCount(stat.getCompletionCount())
+                        .averageProgress(stat.getAverageProgress())
+                        .build());
+                rows[0]++;
+            });
+        }
+        log.info("课程学习统计导出完成, 机构ID: {}, 行数: {}", institutionId, rows[0]);
+    }
+
+    @Override
+    public void exportCourseStudentStatistics(Long institutionId, Long courseId, ExportFormat format,
+                                              HttpServletResponse response) throws IOException {
+        log.info("导出课程学生学习统计, 机构ID: {}, 课程ID: {}, 格式: {}", institutionId, courseId, format.getCode());
+
+        // 验证课程存在且属于该机构，必须在写出响应之前完成
+        Course course = courseRepository.findById(courseId)
+                .orElseThrow(() -> new ResourceNotFoundException("课程不存在"));
+        if (!institutionId.equals(course.getInstitutionId())) {
+            throw new ResourceNotFoundException("该课程不属于指定机构");
+        }
+
+        long[] rows = new long[1];
+        try (StreamingReportWriter<StudentLearningExcelData> writer = StreamingReportWriter.open(
+                response, StudentLearningExcelData.class, "课程学生学习统计", format, batchSize)) {
+            courseStatisticsJdbcRepository.streamStudentStatistics(courseId, stat -> {
+                writer.write(StudentLearningExcelData.builder()
+                        .userId(stat.getUserId())
+                        .username(stat.getUsername())
+                        .learningDuration(stat.getLearningDuration())
+                        .activityCount(stat.getActivityCount())
+                        .progress(stat.getProgress())
+                        .lastLearnTime(stat.getLastLearnTime())
+                        .build());
+                rows[0]++;
+            });
+        }
+        log.info("课程学生学习统计导出完成, 课程ID: {}, 行数: {}", courseId, rows[0]);
+    }
+
+    @Override
+    public void exportIncomeTrend(Long institutionId, String timeRange, String groupBy, ExportFormat format,
+                                  HttpServletResponse response) throws IOException {
+        log.info("导出机构收入趋势, 机构ID: {}, 时间范围: {}, 分组方式: {}, 格式: {}",
+                institutionId, timeRange, groupBy, format.getCode());
+        List<IncomeTrendVO> trend = orderService.getInstitutionIncomeTrend(institutionId, timeRange, groupBy);
+        try (StreamingReportWriter<IncomeTrendExcelData> writer = StreamingReportWriter.open(
+                response, IncomeTrendExcelData.class, "收入趋势", format, batchSize)) {
+            for (IncomeTrendVO point : trend) {
+                writer.write(IncomeTrendExcelData.builder()
+                        .date(point.getDate())
+                        .income(point.getIncome())
+                        .refund(point.getRefund())
+                        .netIncome(point.getNetIncome())
+                        .build());
+            }
+        }
+    }
+}
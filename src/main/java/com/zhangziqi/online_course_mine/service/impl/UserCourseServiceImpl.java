@@ -8,13 +8,13 @@ import com.zhangziqi.online_course_mine.model.enums.LearningActivityType;
 import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
 import com.zhangziqi.online_course_mine.model.vo.CourseVO;
 import com.zhangziqi.online_course_mine.model.vo.UserCourseVO;
-import com.zhangziqi.online_course_mine.repository.ChapterRepository;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
 import com.zhangziqi.online_course_mine.repository.LearningRecordRepository;
 import com.zhangziqi.online_course_mine.repository.OrderRepository;
 import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.service.UserCourseService;
+import com.zhangziqi.online_course_mine.service.impl.CourseSectionIndexCache.CourseSectionIndex;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -25,8 +25,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -41,8 +44,10 @@ public class UserCourseServiceImpl implements UserCourseService {
     private final UserRepository userRepository;
     private final CourseRepository courseRepository;
     private final OrderRepository orderRepository;
-    private final ChapterRepository chapterRepository;
     private final LearningRecordRepository learningRecordRepository;
+    private final CourseEntitlementCache courseEntitlementCache;
+    private final CourseSectionIndexCache courseSectionIndexCache;
+    private final CourseCounterService courseCounterService;
 
     @Override
     @Transactional(readOnly = true)
@@ -94,40 +99,44 @@ public class UserCourseServiceImpl implements UserCourseService {
         userCourse.setCurrentSectionId(dto.getSectionId());
         userCourse.setCurrentSectionProgress(dto.getSectionProgress());
 
-        // 获取章节
-        Chapter chapter = chapterRepository.findById(dto.getChapterId())
-                .orElseThrow(() -> new ResourceNotFoundException("章节不存在"));
+        // 从课程小节索引中获取章节信息，不加载课程的章节和小节集合
+        CourseSectionIndex sectionIndex = courseSectionIndexCache.getIndex(userCourse.getCourse());
+        if (!sectionIndex.containsChapter(dto.getChapterId())) {
+            throw new ResourceNotFoundException("章节不存在");
+        }
+        Integer estimatedMinutes = sectionIndex.getChapterEstimatedMinutes(dto.getChapterId());
 
-        // 检查是否是复习模式或是否超过章节预设学习时长
+        // 只有在非复习模式、且小节进度为100%时，才可能更新总体进度
         boolean isReviewing = Boolean.TRUE.equals(dto.getIsReviewing());
-        boolean exceedsEstimatedTime = false;
-
-        if (chapter.getEstimatedMinutes() != null && chapter.getEstimatedMinutes() > 0) {
-            // 获取用户在该章节的总学习时长（秒）
-            Integer totalDuration = learningRecordRepository.getChapterLearningDuration(
-                    userId, courseId, dto.getChapterId());
-
-            // 如果总学习时长超过预设时长（分钟转秒），则标记为超时
-            if (totalDuration != null && totalDuration > chapter.getEstimatedMinutes() * 60) {
-                exceedsEstimatedTime = true;
-                log.info("用户学习时长超过章节预设时长, 用户ID: {}, 章节ID: {}, 预设时长: {}min, 实际时长: {}s",
-                        userId, dto.getChapterId(), chapter.getEstimatedMinutes(), totalDuration);
+        if (!isReviewing && dto.getSectionProgress() >= 100) {
+            // 检查是否超过章节预设学习时长
+            boolean exceedsEstimatedTime = false;
+
+            if (estimatedMinutes != null && estimatedMinutes > 0) {
+                // 获取用户在该章节的总学习时长（秒）
+                Integer totalDuration = learningRecordRepository.getChapterLearningDuration(
+                        userId, courseId, dto.getChapterId());
+
+                // 如果总学习时长超过预设时长（分钟转秒），则标记为超时
+                if (totalDuration != null && totalDuration > estimatedMinutes * 60) {
+                    exceedsEstimatedTime = true;
+                    log.info("用户学习时长超过章节预设时长, 用户ID: {}, 章节ID: {}, 预设时长: {}min, 实际时长: {}s",
+                            userId, dto.getChapterId(), estimatedMinutes, totalDuration);
+                }
             }
-        }
 
-        // 只有在非复习模式、未超过预设时长、且小节进度为100%时，才更新总体进度
-        if (!isReviewing && !exceedsEstimatedTime && dto.getSectionProgress() >= 100) {
-            // 计算课程总进度
-            Course course = userCourse.getCourse();
-            int totalSections = getTotalSections(course);
-            int currentSectionIndex = getSectionIndex(course, dto.getChapterId(), dto.getSectionId());
-            int newProgress = Math.min(100, (int)((currentSectionIndex * 100.0) / totalSections));
-
-            // 只有当新进度大于原进度时才更新总体进度
-            if (newProgress > userCourse.getProgress()) {
-                userCourse.setProgress(newProgress);
-                log.info("更新用户课程总进度, 用户ID: {}, 课程ID: {}, 新进度: {}%",
-                        userId, courseId, newProgress);
+            // 未超过预设时长时计算课程总进度
+            int totalSections = sectionIndex.getTotalSections();
+            if (!exceedsEstimatedTime && totalSections > 0) {
+                int currentSectionIndex = sectionIndex.getSectionOrdinal(dto.getChapterId(), dto.getSectionId());
+                int newProgress = Math.min(100, (int)((currentSectionIndex * 100.0) / totalSections));
+
+                // 只有当新进度大于原进度时才更新总体进度
+                if (newProgress > userCourse.getProgress()) {
+                    userCourse.setProgress(newProgress);
+                    log.info("更新用户课程总进度, 用户ID: {}, 课程ID: {}, 新进度: {}%",
+                            userId, courseId, newProgress);
+                }
             }
         }
 
@@ -138,36 +147,6 @@ public class UserCourseServiceImpl implements UserCourseService {
         return UserCourseVO.fromEntity(userCourse);
     }
 
-    /**
-     * 获取课程的总小节数
-     */
-    private int getTotalSections(Course course) {
-        return course.getChapters().stream()
-            .mapToInt(chapter -> chapter.getSections().size())
-            .sum();
-    }
-
-    /**
-     * 获取小节在课程中的索引位置
-     */
-    private int getSectionIndex(Course course, Long chapterId, Long sectionId) {
-        int index = 0;
-        boolean found = false;
-
-        for (Chapter chapter : course.getChapters()) {
-            for (Section section : chapter.getSections()) {
-                index++;
-                if (chapter.getId().equals(chapterId) && section.getId().equals(sectionId)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (found) break;
-        }
-
-        return found ? index : 0;
-    }
-
     @Override
     @Transactional
     public UserCourseVO recordLearningDuration(Long userId, Long courseId, Integer duration) {
@@ -193,7 +172,7 @@ public class UserCourseServiceImpl implements UserCourseService {
     @Transactional(readOnly = true)
     public boolean hasPurchasedCourse(Long userId, Long courseId) {
         // 只检查正常状态(0)的记录，忽略已退款(2)的记录
-        return userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(userId, courseId, UserCourseStatus.NORMAL.getValue());
+        return courseEntitlementCache.hasEntitlement(userId, courseId);
     }
 
     @Override
@@ -271,6 +250,7 @@ public class UserCourseServiceImpl implements UserCourseService {
 
                 // 保存更新
                 userCourseRepository.save(userCourse);
+                courseEntitlementCache.invalidate(userId);
                 log.info("用户课程关系已更新为正常状态, ID: {}", userCourse.getId());
 
                 return userCourse;
@@ -307,19 +287,10 @@ public class UserCourseServiceImpl implements UserCourseService {
 
         // 保存关系
         userCourseRepository.save(userCourse);
+        courseEntitlementCache.invalidate(userId);
 
-        // 更新课程学生数（使用乐观锁处理并发）
-        try {
-            course.incrementStudentCount();
-            courseRepository.save(course);
-        } catch (Exception e) {
-            log.warn("更新课程学生数失败，将重试", e);
-            // 重新获取课程并重试
-            course = courseRepository.findById(courseId)
-                    .orElseThrow(() -> new ResourceNotFoundException("课程不存在，ID: " + courseId));
-            course.incrementStudentCount();
-            courseRepository.save(course);
-        }
+        // 原地累加课程学生数，与关系在同一事务中提交
+        courseCounterService.addStudents(courseId, 1);
 
         log.info("用户课程关系创建成功, ID: {}", userCourse.getId());
         return userCourse;
@@ -337,33 +308,41 @@ public class UserCourseServiceImpl implements UserCourseService {
         // 更新状态为已退款
         userCourse.setStatusEnum(UserCourseStatus.REFUNDED);
         userCourseRepository.save(userCourse);
+        courseEntitlementCache.invalidate(userCourse.getUser().getId());
 
-        // 更新课程学生数（使用乐观锁处理并发）
-        final Long courseId = userCourse.getCourse().getId();
-        int maxRetries = 3;
-        int retryCount = 0;
-
-        while (retryCount < maxRetries) {
-            try {
-                Course course = courseRepository.findById(courseId)
-                        .orElseThrow(() -> new ResourceNotFoundException("课程不存在，ID: " + courseId));
-                course.decrementStudentCount();
-                courseRepository.save(course);
-                break;
-            } catch (Exception e) {
-                retryCount++;
-                if (retryCount == maxRetries) {
-                    log.error("更新课程学生数失败，已重试{}次", maxRetries, e);
-                    throw new BusinessException(500, "更新课程学生数失败");
-                }
-                log.warn("更新课程学生数失败，正在进行第{}次重试", retryCount);
-            }
-        }
+        // 原地减少课程学生数，与状态在同一事务中提交
+        courseCounterService.addStudents(userCourse.getCourse().getId(), -1);
 
         log.info("用户课程关系已更新为退款状态, ID: {}", userCourse.getId());
         return userCourse;
     }
 
+    @Override
+    @Transactional
+    public int expireLapsedCourses(int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> lapsed = userCourseRepository.findLapsedByStatus(
+                UserCourseStatus.NORMAL.getValue(), now, PageRequest.of(0, limit));
+        if (lapsed.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> ids = new ArrayList<>(lapsed.size());
+        Set<Long> userIds = new HashSet<>();
+        for (Object[] row : lapsed) {
+            ids.add(((Number) row[0]).longValue());
+            userIds.add(((Number) row[1]).longValue());
+        }
+        // 条件更新，其他实例已处理的记录不会重复更新
+        int updated = userCourseRepository.updateStatusIfCurrent(ids, UserCourseStatus.NORMAL.getValue(),
+                UserCourseStatus.EXPIRED.getValue(), now);
+        // 缓存中的课程集合在过期前加载，提交后清除
+        userIds.forEach(courseEntitlementCache::invalidate);
+
+        log.info("已到期的用户课程已更新为过期状态, 数量: {}, 用户数: {}", updated, userIds.size());
+        return updated;
+    }
+
     @Override
     @Transactional(readOnly = true)
     public Optional<UserCourse> findByOrderId(Long orderId) {
@@ -387,6 +366,11 @@ public class UserCourseServiceImpl implements UserCourseService {
     @Override
     @Transactional
     public UserCourse save(UserCourse userCourse) {
-        return userCourseRepository.save(userCourse);
+        UserCourse saved = userCourseRepository.save(userCourse);
+        // 调用方可能修改了状态（如退款后重新购买），清除课程权限缓存
+        if (userCourse.getUser() != null) {
+            courseEntitlementCache.invalidate(userCourse.getUser().getId());
+        }
+        return saved;
     }
 }
\ No newline at end of file
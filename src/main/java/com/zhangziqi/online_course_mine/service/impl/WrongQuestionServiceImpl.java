@@ -10,13 +10,11 @@ import com.zhangziqi.online_course_mine.model.entity.Course;
 import com.zhangziqi.online_course_mine.model.entity.Section;
 import com.zhangziqi.online_course_mine.model.entity.User;
 import com.zhangziqi.online_course_mine.model.entity.UserWrongQuestion;
-import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
 import com.zhangziqi.online_course_mine.model.enums.UserWrongQuestionStatus;
 import com.zhangziqi.online_course_mine.model.vo.UserWrongQuestionVO;
 import com.zhangziqi.online_course_mine.repository.ChapterRepository;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
 import com.zhangziqi.online_course_mine.repository.SectionRepository;
-import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.repository.UserWrongQuestionRepository;
 import com.zhangziqi.online_course_mine.service.WrongQuestionService;
@@ -49,7 +47,7 @@ public class WrongQuestionServiceImpl implements WrongQuestionService {
     private final CourseRepository courseRepository;
     private final ChapterRepository chapterRepository;
     private final SectionRepository sectionRepository;
-    private final UserCourseRepository userCourseRepository;
+    private final CourseEntitlementCache courseEntitlementCache;
     private final ObjectMapper objectMapper;
     
     @Override
@@ -68,7 +66,7 @@ public class WrongQuestionServiceImpl implements WrongQuestionService {
                 .orElseThrow(() -> new ResourceNotFoundException("课程不存在"));
         
         // 验证用户是否已购买课程，并且课程状态为正常（未退款、未过期）
-        if (!userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(userId, courseId, UserCourseStatus.NORMAL.getValue())) {
+        if (!courseEntitlementCache.hasEntitlement(userId, courseId)) {
             throw new BusinessException(403, "请先购买课程再进行学习，或检查课程是否已过期或退款");
         }
         
@@ -1,30 +1,44 @@
 package com.zhangziqi.online_course_mine.task;
 
-import com.zhangziqi.online_course_mine.model.entity.Chapter;
-import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
 import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
-import com.zhangziqi.online_course_mine.model.entity.Section;
-import com.zhangziqi.online_course_mine.model.entity.User;
 import com.zhangziqi.online_course_mine.repository.ChapterRepository;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
-import com.zhangziqi.online_course_mine.repository.LearningRecordRepository;
+import com.zhangziqi.online_course_mine.repository.LearningRecordJdbcRepository;
 import com.zhangziqi.online_course_mine.repository.SectionRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.service.impl.RedisLearningRecordService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * 学习记录聚合定时任务
  * 定期将Redis中的学习记录聚合并保存到数据库
+ * <p>
+ * 使用SCAN分批遍历键，每批键先认领再通过管道读取，批次之间并行处理；
+ * 每批在独立事务中使用JDBC批量插入并累加日汇总表，事务提交后才删除对应的Redis键
  */
 @Slf4j
 @Component
@@ -32,17 +46,24 @@ import java.util.Set;
 public class LearningRecordAggregationTask {
 
     private final RedisLearningRecordService redisLearningRecordService;
-    private final LearningRecordRepository learningRecordRepository;
+    private final LearningRecordJdbcRepository learningRecordJdbcRepository;
     private final UserRepository userRepository;
     private final CourseRepository courseRepository;
     private final ChapterRepository chapterRepository;
     private final SectionRepository sectionRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Qualifier("learningAggregationExecutor")
+    private final Executor learningAggregationExecutor;
+
+    @Value("${learning.aggregation.batch-size:500}")
+    private int batchSize = 500;
 
     /**
      * 每天凌晨2点执行，聚合前一天的学习记录
      */
     @Scheduled(cron = "0 0 2 * * ?")
-    @Transactional
     public void aggregateLearningRecords() {
         log.info("开始聚合学习记录...");
 
@@ -55,113 +76,239 @@ public class LearningRecordAggregationTask {
 
     /**
      * 聚合指定日期的学习记录
+     * 先处理之前失败遗留的已认领键，再处理新的键
      *
      * @param date 要聚合的日期
      */
-    @Transactional
     public void aggregateLearningRecordsForDate(LocalDate date) {
         log.info("开始聚合 {} 的学习记录...", date);
 
-        // 获取指定日期的所有学习记录键
-        Set<String> keys = redisLearningRecordService.getLearningRecordKeys(date);
-        log.info("找到 {} 个 {} 的学习记录键", keys.size(), date);
+        AtomicInteger successCount = new AtomicInteger();
+        AtomicInteger failureCount = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        redisLearningRecordService.scanClaimedLearningRecordKeys(date, batchSize,
+                keys -> futures.add(submitBatch(keys, successCount, failureCount)));
+        redisLearningRecordService.scanLearningRecordKeys(date, batchSize,
+                keys -> futures.add(submitBatch(keys, successCount, failureCount)));
 
-        int successCount = 0;
-        int failureCount = 0;
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        log.info("{} 的学习记录聚合完成. 批次: {}, 成功: {}, 失败: {}",
+                date, futures.size(), successCount.get(), failureCount.get());
+    }
 
-        for (String key : keys) {
+    /**
+     * 提交一个批次到聚合线程池
+     */
+    private CompletableFuture<Void> submitBatch(List<String> keys, AtomicInteger successCount,
+                                                AtomicInteger failureCount) {
+        return CompletableFuture.runAsync(() -> {
             try {
-                // 解析键
-                String[] parts = key.split(":");
-                // 确保至少有基本的部分：learning:record:日期:用户ID:课程ID
-                if (parts.length < 5) {
-                    log.warn("无效的键格式: {}, 期望格式至少包含: learning:record:日期:用户ID:课程ID", key);
-                    continue;
-                }
+                successCount.addAndGet(aggregateBatch(keys));
+            } catch (Exception e) {
+                failureCount.addAndGet(keys.size());
+                log.error("聚合学习记录批次失败, 键数量: {}", keys.size(), e);
+            }
+        }, learningAggregationExecutor);
+    }
+
+    /**
+     * 聚合一个批次的学习记录键
+     *
+     * @param keys 学习记录键
+     * @return 成功写入数据库的记录数
+     */
+    int aggregateBatch(List<String> keys) {
+        // 认领键，SCAN返回的重复键或已被删除的键不会被认领
+        List<String> claimedKeys = redisLearningRecordService.claimLearningRecords(keys);
+        if (claimedKeys.isEmpty()) {
+            return 0;
+        }
 
-                String dateStr = parts[2];
-                Long userId;
-                Long courseId;
+        // 通过管道批量获取数据
+        Map<String, Map<Object, Object>> dataByKey = redisLearningRecordService.getLearningRecordDataBatch(claimedKeys);
 
-                try {
-                    userId = Long.parseLong(parts[3]);
-                    courseId = Long.parseLong(parts[4]);
-                } catch (NumberFormatException e) {
-                    log.warn("无效的用户ID或课程ID格式: {}", key);
-                    continue;
+        List<ParsedRecord> parsedRecords = new ArrayList<>();
+        List<String> emptyKeys = new ArrayList<>();
+        for (Map.Entry<String, Map<Object, Object>> entry : dataByKey.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                emptyKeys.add(entry.getKey());
+                continue;
+            }
+            try {
+                ParsedRecord parsed = parseRecord(entry.getKey(), entry.getValue());
+                if (parsed != null) {
+                    parsedRecords.add(parsed);
                 }
+            } catch (Exception e) {
+                log.error("处理键失败: " + entry.getKey(), e);
+            }
+        }
 
-                // 活动类型可能包含在键中，也可能存储在Redis数据中
-                String activityType = parts.length > 5 ? parts[5] : "UNKNOWN";
+        // 过滤用户或课程不存在的记录，章节或小节不存在时置空
+        List<ParsedRecord> validRecords = filterValidRecords(parsedRecords);
+        List<String> processedKeys = new ArrayList<>(emptyKeys);
+        validRecords.forEach(record -> processedKeys.add(record.redisKey));
 
-                // 获取数据
-                Map<Object, Object> data = redisLearningRecordService.getLearningRecordData(key);
+        // 事务提交后立即删除Redis键，之后的投影更新失败不会使这些键被再次写入
+        int inserted = persistRecords(validRecords, () -> deleteProcessedKeys(processedKeys));
 
-                if (data.isEmpty()) {
-                    continue;
-                }
+        log.debug("学习记录批次聚合完成, 认领键数: {}, 写入记录数: {}", claimedKeys.size(), inserted);
+        return inserted;
+    }
+
+    /**
+     * 保存学习事件流折叠后的记录
+     * 与Redis键聚合使用相同的校验和写入方式；在调用方登记已处理事件的事务中执行，提交后才更新投影
+     *
+     * @param records 折叠后的记录
+     * @return 成功写入数据库的记录数
+     */
+    int saveParsedRecords(List<ParsedRecord> records) {
+        return persistRecords(filterValidRecords(records), () -> { });
+    }
 
-                // 解析数据
-                int totalDuration = ((Number) data.get("totalDuration")).intValue();
-                Long chapterId = data.get("chapterId") != null ? Long.parseLong(data.get("chapterId").toString()) : null;
-                Long sectionId = data.get("sectionId") != null ? Long.parseLong(data.get("sectionId").toString()) : null;
-                String contextData = (String) data.get("contextData");
+    /**
+     * 在事务中按聚合键写入学习记录，并在同一事务中累加日汇总
+     * 聚合键已有记录时累加到该记录，日汇总只累加时长，不重复计算活动次数
+     *
+     * @param validRecords 校验后的记录
+     * @param onCommitted 事务提交后、更新投影之前执行
+     */
+    private int persistRecords(List<ParsedRecord> validRecords, Runnable onCommitted) {
+        List<LearningRecord> learningRecords = validRecords.stream()
+                .map(this::toLearningRecord)
+                .collect(Collectors.toList());
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        Set<LearningRecord> merged = transactionTemplate.execute(status -> {
+            Set<LearningRecord> existing = learningRecordJdbcRepository.mergeAggregated(learningRecords);
+            learningRecordJdbcRepository.upsertDailyRollups(learningRecords, existing);
+            return existing;
+        });
+        onCommitted.run();
+        // 不在外层事务中时监听方立即更新投影，否则在外层事务提交后更新
+        eventPublisher.publishEvent(new LearningRecordsCommittedEvent(learningRecords,
+                merged != null ? merged : Set.of()));
+        return learningRecords.size();
+    }
 
-                // 如果键中没有活动类型，尝试从Redis数据中获取
-                if ("UNKNOWN".equals(activityType) && data.get("activityType") != null) {
-                    activityType = data.get("activityType").toString();
-                }
+    /**
+     * 删除已写入数据库的Redis键
+     * 删除失败时键会在下次聚合时被再次写入，只能记录错误
+     */
+    private void deleteProcessedKeys(List<String> processedKeys) {
+        try {
+            redisLearningRecordService.deleteLearningRecords(processedKeys);
+        } catch (Exception e) {
+            log.error("删除已聚合的学习记录键失败, 键数量: {}", processedKeys.size(), e);
+        }
+    }
 
-                // 查找实体
-                User user = userRepository.findById(userId).orElse(null);
-                Course course = courseRepository.findById(courseId).orElse(null);
-                Chapter chapter = chapterId != null ? chapterRepository.findById(chapterId).orElse(null) : null;
-                Section section = sectionId != null ? sectionRepository.findById(sectionId).orElse(null) : null;
+    /**
+     * 解析Redis键和数据
+     * 键格式：learning:record:日期:用户ID:课程ID:活动类型
+     *
+     * @return 解析结果，键格式无效时返回null
+     */
+    private ParsedRecord parseRecord(String key, Map<Object, Object> data) {
+        String[] parts = key.split(":");
+        // 确保至少有基本的部分：learning:record:日期:用户ID:课程ID
+        if (parts.length < 5) {
+            log.warn("无效的键格式: {}, 期望格式至少包含: learning:record:日期:用户ID:课程ID", key);
+            return null;
+        }
 
-                if (user == null || course == null) {
-                    log.warn("找不到用户或课程: userId={}, courseId={}", userId, courseId);
-                    continue;
-                }
+        ParsedRecord record = new ParsedRecord();
+        record.redisKey = key;
+        record.date = LocalDate.parse(parts[2]);
 
-                // 创建学习记录
-                LocalDate recordDate = LocalDate.parse(dateStr);
-                LocalDateTime startTime = recordDate.atStartOfDay();
-                LocalDateTime endTime = recordDate.atTime(23, 59, 59);
-
-                LearningRecord record = LearningRecord.builder()
-                        .user(user)
-                        .course(course)
-                        .chapter(chapter)
-                        .section(section)
-                        .activityType(activityType)
-                        .activityStartTime(startTime)
-                        .activityEndTime(endTime)
-                        .durationSeconds(totalDuration)
-                        .contextData(contextData)
-                        .build();
-
-                // 保存到数据库
-                LearningRecord savedRecord = learningRecordRepository.save(record);
-
-                // 删除Redis键
-                redisLearningRecordService.deleteLearningRecord(key);
-
-                successCount++;
-                log.info("成功聚合学习记录: {}, ID: {}, 用户: {}, 课程: {}, 活动类型: {}, 总时长: {}秒",
-                        key, savedRecord.getId(), userId, courseId, activityType, totalDuration);
-            } catch (Exception e) {
-                failureCount++;
-                log.error("处理键失败: " + key, e);
+        try {
+            record.userId = Long.parseLong(parts[3]);
+            record.courseId = Long.parseLong(parts[4]);
+        } catch (NumberFormatException e) {
+            log.warn("无效的用户ID或课程ID格式: {}", key);
+            return null;
+        }
+
+        // 活动类型可能包含在键中，也可能存储在Redis数据中
+        String activityType = parts.length > 5 ? parts[5] : "UNKNOWN";
+        if ("UNKNOWN".equals(activityType) && data.get("activityType") != null) {
+            activityType = data.get("activityType").toString();
+        }
+        record.activityType = activityType;
+
+        record.totalDuration = ((Number) data.get("totalDuration")).intValue();
+        record.chapterId = data.get("chapterId") != null ? Long.parseLong(data.get("chapterId").toString()) : null;
+        record.sectionId = data.get("sectionId") != null ? Long.parseLong(data.get("sectionId").toString()) : null;
+        record.contextData = (String) data.get("contextData");
+        return record;
+    }
+
+    /**
+     * 每类实体只执行一次ID存在性查询，替代逐条findById
+     */
+    private List<ParsedRecord> filterValidRecords(List<ParsedRecord> records) {
+        if (records.isEmpty()) {
+            return records;
+        }
+
+        Set<Long> existingUserIds = existingIds(records, r -> r.userId, userRepository::findExistingIds);
+        Set<Long> existingCourseIds = existingIds(records, r -> r.courseId, courseRepository::findExistingIds);
+        Set<Long> existingChapterIds = existingIds(records, r -> r.chapterId, chapterRepository::findExistingIds);
+        Set<Long> existingSectionIds = existingIds(records, r -> r.sectionId, sectionRepository::findExistingIds);
+
+        List<ParsedRecord> validRecords = new ArrayList<>(records.size());
+        for (ParsedRecord record : records) {
+            if (!existingUserIds.contains(record.userId) || !existingCourseIds.contains(record.courseId)) {
+                log.warn("找不到用户或课程: userId={}, courseId={}", record.userId, record.courseId);
+                continue;
             }
+            if (record.chapterId != null && !existingChapterIds.contains(record.chapterId)) {
+                record.chapterId = null;
+            }
+            if (record.sectionId != null && !existingSectionIds.contains(record.sectionId)) {
+                record.sectionId = null;
+            }
+            validRecords.add(record);
         }
+        return validRecords;
+    }
+
+    private Set<Long> existingIds(List<ParsedRecord> records, Function<ParsedRecord, Long> idGetter,
+                                  Function<Collection<Long>, List<Long>> finder) {
+        Set<Long> ids = records.stream()
+                .map(idGetter)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        return ids.isEmpty() ? Set.of() : new HashSet<>(finder.apply(ids));
+    }
+
+    /**
+     * 构建学习记录，关联实体只使用引用，不查询数据库
+     */
+    private LearningRecord toLearningRecord(ParsedRecord parsed) {
+        // Redis键只记录到日期，事件流可以提供实际的起止时间
+        LocalDateTime startTime = parsed.startTime != null ? parsed.startTime : parsed.date.atStartOfDay();
+        LocalDateTime endTime = parsed.endTime != null ? parsed.endTime : parsed.date.atTime(23, 59, 59);
 
-        log.info("{} 的学习记录聚合完成. 成功: {}, 失败: {}", date, successCount, failureCount);
+        return LearningRecord.builder()
+                .user(userRepository.getReferenceById(parsed.userId))
+                .course(courseRepository.getReferenceById(parsed.courseId))
+                .chapter(parsed.chapterId != null ? chapterRepository.getReferenceById(parsed.chapterId) : null)
+                .section(parsed.sectionId != null ? sectionRepository.getReferenceById(parsed.sectionId) : null)
+                .activityType(parsed.activityType)
+                .activityStartTime(startTime)
+                .activityEndTime(endTime)
+                .durationSeconds(parsed.totalDuration)
+                .contextData(parsed.contextData)
+                .aggregateKey(parsed.date + ":" + parsed.userId + ":" + parsed.courseId + ":" + parsed.activityType)
+                .build();
     }
 
     /**
      * 手动触发聚合任务，处理当天和昨天的学习记录
      */
-    @Transactional
     public void aggregateAllLearningRecords() {
         log.info("手动触发学习记录聚合任务...");
 
@@ -175,4 +322,21 @@ public class LearningRecordAggregationTask {
 
         log.info("手动聚合任务完成");
     }
+
+    /**
+     * 解析后的学习记录（来自Redis键或学习事件流）
+     */
+    static class ParsedRecord {
+        String redisKey;
+        LocalDate date;
+        Long userId;
+        Long courseId;
+        Long chapterId;
+        Long sectionId;
+        String activityType;
+        int totalDuration;
+        String contextData;
+        LocalDateTime startTime;
+        LocalDateTime endTime;
+    }
 }
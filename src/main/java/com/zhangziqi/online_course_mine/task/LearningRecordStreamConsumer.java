@@ -0,0 +1,283 @@
+package com.zhangziqi.online_course_mine.task;
+
+import com.zhangziqi.online_course_mine.model.vo.LearningStreamMetricsVO;
+import com.zhangziqi.online_course_mine.repository.LearningRecordJdbcRepository;
+import com.zhangziqi.online_course_mine.service.impl.LearningRecordStreamService;
+import com.zhangziqi.online_course_mine.task.LearningRecordAggregationTask.ParsedRecord;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 学习事件流消费者
+ * 以消费组方式持续读取学习事件，按（日期、用户、课程、活动类型）折叠为微批次，
+ * 写入学习记录和日汇总表后再确认（至少一次投递）；已处理的事件ID与学习记录在同一事务中登记，
+ * 确认前失败或被其他实例重新认领的事件再次投递时跳过，不会重复累加。
+ * 处理失败的事件留在未确认列表中，由恢复任务在空闲超时后重新认领，多次失败后转入死信流
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LearningRecordStreamConsumer {
+
+    private final LearningRecordStreamService learningRecordStreamService;
+    private final LearningRecordAggregationTask learningRecordAggregationTask;
+    private final LearningRecordJdbcRepository learningRecordJdbcRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    // 消费者名称，同一消费组内各实例唯一
+    private final String consumerName = ManagementFactory.getRuntimeMXBean().getName();
+
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong failedBatchCount = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+
+    private volatile boolean groupReady = false;
+
+    @Value("${learning.record.stream.enabled:false}")
+    private boolean streamEnabled = false;
+
+    @Value("${learning.record.stream.batch-size:500}")
+    private int batchSize = 500;
+
+    // 每次轮询最多处理的批次数，避免长时间占用调度线程
+    @Value("${learning.record.stream.max-batches-per-poll:20}")
+    private int maxBatchesPerPoll = 20;
+
+    // 未确认事件空闲超过该时间后才会被重新认领
+    @Value("${learning.record.stream.min-idle-ms:60000}")
+    private long minIdleMillis = 60000;
+
+    // 超过该投递次数的事件转入死信流
+    @Value("${learning.record.stream.max-deliveries:5}")
+    private int maxDeliveries = 5;
+
+    // 已处理事件ID的保留时间，应远大于事件停留在未确认列表中的时间
+    @Value("${learning.record.stream.processed-retention-hours:24}")
+    private int processedRetentionHours = 24;
+
+    // 每次恢复时最多清理的已处理事件ID数
+    @Value("${learning.record.stream.processed-purge-limit:10000}")
+    private int processedPurgeLimit = 10000;
+
+    /**
+     * 轮询新事件
+     * 使用非阻塞读取，调度线程和Redis连接都是共享的
+     */
+    @Scheduled(fixedDelayString = "${learning.record.stream.poll-interval-ms:1000}")
+    public void poll() {
+        if (!streamEnabled) {
+            return;
+        }
+
+        try {
+            ensureGroup();
+            for (int i = 0; i < maxBatchesPerPoll; i++) {
+                List<MapRecord<String, Object, Object>> records =
+                        learningRecordStreamService.readNew(consumerName, batchSize);
+                if (records.isEmpty() || !processBatch(records) || records.size() < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            // 消费组可能被删除，下次轮询时重新创建
+            groupReady = false;
+            log.error("读取学习事件流失败", e);
+        }
+    }
+
+    /**
+     * 恢复未确认的事件
+     * 认领空闲超时的事件（包括其他已下线实例的事件）重新处理，超过投递次数的转入死信流
+     */
+    @Scheduled(fixedDelayString = "${learning.record.stream.recover-interval-ms:30000}")
+    public void recoverPending() {
+        if (!streamEnabled) {
+            return;
+        }
+
+        try {
+            ensureGroup();
+            Duration minIdle = Duration.ofMillis(minIdleMillis);
+            PendingMessages pendingMessages = learningRecordStreamService.findPending(batchSize);
+
+            List<RecordId> retryIds = new ArrayList<>();
+            List<RecordId> deadIds = new ArrayList<>();
+            for (PendingMessage message : pendingMessages) {
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    deadIds.add(message.getId());
+                } else {
+                    retryIds.add(message.getId());
+                }
+            }
+
+            if (!deadIds.isEmpty()) {
+                List<MapRecord<String, Object, Object>> dead =
+                        learningRecordStreamService.claim(consumerName, minIdle, deadIds);
+                learningRecordStreamService.moveToDeadLetter(dead);
+                deadLetterCount.addAndGet(dead.size());
+                log.warn("学习事件多次处理失败，已转入死信流: {}", dead.size());
+            }
+            if (!retryIds.isEmpty()) {
+                List<MapRecord<String, Object, Object>> claimed =
+                        learningRecordStreamService.claim(consumerName, minIdle, retryIds);
+                if (!claimed.isEmpty()) {
+                    log.info("重新认领未确认的学习事件: {}", claimed.size());
+                    processBatch(claimed);
+                }
+            }
+
+            learningRecordStreamService.trim();
+            learningRecordJdbcRepository.deleteProcessedStreamEntriesBefore(
+                    LocalDateTime.now().minusHours(processedRetentionHours), processedPurgeLimit);
+            log.info("学习事件流指标: {}", getMetrics());
+        } catch (Exception e) {
+            groupReady = false;
+            log.error("恢复未确认的学习事件失败", e);
+        }
+    }
+
+    /**
+     * 获取消费指标
+     */
+    public LearningStreamMetricsVO getMetrics() {
+        LearningStreamMetricsVO metrics = learningRecordStreamService.getStreamMetrics();
+        metrics.setProcessedCount(processedCount.get());
+        metrics.setFailedBatchCount(failedBatchCount.get());
+        metrics.setDeadLetterCount(deadLetterCount.get());
+        return metrics;
+    }
+
+    /**
+     * 处理一个微批次，写入成功后确认
+     * 跳过已登记处理的事件，其余事件的ID与折叠后的学习记录在同一事务中写入
+     *
+     * @return 是否处理成功
+     */
+    boolean processBatch(List<MapRecord<String, Object, Object>> records) {
+        List<RecordId> recordIds = records.stream().map(MapRecord::getId).toList();
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            Integer saved = transactionTemplate.execute(status -> {
+                Set<String> processed = learningRecordJdbcRepository.findProcessedStreamEntries(
+                        recordIds.stream().map(RecordId::getValue).toList());
+                List<MapRecord<String, Object, Object>> fresh = records.stream()
+                        .filter(record -> !processed.contains(record.getId().getValue()))
+                        .toList();
+                if (fresh.isEmpty()) {
+                    return 0;
+                }
+                learningRecordJdbcRepository.insertProcessedStreamEntries(
+                        fresh.stream().map(record -> record.getId().getValue()).toList());
+                return learningRecordAggregationTask.saveParsedRecords(fold(fresh));
+            });
+            learningRecordStreamService.acknowledge(recordIds);
+            processedCount.addAndGet(records.size());
+            log.debug("学习事件批次处理完成, 事件数: {}, 写入记录数: {}", records.size(), saved);
+            return true;
+        } catch (Exception e) {
+            failedBatchCount.incrementAndGet();
+            log.error("处理学习事件批次失败, 事件数: {}", records.size(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 按（日期、用户、课程、活动类型）折叠事件，时长累加，起止时间取最早和最晚
+     * 无法解析的事件直接丢弃（随批次一起确认），避免反复投递
+     */
+    List<ParsedRecord> fold(List<MapRecord<String, Object, Object>> records) {
+        Map<String, ParsedRecord> folded = new LinkedHashMap<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> fields = record.getValue();
+            try {
+                Long userId = Long.parseLong(field(fields, LearningRecordStreamService.FIELD_USER_ID));
+                Long courseId = Long.parseLong(field(fields, LearningRecordStreamService.FIELD_COURSE_ID));
+                String activityType = field(fields, LearningRecordStreamService.FIELD_ACTIVITY_TYPE);
+                if (activityType == null) {
+                    throw new IllegalArgumentException("缺少活动类型");
+                }
+                int duration = Integer.parseInt(field(fields, LearningRecordStreamService.FIELD_DURATION));
+                LocalDateTime endTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(
+                        Long.parseLong(field(fields, LearningRecordStreamService.FIELD_OCCURRED_AT))),
+                        ZoneId.systemDefault());
+                LocalDateTime startTime = endTime.minusSeconds(duration);
+                LocalDate date = endTime.toLocalDate();
+
+                String key = date + ":" + userId + ":" + courseId + ":" + activityType;
+                ParsedRecord parsed = folded.get(key);
+                if (parsed == null) {
+                    parsed = new ParsedRecord();
+                    parsed.date = date;
+                    parsed.userId = userId;
+                    parsed.courseId = courseId;
+                    parsed.activityType = activityType;
+                    parsed.startTime = startTime;
+                    parsed.endTime = endTime;
+                    folded.put(key, parsed);
+                }
+
+                parsed.totalDuration += duration;
+                if (startTime.isBefore(parsed.startTime)) {
+                    parsed.startTime = startTime;
+                }
+                if (endTime.isAfter(parsed.endTime)) {
+                    parsed.endTime = endTime;
+                }
+
+                // 章节、小节和上下文取最新的非空值，与Redis键聚合的覆盖语义一致
+                String chapterId = field(fields, LearningRecordStreamService.FIELD_CHAPTER_ID);
+                if (chapterId != null) {
+                    parsed.chapterId = Long.parseLong(chapterId);
+                }
+                String sectionId = field(fields, LearningRecordStreamService.FIELD_SECTION_ID);
+                if (sectionId != null) {
+                    parsed.sectionId = Long.parseLong(sectionId);
+                }
+                String contextData = field(fields, LearningRecordStreamService.FIELD_CONTEXT_DATA);
+                if (contextData != null) {
+                    parsed.contextData = contextData;
+                }
+            } catch (Exception e) {
+                log.warn("无效的学习事件: id={}, fields={}", record.getId(), fields);
+            }
+        }
+        return new ArrayList<>(folded.values());
+    }
+
+    private static String field(Map<Object, Object> fields, String name) {
+        Object value = fields.get(name);
+        return value != null ? value.toString() : null;
+    }
+
+    private void ensureGroup() {
+        if (!groupReady) {
+            learningRecordStreamService.ensureConsumerGroup();
+            groupReady = true;
+        }
+    }
+}
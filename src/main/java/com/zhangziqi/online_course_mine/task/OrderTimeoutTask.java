@@ -7,16 +7,23 @@ import com.zhangziqi.online_course_mine.service.OrderService;
 import com.zhangziqi.online_course_mine.service.impl.RedisOrderService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 订单超时定时任务
- * 定期扫描数据库中的待支付订单，关闭超时订单
+ * 从Redis延时队列中领取已到期的订单并关闭，订单在截止时间后一个轮询间隔内关闭，
+ * 不再周期性扫描订单表。领取是原子的，多个实例同时运行时同一订单只会被一个实例处理；
+ * 关闭在订单超时线程池中执行，调度线程只负责领取；关闭失败的订单在租约到期后重新被领取
  */
 @Slf4j
 @Component
@@ -27,42 +34,80 @@ public class OrderTimeoutTask {
     private final OrderService orderService;
     private final RedisOrderService redisOrderService;
 
+    @Qualifier("orderTimeoutExecutor")
+    private final Executor orderTimeoutExecutor;
+
+    // 每次领取的订单数量
+    @Value("${order.timeout.batch-size:100}")
+    private int batchSize = 100;
+
+    // 启动登记时每批查询的订单数量
+    @Value("${order.timeout.enqueue-page-size:500}")
+    private int enqueuePageSize = 500;
+
+    /**
+     * 启动时把已有的待支付订单登记到延时队列
+     * 用于启用延时队列之前创建的订单，已在队列中的订单保留原截止时间
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void enqueuePendingOrders() {
+        try {
+            // 按ID分批查询，不一次加载全部待支付订单
+            long lastId = 0L;
+            int count = 0;
+            List<Order> pendingOrders;
+            do {
+                pendingOrders = orderRepository.findByStatusAndIdGreaterThanOrderByIdAsc(
+                        OrderStatus.PENDING.getValue(), lastId, PageRequest.of(0, enqueuePageSize));
+                for (Order order : pendingOrders) {
+                    if (order.getCreatedAt() != null) {
+                        redisOrderService.enqueueOrderTimeout(order.getOrderNo(), order.getCreatedAt());
+                    }
+                    lastId = order.getId();
+                }
+                count += pendingOrders.size();
+            } while (pendingOrders.size() >= enqueuePageSize);
+            log.info("待支付订单已登记到超时队列，数量：{}", count);
+        } catch (Exception e) {
+            log.error("登记待支付订单到超时队列失败", e);
+        }
+    }
+
     /**
      * 处理超时订单
-     * 每隔30秒检查一次，关闭超过30分钟未支付的订单
+     * 每次领取一批到期订单提交到订单超时线程池关闭，领满一批时继续领取，直到队列中没有到期订单
      */
-    @Scheduled(fixedRate = 30000) // 30秒执行一次
-    @Transactional
+    @Scheduled(fixedDelayString = "${order.timeout.poll-interval-ms:1000}")
     public void handleTimeoutOrders() {
-        log.info("开始处理超时订单...");
-        
-        // 查找超过30分钟未支付的订单
-        LocalDateTime timeoutThreshold = LocalDateTime.now().minusMinutes(30);
-        List<Order> timeoutOrders = orderRepository.findByStatusAndCreatedAtBefore(
-                OrderStatus.PENDING.getValue(), timeoutThreshold);
-        
-        log.info("发现{}个超时订单需要处理", timeoutOrders.size());
-        
-        for (Order order : timeoutOrders) {
+        List<String> orderNos;
+        do {
             try {
-                // 先检查Redis中订单是否真的已超时（双重检查，防止定时任务与Redis的时间差）
-                long remainingTime = redisOrderService.getOrderRemainingTime(order.getOrderNo());
-                
-                // 如果Redis中显示已经超时或者Redis中已没有这个订单记录
-                if (remainingTime <= 0) {
-                    // 通过OrderService关闭订单，保证业务逻辑统一
-                    orderService.cancelOrder(order.getId(), order.getUser().getId());
-                    log.info("成功关闭超时订单：{}，订单号：{}", order.getId(), order.getOrderNo());
-                } else {
-                    // Redis中还有时间，可能是数据不一致，记录一下日志
-                    log.warn("订单数据不一致：订单{}在数据库中已超过30分钟，但Redis中还有{}秒", 
-                            order.getOrderNo(), remainingTime);
-                }
+                orderNos = redisOrderService.claimDueOrders(batchSize);
             } catch (Exception e) {
-                log.error("关闭超时订单失败：{}，订单号：{}", order.getId(), order.getOrderNo(), e);
+                log.error("领取超时订单失败", e);
+                return;
             }
+
+            for (String orderNo : orderNos) {
+                try {
+                    orderTimeoutExecutor.execute(() -> closeTimeoutOrder(orderNo));
+                } catch (RejectedExecutionException e) {
+                    // 线程池已满，剩余订单在租约到期后重新被领取
+                    log.warn("订单超时关闭线程池已满，暂停领取，订单号：{}", orderNo);
+                    return;
+                }
+            }
+        } while (orderNos.size() >= batchSize);
+    }
+
+    private void closeTimeoutOrder(String orderNo) {
+        try {
+            // 通过OrderService关闭订单，已支付或已取消的订单直接跳过
+            orderService.closeTimeoutOrder(orderNo);
+            redisOrderService.completeOrderTimeout(orderNo);
+        } catch (Exception e) {
+            // 不移出队列，租约到期后重试
+            log.error("关闭超时订单失败，订单号：{}", orderNo, e);
         }
-        
-        log.info("超时订单处理完成");
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+package com.zhangziqi.online_course_mine.task;
+
+import com.zhangziqi.online_course_mine.repository.SchemaBackfillJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * 启动时执行一次性的数据回填
+ * 增量维护的统计表（学习记录日汇总、机构收入台账）需要先用源表的历史数据回填。表结构由Hibernate创建，
+ * 项目没有使用迁移工具，回填只在这里定义，在应用启动、开始处理请求之前执行。
+ * 每个回填与其登记在同一事务中：多个实例同时启动时只有一个实例执行，其余实例等待登记的行锁，
+ * 对方提交后跳过；回填失败时登记一起回滚，下次启动时重新执行
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SchemaBackfillTask {
+
+    static final String LEARNING_DAILY_ROLLUPS = "learning_daily_rollups";
+    static final String INSTITUTION_INCOME_LEDGER = "institution_income_ledger";
+
+    private final SchemaBackfillJdbcRepository schemaBackfillJdbcRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${schema.backfill.enabled:true}")
+    private boolean enabled = true;
+
+    @PostConstruct
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+
+        Map<String, IntSupplier> backfills = new LinkedHashMap<>();
+        backfills.put(LEARNING_DAILY_ROLLUPS, schemaBackfillJdbcRepository::backfillLearningDailyRollups);
+        backfills.put(INSTITUTION_INCOME_LEDGER, schemaBackfillJdbcRepository::backfillInstitutionIncomeLedger);
+        backfills.forEach(this::run);
+    }
+
+    private void run(String name, IntSupplier backfill) {
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.executeWithoutResult(status -> {
+                if (!schemaBackfillJdbcRepository.claim(name)) {
+                    return;
+                }
+                long startTime = System.currentTimeMillis();
+                int rows = backfill.getAsInt();
+                log.info("数据回填完成: {}, 影响行数: {}, 耗时: {}ms", name, rows, System.currentTimeMillis() - startTime);
+            });
+        } catch (Exception e) {
+            // 等待其他实例的回填超时，或回填失败时不阻止启动，下次启动时重新检查
+            log.error("数据回填失败: {}", name, e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.zhangziqi.online_course_mine.task;
+
+import com.zhangziqi.online_course_mine.service.UserCourseService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 用户课程到期定时任务
+ * 把已到期的正常状态课程改为已过期，并清除对应用户的课程权限缓存，
+ * 缓存中在到期前加载的课程集合不会在缓存过期前继续授予学习权限
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserCourseExpiryTask {
+
+    private final UserCourseService userCourseService;
+
+    // 每批处理的数量
+    @Value("${user-course.expiry.batch-size:500}")
+    private int batchSize = 500;
+
+    /**
+     * 处理已到期的用户课程，处理满一批时继续处理下一批
+     */
+    @Scheduled(fixedDelayString = "${user-course.expiry.interval-ms:60000}")
+    public void expireLapsedCourses() {
+        try {
+            int expired;
+            do {
+                expired = userCourseService.expireLapsedCourses(batchSize);
+            } while (expired >= batchSize);
+        } catch (Exception e) {
+            log.error("处理已到期的用户课程失败", e);
+        }
+    }
+}
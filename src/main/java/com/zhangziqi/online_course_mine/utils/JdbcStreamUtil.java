@@ -0,0 +1,34 @@
+package com.zhangziqi.online_course_mine.utils;
+
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * JDBC流式查询工具类
+ */
+public class JdbcStreamUtil {
+
+    // MySQL驱动在fetchSize为Integer.MIN_VALUE时逐行读取结果集，而不是一次性加载到内存
+    private static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+    /**
+     * 创建逐行读取结果集的语句
+     * 与RowCallbackHandler一起使用，全表扫描时内存占用与结果集大小无关；
+     * 读取期间连接被结果集独占，回调中不能在同一连接上执行其他查询
+     *
+     * @param sql SQL语句
+     * @param params 参数
+     * @return 语句创建器
+     */
+    public static PreparedStatementCreator streaming(String sql, Object... params) {
+        return connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAMING_FETCH_SIZE);
+            new ArgumentPreparedStatementSetter(params).setValues(ps);
+            return ps;
+        };
+    }
+}
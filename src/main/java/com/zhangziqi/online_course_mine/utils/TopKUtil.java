@@ -0,0 +1,44 @@
+package com.zhangziqi.online_course_mine.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 前K名选择工具类
+ * 用大小为K的最小堆选出排名最前的K个元素，时间复杂度O(n log k)，额外内存O(k)，不对全部元素排序
+ */
+public class TopKUtil {
+
+    /**
+     * 选出排名最前的K个元素
+     *
+     * @param items 待选元素
+     * @param k 选出的数量
+     * @param order 排序规则，排在前面的元素优先
+     * @return 按排序规则排列的前K个元素
+     */
+    public static <T> List<T> select(Iterable<T> items, int k, Comparator<? super T> order) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+
+        // 堆顶是当前入选元素中排名最后的一个
+        Comparator<? super T> reversed = Collections.reverseOrder(order);
+        PriorityQueue<T> heap = new PriorityQueue<>(k, reversed);
+        for (T item : items) {
+            if (heap.size() < k) {
+                heap.offer(item);
+            } else if (order.compare(item, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(item);
+            }
+        }
+
+        List<T> result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+package com.zhangziqi.online_course_mine.excel;
+
+import com.alibaba.excel.annotation.ExcelProperty;
+import com.zhangziqi.online_course_mine.model.enums.ExportFormat;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class StreamingReportWriterTest {
+
+    @Data
+    @AllArgsConstructor
+    public static class Row {
+        @ExcelProperty(value = "名称", index = 0)
+        private String name;
+
+        @ExcelProperty(value = "金额", index = 1)
+        private BigDecimal amount;
+    }
+
+    private String writeCsv(Row... rows) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try (StreamingReportWriter<Row> writer = StreamingReportWriter.open(response, Row.class, "report",
+                ExportFormat.CSV, 2)) {
+            for (Row row : rows) {
+                writer.write(row);
+            }
+        }
+        return response.getContentAsString(StandardCharsets.UTF_8).substring(1);
+    }
+
+    @Test
+    @DisplayName("CSV - 按RFC 4180转义")
+    void testCsvEscape() throws Exception {
+        String csv = writeCsv(new Row("a,\"b\"", new BigDecimal("10.50")));
+
+        assertEquals("名称,金额\r\n\"a,\"\"b\"\"\",10.50\r\n", csv);
+    }
+
+    @Test
+    @DisplayName("CSV - 以公式字符开头的文本加单引号，数值保持原样")
+    void testCsvFormulaInjection() throws Exception {
+        String csv = writeCsv(
+                new Row("=HYPERLINK(\"http://x\",\"y\")", new BigDecimal("-3.20")),
+                new Row("+1", null),
+                new Row("-1", null),
+                new Row("@SUM(A1)", null),
+                new Row("\t=1+1", null),
+                new Row("\r=1+1", null));
+
+        assertEquals("名称,金额\r\n" +
+                "\"'=HYPERLINK(\"\"http://x\"\",\"\"y\"\")\",-3.20\r\n" +
+                "'+1,\r\n" +
+                "'-1,\r\n" +
+                "'@SUM(A1),\r\n" +
+                "'\t=1+1,\r\n" +
+                "\"'\r=1+1\",\r\n", csv);
+    }
+}
@@ -0,0 +1,136 @@
+package com.zhangziqi.online_course_mine.integration;
+
+import com.zhangziqi.online_course_mine.service.impl.RedisLearningRecordService;
+import com.zhangziqi.online_course_mine.service.impl.RedisLearningRecordService.LearningRecordIncrement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 学习记录写入吞吐量基准测试
+ * 只有在REDIS_BENCHMARK_ENABLED环境变量为true时才会运行，需要可用的Redis
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@EnabledIfEnvironmentVariable(named = "REDIS_BENCHMARK_ENABLED", matches = "true")
+class LearningRecordIngestionBenchmarkTest {
+
+    private static final LocalDate BENCHMARK_DATE = LocalDate.of(2000, 1, 1);
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 5000;
+    private static final int BATCH_SIZE = 100;
+
+    @Autowired
+    private RedisLearningRecordService redisLearningRecordService;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        Set<String> keys = redisLearningRecordService.getLearningRecordKeys(BENCHMARK_DATE);
+        if (keys != null && !keys.isEmpty()) {
+            redisTemplate.delete(keys);
+        }
+    }
+
+    /**
+     * 单条脚本写入：每次调用一次网络往返
+     */
+    @Test
+    void benchmarkSingleUpdate() throws Exception {
+        long elapsedNanos = runConcurrently(threadIndex -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                redisLearningRecordService.batchUpdateLearningRecords(List.of(increment(threadIndex, i)));
+            }
+        });
+        report("单条脚本写入", elapsedNanos);
+        assertTotalDuration();
+    }
+
+    /**
+     * 合并批量写入：每批一次网络往返，相同键在批内合并
+     */
+    @Test
+    void benchmarkBatchUpdate() throws Exception {
+        long elapsedNanos = runConcurrently(threadIndex -> {
+            List<LearningRecordIncrement> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                batch.add(increment(threadIndex, i));
+                if (batch.size() == BATCH_SIZE) {
+                    redisLearningRecordService.batchUpdateLearningRecords(batch);
+                    batch.clear();
+                }
+            }
+            redisLearningRecordService.batchUpdateLearningRecords(batch);
+        });
+        report("合并批量写入", elapsedNanos);
+        assertTotalDuration();
+    }
+
+    private LearningRecordIncrement increment(int threadIndex, int i) {
+        // 每个线程模拟10个课程，同一课程的记录会落在相同的键上
+        return LearningRecordIncrement.builder()
+                .date(BENCHMARK_DATE)
+                .userId((long) threadIndex)
+                .courseId((long) (i % 10))
+                .sectionId((long) i)
+                .activityType("VIDEO_WATCH")
+                .durationSeconds(1)
+                .build();
+    }
+
+    private long runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int threadIndex = t;
+                futures.add(executor.submit(() -> task.run(threadIndex)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void report(String name, long elapsedNanos) {
+        long operations = (long) THREADS * OPERATIONS_PER_THREAD;
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        System.out.printf("%s: %d次更新, 耗时 %.3f 秒, 吞吐量 %.0f 次/秒%n",
+                name, operations, seconds, operations / seconds);
+    }
+
+    private void assertTotalDuration() {
+        long total = 0;
+        for (String key : redisLearningRecordService.getLearningRecordKeys(BENCHMARK_DATE)) {
+            total += ((Number) redisLearningRecordService.getLearningRecordData(key).get("totalDuration")).longValue();
+        }
+        assertEquals((long) THREADS * OPERATIONS_PER_THREAD, total);
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int threadIndex);
+    }
+}
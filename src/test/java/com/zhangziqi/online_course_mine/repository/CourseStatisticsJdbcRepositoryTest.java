@@ -0,0 +1,140 @@
+package com.zhangziqi.online_course_mine.repository;
+
+import com.zhangziqi.online_course_mine.exception.BusinessException;
+import com.zhangziqi.online_course_mine.model.vo.InstitutionLearningStatisticsVO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CourseStatisticsJdbcRepositoryTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private CourseStatisticsJdbcRepository courseStatisticsJdbcRepository;
+
+    @Test
+    @DisplayName("按统计字段排序并在数据库中分页")
+    @SuppressWarnings("unchecked")
+    void testFindCourseStatistics() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), any(Object[].class))).thenReturn(21L);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(InstitutionLearningStatisticsVO.CourseStatisticsVO.builder().courseId(3L).build()));
+
+        Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> page = courseStatisticsJdbcRepository.findCourseStatistics(
+                1L, true, PageRequest.of(2, 10, Sort.by("learnerCount").descending()));
+
+        assertEquals(21, page.getTotalElements());
+        assertEquals(1, page.getContent().size());
+
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object[]> paramsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate).query(sqlCaptor.capture(), any(RowMapper.class), paramsCaptor.capture());
+        String sql = sqlCaptor.getValue();
+        assertTrue(sql.contains("ORDER BY learner_count DESC, c.id ASC"));
+        assertTrue(sql.endsWith("LIMIT ? OFFSET ?"));
+
+        // 两个子查询的机构条件、课程过滤条件和分页参数
+        assertEquals(Arrays.asList(1L, 1L, 1L, 4, 10, 20L), Arrays.asList(paramsCaptor.getValue()));
+    }
+
+    @Test
+    @DisplayName("偏移量超过总数时不执行统计查询")
+    @SuppressWarnings("unchecked")
+    void testFindCourseStatistics_OutOfRange() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), any(Object[].class))).thenReturn(5L);
+
+        Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> page = courseStatisticsJdbcRepository.findCourseStatistics(
+                null, false, PageRequest.of(1, 10));
+
+        assertEquals(5, page.getTotalElements());
+        assertTrue(page.getContent().isEmpty());
+        verify(jdbcTemplate, never()).query(anyString(), any(RowMapper.class), any(Object[].class));
+    }
+
+    @Test
+    @DisplayName("按课程ID批量统计，课程条件同时下推到子查询")
+    @SuppressWarnings("unchecked")
+    void testFindCourseStatisticsByIds() {
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(InstitutionLearningStatisticsVO.CourseStatisticsVO.builder().courseId(3L).build()));
+
+        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> result =
+                courseStatisticsJdbcRepository.findCourseStatisticsByIds(List.of(3L, 7L), true);
+
+        assertEquals(1, result.size());
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object[]> paramsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate).query(sqlCaptor.capture(), any(RowMapper.class), paramsCaptor.capture());
+        assertTrue(sqlCaptor.getValue().contains("WHERE r.course_id IN (?, ?)"));
+        assertTrue(sqlCaptor.getValue().contains("WHERE c.id IN (?, ?) AND c.status = ?"));
+        assertEquals(Arrays.asList(3L, 7L, 3L, 7L, 3L, 7L, 4), Arrays.asList(paramsCaptor.getValue()));
+
+        assertTrue(courseStatisticsJdbcRepository.findCourseStatisticsByIds(List.of(), true).isEmpty());
+    }
+
+    @Test
+    @DisplayName("不支持的排序字段")
+    void testFindCourseStatistics_InvalidSort() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), any(Object[].class))).thenReturn(5L);
+
+        assertThrows(BusinessException.class, () -> courseStatisticsJdbcRepository.findCourseStatistics(
+                null, false, PageRequest.of(0, 10, Sort.by("title; DROP TABLE courses"))));
+    }
+
+    @Test
+    @DisplayName("导出时使用流式结果集逐行读取")
+    void testStreamStudentStatistics() throws Exception {
+        Connection connection = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(connection.prepareStatement(anyString(), eq(ResultSet.TYPE_FORWARD_ONLY), eq(ResultSet.CONCUR_READ_ONLY)))
+                .thenReturn(ps);
+        when(rs.getLong(1)).thenReturn(7L);
+        when(rs.getString(2)).thenReturn("user7");
+        when(rs.getLong(3)).thenReturn(3600L);
+        when(rs.getInt(4)).thenReturn(3);
+        when(rs.getInt(5)).thenReturn(40);
+        doAnswer(invocation -> {
+            PreparedStatementCreator creator = invocation.getArgument(0);
+            assertSame(ps, creator.createPreparedStatement(connection));
+            RowCallbackHandler handler = invocation.getArgument(1);
+            handler.processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        List<InstitutionLearningStatisticsVO.StudentLearningVO> rows = new ArrayList<>();
+        courseStatisticsJdbcRepository.streamStudentStatistics(10L, rows::add);
+
+        verify(ps).setFetchSize(Integer.MIN_VALUE);
+        verify(ps).setObject(1, 10L);
+        assertEquals(1, rows.size());
+        assertEquals("user7", rows.get(0).getUsername());
+        assertEquals(40, rows.get(0).getProgress());
+        assertNull(rows.get(0).getLastLearnTime());
+    }
+}
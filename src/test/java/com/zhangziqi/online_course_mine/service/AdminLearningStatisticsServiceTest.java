@@ -1,5 +1,6 @@
 package com.zhangziqi.online_course_mine.service;
 
+import com.zhangziqi.online_course_mine.exception.BusinessException;
 import com.zhangziqi.online_course_mine.model.entity.Course;
 import com.zhangziqi.online_course_mine.model.entity.Institution;
 import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
@@ -11,11 +12,17 @@ import com.zhangziqi.online_course_mine.model.vo.InstitutionLearningStatisticsVO
 import com.zhangziqi.online_course_mine.model.vo.LearningHeatmapVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningProgressTrendVO;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.CourseStatisticsJdbcRepository;
 import com.zhangziqi.online_course_mine.repository.InstitutionRepository;
+import com.zhangziqi.online_course_mine.repository.LearningDailyRollupRepository;
 import com.zhangziqi.online_course_mine.repository.LearningRecordRepository;
 import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.service.impl.AdminLearningStatisticsServiceImpl;
+import com.zhangziqi.online_course_mine.service.impl.LearnerSketchService;
+import com.zhangziqi.online_course_mine.service.impl.LearningAnalyticsSnapshot;
+import com.zhangziqi.online_course_mine.service.impl.LearningHeatmapService;
+import com.zhangziqi.online_course_mine.service.impl.LearningLeaderboardService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -24,9 +31,12 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -35,6 +45,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -50,6 +61,12 @@ public class AdminLearningStatisticsServiceTest {
     @Mock
     private LearningRecordRepository learningRecordRepository;
 
+    @Mock
+    private LearningDailyRollupRepository learningDailyRollupRepository;
+
+    @Mock
+    private CourseStatisticsJdbcRepository courseStatisticsJdbcRepository;
+
     @Mock
     private UserCourseRepository userCourseRepository;
 
@@ -62,6 +79,18 @@ public class AdminLearningStatisticsServiceTest {
     @Mock
     private InstitutionLearningStatisticsService institutionLearningStatisticsService;
 
+    @Mock
+    private LearnerSketchService learnerSketchService;
+
+    @Mock
+    private LearningLeaderboardService learningLeaderboardService;
+
+    @Mock
+    private LearningHeatmapService learningHeatmapService;
+
+    @Mock
+    private LearningAnalyticsSnapshot learningAnalyticsSnapshot;
+
     @InjectMocks
     private AdminLearningStatisticsServiceImpl statisticsService;
 
@@ -130,42 +159,11 @@ public class AdminLearningStatisticsServiceTest {
     @DisplayName("获取所有课程学习统计")
     void testGetAllCourseStatistics() {
         // 模拟查询结果
-        List<Course> courses = Arrays.asList(course1, course2);
-        when(courseRepository.findAll()).thenReturn(courses);
-
-        // 使用findByCourseIdAndTimeRange方法代替不存在的findByCourse_Id方法
-        when(learningRecordRepository.findByCourseIdAndTimeRange(
-                eq(1L), any(LocalDateTime.class), any(LocalDateTime.class)))
-                .thenReturn(Collections.singletonList(record1));
-        when(learningRecordRepository.findByCourseIdAndTimeRange(
-                eq(2L), any(LocalDateTime.class), any(LocalDateTime.class)))
-                .thenReturn(Collections.singletonList(record2));
-
-        when(learningRecordRepository.findTotalLearningDurationByCourse(1L))
-                .thenReturn(3600L);
-        when(learningRecordRepository.findTotalLearningDurationByCourse(2L))
-                .thenReturn(3600L);
-
-        Object[] learnerCount1 = new Object[]{20L};
-        when(userCourseRepository.countLearnersByCourseId(1L))
-                .thenReturn(Collections.singletonList(learnerCount1));
-
-        Object[] learnerCount2 = new Object[]{15L};
-        when(userCourseRepository.countLearnersByCourseId(2L))
-                .thenReturn(Collections.singletonList(learnerCount2));
-
-        when(userCourseRepository.countByProgress(1L, 100))
-                .thenReturn(10L);
-        when(userCourseRepository.countByProgress(2L, 100))
-                .thenReturn(5L);
-
-        when(userCourseRepository.getAverageProgressByCourseId(1L))
-                .thenReturn(75.0);
-        when(userCourseRepository.getAverageProgressByCourseId(2L))
-                .thenReturn(60.0);
+        Pageable pageable = PageRequest.of(0, 10);
+        when(courseStatisticsJdbcRepository.findCourseStatistics(null, false, pageable))
+                .thenReturn(new PageImpl<>(courseStatistics(), pageable, 2));
 
         // 执行方法
-        Pageable pageable = PageRequest.of(0, 10);
         Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> result =
                 statisticsService.getAllCourseStatistics(pageable);
 
@@ -179,49 +177,20 @@ public class AdminLearningStatisticsServiceTest {
         assertEquals(20L, result.getContent().get(0).getLearnerCount());
         assertEquals(10L, result.getContent().get(0).getCompletionCount());
         assertEquals(75.0, result.getContent().get(0).getAverageProgress());
+
+        // 不再加载所有课程
+        verify(courseRepository, never()).findAll();
     }
 
     @Test
     @DisplayName("获取机构课程学习统计")
     void testGetInstitutionCourseStatistics() {
         // 模拟查询结果
-        // 使用findAll然后过滤的方式代替不存在的findByInstitutionId方法
-        List<Course> allCourses = Arrays.asList(course1, course2);
-        when(courseRepository.findAll()).thenReturn(allCourses);
-
-        // 使用findByCourseIdAndTimeRange方法代替不存在的findByCourse_Id方法
-        when(learningRecordRepository.findByCourseIdAndTimeRange(
-                eq(1L), any(LocalDateTime.class), any(LocalDateTime.class)))
-                .thenReturn(Collections.singletonList(record1));
-        when(learningRecordRepository.findByCourseIdAndTimeRange(
-                eq(2L), any(LocalDateTime.class), any(LocalDateTime.class)))
-                .thenReturn(Collections.singletonList(record2));
-
-        when(learningRecordRepository.findTotalLearningDurationByCourse(1L))
-                .thenReturn(3600L);
-        when(learningRecordRepository.findTotalLearningDurationByCourse(2L))
-                .thenReturn(3600L);
-
-        Object[] learnerCount1 = new Object[]{20L};
-        when(userCourseRepository.countLearnersByCourseId(1L))
-                .thenReturn(Collections.singletonList(learnerCount1));
-
-        Object[] learnerCount2 = new Object[]{15L};
-        when(userCourseRepository.countLearnersByCourseId(2L))
-                .thenReturn(Collections.singletonList(learnerCount2));
-
-        when(userCourseRepository.countByProgress(1L, 100))
-                .thenReturn(10L);
-        when(userCourseRepository.countByProgress(2L, 100))
-                .thenReturn(5L);
-
-        when(userCourseRepository.getAverageProgressByCourseId(1L))
-                .thenReturn(75.0);
-        when(userCourseRepository.getAverageProgressByCourseId(2L))
-                .thenReturn(60.0);
+        Pageable pageable = PageRequest.of(0, 10, Sort.by("averageProgress").descending());
+        when(courseStatisticsJdbcRepository.findCourseStatistics(1L, false, pageable))
+                .thenReturn(new PageImpl<>(courseStatistics(), pageable, 2));
 
         // 执行方法
-        Pageable pageable = PageRequest.of(0, 10);
         Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> result =
                 statisticsService.getInstitutionCourseStatistics(1L, pageable);
 
@@ -229,12 +198,8 @@ public class AdminLearningStatisticsServiceTest {
         assertNotNull(result);
         assertEquals(2, result.getContent().size());
         assertEquals(1L, result.getContent().get(0).getCourseId());
-        assertEquals("测试课程1", result.getContent().get(0).getCourseTitle());
-        assertEquals(3600L, result.getContent().get(0).getTotalDuration());
-        assertEquals(1, result.getContent().get(0).getActivityCount());
-        assertEquals(20L, result.getContent().get(0).getLearnerCount());
-        assertEquals(10L, result.getContent().get(0).getCompletionCount());
         assertEquals(75.0, result.getContent().get(0).getAverageProgress());
+        verify(courseRepository, never()).findAll();
     }
 
     @Test
@@ -330,47 +295,26 @@ public class AdminLearningStatisticsServiceTest {
     @DisplayName("获取平台总学习时长")
     void testGetTotalLearningDuration() {
         // 模拟查询结果
-        List<LearningRecord> records = Arrays.asList(record1, record2);
-        when(learningRecordRepository.findAll()).thenReturn(records);
+        when(learningDailyRollupRepository.findTotalLearningDuration()).thenReturn(7200L);
 
         // 执行方法
         Long result = statisticsService.getTotalLearningDuration();
 
-        // 验证结果
-        assertEquals(7200L, result); // 3600 + 3600 = 7200
+        // 验证结果，不加载学习记录
+        assertEquals(7200L, result);
+        verify(learningRecordRepository, never()).findAll();
     }
 
     @Test
     @DisplayName("获取平台今日学习时长")
     void testGetTodayLearningDuration() {
-        // 创建一个新的测试记录列表，确保所有记录都不是今天的
-        LearningRecord pastRecord1 = LearningRecord.builder()
-                .id(1L)
-                .user(user1)
-                .course(course1)
-                .activityType(LearningActivityType.VIDEO_WATCH.getCode())
-                .activityStartTime(LocalDateTime.now().minusDays(5))
-                .activityEndTime(LocalDateTime.now().minusDays(5).plusHours(1))
-                .durationSeconds(3600)
-                .build();
-
-        LearningRecord pastRecord2 = LearningRecord.builder()
-                .id(2L)
-                .user(user2)
-                .course(course2)
-                .activityType(LearningActivityType.QUIZ_ATTEMPT.getCode())
-                .activityStartTime(LocalDateTime.now().minusDays(3))
-                .activityEndTime(LocalDateTime.now().minusDays(3).plusHours(1))
-                .durationSeconds(3600)
-                .build();
-
-        List<LearningRecord> pastRecords = Arrays.asList(pastRecord1, pastRecord2);
-        when(learningRecordRepository.findAll()).thenReturn(pastRecords);
+        // 今天没有学习记录时汇总结果为null
+        when(learningDailyRollupRepository.findTodayLearningDuration()).thenReturn(null);
 
         // 执行方法
         Long result = statisticsService.getTodayLearningDuration();
 
-        // 验证结果 - 由于测试数据中没有今天的记录，应该返回0
+        // 验证结果 - 应该返回0
         assertEquals(0L, result);
     }
 
@@ -378,22 +322,47 @@ public class AdminLearningStatisticsServiceTest {
     @DisplayName("获取平台学习人数")
     void testGetTotalLearnerCount() {
         // 模拟查询结果
-        List<LearningRecord> records = Arrays.asList(record1, record2);
-        when(learningRecordRepository.findAll()).thenReturn(records);
+        when(learningRecordRepository.countUniqueUsers()).thenReturn(2L);
 
         // 执行方法
         Long result = statisticsService.getTotalLearnerCount();
 
         // 验证结果 - 两个不同的用户
         assertEquals(2L, result);
+        verify(learningRecordRepository, never()).findAll();
+    }
+
+    @Test
+    @DisplayName("获取平台学习人数 - 使用HyperLogLog估计值")
+    void testGetTotalLearnerCount_FromSketch() {
+        when(learnerSketchService.count(LearnerSketchService.Scope.PLATFORM, null)).thenReturn(Optional.of(1000L));
+
+        assertEquals(1000L, statisticsService.getTotalLearnerCount());
+        verify(learningRecordRepository, never()).countUniqueUsers();
+    }
+
+    @Test
+    @DisplayName("获取平台日期范围内的学习人数")
+    void testGetLearnerCount() {
+        LocalDate startDate = LocalDate.now().minusDays(6);
+        LocalDate endDate = LocalDate.now();
+        when(learnerSketchService.count(LearnerSketchService.Scope.PLATFORM, null, startDate, endDate))
+                .thenReturn(Optional.of(42L), Optional.empty());
+        when(learningDailyRollupRepository.countUniqueUsersByDateRange(startDate, endDate)).thenReturn(40L);
+
+        assertEquals(42L, statisticsService.getLearnerCount(startDate, endDate));
+        // 估计值不可用时回退到日汇总表
+        assertEquals(40L, statisticsService.getLearnerCount(startDate, endDate));
     }
 
     @Test
     @DisplayName("获取平台活动类型统计")
     void testGetAllActivityTypeStats() {
         // 模拟查询结果
-        List<LearningRecord> records = Arrays.asList(record1, record2);
-        when(learningRecordRepository.findAll()).thenReturn(records);
+        List<Object[]> results = new ArrayList<>();
+        results.add(new Object[]{LearningActivityType.VIDEO_WATCH.getCode(), 3600L, 1L});
+        results.add(new Object[]{LearningActivityType.QUIZ_ATTEMPT.getCode(), 3600L, 1L});
+        when(learningDailyRollupRepository.findLearningStatsByActivityType()).thenReturn(results);
 
         // 执行方法
         List<ActivityTypeStatVO> result = statisticsService.getAllActivityTypeStats();
@@ -410,6 +379,8 @@ public class AdminLearningStatisticsServiceTest {
         assertTrue(statsByType.containsKey(LearningActivityType.VIDEO_WATCH.getCode()));
         assertEquals(3600L, statsByType.get(LearningActivityType.VIDEO_WATCH.getCode()).getTotalDurationSeconds());
         assertEquals(1, statsByType.get(LearningActivityType.VIDEO_WATCH.getCode()).getActivityCount());
+        assertEquals(LearningActivityType.VIDEO_WATCH.getDescription(),
+                statsByType.get(LearningActivityType.VIDEO_WATCH.getCode()).getActivityTypeDescription());
 
         // 验证测验尝试统计
         assertTrue(statsByType.containsKey(LearningActivityType.QUIZ_ATTEMPT.getCode()));
@@ -420,20 +391,69 @@ public class AdminLearningStatisticsServiceTest {
     @Test
     @DisplayName("获取平台每日学习统计")
     void testGetAllDailyLearningStats() {
+        LocalDate startDate = LocalDate.of(2023, 1, 1);
+        LocalDate endDate = LocalDate.of(2023, 1, 31);
+
         // 模拟查询结果
-        List<LearningRecord> records = Arrays.asList(record1, record2);
-        when(learningRecordRepository.findAll()).thenReturn(records);
+        List<Object[]> results = new ArrayList<>();
+        results.add(new Object[]{LocalDate.of(2023, 1, 2), 3600L, 2L});
+        results.add(new Object[]{LocalDate.of(2023, 1, 5), 1800L, 1L});
+        when(learningDailyRollupRepository.findDailyLearningStats(startDate, endDate)).thenReturn(results);
 
         // 执行方法
-        LocalDate startDate = LocalDate.now().minusDays(30);
-        LocalDate endDate = LocalDate.now();
         List<DailyLearningStatVO> result = statisticsService.getAllDailyLearningStats(startDate, endDate);
 
-        // 验证结果 - 由于测试数据中有两条记录，但日期不同，应该有两个日期的统计
-        assertNotNull(result);
+        // 验证结果
+        assertEquals(2, result.size());
+        assertEquals("2023-01-02", result.get(0).getDate());
+        assertEquals(3600L, result.get(0).getDurationSeconds());
+        assertEquals(2, result.get(0).getActivityCount());
+        assertEquals("2023-01-05", result.get(1).getDate());
+    }
+
+    @Test
+    @DisplayName("获取平台每日学习统计 - 扫描分析快照")
+    void testGetAllDailyLearningStats_FromSnapshot() {
+        LocalDate startDate = LocalDate.of(2023, 1, 1);
+        LocalDate endDate = LocalDate.of(2023, 1, 7);
+        Map<LocalDate, long[]> days = new TreeMap<>();
+        days.put(LocalDate.of(2023, 1, 2), new long[]{3600L, 2L});
+        days.put(LocalDate.of(2023, 1, 5), new long[]{1800L, 1L});
+        when(learningAnalyticsSnapshot.byDay(startDate, endDate)).thenReturn(Optional.of(days));
+
+        List<DailyLearningStatVO> result = statisticsService.getAllDailyLearningStats(startDate, endDate);
 
-        // 注意：这个测试可能会因为测试数据的日期而失败，因为我们使用了LocalDateTime.now()
-        // 如果需要更精确的测试，应该使用固定的日期
+        assertEquals(2, result.size());
+        assertEquals("2023-01-02", result.get(0).getDate());
+        assertEquals(3600L, result.get(0).getDurationSeconds());
+        assertEquals(2, result.get(0).getActivityCount());
+        assertEquals("2023-01-05", result.get(1).getDate());
+        verify(learningDailyRollupRepository, never()).findDailyLearningStats(any(), any());
+    }
+
+    @Test
+    @DisplayName("获取机构学习统计排行 - 按学生数排序时扫描分析快照")
+    void testGetInstitutionRanking_FromSnapshot() {
+        LocalDate today = LocalDate.now();
+        when(learningAnalyticsSnapshot.byInstitution(today.with(DayOfWeek.MONDAY), today))
+                .thenReturn(Optional.of(List.of(
+                        new LearningAnalyticsSnapshot.InstitutionTotals(1L, 100L, 10L, 5000L, 500L),
+                        new LearningAnalyticsSnapshot.InstitutionTotals(2L, 200L, 5L, 3000L, 300L),
+                        new LearningAnalyticsSnapshot.InstitutionTotals(9L, 900L, 1L, 100L, 10L))));
+        // 机构9已删除
+        when(institutionRepository.findAllById(List.of(1L, 2L, 9L))).thenReturn(List.of(
+                Institution.builder().id(1L).name("机构A").build(),
+                Institution.builder().id(2L).name("机构B").build()));
+
+        List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> result =
+                statisticsService.getInstitutionRanking("studentCount", "week", 5);
+
+        assertEquals(2, result.size());
+        assertEquals(2L, result.get(0).getInstitutionId());
+        assertEquals(200L, result.get(0).getStudentCount());
+        assertEquals(5, result.get(0).getCourseCount());
+        assertEquals(3000L, result.get(0).getTotalDuration());
+        verify(learningDailyRollupRepository, never()).findInstitutionStatistics();
     }
 
     @Test
@@ -445,11 +465,11 @@ public class AdminLearningStatisticsServiceTest {
         institutionData.add(new Object[]{2L, "机构B", "logo2.png", 200L, 5, 3000L, 300});
         institutionData.add(new Object[]{3L, "机构C", "logo3.png", 50L, 15, 8000L, 800});
 
-        when(learningRecordRepository.findInstitutionStatistics()).thenReturn(institutionData);
+        when(learningDailyRollupRepository.findInstitutionStatistics()).thenReturn(institutionData);
 
         // 测试按学习时长排序
         List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> result1 =
-                statisticsService.getInstitutionRanking("totalDuration", 2);
+                statisticsService.getInstitutionRanking("totalDuration", "all", 2);
 
         assertNotNull(result1);
         assertEquals(2, result1.size());
@@ -458,7 +478,7 @@ public class AdminLearningStatisticsServiceTest {
 
         // 测试按学生数量排序
         List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> result2 =
-                statisticsService.getInstitutionRanking("studentCount", 2);
+                statisticsService.getInstitutionRanking("studentCount", "all", 2);
 
         assertNotNull(result2);
         assertEquals(2, result2.size());
@@ -466,6 +486,42 @@ public class AdminLearningStatisticsServiceTest {
         assertEquals(1L, result2.get(1).getInstitutionId()); // 机构A学生数量第二
     }
 
+    @Test
+    @DisplayName("获取机构学习统计排行 - 读取排行榜")
+    void testGetInstitutionRanking_FromLeaderboard() {
+        Institution institutionB = Institution.builder().id(2L).name("机构B").logo("logo2.png").build();
+        when(learningLeaderboardService.top(LearningLeaderboardService.Board.PLATFORM_INSTITUTIONS, null,
+                LearningLeaderboardService.Metric.DURATION, LearningLeaderboardService.Window.WEEK, 2))
+                .thenReturn(Optional.of(List.of(new LearningLeaderboardService.RankEntry(2L, 9000L, 90L))));
+        when(institutionRepository.findAllById(List.of(2L))).thenReturn(List.of(institutionB));
+        when(learningLeaderboardService.size(LearningLeaderboardService.Board.INSTITUTION_USERS, 2L,
+                LearningLeaderboardService.Window.WEEK)).thenReturn(Optional.of(12L));
+        when(learningLeaderboardService.size(LearningLeaderboardService.Board.INSTITUTION_COURSES, 2L,
+                LearningLeaderboardService.Window.WEEK)).thenReturn(Optional.of(3L));
+
+        List<InstitutionLearningStatisticsVO.InstitutionStatisticsVO> result =
+                statisticsService.getInstitutionRanking("totalDuration", "week", 2);
+
+        assertEquals(1, result.size());
+        assertEquals("机构B", result.get(0).getInstitutionName());
+        assertEquals(9000L, result.get(0).getTotalDuration());
+        assertEquals(90, result.get(0).getActivityCount());
+        assertEquals(12L, result.get(0).getStudentCount());
+        assertEquals(3, result.get(0).getCourseCount());
+        verify(learningDailyRollupRepository, never()).findInstitutionStatistics();
+    }
+
+    @Test
+    @DisplayName("获取机构学习统计排行 - 数据库排序不支持时间窗口")
+    void testGetInstitutionRanking_WindowNotSupported() {
+        BusinessException exception = assertThrows(BusinessException.class,
+                () -> statisticsService.getInstitutionRanking("studentCount", "day", 2));
+        assertEquals(400, exception.getCode());
+
+        assertThrows(BusinessException.class,
+                () -> statisticsService.getInstitutionRanking("totalDuration", "month", 2));
+    }
+
     @Test
     @DisplayName("获取机构学习统计概览")
     void testGetInstitutionLearningStatistics() {
@@ -506,82 +562,51 @@ public class AdminLearningStatisticsServiceTest {
     @Test
     @DisplayName("获取课程学习统计排行")
     void testGetCourseRanking() {
-        // 模拟课程数据
-        Course course1 = new Course();
-        course1.setId(1L);
-        course1.setTitle("课程1");
-        course1.setInstitutionId(1L);
-
-        Course course2 = new Course();
-        course2.setId(2L);
-        course2.setTitle("课程2");
-        course2.setInstitutionId(1L);
-
-        Course course3 = new Course();
-        course3.setId(3L);
-        course3.setTitle("课程3");
-        course3.setInstitutionId(2L);
-
-        List<Course> allCourses = Arrays.asList(course1, course2, course3);
-        List<Course> institution1Courses = Arrays.asList(course1, course2);
-
-        // 模拟分页结果
-        Page<Course> allCoursesPage = new org.springframework.data.domain.PageImpl<>(allCourses);
-        Page<Course> institution1CoursesPage = new org.springframework.data.domain.PageImpl<>(institution1Courses);
-
-        // 模拟findByStatusAndIsPublishedVersion方法
-        when(courseRepository.findByStatusAndIsPublishedVersion(eq(4), eq(true), any(Pageable.class)))
-            .thenReturn(allCoursesPage);
-
-        // 模拟findByInstitutionIdAndStatusAndIsPublishedVersion方法
-        when(courseRepository.findByInstitutionIdAndStatusAndIsPublishedVersion(eq(1L), eq(4), eq(true), any(Pageable.class)))
-            .thenReturn(institution1CoursesPage);
-
-        // 模拟学习时长数据
-        when(learningRecordRepository.findTotalLearningDurationByCourse(1L)).thenReturn(5000L);
-        when(learningRecordRepository.findTotalLearningDurationByCourse(2L)).thenReturn(3000L);
-        when(learningRecordRepository.findTotalLearningDurationByCourse(3L)).thenReturn(8000L);
-
-        // 模拟学习活动数据
-        when(learningRecordRepository.findByCourseIdAndTimeRange(eq(1L), any(), any()))
-                .thenReturn(Arrays.asList(new LearningRecord(), new LearningRecord())); // 2个活动
-        when(learningRecordRepository.findByCourseIdAndTimeRange(eq(2L), any(), any()))
-                .thenReturn(Arrays.asList(new LearningRecord(), new LearningRecord(), new LearningRecord())); // 3个活动
-        when(learningRecordRepository.findByCourseIdAndTimeRange(eq(3L), any(), any()))
-                .thenReturn(Collections.singletonList(new LearningRecord())); // 1个活动
-
-        // 模拟学习人数数据
-        when(userCourseRepository.countLearnersByCourseId(1L)).thenReturn(Collections.singletonList(new Object[]{50L}));
-        when(userCourseRepository.countLearnersByCourseId(2L)).thenReturn(Collections.singletonList(new Object[]{30L}));
-        when(userCourseRepository.countLearnersByCourseId(3L)).thenReturn(Collections.singletonList(new Object[]{20L}));
-
-        // 模拟完成人数数据
-        when(userCourseRepository.countByProgress(1L, 100)).thenReturn(10L);
-        when(userCourseRepository.countByProgress(2L, 100)).thenReturn(5L);
-        when(userCourseRepository.countByProgress(3L, 100)).thenReturn(15L);
-
-        // 模拟平均进度数据
-        when(userCourseRepository.getAverageProgressByCourseId(1L)).thenReturn(70.0);
-        when(userCourseRepository.getAverageProgressByCourseId(2L)).thenReturn(50.0);
-        when(userCourseRepository.getAverageProgressByCourseId(3L)).thenReturn(80.0);
+        when(courseStatisticsJdbcRepository.findCourseStatistics(any(), eq(true), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(courseStatistics()));
 
         // 测试所有课程按学习时长排序
         List<InstitutionLearningStatisticsVO.CourseStatisticsVO> result1 =
-                statisticsService.getCourseRanking("totalDuration", null, 2);
+                statisticsService.getCourseRanking("totalDuration", null, "all", 2);
 
         assertNotNull(result1);
         assertEquals(2, result1.size());
-        assertEquals(3L, result1.get(0).getCourseId()); // 课程3学习时长最长
-        assertEquals(1L, result1.get(1).getCourseId()); // 课程1学习时长第二
+        verify(courseStatisticsJdbcRepository).findCourseStatistics(null, true,
+                PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "totalDuration")));
 
         // 测试指定机构课程按学习人数排序
-        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> result2 =
-                statisticsService.getCourseRanking("learnerCount", 1L, 2);
+        statisticsService.getCourseRanking("learnerCount", 1L, "all", 2);
+        verify(courseStatisticsJdbcRepository).findCourseStatistics(1L, true,
+                PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "learnerCount")));
+
+        // favoriteCount使用完成人数代替
+        statisticsService.getCourseRanking("favoriteCount", 1L, "all", 2);
+        verify(courseStatisticsJdbcRepository).findCourseStatistics(1L, true,
+                PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "completionCount")));
+    }
 
-        assertNotNull(result2);
-        assertEquals(2, result2.size());
-        assertEquals(1L, result2.get(0).getCourseId()); // 课程1学习人数最多
-        assertEquals(2L, result2.get(1).getCourseId()); // 课程2学习人数第二
+    @Test
+    @DisplayName("获取课程学习统计排行 - 读取排行榜并过滤未发布课程")
+    void testGetCourseRanking_FromLeaderboard() {
+        when(learningLeaderboardService.top(LearningLeaderboardService.Board.INSTITUTION_COURSES, 1L,
+                LearningLeaderboardService.Metric.ACTIVITIES, LearningLeaderboardService.Window.DAY, 4))
+                .thenReturn(Optional.of(List.of(
+                        new LearningLeaderboardService.RankEntry(3L, 100L, 9L),
+                        new LearningLeaderboardService.RankEntry(1L, 600L, 7L),
+                        new LearningLeaderboardService.RankEntry(2L, 300L, 5L))));
+        // 课程3未发布，不在统计结果中
+        when(courseStatisticsJdbcRepository.findCourseStatisticsByIds(List.of(3L, 1L, 2L), true))
+                .thenReturn(courseStatistics());
+
+        List<InstitutionLearningStatisticsVO.CourseStatisticsVO> result =
+                statisticsService.getCourseRanking("activityCount", 1L, "day", 2);
+
+        assertEquals(2, result.size());
+        assertEquals(1L, result.get(0).getCourseId());
+        assertEquals(600L, result.get(0).getTotalDuration());
+        assertEquals(7, result.get(0).getActivityCount());
+        assertEquals(2L, result.get(1).getCourseId());
+        verify(courseStatisticsJdbcRepository, never()).findCourseStatistics(any(), anyBoolean(), any(Pageable.class));
     }
 
     @Test
@@ -700,4 +725,14 @@ public class AdminLearningStatisticsServiceTest {
         assertEquals(50.0, trend.get(2).getAverageProgress());
         assertEquals(3, trend.get(2).getActiveUserCount());
     }
+
+    private List<InstitutionLearningStatisticsVO.CourseStatisticsVO> courseStatistics() {
+        return Arrays.asList(
+                InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
+                        .courseId(1L).courseTitle("测试课程1").totalDuration(3600L).activityCount(1)
+                        .learnerCount(20L).completionCount(10L).averageProgress(75.0).build(),
+                InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
+                        .courseId(2L).courseTitle("测试课程2").totalDuration(3600L).activityCount(1)
+                        .learnerCount(15L).completionCount(5L).averageProgress(60.0).build());
+    }
 }
@@ -23,6 +23,9 @@ import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.service.MinioService;
 import com.zhangziqi.online_course_mine.service.OrderService;
 import com.zhangziqi.online_course_mine.service.ReviewRecordService;
+import com.zhangziqi.online_course_mine.service.impl.CourseCounterService;
+import com.zhangziqi.online_course_mine.service.impl.CourseSectionIndexCache;
+import com.zhangziqi.online_course_mine.service.impl.OrderStatusCounter;
 import com.zhangziqi.online_course_mine.service.impl.CourseServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -91,6 +94,15 @@ public class CourseServiceTest {
     @Mock
     private UserCourseRepository userCourseRepository;
 
+    @Mock
+    private CourseSectionIndexCache courseSectionIndexCache;
+
+    @Mock
+    private OrderStatusCounter orderStatusCounter;
+
+    @Mock
+    private CourseCounterService courseCounterService;
+
     @InjectMocks
     private CourseServiceImpl courseService;
 
@@ -968,6 +980,9 @@ public class CourseServiceTest {
         assertEquals(10, capturedPublishedVersion.getRatingCount(), "评分数量应保持不变");
         assertEquals(100, capturedPublishedVersion.getStudentCount(), "学生数量应保持不变");
 
+        // 验证重建发布版本的小节索引
+        verify(courseSectionIndexCache).rebuild(publishedVersion.getId());
+
         // 验证发布版本状态和评论
         assertEquals(CourseStatus.PUBLISHED.getValue(), capturedPublishedVersion.getStatus());
         assertEquals(CourseVersion.PUBLISHED.getValue(), capturedPublishedVersion.getVersionType());
@@ -1450,44 +1465,34 @@ public class CourseServiceTest {
     @DisplayName("增加学生数量 - 成功")
     void incrementStudentCount_Success() {
         // 准备测试数据
-        testCourse.setStudentCount(10);
         testCourse.setIsPublishedVersion(true);
 
         when(courseRepository.findById(anyLong())).thenReturn(Optional.of(testCourse));
-        when(courseRepository.save(any(Course.class))).thenReturn(testCourse);
 
         // 执行方法
         courseService.incrementStudentCount(testCourse.getId());
 
-        // 验证结果
-        assertEquals(11, testCourse.getStudentCount());
-
-        // 验证方法调用
+        // 验证方法调用：增量写入计数分片，不保存课程实体
         verify(courseRepository).findById(testCourse.getId());
-        verify(courseRepository).save(any(Course.class));
+        verify(courseCounterService).addStudents(testCourse.getId(), 1);
+        verify(courseRepository, never()).save(any(Course.class));
     }
 
     @Test
     @DisplayName("更新课程评分 - 成功")
     void updateCourseRating_Success() {
         // 准备测试数据
-        testCourse.setAverageRating(4.0f);
-        testCourse.setRatingCount(5);
         testCourse.setIsPublishedVersion(true);
         Integer newRating = 5;
 
         when(courseRepository.findById(anyLong())).thenReturn(Optional.of(testCourse));
-        when(courseRepository.save(any(Course.class))).thenReturn(testCourse);
 
         // 执行方法
         courseService.updateCourseRating(testCourse.getId(), newRating);
 
-        // 验证结果
-        assertEquals(6, testCourse.getRatingCount());
-        assertEquals(4.17f, testCourse.getAverageRating(), 0.01f);
-
-        // 验证方法调用
+        // 验证方法调用：增量写入计数分片，不保存课程实体
         verify(courseRepository).findById(testCourse.getId());
-        verify(courseRepository).save(any(Course.class));
+        verify(courseCounterService).addRating(testCourse.getId(), newRating);
+        verify(courseRepository, never()).save(any(Course.class));
     }
-}
\ No newline at end of file
+}
@@ -14,29 +14,42 @@ import com.zhangziqi.online_course_mine.model.vo.InstitutionLearningStatisticsVO
 import com.zhangziqi.online_course_mine.model.vo.LearningHeatmapVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningProgressTrendVO;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.CourseStatisticsJdbcRepository;
 import com.zhangziqi.online_course_mine.repository.InstitutionRepository;
+import com.zhangziqi.online_course_mine.repository.LearningDailyRollupRepository;
 import com.zhangziqi.online_course_mine.repository.LearningRecordRepository;
 import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
+import com.zhangziqi.online_course_mine.repository.UserRepository;
+import com.zhangziqi.online_course_mine.service.impl.DashboardComposer;
 import com.zhangziqi.online_course_mine.service.impl.InstitutionLearningStatisticsServiceImpl;
+import com.zhangziqi.online_course_mine.service.impl.LearnerSketchService;
+import com.zhangziqi.online_course_mine.service.impl.LearningHeatmapService;
+import com.zhangziqi.online_course_mine.service.impl.LearningLeaderboardService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.temporal.TemporalAdjusters;
+import java.time.temporal.WeekFields;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
@@ -56,9 +69,30 @@ public class InstitutionLearningStatisticsServiceTest {
     @Mock
     private LearningRecordRepository learningRecordRepository;
 
+    @Mock
+    private LearningDailyRollupRepository learningDailyRollupRepository;
+
     @Mock
     private UserCourseRepository userCourseRepository;
 
+    @Mock
+    private CourseStatisticsJdbcRepository courseStatisticsJdbcRepository;
+
+    @Mock
+    private LearnerSketchService learnerSketchService;
+
+    @Mock
+    private LearningLeaderboardService learningLeaderboardService;
+
+    @Mock
+    private LearningHeatmapService learningHeatmapService;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Spy
+    private DashboardComposer dashboardComposer = new DashboardComposer(Runnable::run, mock(PlatformTransactionManager.class));
+
     @InjectMocks
     private InstitutionLearningStatisticsServiceImpl statisticsService;
 
@@ -142,60 +176,48 @@ public class InstitutionLearningStatisticsServiceTest {
     void testGetInstitutionLearningStatistics() {
         // 设置模拟行为
         when(institutionRepository.findById(1L)).thenReturn(Optional.of(institution));
-        when(learningRecordRepository.countUniqueUsersByInstitution(1L)).thenReturn(2L);
-        when(learningRecordRepository.findTotalLearningDurationByInstitution(1L)).thenReturn(7200L);
-        when(learningRecordRepository.findTodayLearningDurationByInstitution(1L)).thenReturn(3600L);
-
-        LocalDateTime weekStart = LocalDate.now().atStartOfDay();
-        LocalDateTime weekEnd = LocalDate.now().atTime(LocalTime.MAX);
-        when(learningRecordRepository.findByInstitutionIdAndTimeRange(eq(1L), any(LocalDateTime.class), any(LocalDateTime.class)))
-                .thenReturn(Arrays.asList(record1, record2));
-
-        when(learningRecordRepository.findLearningStatsByCourseForInstitution(1L))
+        when(learningDailyRollupRepository.countUniqueUsersByInstitution(1L)).thenReturn(2L);
+        when(learningDailyRollupRepository.findTotalLearningDurationByInstitution(1L)).thenReturn(7200L);
+        when(learningDailyRollupRepository.findTodayLearningDurationByInstitution(1L)).thenReturn(3600L);
+
+        // 分区并行查询，按开始日期区分本周和本月
+        LocalDate today = LocalDate.now();
+        LocalDate firstDayOfWeek = today.with(WeekFields.of(Locale.getDefault()).dayOfWeek(), 1);
+        LocalDate firstDayOfMonth = today.with(TemporalAdjusters.firstDayOfMonth());
+        when(learningDailyRollupRepository.findLearningDurationByInstitutionAndDateRange(
+                eq(1L), any(LocalDate.class), any(LocalDate.class)))
+                .thenAnswer(invocation -> invocation.getArgument(1).equals(firstDayOfWeek) ? 3600L : 7200L);
+        when(learningDailyRollupRepository.countActivitiesByInstitutionAndTypeAndDateRange(
+                eq(1L), eq(LearningActivityType.QUIZ_ATTEMPT.getCode()), any(LocalDate.class), any(LocalDate.class)))
+                .thenReturn(1L);
+
+        when(learningDailyRollupRepository.findLearningStatsByCourseForInstitution(1L))
                 .thenReturn(Arrays.asList(
                         new Object[]{1L, "测试课程1", 3600L, 1},
                         new Object[]{2L, "测试课程2", 3600L, 1}
                 ));
 
         // 为概览测试添加课程统计相关的mock
-        when(courseRepository.findByInstitution(any(Institution.class), any(Pageable.class)))
-                .thenReturn(new PageImpl<>(Arrays.asList(course1, course2)));
-
-        Object[] learnerCount1 = new Object[]{20L};
-        when(userCourseRepository.countLearnersByCourseId(1L))
-                .thenReturn(Collections.singletonList(learnerCount1));
-
-        Object[] learnerCount2 = new Object[]{15L};
-        when(userCourseRepository.countLearnersByCourseId(2L))
-                .thenReturn(Collections.singletonList(learnerCount2));
-
-        when(userCourseRepository.countByProgress(1L, 100))
-                .thenReturn(10L);
-        when(userCourseRepository.countByProgress(2L, 100))
-                .thenReturn(5L);
-
-        when(userCourseRepository.getAverageProgressByCourseId(1L))
-                .thenReturn(75.0);
-        when(userCourseRepository.getAverageProgressByCourseId(2L))
-                .thenReturn(60.0);
+        when(courseStatisticsJdbcRepository.findCourseStatistics(eq(1L), eq(false), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(courseStatistics()));
 
         // 为getMostActiveUsers添加mock
-        when(learningRecordRepository.findMostActiveUsersByInstitution(eq(1L), any(Pageable.class)))
+        when(learningDailyRollupRepository.findMostActiveUsersByInstitution(eq(1L), any(Pageable.class)))
                 .thenReturn(Arrays.asList(
                         new Object[]{1L, "user1", 5400L, 15},
                         new Object[]{2L, "user2", 3600L, 10}
                 ));
 
         // 为getDailyLearningStats添加mock
-        when(learningRecordRepository.findDailyLearningStatsByInstitutionId(
-                eq(1L), any(LocalDateTime.class), any(LocalDateTime.class)))
+        when(learningDailyRollupRepository.findDailyLearningStatsByInstitutionId(
+                eq(1L), any(LocalDate.class), any(LocalDate.class)))
                 .thenReturn(Arrays.asList(
                         new Object[]{"2023-06-01", 3600L, 2},
                         new Object[]{"2023-06-02", 7200L, 3}
                 ));
 
         // 为getActivityTypeStats添加mock
-        when(learningRecordRepository.findLearningStatsByActivityTypeForInstitution(1L))
+        when(learningDailyRollupRepository.findLearningStatsByActivityTypeForInstitution(1L))
                 .thenReturn(Arrays.asList(
                         new Object[]{LearningActivityType.VIDEO_WATCH.getCode(), 3600L, 2},
                         new Object[]{LearningActivityType.QUIZ_ATTEMPT.getCode(), 1800L, 5}
@@ -211,7 +233,32 @@ public class InstitutionLearningStatisticsServiceTest {
         assertEquals(2L, result.getTotalLearners());
         assertEquals(7200L, result.getTotalLearningDuration());
         assertEquals(3600L, result.getTodayLearningDuration());
+        assertEquals(3600L, result.getWeekLearningDuration());
+        assertEquals(firstDayOfWeek.equals(firstDayOfMonth) ? 3600L : 7200L, result.getMonthLearningDuration());
+        assertEquals(1, result.getTotalQuestionAttempts());
         assertEquals(2, result.getTotalActiveCourses());
+        assertEquals(2, result.getMostActiveUsers().size());
+        assertEquals(2, result.getActivityTypeStats().size());
+        assertTrue(result.getUnavailableSections().isEmpty());
+    }
+
+    @Test
+    @DisplayName("获取机构学习统计概览 - 分区查询失败时返回部分数据")
+    void testGetInstitutionLearningStatistics_PartialData() {
+        when(institutionRepository.findById(1L)).thenReturn(Optional.of(institution));
+        when(learningDailyRollupRepository.countUniqueUsersByInstitution(1L)).thenReturn(2L);
+        when(learningDailyRollupRepository.findTotalLearningDurationByInstitution(1L))
+                .thenThrow(new RuntimeException("query timeout"));
+        when(learningDailyRollupRepository.findLearningStatsByCourseForInstitution(1L)).thenReturn(new ArrayList<>());
+        when(courseStatisticsJdbcRepository.findCourseStatistics(eq(1L), eq(false), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(courseStatistics()));
+
+        InstitutionLearningStatisticsVO result = statisticsService.getInstitutionLearningStatistics(1L);
+
+        assertEquals(2L, result.getTotalLearners());
+        assertEquals(0L, result.getTotalLearningDuration());
+        assertEquals(2, result.getCourseStatistics().size());
+        assertEquals(List.of("totalLearningDuration"), result.getUnavailableSections());
     }
 
     @Test
@@ -219,32 +266,22 @@ public class InstitutionLearningStatisticsServiceTest {
     void testGetInstitutionLearningStatisticsCache() {
         // 设置模拟行为
         when(institutionRepository.findById(1L)).thenReturn(Optional.of(institution));
-        when(learningRecordRepository.countUniqueUsersByInstitution(1L)).thenReturn(2L);
-        when(learningRecordRepository.findTotalLearningDurationByInstitution(1L)).thenReturn(7200L);
-        when(learningRecordRepository.findTodayLearningDurationByInstitution(1L)).thenReturn(3600L);
+        when(learningDailyRollupRepository.countUniqueUsersByInstitution(1L)).thenReturn(2L);
+        when(learningDailyRollupRepository.findTotalLearningDurationByInstitution(1L)).thenReturn(7200L);
+        when(learningDailyRollupRepository.findTodayLearningDurationByInstitution(1L)).thenReturn(3600L);
 
-        when(learningRecordRepository.findByInstitutionIdAndTimeRange(eq(1L), any(LocalDateTime.class), any(LocalDateTime.class)))
-                .thenReturn(Arrays.asList(record1, record2));
+        when(learningDailyRollupRepository.findLearningDurationByInstitutionAndDateRange(
+                eq(1L), any(LocalDate.class), any(LocalDate.class)))
+                .thenReturn(3600L);
 
-        when(learningRecordRepository.findLearningStatsByCourseForInstitution(1L))
+        when(learningDailyRollupRepository.findLearningStatsByCourseForInstitution(1L))
                 .thenReturn(Arrays.asList(
                         new Object[]{1L, "测试课程1", 3600L, 1},
                         new Object[]{2L, "测试课程2", 3600L, 1}
                 ));
 
-        when(courseRepository.findByInstitution(any(Institution.class), any(Pageable.class)))
-                .thenReturn(new PageImpl<>(Arrays.asList(course1, course2)));
-
-        Object[] learnerCount1 = new Object[]{20L};
-        when(userCourseRepository.countLearnersByCourseId(1L))
-                .thenReturn(Collections.singletonList(learnerCount1));
-
-        Object[] learnerCount2 = new Object[]{15L};
-        when(userCourseRepository.countLearnersByCourseId(2L))
-                .thenReturn(Collections.singletonList(learnerCount2));
-
-        when(userCourseRepository.countByProgress(anyLong(), anyInt())).thenReturn(10L);
-        when(userCourseRepository.getAverageProgressByCourseId(anyLong())).thenReturn(75.0);
+        when(courseStatisticsJdbcRepository.findCourseStatistics(eq(1L), eq(false), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(courseStatistics()));
 
         // 由于不再使用缓存模拟，只能通过验证方法调用次数来测试缓存逻辑
         // 注意：这个测试无法完全模拟缓存行为，但可以验证基本功能
@@ -276,8 +313,8 @@ public class InstitutionLearningStatisticsServiceTest {
                 new Object[]{"2023-06-02", 7200L, 3}
         );
 
-        when(learningRecordRepository.findDailyLearningStatsByInstitutionId(
-                eq(1L), any(LocalDateTime.class), any(LocalDateTime.class)))
+        when(learningDailyRollupRepository.findDailyLearningStatsByInstitutionId(
+                eq(1L), any(LocalDate.class), any(LocalDate.class)))
                 .thenReturn(mockResults);
 
         // 执行方法
@@ -303,8 +340,8 @@ public class InstitutionLearningStatisticsServiceTest {
                 new Object[]{"2023-06-02", 7200L, 3}
         );
 
-        when(learningRecordRepository.findDailyLearningStatsByInstitutionId(
-                eq(1L), any(LocalDateTime.class), any(LocalDateTime.class)))
+        when(learningDailyRollupRepository.findDailyLearningStatsByInstitutionId(
+                eq(1L), any(LocalDate.class), any(LocalDate.class)))
                 .thenReturn(mockResults);
 
         // 执行方法两次
@@ -316,8 +353,8 @@ public class InstitutionLearningStatisticsServiceTest {
         assertNotNull(result2);
 
         // 验证方法调用 - 由于缓存在测试环境不会生效，所以会调用两次
-        verify(learningRecordRepository, times(2)).findDailyLearningStatsByInstitutionId(
-                eq(1L), any(LocalDateTime.class), any(LocalDateTime.class));
+        verify(learningDailyRollupRepository, times(2)).findDailyLearningStatsByInstitutionId(
+                eq(1L), any(LocalDate.class), any(LocalDate.class));
     }
 
     @Test
@@ -329,7 +366,7 @@ public class InstitutionLearningStatisticsServiceTest {
                 new Object[]{LearningActivityType.QUIZ_ATTEMPT.getCode(), 1800L, 5}
         );
 
-        when(learningRecordRepository.findLearningStatsByActivityTypeForInstitution(1L))
+        when(learningDailyRollupRepository.findLearningStatsByActivityTypeForInstitution(1L))
                 .thenReturn(mockResults);
 
         // 执行方法
@@ -353,7 +390,7 @@ public class InstitutionLearningStatisticsServiceTest {
                 new Object[]{LearningActivityType.QUIZ_ATTEMPT.getCode(), 1800L, 5}
         );
 
-        when(learningRecordRepository.findLearningStatsByActivityTypeForInstitution(1L))
+        when(learningDailyRollupRepository.findLearningStatsByActivityTypeForInstitution(1L))
                 .thenReturn(mockResults);
 
         // 执行方法两次
@@ -365,45 +402,15 @@ public class InstitutionLearningStatisticsServiceTest {
         assertNotNull(result2);
 
         // 验证方法调用 - 由于缓存在测试环境不会生效，所以会调用两次
-        verify(learningRecordRepository, times(2)).findLearningStatsByActivityTypeForInstitution(1L);
+        verify(learningDailyRollupRepository, times(2)).findLearningStatsByActivityTypeForInstitution(1L);
     }
 
     @Test
     @DisplayName("获取机构课程学习统计")
     void testGetInstitutionCourseStatistics() {
-        // 模拟查询结果 - 确保返回非null的Page对象
-        List<Course> courses = Arrays.asList(course1, course2);
-        Page<Course> coursePage = new PageImpl<>(courses);
-        when(courseRepository.findByInstitution(any(Institution.class), any(Pageable.class)))
-                .thenReturn(coursePage);
-
-        when(learningRecordRepository.findLearningStatsByCourseForInstitution(1L))
-                .thenReturn(Arrays.asList(
-                        new Object[]{1L, "测试课程1", 3600L, 10},
-                        new Object[]{2L, "测试课程2", 1800L, 5}
-                ));
-
-        // 设置正确的返回结构：第0个元素是数字类型
-        Object[] learnerCount1 = new Object[]{20L};
-        Object[] learnerCount2 = new Object[]{15L};
-
-        when(userCourseRepository.countLearnersByCourseId(1L))
-                .thenReturn(Collections.singletonList(learnerCount1));
-
-        when(userCourseRepository.countLearnersByCourseId(2L))
-                .thenReturn(Collections.singletonList(learnerCount2));
-
-        when(userCourseRepository.countByProgress(1L, 100))
-                .thenReturn(10L);
-
-        when(userCourseRepository.countByProgress(2L, 100))
-                .thenReturn(5L);
-
-        when(userCourseRepository.getAverageProgressByCourseId(1L))
-                .thenReturn(75.0);
-
-        when(userCourseRepository.getAverageProgressByCourseId(2L))
-                .thenReturn(60.0);
+        // 模拟查询结果
+        when(courseStatisticsJdbcRepository.findCourseStatistics(eq(1L), eq(false), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(courseStatistics()));
 
         // 执行方法
         Pageable pageable = PageRequest.of(0, 10);
@@ -420,46 +427,27 @@ public class InstitutionLearningStatisticsServiceTest {
         assertEquals(20L, result.getContent().get(0).getLearnerCount());
         assertEquals(10L, result.getContent().get(0).getCompletionCount());
         assertEquals(75.0, result.getContent().get(0).getAverageProgress());
+
+        // 未指定排序时按总学习时长降序，不再逐个课程查询
+        ArgumentCaptor<Pageable> pageableCaptor = ArgumentCaptor.forClass(Pageable.class);
+        verify(courseStatisticsJdbcRepository).findCourseStatistics(eq(1L), eq(false), pageableCaptor.capture());
+        assertEquals(Sort.by(Sort.Direction.DESC, "totalDuration"), pageableCaptor.getValue().getSort());
+        verify(userCourseRepository, never()).countLearnersByCourseId(anyLong());
     }
 
     @Test
-    @DisplayName("获取机构课程学习统计 - 测试方法逻辑")
-    void testGetInstitutionCourseStatisticsLogic() {
-        // 模拟查询结果
-        Pageable pageable = PageRequest.of(0, 10);
-        List<Course> courses = Arrays.asList(course1, course2);
-        Page<Course> coursePage = new PageImpl<>(courses);
-
-        when(courseRepository.findByInstitution(any(Institution.class), any(Pageable.class)))
-                .thenReturn(coursePage);
+    @DisplayName("获取机构课程学习统计 - 指定排序字段")
+    void testGetInstitutionCourseStatisticsWithSort() {
+        Pageable pageable = PageRequest.of(1, 5, Sort.by("learnerCount").ascending());
+        when(courseStatisticsJdbcRepository.findCourseStatistics(1L, false, pageable))
+                .thenReturn(new PageImpl<>(courseStatistics(), pageable, 7));
 
-        when(learningRecordRepository.findLearningStatsByCourseForInstitution(1L))
-                .thenReturn(Arrays.asList(
-                        new Object[]{1L, "测试课程1", 3600L, 10},
-                        new Object[]{2L, "测试课程2", 1800L, 5}
-                ));
-
-        // 设置正确的返回结构
-        Object[] learnerCount = new Object[]{20L};
-        when(userCourseRepository.countLearnersByCourseId(anyLong()))
-                .thenReturn(Collections.singletonList(learnerCount));
-
-        when(userCourseRepository.countByProgress(anyLong(), anyInt())).thenReturn(10L);
-        when(userCourseRepository.getAverageProgressByCourseId(anyLong())).thenReturn(75.0);
-
-        // 执行方法两次
-        Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> result1 =
-                statisticsService.getInstitutionCourseStatistics(1L, pageable);
-        Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> result2 =
+        Page<InstitutionLearningStatisticsVO.CourseStatisticsVO> result =
                 statisticsService.getInstitutionCourseStatistics(1L, pageable);
 
-        // 验证结果
-        assertNotNull(result1);
-        assertNotNull(result2);
-
-        // 验证方法调用 - 由于缓存在测试环境不会生效，所以会调用两次
-        verify(courseRepository, times(2)).findByInstitution(any(Institution.class), any(Pageable.class));
-        verify(learningRecordRepository, times(2)).findLearningStatsByCourseForInstitution(1L);
+        // 指定的排序和分页原样传给数据库
+        assertEquals(7, result.getTotalElements());
+        verify(courseStatisticsJdbcRepository).findCourseStatistics(1L, false, pageable);
     }
 
     @Test
@@ -471,7 +459,7 @@ public class InstitutionLearningStatisticsServiceTest {
                 new Object[]{2L, "user2", 3600L, 10}
         );
 
-        when(learningRecordRepository.findMostActiveUsersByInstitution(eq(1L), any(Pageable.class)))
+        when(learningDailyRollupRepository.findMostActiveUsersByInstitution(eq(1L), any(Pageable.class)))
                 .thenReturn(mockResults);
 
         // 执行方法
@@ -486,6 +474,28 @@ public class InstitutionLearningStatisticsServiceTest {
         assertEquals(15, result.get(0).getActivityCount());
     }
 
+    @Test
+    @DisplayName("获取机构最活跃用户 - 读取排行榜")
+    void testGetMostActiveUsers_FromLeaderboard() {
+        when(learningLeaderboardService.top(LearningLeaderboardService.Board.INSTITUTION_USERS, 1L,
+                LearningLeaderboardService.Metric.DURATION, LearningLeaderboardService.Window.ALL, 10))
+                .thenReturn(Optional.of(List.of(
+                        new LearningLeaderboardService.RankEntry(2L, 7200L, 20L),
+                        new LearningLeaderboardService.RankEntry(1L, 5400L, 15L))));
+        when(userRepository.findAllById(List.of(2L, 1L)))
+                .thenReturn(List.of(User.builder().id(1L).username("user1").build(),
+                        User.builder().id(2L).username("user2").build()));
+
+        List<InstitutionLearningStatisticsVO.ActiveUserVO> result = statisticsService.getMostActiveUsers(1L, 10);
+
+        assertEquals(2, result.size());
+        assertEquals(2L, result.get(0).getUserId());
+        assertEquals("user2", result.get(0).getUsername());
+        assertEquals(7200L, result.get(0).getLearningDuration());
+        assertEquals(20, result.get(0).getActivityCount());
+        verify(learningDailyRollupRepository, never()).findMostActiveUsersByInstitution(anyLong(), any(Pageable.class));
+    }
+
     @Test
     @DisplayName("获取机构最活跃用户 - 测试方法逻辑")
     void testGetMostActiveUsersLogic() {
@@ -495,7 +505,7 @@ public class InstitutionLearningStatisticsServiceTest {
                 new Object[]{2L, "user2", 3600L, 10}
         );
 
-        when(learningRecordRepository.findMostActiveUsersByInstitution(eq(1L), any(Pageable.class)))
+        when(learningDailyRollupRepository.findMostActiveUsersByInstitution(eq(1L), any(Pageable.class)))
                 .thenReturn(mockResults);
 
         // 执行方法两次
@@ -507,13 +517,13 @@ public class InstitutionLearningStatisticsServiceTest {
         assertNotNull(result2);
 
         // 验证方法调用 - 由于缓存在测试环境不会生效，所以会调用两次
-        verify(learningRecordRepository, times(2)).findMostActiveUsersByInstitution(eq(1L), any(Pageable.class));
+        verify(learningDailyRollupRepository, times(2)).findMostActiveUsersByInstitution(eq(1L), any(Pageable.class));
     }
 
     @Test
     @DisplayName("获取机构今日学习时长")
     void testGetInstitutionTodayLearningDuration() {
-        when(learningRecordRepository.findTodayLearningDurationByInstitution(1L))
+        when(learningDailyRollupRepository.findTodayLearningDurationByInstitution(1L))
                 .thenReturn(3600L);
 
         Long result = statisticsService.getInstitutionTodayLearningDuration(1L);
@@ -524,7 +534,7 @@ public class InstitutionLearningStatisticsServiceTest {
     @Test
     @DisplayName("获取机构今日学习时长 - 测试方法逻辑")
     void testGetInstitutionTodayLearningDurationLogic() {
-        when(learningRecordRepository.findTodayLearningDurationByInstitution(1L))
+        when(learningDailyRollupRepository.findTodayLearningDurationByInstitution(1L))
                 .thenReturn(3600L);
 
         // 执行方法两次
@@ -536,13 +546,13 @@ public class InstitutionLearningStatisticsServiceTest {
         assertEquals(3600L, result2);
 
         // 验证方法调用 - 由于缓存在测试环境不会生效，所以会调用两次
-        verify(learningRecordRepository, times(2)).findTodayLearningDurationByInstitution(1L);
+        verify(learningDailyRollupRepository, times(2)).findTodayLearningDurationByInstitution(1L);
     }
 
     @Test
     @DisplayName("获取机构总学习时长")
     void testGetInstitutionTotalLearningDuration() {
-        when(learningRecordRepository.findTotalLearningDurationByInstitution(1L))
+        when(learningDailyRollupRepository.findTotalLearningDurationByInstitution(1L))
                 .thenReturn(7200L);
 
         Number result = statisticsService.getInstitutionTotalLearningDuration(1L);
@@ -553,7 +563,7 @@ public class InstitutionLearningStatisticsServiceTest {
     @Test
     @DisplayName("获取机构学习人数")
     void testGetInstitutionLearnerCount() {
-        when(learningRecordRepository.countUniqueUsersByInstitution(1L))
+        when(learningDailyRollupRepository.countUniqueUsersByInstitution(1L))
                 .thenReturn(25L);
 
         Number result = statisticsService.getInstitutionLearnerCount(1L);
@@ -561,6 +571,17 @@ public class InstitutionLearningStatisticsServiceTest {
         assertEquals(25L, result.longValue());
     }
 
+    @Test
+    @DisplayName("获取机构学习人数 - 使用HyperLogLog估计值")
+    void testGetInstitutionLearnerCount_FromSketch() {
+        when(learnerSketchService.count(LearnerSketchService.Scope.INSTITUTION, 1L)).thenReturn(Optional.of(30L));
+
+        Number result = statisticsService.getInstitutionLearnerCount(1L);
+
+        assertEquals(30L, result.longValue());
+        verify(learningDailyRollupRepository, never()).countUniqueUsersByInstitution(anyLong());
+    }
+
     @Test
     @DisplayName("获取课程学习热力图数据")
     void testGetCourseLearningHeatmap() {
@@ -755,7 +776,7 @@ public class InstitutionLearningStatisticsServiceTest {
         statsData.add(new Object[]{LearningActivityType.VIDEO_WATCH.getCode(), 1800L, 5});
         statsData.add(new Object[]{LearningActivityType.QUIZ_ATTEMPT.getCode(), 900L, 3});
 
-        when(learningRecordRepository.findLearningStatsByActivityTypeForUserAndCourse(1L, 1L))
+        when(learningDailyRollupRepository.findLearningStatsByActivityTypeForUserAndCourse(1L, 1L))
                 .thenReturn(statsData);
 
         // 执行方法
@@ -834,4 +855,14 @@ public class InstitutionLearningStatisticsServiceTest {
         assertEquals(8, result.getCompletedQuizzes());
         assertEquals(0.75, result.getQuizAccuracy());
     }
-}
\ No newline at end of file
+
+    private List<InstitutionLearningStatisticsVO.CourseStatisticsVO> courseStatistics() {
+        return Arrays.asList(
+                InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
+                        .courseId(1L).courseTitle("测试课程1").totalDuration(3600L).activityCount(10)
+                        .learnerCount(20L).completionCount(10L).averageProgress(75.0).build(),
+                InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
+                        .courseId(2L).courseTitle("测试课程2").totalDuration(1800L).activityCount(5)
+                        .learnerCount(15L).completionCount(5L).averageProgress(60.0).build());
+    }
+}
@@ -1,6 +1,7 @@
 package com.zhangziqi.online_course_mine.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
 import com.zhangziqi.online_course_mine.exception.BusinessException;
 import com.zhangziqi.online_course_mine.exception.ResourceNotFoundException;
 import com.zhangziqi.online_course_mine.model.dto.LearningRecordCompletedDTO;
@@ -10,24 +11,34 @@ import com.zhangziqi.online_course_mine.model.entity.Course;
 import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
 import com.zhangziqi.online_course_mine.model.entity.User;
 import com.zhangziqi.online_course_mine.model.enums.LearningActivityType;
-import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
 import com.zhangziqi.online_course_mine.model.vo.DateLearningHeatmapVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningHeatmapVO;
+import com.zhangziqi.online_course_mine.model.vo.LearningRecordBatchResultVO;
 import com.zhangziqi.online_course_mine.model.vo.LearningRecordVO;
 import com.zhangziqi.online_course_mine.repository.*;
+import com.zhangziqi.online_course_mine.service.impl.CourseEntitlementCache;
+import com.zhangziqi.online_course_mine.service.impl.LearnerSketchService;
+import com.zhangziqi.online_course_mine.service.impl.LearningHeatmapService;
+import com.zhangziqi.online_course_mine.service.impl.LearningRecordAccumulator;
 import com.zhangziqi.online_course_mine.service.impl.LearningRecordServiceImpl;
+import com.zhangziqi.online_course_mine.service.impl.LearningRecordStreamService;
+import com.zhangziqi.online_course_mine.service.impl.LearningSessionService;
+import com.zhangziqi.online_course_mine.service.impl.LearningSessionService.LearningSession;
 import com.zhangziqi.online_course_mine.service.impl.RedisLearningRecordService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -37,6 +48,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -49,7 +61,10 @@ public class LearningRecordServiceTest {
     private LearningRecordRepository learningRecordRepository;
 
     @Mock
-    private UserCourseRepository userCourseRepository;
+    private LearningRecordJdbcRepository learningRecordJdbcRepository;
+
+    @Mock
+    private CourseEntitlementCache courseEntitlementCache;
 
     @Mock
     private UserRepository userRepository;
@@ -69,6 +84,24 @@ public class LearningRecordServiceTest {
     @Mock
     private RedisLearningRecordService redisLearningRecordService;
 
+    @Mock
+    private LearningRecordAccumulator learningRecordAccumulator;
+
+    @Mock
+    private LearningRecordStreamService learningRecordStreamService;
+
+    @Mock
+    private LearningSessionService learningSessionService;
+
+    @Mock
+    private LearnerSketchService learnerSketchService;
+
+    @Mock
+    private LearningHeatmapService learningHeatmapService;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private LearningRecordServiceImpl learningRecordService;
 
@@ -128,7 +161,7 @@ public class LearningRecordServiceTest {
     @DisplayName("启动学习活动 - 用户已购买课程状态正常")
     void testStartActivity_WithValidUserCourse() {
         // 设置模拟行为 - 用户已购买课程且状态为NORMAL
-        when(userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(user.getId(), course.getId(), UserCourseStatus.NORMAL.getValue()))
+        when(courseEntitlementCache.hasEntitlement(user.getId(), course.getId()))
                 .thenReturn(true);
 
         when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
@@ -165,9 +198,9 @@ public class LearningRecordServiceTest {
         assertEquals(LearningActivityType.VIDEO_WATCH.getCode(), result.getActivityType());
 
         // 验证仓库方法调用
-        verify(userCourseRepository).existsByUser_IdAndCourse_IdAndStatus(
-                user.getId(), course.getId(), UserCourseStatus.NORMAL.getValue());
+        verify(courseEntitlementCache).hasEntitlement(user.getId(), course.getId());
         verify(learningRecordRepository).save(any(LearningRecord.class));
+        verify(learnerSketchService).add(eq(user.getId()), eq(course.getId()), any(), any(LocalDate.class));
     }
 
     @Test
@@ -176,7 +209,7 @@ public class LearningRecordServiceTest {
         // 设置模拟行为 - 用户未购买课程或课程状态不为NORMAL
         when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
         when(courseRepository.findById(course.getId())).thenReturn(Optional.of(course));
-        when(userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(user.getId(), course.getId(), UserCourseStatus.NORMAL.getValue()))
+        when(courseEntitlementCache.hasEntitlement(user.getId(), course.getId()))
                 .thenReturn(false);
 
         // 创建DTO
@@ -193,8 +226,7 @@ public class LearningRecordServiceTest {
         assertEquals("请先购买课程再进行学习，或检查课程是否已过期或退款", exception.getMessage());
 
         // 验证仓库方法调用
-        verify(userCourseRepository).existsByUser_IdAndCourse_IdAndStatus(
-                user.getId(), course.getId(), UserCourseStatus.NORMAL.getValue());
+        verify(courseEntitlementCache).hasEntitlement(user.getId(), course.getId());
         verify(learningRecordRepository, never()).save(any(LearningRecord.class));
     }
 
@@ -219,6 +251,8 @@ public class LearningRecordServiceTest {
         // 验证仓库方法调用
         verify(learningRecordRepository).findById(1L);
         verify(learningRecordRepository).save(any(LearningRecord.class));
+        verify(learningRecordJdbcRepository).upsertDailyRollups(List.of(record1));
+        verify(eventPublisher).publishEvent(any(LearningRecordsCommittedEvent.class));
     }
 
     @Test
@@ -357,6 +391,22 @@ public class LearningRecordServiceTest {
                 eq(1L), any(LocalDateTime.class), any(LocalDateTime.class));
     }
 
+    @Test
+    @DisplayName("获取用户学习热力图数据 - 读取Redis计数")
+    void testGetUserLearningHeatmap_FromCounters() {
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        LocalDate startDate = LocalDate.now().minusDays(7);
+        LocalDate endDate = LocalDate.now();
+        when(learningHeatmapService.getHourOfWeek(1L, null, startDate, endDate))
+                .thenReturn(Optional.of(Map.of(2, Map.of(9, 300, 21, 600))));
+
+        LearningHeatmapVO result = learningRecordService.getUserLearningHeatmap(1L, startDate, endDate);
+
+        assertEquals(600, result.getMaxActivityCount());
+        assertEquals(300, result.getHeatmapData().get(2).get(9));
+        verify(learningRecordRepository, never()).findLearningHeatmapDataByUser(any(), any(), any());
+    }
+
     @Test
     @DisplayName("获取用户按日期分组的学习热力图数据")
     void testGetUserLearningHeatmapByDate() {
@@ -405,8 +455,7 @@ public class LearningRecordServiceTest {
         // 设置模拟行为
         when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
         when(courseRepository.findById(course.getId())).thenReturn(Optional.of(course));
-        when(userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(
-                user.getId(), course.getId(), UserCourseStatus.NORMAL.getValue()))
+        when(courseEntitlementCache.hasEntitlement(user.getId(), course.getId()))
                 .thenReturn(true);
 
         // 创建DTO
@@ -442,4 +491,268 @@ public class LearningRecordServiceTest {
         // 验证没有调用数据库保存
         verify(learningRecordRepository, never()).save(any(LearningRecord.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("记录已完成学习活动 - 使用内存累加器")
+    void testRecordCompletedActivity_WithAccumulator() {
+        ReflectionTestUtils.setField(learningRecordService, "accumulatorEnabled", true);
+
+        // 设置模拟行为
+        when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
+        when(courseRepository.findById(course.getId())).thenReturn(Optional.of(course));
+        when(courseEntitlementCache.hasEntitlement(user.getId(), course.getId()))
+                .thenReturn(true);
+
+        // 创建DTO
+        LearningRecordCompletedDTO dto = new LearningRecordCompletedDTO();
+        dto.setCourseId(course.getId());
+        dto.setActivityType(LearningActivityType.VIDEO_WATCH.getCode());
+        dto.setDurationSeconds(15);
+
+        // 执行方法
+        LearningRecordVO result = learningRecordService.recordCompletedActivity(user.getId(), dto);
+
+        // 验证结果
+        assertNotNull(result);
+        assertEquals(15, result.getDurationSeconds());
+
+        // 验证只写入累加器，不直接访问Redis
+        verify(learningRecordAccumulator).add(
+                eq(user.getId()),
+                eq(course.getId()),
+                isNull(),
+                isNull(),
+                eq(LearningActivityType.VIDEO_WATCH.getCode()),
+                eq(15),
+                isNull());
+        verifyNoInteractions(redisLearningRecordService);
+    }
+
+    @Test
+    @DisplayName("记录已完成学习活动 - 追加到学习事件流")
+    void testRecordCompletedActivity_WithStream() {
+        ReflectionTestUtils.setField(learningRecordService, "streamEnabled", true);
+        ReflectionTestUtils.setField(learningRecordService, "accumulatorEnabled", true);
+
+        // 设置模拟行为
+        when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
+        when(courseRepository.findById(course.getId())).thenReturn(Optional.of(course));
+        when(courseEntitlementCache.hasEntitlement(user.getId(), course.getId()))
+                .thenReturn(true);
+
+        // 创建DTO
+        LearningRecordCompletedDTO dto = new LearningRecordCompletedDTO();
+        dto.setCourseId(course.getId());
+        dto.setActivityType(LearningActivityType.VIDEO_WATCH.getCode());
+        dto.setDurationSeconds(30);
+        dto.setContextData("{\"progress\":10}");
+
+        // 执行方法
+        LearningRecordVO result = learningRecordService.recordCompletedActivity(user.getId(), dto);
+
+        // 验证结果
+        assertNotNull(result);
+        assertEquals(30, result.getDurationSeconds());
+
+        // 验证事件流优先于内存累加器和Redis哈希
+        verify(learningRecordStreamService).publish(
+                eq(user.getId()),
+                eq(course.getId()),
+                isNull(),
+                isNull(),
+                eq(LearningActivityType.VIDEO_WATCH.getCode()),
+                eq(30),
+                eq("{\"progress\":10}"));
+        verifyNoInteractions(learningRecordAccumulator);
+        verifyNoInteractions(redisLearningRecordService);
+    }
+
+    @Test
+    @DisplayName("批量记录已完成学习活动 - 每门课程只验证一次并一次写入")
+    @SuppressWarnings("unchecked")
+    void testRecordCompletedActivities() {
+        Course otherCourse = Course.builder()
+                .id(2L)
+                .title("未购买课程")
+                .build();
+
+        // 设置模拟行为
+        when(userRepository.existsById(user.getId())).thenReturn(true);
+        when(courseRepository.findAllById(anySet())).thenReturn(List.of(course, otherCourse));
+        when(courseEntitlementCache.getEntitledCourseIds(user.getId())).thenReturn(Set.of(course.getId()));
+
+        List<LearningRecordCompletedDTO> dtos = List.of(
+                LearningRecordCompletedDTO.builder().courseId(1L)
+                        .activityType(LearningActivityType.VIDEO_WATCH.getCode()).durationSeconds(60).build(),
+                LearningRecordCompletedDTO.builder().courseId(1L)
+                        .activityType(LearningActivityType.VIDEO_WATCH.getCode()).durationSeconds(30).build(),
+                LearningRecordCompletedDTO.builder().courseId(2L)
+                        .activityType(LearningActivityType.VIDEO_WATCH.getCode()).durationSeconds(30).build(),
+                LearningRecordCompletedDTO.builder().courseId(1L)
+                        .activityType("INVALID").durationSeconds(30).build(),
+                LearningRecordCompletedDTO.builder().courseId(1L)
+                        .activityType(LearningActivityType.DOCUMENT_READ.getCode()).durationSeconds(0).build());
+
+        // 执行方法
+        LearningRecordBatchResultVO result = learningRecordService.recordCompletedActivities(user.getId(), dtos);
+
+        // 验证每个条目的结果
+        assertEquals(5, result.getTotalCount());
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(3, result.getFailureCount());
+        assertTrue(result.getItems().get(0).isSuccess());
+        assertEquals("测试课程", result.getItems().get(0).getRecord().getCourseTitle());
+        assertTrue(result.getItems().get(1).isSuccess());
+        assertFalse(result.getItems().get(2).isSuccess());
+        assertEquals("无效的活动类型", result.getItems().get(3).getErrorMessage());
+        assertEquals("持续时间必须大于0", result.getItems().get(4).getErrorMessage());
+
+        // 验证不逐条查询，有效条目一次写入Redis
+        verify(userRepository, never()).findById(any());
+        verify(courseRepository, never()).findById(any());
+        verify(courseEntitlementCache, never()).hasEntitlement(any(), any());
+        ArgumentCaptor<List<RedisLearningRecordService.LearningRecordIncrement>> captor =
+                ArgumentCaptor.forClass(List.class);
+        verify(redisLearningRecordService).batchUpdateLearningRecords(captor.capture());
+        assertEquals(2, captor.getValue().size());
+        verify(redisLearningRecordService, never()).updateLearningRecord(
+                any(), any(), any(), any(), any(), anyInt(), any());
+    }
+
+    @Test
+    @DisplayName("批量记录已完成学习活动 - 条目过多")
+    void testRecordCompletedActivities_TooMany() {
+        List<LearningRecordCompletedDTO> dtos = new ArrayList<>();
+        for (int i = 0; i < 501; i++) {
+            dtos.add(new LearningRecordCompletedDTO());
+        }
+
+        assertThrows(BusinessException.class,
+                () -> learningRecordService.recordCompletedActivities(user.getId(), dtos));
+        verifyNoInteractions(redisLearningRecordService);
+    }
+
+    @Test
+    @DisplayName("开始学习活动 - 会话模式下自动结束之前的会话")
+    @SuppressWarnings("unchecked")
+    void testStartActivity_WithSession() {
+        ReflectionTestUtils.setField(learningRecordService, "sessionEnabled", true);
+
+        // 设置模拟行为
+        when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
+        when(courseRepository.findById(course.getId())).thenReturn(Optional.of(course));
+        when(courseEntitlementCache.hasEntitlement(user.getId(), course.getId()))
+                .thenReturn(true);
+        LearningSession previous = LearningSession.builder()
+                .sessionId(-5L)
+                .userId(user.getId())
+                .courseId(course.getId())
+                .activityType(LearningActivityType.VIDEO_WATCH.getCode())
+                .startTime(LocalDateTime.now().minusMinutes(2))
+                .build();
+        when(learningSessionService.startSession(any(LearningSession.class))).thenAnswer(inv -> {
+            LearningSession session = inv.getArgument(0);
+            session.setSessionId(-6L);
+            return Optional.of(previous);
+        });
+
+        // 创建DTO
+        LearningRecordStartDTO dto = new LearningRecordStartDTO();
+        dto.setCourseId(course.getId());
+        dto.setActivityType(LearningActivityType.DOCUMENT_READ.getCode());
+
+        // 执行方法
+        LearningRecordVO result = learningRecordService.startActivity(user.getId(), dto);
+
+        // 验证返回会话ID
+        assertNotNull(result);
+        assertEquals(-6L, result.getId());
+        assertEquals(course.getTitle(), result.getCourseTitle());
+        assertNull(result.getActivityEndTime());
+
+        // 验证不访问数据库中的进行中记录，之前的会话通过批量写入路径记录
+        verify(learningRecordRepository, never()).findByUser_IdAndActivityEndTimeIsNull(any());
+        verify(learningRecordRepository, never()).save(any(LearningRecord.class));
+        ArgumentCaptor<List<RedisLearningRecordService.LearningRecordIncrement>> captor =
+                ArgumentCaptor.forClass(List.class);
+        verify(redisLearningRecordService).batchUpdateLearningRecords(captor.capture());
+        RedisLearningRecordService.LearningRecordIncrement increment = captor.getValue().get(0);
+        assertEquals(LearningActivityType.VIDEO_WATCH.getCode(), increment.getActivityType());
+        assertTrue(increment.getDurationSeconds() >= 120);
+    }
+
+    @Test
+    @DisplayName("结束学习活动 - 会话模式")
+    void testEndActivity_WithSession() {
+        ReflectionTestUtils.setField(learningRecordService, "sessionEnabled", true);
+        ReflectionTestUtils.setField(learningRecordService, "streamEnabled", true);
+
+        LearningSession session = LearningSession.builder()
+                .sessionId(-6L)
+                .userId(user.getId())
+                .courseId(course.getId())
+                .courseTitle(course.getTitle())
+                .activityType(LearningActivityType.VIDEO_WATCH.getCode())
+                .startTime(LocalDateTime.now().minusSeconds(90))
+                .build();
+        when(learningSessionService.finishSession(user.getId(), -6L)).thenReturn(Optional.of(session));
+
+        LearningRecordEndDTO dto = new LearningRecordEndDTO();
+        dto.setContextData("{\"progress\":100}");
+
+        // 执行方法
+        LearningRecordVO result = learningRecordService.endActivity(user.getId(), -6L, dto);
+
+        // 验证结果
+        assertEquals(-6L, result.getId());
+        assertNotNull(result.getActivityEndTime());
+        assertTrue(result.getDurationSeconds() >= 90);
+        assertEquals("{\"progress\":100}", result.getContextData());
+
+        // 验证写入学习事件流，不访问数据库
+        verify(learningRecordStreamService).publishBatch(anyList());
+        verifyNoInteractions(learningRecordRepository);
+        verifyNoInteractions(learningRecordJdbcRepository);
+    }
+
+    @Test
+    @DisplayName("结束学习活动 - 正数ID按数据库记录处理，不匹配会话")
+    void testEndActivity_RecordIdNotSession() {
+        ReflectionTestUtils.setField(learningRecordService, "sessionEnabled", true);
+        when(learningRecordRepository.findById(6L)).thenReturn(Optional.empty());
+
+        assertThrows(ResourceNotFoundException.class,
+                () -> learningRecordService.endActivity(user.getId(), 6L, new LearningRecordEndDTO()));
+        verifyNoInteractions(learningSessionService);
+    }
+
+    @Test
+    @DisplayName("结束学习活动 - 会话已结束")
+    void testEndActivity_SessionFinished() {
+        when(learningSessionService.finishSession(user.getId(), -6L)).thenReturn(Optional.empty());
+
+        assertThrows(ResourceNotFoundException.class,
+                () -> learningRecordService.endActivity(user.getId(), -6L, new LearningRecordEndDTO()));
+        verifyNoInteractions(learningRecordRepository);
+    }
+
+    @Test
+    @DisplayName("查找进行中的活动 - 会话模式")
+    void testFindOngoingActivity_WithSession() {
+        ReflectionTestUtils.setField(learningRecordService, "sessionEnabled", true);
+
+        when(learningSessionService.getSession(user.getId())).thenReturn(Optional.of(LearningSession.builder()
+                .sessionId(-6L)
+                .userId(user.getId())
+                .courseId(course.getId())
+                .activityType(LearningActivityType.VIDEO_WATCH.getCode())
+                .startTime(LocalDateTime.now())
+                .build()));
+
+        Optional<LearningRecordVO> result = learningRecordService.findOngoingActivity(user.getId());
+
+        assertTrue(result.isPresent());
+        assertEquals(-6L, result.get().getId());
+        verifyNoInteractions(learningRecordRepository);
+    }
+}
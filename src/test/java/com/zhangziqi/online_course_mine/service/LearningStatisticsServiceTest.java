@@ -11,6 +11,7 @@ import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.repository.UserWrongQuestionRepository;
 import com.zhangziqi.online_course_mine.service.impl.LearningStatisticsServiceImpl;
+import com.zhangziqi.online_course_mine.service.impl.LearningStreakService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -45,6 +46,9 @@ public class LearningStatisticsServiceTest {
     @Mock
     private WrongQuestionService wrongQuestionService;
 
+    @Mock
+    private LearningStreakService learningStreakService;
+
     @InjectMocks
     private LearningStatisticsServiceImpl learningStatisticsService;
 
@@ -130,6 +134,29 @@ public class LearningStatisticsServiceTest {
         verify(wrongQuestionService, times(2)).countUserWrongQuestions(1L);
     }
     
+    @Test
+    @DisplayName("获取用户学习统计数据 - 打卡日历和答题计数")
+    void getUserLearningStatistics_FromStreakCalendar() {
+        when(userRepository.existsById(1L)).thenReturn(true);
+        when(userCourseRepository.findByUser_IdAndStatus(eq(1L), eq(UserCourseStatus.NORMAL.getValue())))
+                .thenReturn(Collections.singletonList(testUserCourse));
+        when(learningStreakService.getStreaks(eq(1L), anyInt())).thenReturn(Optional.of(
+                LearningStreakService.Streaks.builder()
+                        .learningDays(12)
+                        .maxConsecutiveDays(5)
+                        .currentConsecutiveDays(3)
+                        .build()));
+        when(learningStreakService.getQuestionCounts(1L)).thenReturn(Optional.of(new long[]{20L, 15L}));
+
+        LearningStatisticsVO result = learningStatisticsService.getUserLearningStatistics(1L);
+
+        assertEquals(12, result.getLearningDays());
+        assertEquals(5, result.getMaxConsecutiveDays());
+        assertEquals(3, result.getCurrentConsecutiveDays());
+        assertEquals(20, result.getTotalQuestions());
+        assertEquals(15, result.getCorrectQuestions());
+    }
+    
     @Test
     @DisplayName("获取用户课程学习统计数据 - 成功")
     void getUserCourseLearningStatistics_Success() {
@@ -7,8 +7,11 @@ import com.zhangziqi.online_course_mine.model.entity.User;
 import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
 import com.zhangziqi.online_course_mine.model.vo.*;
 import com.zhangziqi.online_course_mine.model.vo.AdminCourseIncomeRankingVO;
+import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.InstitutionIncomeLedgerRepository;
 import com.zhangziqi.online_course_mine.repository.OrderRepository;
 import com.zhangziqi.online_course_mine.service.impl.OrderServiceImpl;
+import com.zhangziqi.online_course_mine.service.impl.OrderStatusCounter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,9 +20,12 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -32,6 +38,15 @@ class OrderServiceStatsTest {
     @Mock
     private OrderRepository orderRepository;
 
+    @Mock
+    private InstitutionIncomeLedgerRepository incomeLedgerRepository;
+
+    @Mock
+    private OrderStatusCounter orderStatusCounter;
+
+    @Mock
+    private CourseRepository courseRepository;
+
     @InjectMocks
     private OrderServiceImpl orderService;
 
@@ -129,7 +144,10 @@ class OrderServiceStatsTest {
     @Test
     void testGetInstitutionOrderStatusDistribution() {
         // 设置Mock行为
-        when(orderRepository.findByInstitution_Id(eq(1L))).thenReturn(allOrders);
+        when(orderStatusCounter.getCounts(eq(1L))).thenReturn(Optional.of(Map.of(
+                OrderStatus.PAID.getValue(), 2L,
+                OrderStatus.REFUNDED.getValue(), 1L,
+                OrderStatus.PENDING.getValue(), 1L)));
 
         // 调用被测试方法
         List<OrderStatusDistributionVO> result = orderService.getInstitutionOrderStatusDistribution(1L);
@@ -172,8 +190,10 @@ class OrderServiceStatsTest {
     @Test
     void testGetInstitutionCourseIncomeRanking() {
         // 设置Mock行为
-        when(orderRepository.findByInstitution_IdAndStatusIn(eq(1L), any())).thenReturn(paidOrders);
-        when(orderRepository.findByInstitution_IdAndStatus(eq(1L), eq(OrderStatus.REFUNDED.getValue()))).thenReturn(refundedOrders);
+        when(incomeLedgerRepository.sumCourseIncomeByInstitution(eq(1L))).thenReturn(List.of(
+                new Object[]{1L, new BigDecimal("100.00"), new BigDecimal("100.00"), 1L}, // 100 - 100 = 0
+                new Object[]{2L, new BigDecimal("200.00"), BigDecimal.ZERO, 2L}));
+        when(courseRepository.findAllWithInstitutionByIdIn(any())).thenReturn(List.of(course1, course2));
 
         // 调用被测试方法
         List<CourseIncomeRankingVO> result = orderService.getInstitutionCourseIncomeRanking(1L, 10);
@@ -214,10 +234,12 @@ class OrderServiceStatsTest {
     void testGetInstitutionIncomeTrend() {
         // 设置Mock行为
 
-        when(orderRepository.findByInstitution_IdAndStatusInAndPaidAtBetween(
-                eq(1L), any(), any(), any())).thenReturn(paidOrders);
-        when(orderRepository.findByInstitution_IdAndStatusAndRefundedAtBetween(
-                eq(1L), eq(OrderStatus.REFUNDED.getValue()), any(), any())).thenReturn(refundedOrders);
+        LocalDate today = LocalDate.now();
+        when(incomeLedgerRepository.findDailyIncomeByInstitution(
+                eq(1L), eq(today.minusDays(7)), eq(today.plusDays(1)))).thenReturn(List.of(
+                new Object[]{today.minusDays(5), new BigDecimal("100.00"), BigDecimal.ZERO},
+                new Object[]{today.minusDays(3), new BigDecimal("200.00"), BigDecimal.ZERO},
+                new Object[]{today.minusDays(1), BigDecimal.ZERO, new BigDecimal("100.00")}));
 
         // 调用被测试方法
         List<IncomeTrendVO> result = orderService.getInstitutionIncomeTrend(1L, "7d", "day");
@@ -269,7 +291,11 @@ class OrderServiceStatsTest {
     @Test
     void testGetPlatformOrderStatusDistribution() {
         // 设置Mock行为
-        when(orderRepository.findAll()).thenReturn(allOrders);
+        // 计数器未就绪时回退到按状态分组统计
+        when(orderRepository.countGroupByStatus()).thenReturn(List.of(
+                new Object[]{OrderStatus.PAID.getValue(), 2L},
+                new Object[]{OrderStatus.REFUNDED.getValue(), 1L},
+                new Object[]{OrderStatus.PENDING.getValue(), 1L}));
 
         // 调用被测试方法
         List<OrderStatusDistributionVO> result = orderService.getPlatformOrderStatusDistribution();
@@ -302,8 +328,10 @@ class OrderServiceStatsTest {
     @Test
     void testGetPlatformCourseIncomeRanking() {
         // 设置Mock行为
-        when(orderRepository.findByStatusIn(any())).thenReturn(paidOrders);
-        when(orderRepository.findByStatus(eq(OrderStatus.REFUNDED.getValue()))).thenReturn(refundedOrders);
+        when(incomeLedgerRepository.sumCourseIncome()).thenReturn(List.of(
+                new Object[]{1L, new BigDecimal("100.00"), new BigDecimal("100.00"), 1L}, // 100 - 100 = 0
+                new Object[]{2L, new BigDecimal("200.00"), BigDecimal.ZERO, 2L}));
+        when(courseRepository.findAllWithInstitutionByIdIn(any())).thenReturn(List.of(course1, course2));
 
         // 调用被测试方法
         List<AdminCourseIncomeRankingVO> result = orderService.getPlatformCourseIncomeRanking(10);
@@ -323,4 +351,43 @@ class OrderServiceStatsTest {
         assertEquals(institution.getId(), result.get(1).getInstitutionId());
         assertEquals(institution.getName(), result.get(1).getInstitutionName());
     }
+
+    @Test
+    void testGetPlatformCourseIncomeRankingTopK() {
+        // 设置Mock行为：5门课程只取前2名，收入相同时课程ID小的在前
+        when(incomeLedgerRepository.sumCourseIncome()).thenReturn(List.of(
+                new Object[]{1L, new BigDecimal("50.00"), BigDecimal.ZERO, 1L},
+                new Object[]{2L, new BigDecimal("300.00"), BigDecimal.ZERO, 1L},
+                new Object[]{3L, new BigDecimal("10.00"), BigDecimal.ZERO, 1L},
+                new Object[]{4L, new BigDecimal("300.00"), BigDecimal.ZERO, 1L},
+                new Object[]{5L, new BigDecimal("120.00"), BigDecimal.ZERO, 1L}));
+        when(courseRepository.findAllWithInstitutionByIdIn(eq(List.of(2L, 4L)))).thenReturn(List.of(course2));
+
+        // 调用被测试方法
+        List<AdminCourseIncomeRankingVO> result = orderService.getPlatformCourseIncomeRanking(2);
+
+        // 验证结果
+        assertEquals(2, result.size());
+        assertEquals(2L, result.get(0).getCourseId());
+        assertEquals(course2.getTitle(), result.get(0).getCourseTitle());
+        assertEquals(4L, result.get(1).getCourseId());
+        assertNull(result.get(1).getCourseTitle()); // 课程已不存在
+    }
+
+    @Test
+    void testGetInstitutionCourseIncomeRankingSkipsRefundOnlyCourses() {
+        // 设置Mock行为：课程1的订单已全部退款，不参与排行
+        when(incomeLedgerRepository.sumCourseIncomeByInstitution(eq(1L))).thenReturn(List.of(
+                new Object[]{1L, BigDecimal.ZERO, new BigDecimal("100.00"), 0L},
+                new Object[]{2L, new BigDecimal("200.00"), new BigDecimal("50.00"), 2L}));
+        when(courseRepository.findAllWithInstitutionByIdIn(eq(List.of(2L)))).thenReturn(List.of(course2));
+
+        // 调用被测试方法
+        List<CourseIncomeRankingVO> result = orderService.getInstitutionCourseIncomeRanking(1L, 10);
+
+        // 验证结果
+        assertEquals(1, result.size());
+        assertEquals(course2.getId(), result.get(0).getCourseId());
+        assertEquals(new BigDecimal("150.00"), result.get(0).getIncome());
+    }
 }
@@ -21,11 +21,16 @@ import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
 import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
 import com.zhangziqi.online_course_mine.model.vo.OrderVO;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.InstitutionIncomeLedgerRepository;
 import com.zhangziqi.online_course_mine.repository.OrderRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
+import com.zhangziqi.online_course_mine.service.impl.IncomeLedgerService;
 import com.zhangziqi.online_course_mine.service.impl.OrderServiceImpl;
+import com.zhangziqi.online_course_mine.service.impl.OrderStatusCounter;
+import com.zhangziqi.online_course_mine.service.impl.PaymentNotifyProcessor;
 import com.zhangziqi.online_course_mine.service.impl.RedisOrderService;
+import com.zhangziqi.online_course_mine.service.impl.SnowflakeIdGenerator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -42,6 +47,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -77,6 +83,21 @@ public class OrderServiceTest {
     @Mock
     private UserCourseRepository userCourseRepository;
 
+    @Mock
+    private IncomeLedgerService incomeLedgerService;
+
+    @Mock
+    private InstitutionIncomeLedgerRepository incomeLedgerRepository;
+
+    @Mock
+    private OrderStatusCounter orderStatusCounter;
+
+    @Mock
+    private SnowflakeIdGenerator idGenerator;
+
+    @Mock
+    private PaymentNotifyProcessor paymentNotifyProcessor;
+
     @InjectMocks
     private OrderServiceImpl orderService;
 
@@ -174,6 +195,7 @@ public class OrderServiceTest {
             order.setId(1L);
             return order;
         });
+        when(idGenerator.nextIdString()).thenReturn("186512345678901248");
         // 确保设置redisOrderService的模拟行为
         when(redisOrderService.getOrderRemainingTime(anyString())).thenReturn(1800L);
         
@@ -521,92 +543,59 @@ public class OrderServiceTest {
     @Test
     @DisplayName("计算机构总收入 - 成功")
     void calculateInstitutionTotalIncome_Success() {
-        // 准备测试数据
-        List<Order> paidOrders = Arrays.asList(
-            Order.builder().amount(BigDecimal.valueOf(100)).build(),
-            Order.builder().amount(BigDecimal.valueOf(200)).build(),
-            Order.builder().amount(BigDecimal.valueOf(300)).build()
-        );
-        
-        when(orderRepository.findByInstitution_IdAndStatusIn(
-                eq(testInstitution.getId()), 
-                eq(List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue())))
-            ).thenReturn(paidOrders);
-        
+        when(incomeLedgerRepository.sumIncomeByInstitution(testInstitution.getId()))
+                .thenReturn(BigDecimal.valueOf(600));
+
         // 执行方法
         BigDecimal result = orderService.calculateInstitutionTotalIncome(testInstitution.getId());
-        
+
         // 验证结果
-        assertNotNull(result);
         assertEquals(BigDecimal.valueOf(600), result);
-        
-        // 验证方法调用
-        verify(orderRepository).findByInstitution_IdAndStatusIn(
-                eq(testInstitution.getId()), 
-                eq(List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue()))
-            );
+        verify(orderRepository, never()).findByInstitution_IdAndStatusIn(anyLong(), any());
     }
 
     @Test
     @DisplayName("计算机构总退款 - 成功")
     void calculateInstitutionTotalRefund_Success() {
-        // 准备测试数据
-        List<Order> refundedOrders = Arrays.asList(
-            Order.builder().refundAmount(BigDecimal.valueOf(50)).build(),
-            Order.builder().refundAmount(BigDecimal.valueOf(100)).build()
-        );
-        
-        when(orderRepository.findByInstitution_IdAndStatus(anyLong(), anyInt())).thenReturn(refundedOrders);
-        
+        when(incomeLedgerRepository.sumRefundByInstitution(testInstitution.getId()))
+                .thenReturn(BigDecimal.valueOf(150));
+
         // 执行方法
         BigDecimal result = orderService.calculateInstitutionTotalRefund(testInstitution.getId());
-        
+
         // 验证结果
-        assertNotNull(result);
         assertEquals(BigDecimal.valueOf(150), result);
-        
-        // 验证方法调用
-        verify(orderRepository).findByInstitution_IdAndStatus(testInstitution.getId(), OrderStatus.REFUNDED.getValue());
+        verify(orderRepository, never()).findByInstitution_IdAndStatus(anyLong(), anyInt());
     }
 
     @Test
     @DisplayName("计算机构净收入 - 成功")
     void calculateInstitutionNetIncome_Success() {
-        // 准备测试数据
-        List<Order> paidOrders = Arrays.asList(
-            Order.builder().amount(BigDecimal.valueOf(100)).build(),
-            Order.builder().amount(BigDecimal.valueOf(200)).build()
-        );
-        
-        List<Order> refundedOrders = Collections.singletonList(
-            Order.builder().refundAmount(BigDecimal.valueOf(50)).build()
-        );
-        
-        when(orderRepository.findByInstitution_IdAndStatusIn(
-                eq(testInstitution.getId()), 
-                eq(List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue())))
-            ).thenReturn(paidOrders);
-        when(orderRepository.findByInstitution_IdAndStatus(
-                eq(testInstitution.getId()), 
-                eq(OrderStatus.REFUNDED.getValue()))
-            ).thenReturn(refundedOrders);
-        
+        when(incomeLedgerRepository.sumIncomeByInstitution(testInstitution.getId()))
+                .thenReturn(BigDecimal.valueOf(300));
+        when(incomeLedgerRepository.sumRefundByInstitution(testInstitution.getId()))
+                .thenReturn(BigDecimal.valueOf(50));
+
         // 执行方法
         BigDecimal result = orderService.calculateInstitutionNetIncome(testInstitution.getId());
-        
+
         // 验证结果
-        assertNotNull(result);
         assertEquals(BigDecimal.valueOf(250), result);
-        
-        // 验证方法调用
-        verify(orderRepository).findByInstitution_IdAndStatusIn(
-                eq(testInstitution.getId()), 
-                eq(List.of(OrderStatus.PAID.getValue(), OrderStatus.REFUNDING.getValue()))
-            );
-        verify(orderRepository).findByInstitution_IdAndStatus(
-                eq(testInstitution.getId()), 
-                eq(OrderStatus.REFUNDED.getValue())
-            );
+    }
+
+    @Test
+    @DisplayName("计算本月机构收入 - 按日期范围查询台账")
+    void calculateInstitutionMonthlyIncome_UsesLedgerDateRange() {
+        LocalDate startOfMonth = LocalDate.now().withDayOfMonth(1);
+        when(incomeLedgerRepository.sumIncomeByInstitutionBetween(
+                testInstitution.getId(), startOfMonth, startOfMonth.plusMonths(1)))
+                .thenReturn(BigDecimal.valueOf(400));
+
+        // 执行方法
+        BigDecimal result = orderService.calculateInstitutionMonthlyIncome(testInstitution.getId());
+
+        // 验证结果：月末零点不包含在内
+        assertEquals(BigDecimal.valueOf(400), result);
     }
 
     @Test
@@ -624,6 +613,8 @@ public class OrderServiceTest {
         // 验证结果
         assertEquals(OrderStatus.PAID.getValue(), testOrder.getStatus());
         assertNotNull(testOrder.getPaidAt());
+        verify(incomeLedgerService).apply(eq(testOrder), any());
+        verify(orderStatusCounter).transition(testOrder, OrderStatus.PENDING.getValue());
         
         // 验证方法调用
         verify(orderRepository).findByOrderNo(testOrder.getOrderNo());
@@ -1056,7 +1047,60 @@ public class OrderServiceTest {
         verify(orderRepository).findById(testOrder.getId());
         verify(orderRepository, never()).save(any(Order.class));
     }
-    
+
+    @Test
+    @DisplayName("关闭超时订单 - 成功")
+    void closeTimeoutOrder_Success() {
+        // 准备测试数据
+        testOrder.setStatus(OrderStatus.PENDING.getValue());
+
+        when(orderRepository.findByOrderNo(testOrder.getOrderNo())).thenReturn(Optional.of(testOrder));
+        when(orderRepository.updateStatusIfCurrent(eq(testOrder.getOrderNo()), eq(OrderStatus.PENDING.getValue()),
+                eq(OrderStatus.CLOSED.getValue()), any(LocalDateTime.class))).thenReturn(1);
+
+        // 执行方法
+        assertTrue(orderService.closeTimeoutOrder(testOrder.getOrderNo()));
+
+        // 验证结果：条件更新状态，不整行保存
+        assertEquals(OrderStatus.CLOSED.getValue(), testOrder.getStatus());
+        verify(orderRepository, never()).save(any(Order.class));
+        verify(orderStatusCounter).transition(testOrder, OrderStatus.PENDING.getValue());
+    }
+
+    @Test
+    @DisplayName("关闭超时订单 - 读取后被支付")
+    void closeTimeoutOrder_PaidConcurrently() {
+        // 准备测试数据：读取时仍为待支付，更新前已被支付回调改为已支付
+        testOrder.setStatus(OrderStatus.PENDING.getValue());
+
+        when(orderRepository.findByOrderNo(testOrder.getOrderNo())).thenReturn(Optional.of(testOrder));
+        when(orderRepository.updateStatusIfCurrent(eq(testOrder.getOrderNo()), eq(OrderStatus.PENDING.getValue()),
+                eq(OrderStatus.CLOSED.getValue()), any(LocalDateTime.class))).thenReturn(0);
+
+        // 执行方法
+        assertFalse(orderService.closeTimeoutOrder(testOrder.getOrderNo()));
+
+        // 验证结果
+        verify(orderRepository, never()).save(any(Order.class));
+        verify(orderStatusCounter, never()).transition(any(), any());
+    }
+
+    @Test
+    @DisplayName("关闭超时订单 - 订单已支付")
+    void closeTimeoutOrder_AlreadyPaid() {
+        // 准备测试数据
+        testOrder.setStatus(OrderStatus.PAID.getValue());
+
+        when(orderRepository.findByOrderNo(testOrder.getOrderNo())).thenReturn(Optional.of(testOrder));
+
+        // 执行方法
+        assertFalse(orderService.closeTimeoutOrder(testOrder.getOrderNo()));
+
+        // 验证结果
+        assertEquals(OrderStatus.PAID.getValue(), testOrder.getStatus());
+        verify(orderRepository, never()).save(any(Order.class));
+    }
+
     @Test
     @DisplayName("查询待支付订单 - 找到")
     void findPendingOrderForCourse_Found() {
@@ -0,0 +1,130 @@
+package com.zhangziqi.online_course_mine.service;
+
+import com.zhangziqi.online_course_mine.exception.ResourceNotFoundException;
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.model.entity.Institution;
+import com.zhangziqi.online_course_mine.model.enums.ExportFormat;
+import com.zhangziqi.online_course_mine.model.vo.IncomeTrendVO;
+import com.zhangziqi.online_course_mine.model.vo.InstitutionLearningStatisticsVO;
+import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.repository.CourseStatisticsJdbcRepository;
+import com.zhangziqi.online_course_mine.service.impl.StatisticsExportServiceImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class StatisticsExportServiceTest {
+
+    @Mock
+    private CourseRepository courseRepository;
+
+    @Mock
+    private CourseStatisticsJdbcRepository courseStatisticsJdbcRepository;
+
+    @Mock
+    private OrderService orderService;
+
+    @InjectMocks
+    private StatisticsExportServiceImpl statisticsExportService;
+
+    @Test
+    @DisplayName("导出课程学生统计为CSV")
+    @SuppressWarnings("unchecked")
+    void testExportStudentStatisticsCsv() throws Exception {
+        ReflectionTestUtils.setField(statisticsExportService, "batchSize", 2);
+        when(courseRepository.findById(10L)).thenReturn(Optional.of(
+                Course.builder().id(10L).institution(Institution.builder().id(1L).build()).build()));
+        doAnswer(invocation -> {
+            Consumer<InstitutionLearningStatisticsVO.StudentLearningVO> consumer = invocation.getArgument(1);
+            consumer.accept(InstitutionLearningStatisticsVO.StudentLearningVO.builder()
+                    .userId(1L).username("张三").learningDuration(3600L).activityCount(5).progress(80)
+                    .lastLearnTime(LocalDateTime.of(2024, 3, 1, 10, 30)).build());
+            consumer.accept(InstitutionLearningStatisticsVO.StudentLearningVO.builder()
+                    .userId(2L).username("li,\"si\"").learningDuration(60L).activityCount(1).progress(0).build());
+            consumer.accept(InstitutionLearningStatisticsVO.StudentLearningVO.builder()
+                    .userId(3L).username("wang").learningDuration(30L).activityCount(1).progress(0).build());
+            return null;
+        }).when(courseStatisticsJdbcRepository).streamStudentStatistics(eq(10L), any(Consumer.class));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        statisticsExportService.exportCourseStudentStatistics(1L, 10L, ExportFormat.CSV, response);
+
+        assertTrue(response.getContentType().startsWith("text/csv"));
+        assertTrue(response.getHeader("Content-disposition").endsWith(".csv"));
+        String[] lines = response.getContentAsString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(4, lines.length);
+        assertEquals("\uFEFF用户ID,用户名,学习时长(秒),活动次数,学习进度(%),最后学习时间", lines[0]);
+        assertEquals("1,张三,3600,5,80,2024-03-01 10:30:00", lines[1]);
+        assertEquals("2,\"li,\"\"si\"\"\",60,1,0,", lines[2]);
+        assertEquals("3,wang,30,1,0,", lines[3]);
+    }
+
+    @Test
+    @DisplayName("课程不属于机构时不写出响应")
+    void testExportStudentStatisticsWrongInstitution() {
+        when(courseRepository.findById(10L)).thenReturn(Optional.of(
+                Course.builder().id(10L).institution(Institution.builder().id(2L).build()).build()));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThrows(ResourceNotFoundException.class, () ->
+                statisticsExportService.exportCourseStudentStatistics(1L, 10L, ExportFormat.CSV, response));
+        assertEquals(0, response.getContentAsByteArray().length);
+        verifyNoInteractions(courseStatisticsJdbcRepository);
+    }
+
+    @Test
+    @DisplayName("导出课程统计为Excel")
+    @SuppressWarnings("unchecked")
+    void testExportCourseStatisticsXlsx() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<InstitutionLearningStatisticsVO.CourseStatisticsVO> consumer = invocation.getArgument(1);
+            for (long i = 1; i <= 3; i++) {
+                consumer.accept(InstitutionLearningStatisticsVO.CourseStatisticsVO.builder()
+                        .courseId(i).courseTitle("课程" + i).totalDuration(i * 100).activityCount(1)
+                        .learnerCount(i).completionCount(0L).averageProgress(50.0).build());
+            }
+            return null;
+        }).when(courseStatisticsJdbcRepository).streamCourseStatistics(eq(1L), any(Consumer.class));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        statisticsExportService.exportCourseStatistics(1L, ExportFormat.XLSX, response);
+
+        assertEquals(ExportFormat.XLSX.getContentType(), response.getContentType().split(";")[0]);
+        byte[] content = response.getContentAsByteArray();
+        // xlsx是zip文件
+        assertTrue(content.length > 0);
+        assertEquals('P', content[0]);
+        assertEquals('K', content[1]);
+    }
+
+    @Test
+    @DisplayName("导出收入趋势为CSV")
+    void testExportIncomeTrendCsv() throws Exception {
+        when(orderService.getInstitutionIncomeTrend(1L, "7d", "day")).thenReturn(List.of(
+                IncomeTrendVO.builder().date("2024-03-01").income(new BigDecimal("100.00"))
+                        .refund(new BigDecimal("1E+1")).netIncome(new BigDecimal("90.00")).build()));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        statisticsExportService.exportIncomeTrend(1L, "7d", "day", ExportFormat.CSV, response);
+
+        String[] lines = response.getContentAsString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals("2024-03-01,100.00,10,90.00", lines[1]);
+    }
+}
@@ -8,16 +8,17 @@ import com.zhangziqi.online_course_mine.model.enums.CoursePaymentType;
 import com.zhangziqi.online_course_mine.model.enums.CourseStatus;
 import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
 import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
-import com.zhangziqi.online_course_mine.model.vo.ChapterVO;
 import com.zhangziqi.online_course_mine.model.vo.CourseVO;
-import com.zhangziqi.online_course_mine.model.vo.SectionVO;
 import com.zhangziqi.online_course_mine.model.vo.UserCourseVO;
-import com.zhangziqi.online_course_mine.repository.ChapterRepository;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
 import com.zhangziqi.online_course_mine.repository.LearningRecordRepository;
 import com.zhangziqi.online_course_mine.repository.OrderRepository;
 import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
+import com.zhangziqi.online_course_mine.service.impl.CourseCounterService;
+import com.zhangziqi.online_course_mine.service.impl.CourseEntitlementCache;
+import com.zhangziqi.online_course_mine.service.impl.CourseSectionIndexCache;
+import com.zhangziqi.online_course_mine.service.impl.CourseSectionIndexCache.CourseSectionIndex;
 import com.zhangziqi.online_course_mine.service.impl.UserCourseServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -33,7 +34,7 @@ import org.springframework.data.domain.Pageable;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -58,10 +59,16 @@ public class UserCourseServiceTest {
     private OrderRepository orderRepository;
 
     @Mock
-    private ChapterRepository chapterRepository;
+    private LearningRecordRepository learningRecordRepository;
 
     @Mock
-    private LearningRecordRepository learningRecordRepository;
+    private CourseEntitlementCache courseEntitlementCache;
+
+    @Mock
+    private CourseSectionIndexCache courseSectionIndexCache;
+
+    @Mock
+    private CourseCounterService courseCounterService;
 
     @InjectMocks
     private UserCourseServiceImpl userCourseService;
@@ -217,40 +224,10 @@ public class UserCourseServiceTest {
                 .sectionProgress(50)
                 .build();
 
-        // 确保课程有章节和小节信息
-        ChapterVO chapterVO = new ChapterVO();
-        chapterVO.setId(1L);
-
-        SectionVO section = new SectionVO();
-        section.setId(1L);
-
-        List<SectionVO> sections = new ArrayList<>();
-        sections.add(section);
-        chapterVO.setSections(sections);
-
-        List<ChapterVO> chaptersVO = new ArrayList<>();
-        chaptersVO.add(chapterVO);
-
-        // 创建对应的实体类型
-        Chapter chapter = new Chapter();
-        chapter.setId(1L);
-        chapter.setEstimatedMinutes(30); // 设置预计学习时长为30分钟
-
-        Section sectionEntity = new Section();
-        sectionEntity.setId(1L);
-
-        List<Section> sectionEntities = new ArrayList<>();
-        sectionEntities.add(sectionEntity);
-        chapter.setSections(sectionEntities);
-
-        List<Chapter> chapters = new ArrayList<>();
-        chapters.add(chapter);
-        testCourse.setChapters(chapters);
-
         when(userCourseRepository.findByUser_IdAndCourse_Id(anyLong(), anyLong())).thenReturn(Optional.of(testUserCourse));
         when(userCourseRepository.save(any(UserCourse.class))).thenReturn(testUserCourse);
-        when(chapterRepository.findById(anyLong())).thenReturn(Optional.of(chapter));
-        when(learningRecordRepository.getChapterLearningDuration(anyLong(), anyLong(), anyLong())).thenReturn(1200); // 返回20分钟的学习时长，未超过预计时长
+        when(courseSectionIndexCache.getIndex(testCourse)).thenReturn(sectionIndex(
+                new Object[]{0, 1L, 30, 1L})); // 预计学习时长为30分钟
 
         // 执行方法
         UserCourseVO result = userCourseService.updateLearningProgress(testUser.getId(), testCourse.getId(), dto);
@@ -260,11 +237,57 @@ public class UserCourseServiceTest {
         assertEquals(dto.getSectionProgress(), result.getCurrentSectionProgress());
         assertNotNull(testUserCourse.getLastLearnAt());
 
-        // 验证方法调用
+        // 验证方法调用，小节未完成时不查询章节学习时长
         verify(userCourseRepository).findByUser_IdAndCourse_Id(testUser.getId(), testCourse.getId());
+        verify(learningRecordRepository, never()).getChapterLearningDuration(anyLong(), anyLong(), anyLong());
         verify(userCourseRepository).save(testUserCourse);
     }
 
+    @Test
+    @DisplayName("更新学习进度 - 完成小节后按索引计算总进度")
+    void updateLearningProgress_SectionCompleted() {
+        // 准备测试数据，课程共两章三节
+        testUserCourse.setProgress(0);
+        LearningProgressUpdateDTO dto = LearningProgressUpdateDTO.builder()
+                .chapterId(2L)
+                .sectionId(3L)
+                .sectionProgress(100)
+                .build();
+
+        when(userCourseRepository.findByUser_IdAndCourse_Id(anyLong(), anyLong())).thenReturn(Optional.of(testUserCourse));
+        when(userCourseRepository.save(any(UserCourse.class))).thenReturn(testUserCourse);
+        when(courseSectionIndexCache.getIndex(testCourse)).thenReturn(sectionIndex(
+                new Object[]{0, 1L, null, 1L},
+                new Object[]{0, 1L, null, 2L},
+                new Object[]{0, 2L, null, 3L}));
+
+        // 执行方法
+        UserCourseVO result = userCourseService.updateLearningProgress(testUser.getId(), testCourse.getId(), dto);
+
+        // 验证结果：第3节/共3节
+        assertEquals(100, result.getProgress());
+        verify(learningRecordRepository, never()).getChapterLearningDuration(anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    @DisplayName("更新学习进度 - 章节不属于课程")
+    void updateLearningProgress_ChapterNotInCourse() {
+        LearningProgressUpdateDTO dto = LearningProgressUpdateDTO.builder()
+                .chapterId(9L)
+                .sectionId(1L)
+                .sectionProgress(100)
+                .build();
+
+        when(userCourseRepository.findByUser_IdAndCourse_Id(anyLong(), anyLong())).thenReturn(Optional.of(testUserCourse));
+        when(courseSectionIndexCache.getIndex(testCourse)).thenReturn(sectionIndex(
+                new Object[]{0, 1L, null, 1L}));
+
+        // 验证抛出异常
+        assertThrows(ResourceNotFoundException.class,
+                () -> userCourseService.updateLearningProgress(testUser.getId(), testCourse.getId(), dto));
+        verify(userCourseRepository, never()).save(any(UserCourse.class));
+    }
+
     @Test
     @DisplayName("更新学习进度 - 复习模式")
     void updateLearningProgress_ReviewingMode() {
@@ -277,13 +300,10 @@ public class UserCourseServiceTest {
                 .isReviewing(true) // 设置为复习模式
                 .build();
 
-        // 创建对应的实体类型
-        Chapter chapter = new Chapter();
-        chapter.setId(1L);
-
         when(userCourseRepository.findByUser_IdAndCourse_Id(anyLong(), anyLong())).thenReturn(Optional.of(testUserCourse));
         when(userCourseRepository.save(any(UserCourse.class))).thenReturn(testUserCourse);
-        when(chapterRepository.findById(anyLong())).thenReturn(Optional.of(chapter));
+        when(courseSectionIndexCache.getIndex(testCourse)).thenReturn(sectionIndex(
+                new Object[]{0, 1L, null, 1L}));
 
         // 执行方法
         UserCourseVO result = userCourseService.updateLearningProgress(testUser.getId(), testCourse.getId(), dto);
@@ -294,7 +314,7 @@ public class UserCourseServiceTest {
 
         // 验证方法调用
         verify(userCourseRepository).findByUser_IdAndCourse_Id(testUser.getId(), testCourse.getId());
-        verify(chapterRepository).findById(dto.getChapterId());
+        verify(courseSectionIndexCache).getIndex(testCourse);
         verify(userCourseRepository).save(testUserCourse);
     }
 
@@ -309,14 +329,10 @@ public class UserCourseServiceTest {
                 .sectionProgress(100)
                 .build();
 
-        // 创建对应的实体类型
-        Chapter chapter = new Chapter();
-        chapter.setId(1L);
-        chapter.setEstimatedMinutes(30); // 设置预计学习时长为30分钟
-
         when(userCourseRepository.findByUser_IdAndCourse_Id(anyLong(), anyLong())).thenReturn(Optional.of(testUserCourse));
         when(userCourseRepository.save(any(UserCourse.class))).thenReturn(testUserCourse);
-        when(chapterRepository.findById(anyLong())).thenReturn(Optional.of(chapter));
+        when(courseSectionIndexCache.getIndex(testCourse)).thenReturn(sectionIndex(
+                new Object[]{0, 1L, 30, 1L})); // 预计学习时长为30分钟
         when(learningRecordRepository.getChapterLearningDuration(anyLong(), anyLong(), anyLong())).thenReturn(2400); // 返回40分钟的学习时长，超过预计时长
 
         // 执行方法
@@ -328,7 +344,7 @@ public class UserCourseServiceTest {
 
         // 验证方法调用
         verify(userCourseRepository).findByUser_IdAndCourse_Id(testUser.getId(), testCourse.getId());
-        verify(chapterRepository).findById(dto.getChapterId());
+        verify(courseSectionIndexCache).getIndex(testCourse);
         verify(learningRecordRepository).getChapterLearningDuration(testUser.getId(), testCourse.getId(), dto.getChapterId());
         verify(userCourseRepository).save(testUserCourse);
     }
@@ -344,12 +360,9 @@ public class UserCourseServiceTest {
                 .sectionProgress(30)
                 .build();
 
-        // 创建对应的实体类型
-        Chapter chapter = new Chapter();
-        chapter.setId(1L);
-
         when(userCourseRepository.findByUser_IdAndCourse_Id(anyLong(), anyLong())).thenReturn(Optional.of(testUserCourse));
-        when(chapterRepository.findById(anyLong())).thenReturn(Optional.of(chapter));
+        when(courseSectionIndexCache.getIndex(testCourse)).thenReturn(sectionIndex(
+                new Object[]{0, 1L, null, 1L}));
 
         // 执行方法
         UserCourseVO result = userCourseService.updateLearningProgress(testUser.getId(), testCourse.getId(), dto);
@@ -360,7 +373,7 @@ public class UserCourseServiceTest {
 
         // 验证方法调用
         verify(userCourseRepository).findByUser_IdAndCourse_Id(testUser.getId(), testCourse.getId());
-        verify(chapterRepository).findById(dto.getChapterId());
+        verify(courseSectionIndexCache).getIndex(testCourse);
         verify(userCourseRepository).save(testUserCourse);
     }
 
@@ -429,7 +442,7 @@ public class UserCourseServiceTest {
     @DisplayName("检查用户是否已购买课程 - 已购买")
     void hasPurchasedCourse_CourseIsPurchased() {
         // 准备测试数据
-        when(userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(anyLong(), anyLong(), anyInt())).thenReturn(true);
+        when(courseEntitlementCache.hasEntitlement(anyLong(), anyLong())).thenReturn(true);
 
         // 执行方法
         boolean result = userCourseService.hasPurchasedCourse(testUser.getId(), testCourse.getId());
@@ -438,14 +451,15 @@ public class UserCourseServiceTest {
         assertTrue(result);
 
         // 验证方法调用
-        verify(userCourseRepository).existsByUser_IdAndCourse_IdAndStatus(testUser.getId(), testCourse.getId(), UserCourseStatus.NORMAL.getValue());
+        verify(courseEntitlementCache).hasEntitlement(testUser.getId(), testCourse.getId());
+        verify(userCourseRepository, never()).existsByUser_IdAndCourse_IdAndStatus(anyLong(), anyLong(), anyInt());
     }
 
     @Test
     @DisplayName("检查用户是否已购买课程 - 未购买")
     void hasPurchasedCourse_CourseNotPurchased() {
         // 准备测试数据
-        when(userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(anyLong(), anyLong(), anyInt())).thenReturn(false);
+        when(courseEntitlementCache.hasEntitlement(anyLong(), anyLong())).thenReturn(false);
 
         // 执行方法
         boolean result = userCourseService.hasPurchasedCourse(testUser.getId(), testCourse.getId());
@@ -454,7 +468,8 @@ public class UserCourseServiceTest {
         assertFalse(result);
 
         // 验证方法调用
-        verify(userCourseRepository).existsByUser_IdAndCourse_IdAndStatus(testUser.getId(), testCourse.getId(), UserCourseStatus.NORMAL.getValue());
+        verify(courseEntitlementCache).hasEntitlement(testUser.getId(), testCourse.getId());
+        verify(userCourseRepository, never()).existsByUser_IdAndCourse_IdAndStatus(anyLong(), anyLong(), anyInt());
     }
 
     @Test
@@ -572,7 +587,6 @@ public class UserCourseServiceTest {
         when(courseRepository.findById(anyLong())).thenReturn(Optional.of(testCourse));
         when(orderRepository.findById(anyLong())).thenReturn(Optional.of(testOrder));
         when(userCourseRepository.save(any(UserCourse.class))).thenReturn(testUserCourse);
-        when(courseRepository.save(any(Course.class))).thenReturn(testCourse);
 
         // 执行方法
         UserCourse result = userCourseService.createUserCourseRelation(testUser.getId(), testCourse.getId(), testOrder.getId(), true);
@@ -584,8 +598,6 @@ public class UserCourseServiceTest {
         assertEquals(testOrder, result.getOrder());
         assertEquals(UserCourseStatus.NORMAL.ordinal(), result.getStatus());
 
-        // 验证课程学生数增加
-        assertEquals(11, testCourse.getStudentCount()); // 原来是10，增加1个
 
         // 验证方法调用
         verify(userCourseRepository).findByUser_IdAndCourse_Id(testUser.getId(), testCourse.getId());
@@ -593,7 +605,9 @@ public class UserCourseServiceTest {
         verify(courseRepository).findById(testCourse.getId());
         verify(orderRepository).findById(testOrder.getId());
         verify(userCourseRepository).save(any(UserCourse.class));
-        verify(courseRepository).save(testCourse);
+        verify(courseCounterService).addStudents(testCourse.getId(), 1);
+        verify(courseRepository, never()).save(any(Course.class));
+        verify(courseEntitlementCache).invalidate(testUser.getId());
     }
 
     @Test
@@ -616,6 +630,7 @@ public class UserCourseServiceTest {
         verify(orderRepository, never()).findById(anyLong());
         verify(userCourseRepository, never()).save(any(UserCourse.class));
         verify(courseRepository, never()).save(any(Course.class));
+        verify(courseEntitlementCache, never()).invalidate(anyLong());
     }
 
     @Test
@@ -661,6 +676,7 @@ public class UserCourseServiceTest {
         verify(userCourseRepository).findByUser_IdAndCourse_Id(testUser.getId(), testCourse.getId());
         verify(orderRepository).findById(newOrder.getId());
         verify(userCourseRepository).save(refundedUserCourse);
+        verify(courseEntitlementCache).invalidate(testUser.getId());
         verify(userRepository, never()).findById(anyLong());
         verify(courseRepository, never()).findById(anyLong());
         verify(courseRepository, never()).save(any(Course.class));
@@ -674,7 +690,6 @@ public class UserCourseServiceTest {
         when(userRepository.findById(anyLong())).thenReturn(Optional.of(testUser));
         when(courseRepository.findById(anyLong())).thenReturn(Optional.of(testCourse));
         when(userCourseRepository.save(any(UserCourse.class))).thenReturn(testUserCourse);
-        when(courseRepository.save(any(Course.class))).thenReturn(testCourse);
 
         // 执行方法
         UserCourse result = userCourseService.createUserCourseRelation(testUser.getId(), testCourse.getId(), null, true);
@@ -692,7 +707,7 @@ public class UserCourseServiceTest {
         verify(courseRepository).findById(testCourse.getId());
         verify(orderRepository, never()).findById(anyLong());
         verify(userCourseRepository).save(any(UserCourse.class));
-        verify(courseRepository).save(testCourse);
+        verify(courseCounterService).addStudents(testCourse.getId(), 1);
     }
 
     @Test
@@ -701,8 +716,6 @@ public class UserCourseServiceTest {
         // 准备测试数据
         when(userCourseRepository.findByOrder_Id(anyLong())).thenReturn(Optional.of(testUserCourse));
         when(userCourseRepository.save(any(UserCourse.class))).thenReturn(testUserCourse);
-        when(courseRepository.findById(anyLong())).thenReturn(Optional.of(testCourse));
-        when(courseRepository.save(any(Course.class))).thenReturn(testCourse);
 
         // 执行方法
         UserCourse result = userCourseService.updateUserCourseRefunded(testOrder.getId());
@@ -711,14 +724,37 @@ public class UserCourseServiceTest {
         assertNotNull(result);
         assertEquals(UserCourseStatus.REFUNDED.ordinal(), result.getStatus());
 
-        // 验证课程学生数减少
-        assertEquals(9, testCourse.getStudentCount()); // 原来是10，减少1个
-
         // 验证方法调用
         verify(userCourseRepository).findByOrder_Id(testOrder.getId());
         verify(userCourseRepository).save(testUserCourse);
-        verify(courseRepository).findById(testCourse.getId());
-        verify(courseRepository).save(testCourse);
+        verify(courseCounterService).addStudents(testCourse.getId(), -1);
+        verify(courseRepository, never()).save(any(Course.class));
+        verify(courseEntitlementCache).invalidate(testUser.getId());
+    }
+
+    @Test
+    @DisplayName("已到期的课程改为已过期并清除用户的课程权限缓存")
+    void expireLapsedCourses_Success() {
+        when(userCourseRepository.findLapsedByStatus(eq(UserCourseStatus.NORMAL.getValue()), any(), any(Pageable.class)))
+                .thenReturn(List.of(new Object[]{10L, 1L}, new Object[]{11L, 1L}, new Object[]{12L, 2L}));
+        when(userCourseRepository.updateStatusIfCurrent(eq(List.of(10L, 11L, 12L)), eq(UserCourseStatus.NORMAL.getValue()),
+                eq(UserCourseStatus.EXPIRED.getValue()), any())).thenReturn(3);
+
+        assertEquals(3, userCourseService.expireLapsedCourses(100));
+
+        verify(courseEntitlementCache).invalidate(1L);
+        verify(courseEntitlementCache).invalidate(2L);
+    }
+
+    @Test
+    @DisplayName("没有到期的课程时不更新")
+    void expireLapsedCourses_None() {
+        when(userCourseRepository.findLapsedByStatus(anyInt(), any(), any(Pageable.class))).thenReturn(List.of());
+
+        assertEquals(0, userCourseService.expireLapsedCourses(100));
+
+        verify(userCourseRepository, never()).updateStatusIfCurrent(any(), anyInt(), anyInt(), any());
+        verifyNoInteractions(courseEntitlementCache);
     }
 
     @Test
@@ -821,4 +857,8 @@ public class UserCourseServiceTest {
         // 验证方法调用
         verify(userCourseRepository).findByUser_IdAndStatus(testUser.getId(), status, pageable);
     }
-}
\ No newline at end of file
+
+    private CourseSectionIndex sectionIndex(Object[]... rows) {
+        return CourseSectionIndex.build(Arrays.asList(rows));
+    }
+}
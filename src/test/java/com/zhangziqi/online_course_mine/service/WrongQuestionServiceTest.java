@@ -6,10 +6,10 @@ import com.zhangziqi.online_course_mine.exception.BusinessException;
 import com.zhangziqi.online_course_mine.model.dto.UserQuestionAnswerDTO;
 import com.zhangziqi.online_course_mine.model.entity.*;
 import com.zhangziqi.online_course_mine.model.enums.QuestionType;
-import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
 import com.zhangziqi.online_course_mine.model.enums.UserWrongQuestionStatus;
 import com.zhangziqi.online_course_mine.model.vo.UserWrongQuestionVO;
 import com.zhangziqi.online_course_mine.repository.*;
+import com.zhangziqi.online_course_mine.service.impl.CourseEntitlementCache;
 import com.zhangziqi.online_course_mine.service.impl.WrongQuestionServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -48,7 +48,7 @@ public class WrongQuestionServiceTest {
     private CourseRepository courseRepository;
 
     @Mock
-    private UserCourseRepository userCourseRepository;
+    private CourseEntitlementCache courseEntitlementCache;
     
     @Mock
     private UserRepository userRepository;
@@ -140,7 +140,7 @@ public class WrongQuestionServiceTest {
     @DisplayName("添加错题 - 用户课程状态正常")
     void testAddWrongQuestion_WithValidUserCourse() {
         // 设置模拟行为 - 用户已购买课程且状态为NORMAL
-        when(userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(anyLong(), anyLong(), anyInt()))
+        when(courseEntitlementCache.hasEntitlement(anyLong(), anyLong()))
                 .thenReturn(true);
         when(userRepository.findById(anyLong())).thenReturn(Optional.of(user));
         when(courseRepository.findById(anyLong())).thenReturn(Optional.of(course));
@@ -180,7 +180,7 @@ public class WrongQuestionServiceTest {
         assertEquals(UserWrongQuestionStatus.UNRESOLVED.getValue(), result.getStatus());
         
         // 验证仓库方法调用 - 检查重要的交互
-        verify(userCourseRepository).existsByUser_IdAndCourse_IdAndStatus(anyLong(), anyLong(), anyInt());
+        verify(courseEntitlementCache).hasEntitlement(anyLong(), anyLong());
         verify(userRepository).findById(anyLong());
         verify(courseRepository).findById(anyLong());
         verify(userWrongQuestionRepository).findByUser_IdAndCourse_IdAndQuestionId(anyLong(), anyLong(), anyLong());
@@ -191,7 +191,7 @@ public class WrongQuestionServiceTest {
     @DisplayName("添加错题 - 用户未购买或课程状态异常")
     void testAddWrongQuestion_WithInvalidUserCourse() {
         // 设置模拟行为 - 用户未购买课程或课程状态不为NORMAL
-        when(userCourseRepository.existsByUser_IdAndCourse_IdAndStatus(anyLong(), anyLong(), anyInt()))
+        when(courseEntitlementCache.hasEntitlement(anyLong(), anyLong()))
                 .thenReturn(false);
         when(userRepository.findById(anyLong())).thenReturn(Optional.of(user));
         when(courseRepository.findById(anyLong())).thenReturn(Optional.of(course));
@@ -216,7 +216,7 @@ public class WrongQuestionServiceTest {
         assertEquals("请先购买课程再进行学习，或检查课程是否已过期或退款", exception.getMessage());
         
         // 验证仓库方法调用
-        verify(userCourseRepository).existsByUser_IdAndCourse_IdAndStatus(anyLong(), anyLong(), anyInt());
+        verify(courseEntitlementCache).hasEntitlement(anyLong(), anyLong());
         verify(userRepository).findById(anyLong());
         verify(courseRepository).findById(anyLong());
         verify(userWrongQuestionRepository, never()).findByUser_IdAndCourse_IdAndQuestionId(anyLong(), anyLong(), anyLong());
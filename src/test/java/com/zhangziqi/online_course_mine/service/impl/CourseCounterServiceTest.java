@@ -0,0 +1,139 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.repository.CourseCounterJdbcRepository;
+import com.zhangziqi.online_course_mine.repository.CourseCounterJdbcRepository.CounterDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CourseCounterServiceTest {
+
+    @Mock
+    private CourseCounterJdbcRepository courseCounterJdbcRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private CourseCounterService courseCounterService;
+
+    @BeforeEach
+    void setUp() {
+        courseCounterService = new CourseCounterService(courseCounterJdbcRepository, transactionManager);
+    }
+
+    @Test
+    @DisplayName("学员数和评分增量写入分片")
+    void testAccumulate() {
+        courseCounterService.addStudents(1L, -1);
+        courseCounterService.addRating(1L, 4);
+        courseCounterService.changeRating(1L, 4, 2);
+
+        verify(courseCounterJdbcRepository).accumulate(eq(1L), intThat(shard -> shard >= 0 && shard < 8),
+                eq(new CounterDelta(-1, 0, 0)));
+        verify(courseCounterJdbcRepository).accumulate(eq(1L), anyInt(), eq(new CounterDelta(0, 4, 1)));
+        verify(courseCounterJdbcRepository).accumulate(eq(1L), anyInt(), eq(new CounterDelta(0, -2, 0)));
+    }
+
+    @Test
+    @DisplayName("评分未变化时不写入")
+    void testChangeRatingUnchanged() {
+        courseCounterService.changeRating(1L, 3, 3);
+
+        verifyNoInteractions(courseCounterJdbcRepository);
+    }
+
+    @Test
+    @DisplayName("读取时加上未合并的增量并重新计算平均分")
+    void testApplyPending() {
+        Course course = Course.builder().id(1L).studentCount(10).ratingSum(8L).ratingCount(2).averageRating(4.0f).build();
+        when(courseCounterJdbcRepository.sumPending(List.of(1L)))
+                .thenReturn(Map.of(1L, new CounterDelta(3, 5, 1)));
+
+        courseCounterService.applyPending(course);
+
+        assertEquals(13, course.getStudentCount());
+        assertEquals(13L, course.getRatingSum());
+        assertEquals(3, course.getRatingCount());
+        assertEquals(13f / 3, course.getAverageRating(), 0.001f);
+    }
+
+    @Test
+    @DisplayName("评分总分尚未回填时用平均分和评分人数推算")
+    void testApplyPendingWithoutRatingSum() {
+        Course course = Course.builder().id(1L).studentCount(10).ratingSum(0L).ratingCount(2).averageRating(4.5f).build();
+        when(courseCounterJdbcRepository.sumPending(List.of(1L)))
+                .thenReturn(Map.of(1L, new CounterDelta(0, 5, 1)));
+
+        courseCounterService.applyPending(course);
+
+        assertEquals(14L, course.getRatingSum());
+        assertEquals(3, course.getRatingCount());
+        assertEquals(14f / 3, course.getAverageRating(), 0.001f);
+    }
+
+    @Test
+    @DisplayName("读取未合并的增量失败时保留课程行上的值")
+    void testApplyPendingFailure() {
+        Course course = Course.builder().id(1L).studentCount(10).ratingCount(0).build();
+        when(courseCounterJdbcRepository.sumPending(any())).thenThrow(new RuntimeException("db down"));
+
+        assertDoesNotThrow(() -> courseCounterService.applyPending(course));
+        assertEquals(10, course.getStudentCount());
+    }
+
+    @Test
+    @DisplayName("合并时逐个分片累加到课程行并删除分片")
+    void testFoldCourse() {
+        when(courseCounterJdbcRepository.findShards(1L)).thenReturn(List.of(0, 5));
+        when(courseCounterJdbcRepository.lockShard(1L, 0)).thenReturn(new CounterDelta(2, 9, 2));
+        when(courseCounterJdbcRepository.lockShard(1L, 5)).thenReturn(new CounterDelta(-1, 3, 1));
+
+        courseCounterService.foldCourse(1L);
+
+        verify(courseCounterJdbcRepository).applyToCourse(1L, new CounterDelta(2, 9, 2));
+        verify(courseCounterJdbcRepository).applyToCourse(1L, new CounterDelta(-1, 3, 1));
+        verify(courseCounterJdbcRepository).deleteShard(1L, 0);
+        verify(courseCounterJdbcRepository).deleteShard(1L, 5);
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    @Test
+    @DisplayName("分片增量为0时只删除分片，分片已被合并时跳过")
+    void testFoldCourseZero() {
+        when(courseCounterJdbcRepository.findShards(1L)).thenReturn(List.of(0, 1));
+        when(courseCounterJdbcRepository.lockShard(1L, 0)).thenReturn(CounterDelta.ZERO);
+        when(courseCounterJdbcRepository.lockShard(1L, 1)).thenReturn(null);
+
+        courseCounterService.foldCourse(1L);
+
+        verify(courseCounterJdbcRepository, never()).applyToCourse(any(), any());
+        verify(courseCounterJdbcRepository).deleteShard(1L, 0);
+        verify(courseCounterJdbcRepository, never()).deleteShard(1L, 1);
+    }
+
+    @Test
+    @DisplayName("分批合并所有待合并的课程")
+    void testFold() {
+        when(courseCounterJdbcRepository.findPendingCourseIds(200)).thenReturn(List.of(1L, 2L));
+        when(courseCounterJdbcRepository.findShards(anyLong())).thenReturn(List.of());
+
+        courseCounterService.fold();
+
+        verify(courseCounterJdbcRepository).findShards(1L);
+        verify(courseCounterJdbcRepository).findShards(2L);
+        verify(courseCounterJdbcRepository, never()).applyToCourse(any(), any());
+    }
+}
@@ -0,0 +1,158 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.enums.UserCourseStatus;
+import com.zhangziqi.online_course_mine.repository.UserCourseRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static com.zhangziqi.online_course_mine.service.impl.LearningRecordFixtures.runPipeline;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CourseEntitlementCacheTest {
+
+    @Mock
+    private UserCourseRepository userCourseRepository;
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private RedisOperations<String, String> operations;
+
+    @InjectMocks
+    private CourseEntitlementCache courseEntitlementCache;
+
+    @Test
+    @DisplayName("缓存未命中时查询数据库并写入Redis，之后命中本地缓存")
+    void testLoadFromDatabase() {
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.members("entitlement:courses:1")).thenReturn(Set.of());
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(userCourseRepository.findUnexpiredCourseIdsByUserIdAndStatus(eq(1L), eq(UserCourseStatus.NORMAL.getValue()), any()))
+                .thenReturn(List.of(2L, 3L));
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(1L);
+
+        assertTrue(courseEntitlementCache.hasEntitlement(1L, 2L));
+        assertFalse(courseEntitlementCache.hasEntitlement(1L, 4L));
+        assertTrue(courseEntitlementCache.hasEntitlement(1L, 3L));
+
+        // 只访问一次Redis和数据库
+        verify(setOperations, times(1)).members(any());
+        verify(userCourseRepository, times(1)).findUnexpiredCourseIdsByUserIdAndStatus(any(), any(), any());
+
+        // 按查询前读取的版本号（从未失效过为0）条件写入
+        ArgumentCaptor<Object[]> argsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(stringRedisTemplate).execute(any(RedisScript.class),
+                eq(List.of("entitlement:courses:1", "entitlement:generation:1")), argsCaptor.capture());
+        List<Object> args = Arrays.asList(argsCaptor.getValue());
+        assertEquals("0", args.get(0));
+        assertEquals(Set.of("2", "3"), Set.copyOf(args.subList(2, args.size())));
+    }
+
+    @Test
+    @DisplayName("查询数据库期间已失效时不写入任何缓存")
+    void testLoadInvalidatedDuringQuery() {
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.members("entitlement:courses:1")).thenReturn(Set.of());
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("entitlement:generation:1")).thenReturn("3");
+        when(userCourseRepository.findUnexpiredCourseIdsByUserIdAndStatus(eq(1L), eq(UserCourseStatus.NORMAL.getValue()), any()))
+                .thenReturn(List.of(2L));
+        // 版本号已变化，脚本放弃写入
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(0L);
+
+        assertEquals(Set.of(2L), courseEntitlementCache.getEntitledCourseIds(1L));
+        courseEntitlementCache.getEntitledCourseIds(1L);
+
+        // 没有写入本地缓存，第二次仍然查询
+        verify(userCourseRepository, times(2)).findUnexpiredCourseIdsByUserIdAndStatus(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("命中Redis缓存时不查询数据库")
+    void testLoadFromRedis() {
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.members("entitlement:courses:1")).thenReturn(Set.of("2"));
+
+        assertEquals(Set.of(2L), courseEntitlementCache.getEntitledCourseIds(1L));
+        verifyNoInteractions(userCourseRepository);
+    }
+
+    @Test
+    @DisplayName("没有课程的用户使用占位符缓存")
+    void testEmptyMarker() {
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.members("entitlement:courses:1")).thenReturn(Set.of("0"));
+
+        assertTrue(courseEntitlementCache.getEntitledCourseIds(1L).isEmpty());
+        verifyNoInteractions(userCourseRepository);
+    }
+
+    @Test
+    @DisplayName("失效后重新加载并通知其他实例")
+    void testInvalidate() {
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.members("entitlement:courses:1")).thenReturn(Set.of("2"), Set.of("2", "3"));
+
+        assertFalse(courseEntitlementCache.hasEntitlement(1L, 3L));
+
+        // 不在事务中时立即失效，先递增版本号再删除缓存
+        courseEntitlementCache.invalidate(1L);
+        when(operations.opsForValue()).thenReturn(valueOperations);
+        runPipeline(stringRedisTemplate, operations);
+        InOrder inOrder = inOrder(valueOperations, operations);
+        inOrder.verify(valueOperations).increment("entitlement:generation:1");
+        inOrder.verify(operations).delete("entitlement:courses:1");
+        verify(stringRedisTemplate).convertAndSend("entitlement:invalidate", "1");
+
+        assertTrue(courseEntitlementCache.hasEntitlement(1L, 3L));
+    }
+
+    @Test
+    @DisplayName("收到失效通知时清除本地缓存")
+    void testOnMessage() {
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.members("entitlement:courses:1")).thenReturn(Set.of("2"));
+
+        courseEntitlementCache.getEntitledCourseIds(1L);
+        courseEntitlementCache.onMessage(new DefaultMessage(
+                "entitlement:invalidate".getBytes(StandardCharsets.UTF_8), "1".getBytes(StandardCharsets.UTF_8)), null);
+        courseEntitlementCache.getEntitledCourseIds(1L);
+
+        verify(setOperations, times(2)).members("entitlement:courses:1");
+    }
+}
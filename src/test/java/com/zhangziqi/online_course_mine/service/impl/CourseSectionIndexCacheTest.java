@@ -0,0 +1,106 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.repository.CourseRepository;
+import com.zhangziqi.online_course_mine.service.impl.CourseSectionIndexCache.CourseSectionIndex;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CourseSectionIndexCacheTest {
+
+    @Mock
+    private CourseRepository courseRepository;
+
+    @InjectMocks
+    private CourseSectionIndexCache courseSectionIndexCache;
+
+    private List<Object[]> outline(Integer dataVersion) {
+        return Arrays.asList(
+                new Object[]{dataVersion, 10L, 30, 100L},
+                new Object[]{dataVersion, 10L, 30, 101L},
+                new Object[]{dataVersion, 11L, null, null},
+                new Object[]{dataVersion, 12L, 15, 102L});
+    }
+
+    private Course course(Integer dataVersion) {
+        Course course = Course.builder().id(1L).build();
+        course.setDataVersion(dataVersion);
+        return course;
+    }
+
+    @Test
+    @DisplayName("由课程大纲构建小节序号索引")
+    void testBuildIndex() {
+        CourseSectionIndex index = CourseSectionIndex.build(outline(3));
+
+        assertEquals(3, index.getDataVersion());
+        assertEquals(3, index.getTotalSections());
+        assertEquals(1, index.getSectionOrdinal(10L, 100L));
+        assertEquals(2, index.getSectionOrdinal(10L, 101L));
+        assertEquals(3, index.getSectionOrdinal(12L, 102L));
+
+        // 小节不属于该章节或不存在时序号为0
+        assertEquals(0, index.getSectionOrdinal(12L, 100L));
+        assertEquals(0, index.getSectionOrdinal(10L, 999L));
+        assertEquals(0, index.getSectionOrdinal(10L, null));
+
+        // 没有小节的章节也记录预计学习时长
+        assertTrue(index.containsChapter(11L));
+        assertNull(index.getChapterEstimatedMinutes(11L));
+        assertEquals(30, index.getChapterEstimatedMinutes(10L));
+        assertFalse(index.containsChapter(99L));
+    }
+
+    @Test
+    @DisplayName("没有章节的课程")
+    void testBuildEmptyIndex() {
+        CourseSectionIndex index = CourseSectionIndex.build(List.<Object[]>of(new Object[]{0, null, null, null}));
+
+        assertEquals(0, index.getDataVersion());
+        assertEquals(0, index.getTotalSections());
+        assertFalse(index.containsChapter(10L));
+    }
+
+    @Test
+    @DisplayName("数据版本一致时命中缓存，版本变化后重建")
+    void testGetIndexByDataVersion() {
+        when(courseRepository.findSectionOutlineByCourseId(1L)).thenReturn(outline(3), outline(4));
+
+        CourseSectionIndex first = courseSectionIndexCache.getIndex(course(3));
+        assertSame(first, courseSectionIndexCache.getIndex(course(3)));
+        verify(courseRepository, times(1)).findSectionOutlineByCourseId(1L);
+
+        // 课程重新发布后数据版本变化
+        CourseSectionIndex second = courseSectionIndexCache.getIndex(course(4));
+        assertNotSame(first, second);
+        assertEquals(4, second.getDataVersion());
+        verify(courseRepository, times(2)).findSectionOutlineByCourseId(1L);
+    }
+
+    @Test
+    @DisplayName("发布时重建索引，下线时清除索引")
+    void testRebuildAndEvict() {
+        when(courseRepository.findSectionOutlineByCourseId(1L)).thenReturn(outline(3));
+
+        // 不在事务中时立即重建
+        courseSectionIndexCache.rebuild(1L);
+        verify(courseRepository, times(1)).findSectionOutlineByCourseId(1L);
+        courseSectionIndexCache.getIndex(course(3));
+        verify(courseRepository, times(1)).findSectionOutlineByCourseId(1L);
+
+        courseSectionIndexCache.evict(1L);
+        courseSectionIndexCache.getIndex(course(3));
+        verify(courseRepository, times(2)).findSectionOutlineByCourseId(1L);
+    }
+}
@@ -0,0 +1,126 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DashboardComposerTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private DashboardComposer composer(long timeoutMs) {
+        DashboardComposer composer = new DashboardComposer(executor, transactionManager);
+        ReflectionTestUtils.setField(composer, "sectionTimeoutMs", timeoutMs);
+        return composer;
+    }
+
+    @Test
+    @DisplayName("分区并行执行")
+    void testSectionsRunConcurrently() {
+        // 两个分区互相等待，只有并行执行时才能都在超时前完成
+        CountDownLatch latch = new CountDownLatch(2);
+        AtomicLong first = new AtomicLong();
+        AtomicLong second = new AtomicLong();
+
+        List<String> unavailable = composer(2000).begin("test")
+                .section("first", () -> await(latch, 1L), 0L, first::set)
+                .section("second", () -> await(latch, 2L), 0L, second::set)
+                .join();
+
+        assertTrue(unavailable.isEmpty());
+        assertEquals(1L, first.get());
+        assertEquals(2L, second.get());
+    }
+
+    @Test
+    @DisplayName("超时或失败的分区使用默认值")
+    void testSlowAndFailedSections() {
+        AtomicLong fast = new AtomicLong();
+        AtomicLong slow = new AtomicLong(-1);
+        AtomicLong failed = new AtomicLong(-1);
+
+        long start = System.nanoTime();
+        List<String> unavailable = composer(100).begin("test")
+                .section("fast", () -> 1L, 0L, fast::set)
+                .section("slow", () -> await(new CountDownLatch(2), 2L), 0L, slow::set)
+                .section("failed", () -> {
+                    throw new IllegalStateException("query failed");
+                }, 0L, failed::set)
+                .join();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1L, fast.get());
+        assertEquals(0L, slow.get());
+        assertEquals(0L, failed.get());
+        assertTrue(unavailable.containsAll(List.of("slow", "failed")));
+        assertEquals(2, unavailable.size());
+        // 不等待慢分区完成
+        assertTrue(elapsedMs < 2000, "elapsed " + elapsedMs + "ms");
+    }
+
+    @Test
+    @DisplayName("线程池拒绝任务时使用默认值")
+    void testRejectedSection() {
+        DashboardComposer composer = new DashboardComposer(task -> {
+            throw new RejectedExecutionException("queue full");
+        }, transactionManager);
+        AtomicReference<String> value = new AtomicReference<>();
+
+        List<String> unavailable = composer.begin("test")
+                .section("rejected", () -> "value", "fallback", value::set)
+                .join();
+
+        assertEquals("fallback", value.get());
+        assertEquals(List.of("rejected"), unavailable);
+    }
+
+    @Test
+    @DisplayName("分区查询在带超时的只读事务中执行")
+    void testSectionTransactionTimeout() {
+        AtomicLong value = new AtomicLong();
+
+        List<String> unavailable = composer(2500).begin("test")
+                .section("query", () -> 1L, 0L, value::set)
+                .join();
+
+        ArgumentCaptor<TransactionDefinition> definition = ArgumentCaptor.forClass(TransactionDefinition.class);
+        verify(transactionManager).getTransaction(definition.capture());
+        assertTrue(definition.getValue().isReadOnly());
+        assertEquals(3, definition.getValue().getTimeout());
+        assertTrue(unavailable.isEmpty());
+        assertEquals(1L, value.get());
+    }
+
+    private static long await(CountDownLatch latch, long value) {
+        latch.countDown();
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return value;
+    }
+}
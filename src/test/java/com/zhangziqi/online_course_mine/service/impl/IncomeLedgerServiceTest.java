@@ -0,0 +1,120 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.model.entity.Institution;
+import com.zhangziqi.online_course_mine.model.entity.Order;
+import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
+import com.zhangziqi.online_course_mine.repository.InstitutionIncomeLedgerRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class IncomeLedgerServiceTest {
+
+    private static final LocalDateTime PAID_AT = LocalDateTime.of(2024, 3, 1, 10, 0);
+    private static final LocalDateTime REFUNDED_AT = LocalDateTime.of(2024, 3, 5, 9, 0);
+
+    @Mock
+    private InstitutionIncomeLedgerRepository incomeLedgerRepository;
+
+    @InjectMocks
+    private IncomeLedgerService incomeLedgerService;
+
+    private Order order;
+
+    @BeforeEach
+    void setUp() {
+        order = Order.builder()
+                .orderNo("ORDER001")
+                .institution(Institution.builder().id(1L).build())
+                .course(Course.builder().id(10L).build())
+                .amount(new BigDecimal("99.00"))
+                .status(OrderStatus.PENDING.getValue())
+                .build();
+    }
+
+    @Test
+    @DisplayName("支付成功时在支付日期计入收入")
+    void testPaidAddsIncome() {
+        IncomeLedgerService.Contribution before = incomeLedgerService.snapshot(order);
+        order.setStatus(OrderStatus.PAID.getValue());
+        order.setPaidAt(PAID_AT);
+
+        incomeLedgerService.apply(order, before);
+
+        verify(incomeLedgerRepository).accumulate(LocalDate.of(2024, 3, 1), 1L, 10L,
+                new BigDecimal("99.00"), BigDecimal.ZERO, 1L, 0L);
+        verifyNoMoreInteractions(incomeLedgerRepository);
+    }
+
+    @Test
+    @DisplayName("申请退款仍计入收入，台账不变")
+    void testRefundingKeepsIncome() {
+        order.setStatus(OrderStatus.PAID.getValue());
+        order.setPaidAt(PAID_AT);
+        IncomeLedgerService.Contribution before = incomeLedgerService.snapshot(order);
+        order.setStatus(OrderStatus.REFUNDING.getValue());
+        order.setRefundAmount(new BigDecimal("50.00"));
+
+        incomeLedgerService.apply(order, before);
+
+        verifyNoInteractions(incomeLedgerRepository);
+    }
+
+    @Test
+    @DisplayName("退款成功时撤销支付日期的收入并在退款日期计入退款")
+    void testRefundedMovesIncomeToRefund() {
+        order.setStatus(OrderStatus.REFUNDING.getValue());
+        order.setPaidAt(PAID_AT);
+        IncomeLedgerService.Contribution before = incomeLedgerService.snapshot(order);
+        order.setStatus(OrderStatus.REFUNDED.getValue());
+        order.setRefundAmount(new BigDecimal("50.00"));
+        order.setRefundedAt(REFUNDED_AT);
+
+        incomeLedgerService.apply(order, before);
+
+        verify(incomeLedgerRepository).accumulate(LocalDate.of(2024, 3, 1), 1L, 10L,
+                new BigDecimal("-99.00"), BigDecimal.ZERO, -1L, 0L);
+        verify(incomeLedgerRepository).accumulate(LocalDate.of(2024, 3, 5), 1L, 10L,
+                BigDecimal.ZERO, new BigDecimal("50.00"), 0L, 1L);
+    }
+
+    @Test
+    @DisplayName("退款失败时撤销收入")
+    void testRefundFailedRemovesIncome() {
+        order.setStatus(OrderStatus.REFUNDING.getValue());
+        order.setPaidAt(PAID_AT);
+        IncomeLedgerService.Contribution before = incomeLedgerService.snapshot(order);
+        order.setStatus(OrderStatus.REFUND_FAILED.getValue());
+
+        incomeLedgerService.apply(order, before);
+
+        verify(incomeLedgerRepository).accumulate(LocalDate.of(2024, 3, 1), 1L, 10L,
+                new BigDecimal("-99.00"), BigDecimal.ZERO, -1L, 0L);
+    }
+
+    @Test
+    @DisplayName("新建的免费订单计入订单数")
+    void testNewFreeOrder() {
+        order.setAmount(BigDecimal.ZERO);
+        order.setStatus(OrderStatus.PAID.getValue());
+        order.setPaidAt(PAID_AT);
+
+        incomeLedgerService.apply(order, IncomeLedgerService.Contribution.NONE);
+
+        verify(incomeLedgerRepository).accumulate(eq(LocalDate.of(2024, 3, 1)), eq(1L), eq(10L),
+                eq(BigDecimal.ZERO), eq(BigDecimal.ZERO), eq(1L), eq(0L));
+    }
+}
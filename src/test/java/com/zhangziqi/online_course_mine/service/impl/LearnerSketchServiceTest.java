@@ -0,0 +1,108 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.service.impl.LearnerSketchService.Scope;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.HyperLogLogOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.zhangziqi.online_course_mine.service.impl.LearningRecordFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LearnerSketchServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private CourseInstitutionCache courseInstitutionCache;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private RedisOperations<String, String> operations;
+
+    @Mock
+    private HyperLogLogOperations<String, String> hyperLogLogOperations;
+
+    @InjectMocks
+    private LearnerSketchService learnerSketchService;
+
+    @Test
+    @DisplayName("按课程、机构和全平台写入累计键和按日键")
+    void testAddAll() {
+        when(courseInstitutionCache.getInstitutionIds(any())).thenReturn(Map.of(10L, 5L));
+
+        when(operations.opsForHyperLogLog()).thenReturn(hyperLogLogOperations);
+
+        learnerSketchService.onRecordsCommitted(committed(record(1L, 10L, 60), record(2L, 10L, 30), record(3L, 10L, null)));
+        runPipeline(stringRedisTemplate, operations);
+
+        String today = LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+        // 同一键的用户合并为一次写入，没有持续时长的记录不计入
+        verify(hyperLogLogOperations).add("learners:hll:platform", "1", "2");
+        verify(hyperLogLogOperations).add("learners:hll:course:10", "1", "2");
+        verify(hyperLogLogOperations).add("learners:hll:institution:5", "1", "2");
+        verify(hyperLogLogOperations).add("learners:hll:platform:" + today, "1", "2");
+        verify(hyperLogLogOperations).add("learners:hll:course:10:" + today, "1", "2");
+        verify(hyperLogLogOperations).add("learners:hll:institution:5:" + today, "1", "2");
+        verify(operations, times(3)).expire(endsWith(today), eq(400L), eq(TimeUnit.DAYS));
+        verify(operations, never()).expire(eq("learners:hll:platform"), anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("写入失败不影响学习记录")
+    void testAddFailure() {
+        when(stringRedisTemplate.executePipelined(any(SessionCallback.class)))
+                .thenThrow(new RuntimeException("redis down"));
+
+        assertDoesNotThrow(() -> learnerSketchService.add(1L, 10L, 5L, LocalDate.now()));
+    }
+
+    @Test
+    @DisplayName("日期范围内的人数由按日键合并得到")
+    @SuppressWarnings("unchecked")
+    void testCountDateRange() {
+        when(stringRedisTemplate.hasKey("learners:hll:ready")).thenReturn(true);
+        when(stringRedisTemplate.opsForHyperLogLog()).thenReturn((HyperLogLogOperations) hyperLogLogOperations);
+        when(hyperLogLogOperations.size(any(String[].class))).thenReturn(7L);
+
+        LocalDate endDate = LocalDate.now();
+        Optional<Long> count = learnerSketchService.count(Scope.COURSE, 10L, endDate.minusDays(2), endDate);
+
+        assertEquals(Optional.of(7L), count);
+        ArgumentCaptor<String[]> keys = ArgumentCaptor.forClass(String[].class);
+        verify(hyperLogLogOperations).size(keys.capture());
+        assertEquals(3, keys.getValue().length);
+        assertEquals("learners:hll:course:10:" + endDate.format(DateTimeFormatter.BASIC_ISO_DATE), keys.getValue()[2]);
+    }
+
+    @Test
+    @DisplayName("尚未重建或超出保留期时返回空")
+    void testCountUnavailable() {
+        when(stringRedisTemplate.hasKey("learners:hll:ready")).thenReturn(false);
+
+        assertTrue(learnerSketchService.count(Scope.PLATFORM, null).isEmpty());
+        assertTrue(learnerSketchService.count(Scope.PLATFORM, null,
+                LocalDate.now().minusYears(2), LocalDate.now()).isEmpty());
+        verify(stringRedisTemplate, never()).opsForHyperLogLog();
+    }
+}
@@ -0,0 +1,202 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.zhangziqi.online_course_mine.service.impl.LearningRecordFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LearningAnalyticsSnapshotTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private CourseInstitutionCache courseInstitutionCache;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @InjectMocks
+    private LearningAnalyticsSnapshot learningAnalyticsSnapshot;
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 4);
+
+    /**
+     * 加载一个空快照，之后的记录通过追加写入
+     */
+    private void loadEmpty() {
+        assertTrue(learningAnalyticsSnapshot.rebuild());
+        when(courseInstitutionCache.getInstitutionIds(any())).thenReturn(Map.of(10L, 1L, 11L, 1L, 20L, 2L));
+    }
+
+    @Test
+    @DisplayName("加载前没有快照，统计回退到数据库")
+    void testNotReady() {
+        assertFalse(learningAnalyticsSnapshot.isReady());
+        assertTrue(learningAnalyticsSnapshot.totals(null, null).isEmpty());
+        assertTrue(learningAnalyticsSnapshot.byDay(DAY, DAY).isEmpty());
+
+        // 没有快照时追加的记录被丢弃
+        learningAnalyticsSnapshot.onRecordsCommitted(committed(record(1L, 10L, "VIDEO_WATCH", DAY.atTime(10, 0), 60)));
+        assertTrue(learningAnalyticsSnapshot.totals(null, null).isEmpty());
+    }
+
+    @Test
+    @DisplayName("从学习记录表流式加载")
+    void testRebuild() throws Exception {
+        when(resultSet.getLong(1)).thenReturn(1L, 2L);
+        when(resultSet.getLong(2)).thenReturn(10L, 20L);
+        when(resultSet.getLong(3)).thenReturn(1L, 0L);
+        when(resultSet.wasNull()).thenReturn(false, true);
+        when(resultSet.getString(4)).thenReturn("VIDEO_WATCH", "QUIZ_ATTEMPT");
+        when(resultSet.getDate(5)).thenReturn(Date.valueOf(DAY), Date.valueOf(DAY.plusDays(1)));
+        when(resultSet.getInt(6)).thenReturn(60, 30);
+        Connection connection = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(ps);
+        doAnswer(invocation -> {
+            PreparedStatementCreator creator = invocation.getArgument(0);
+            creator.createPreparedStatement(connection);
+            RowCallbackHandler handler = invocation.getArgument(1);
+            handler.processRow(resultSet);
+            handler.processRow(resultSet);
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        assertTrue(learningAnalyticsSnapshot.rebuild());
+
+        // 逐行读取结果集，不一次性加载到内存
+        verify(ps).setFetchSize(Integer.MIN_VALUE);
+        assertArrayEquals(new long[]{90L, 2L}, learningAnalyticsSnapshot.totals(null, null).orElseThrow());
+        assertArrayEquals(new long[]{60L, 1L}, learningAnalyticsSnapshot.totals(DAY, DAY).orElseThrow());
+        // 没有机构的课程不参与机构统计
+        List<LearningAnalyticsSnapshot.InstitutionTotals> institutions =
+                learningAnalyticsSnapshot.byInstitution(null, null).orElseThrow();
+        assertEquals(1, institutions.size());
+        assertEquals(1L, institutions.get(0).getInstitutionId());
+    }
+
+    @Test
+    @DisplayName("追加记录后按日期、活动类型和机构分组")
+    void testGroupBy() {
+        loadEmpty();
+        learningAnalyticsSnapshot.onRecordsCommitted(committed(
+                record(1L, 10L, "VIDEO_WATCH", DAY.atTime(10, 0), 60),
+                record(1L, 11L, "VIDEO_WATCH", DAY.atTime(10, 0), 40),
+                record(2L, 10L, "QUIZ_ATTEMPT", DAY.plusDays(2).atTime(10, 0), 30),
+                record(3L, 20L, "VIDEO_WATCH", DAY.plusDays(2).atTime(10, 0), 10),
+                record(4L, 20L, "VIDEO_WATCH", DAY.atTime(10, 0), null)));
+
+        Map<LocalDate, long[]> days = learningAnalyticsSnapshot.byDay(DAY, DAY.plusDays(6)).orElseThrow();
+        assertEquals(List.of(DAY, DAY.plusDays(2)), new ArrayList<>(days.keySet()));
+        assertArrayEquals(new long[]{100L, 2L}, days.get(DAY));
+        assertArrayEquals(new long[]{40L, 2L}, days.get(DAY.plusDays(2)));
+
+        Map<String, long[]> types = learningAnalyticsSnapshot.byActivityType().orElseThrow();
+        assertArrayEquals(new long[]{110L, 3L}, types.get("VIDEO_WATCH"));
+        assertArrayEquals(new long[]{30L, 1L}, types.get("QUIZ_ATTEMPT"));
+
+        List<LearningAnalyticsSnapshot.InstitutionTotals> institutions =
+                learningAnalyticsSnapshot.byInstitution(DAY.plusDays(1), DAY.plusDays(2)).orElseThrow();
+        assertEquals(2, institutions.size());
+        LearningAnalyticsSnapshot.InstitutionTotals first = institutions.get(0);
+        assertEquals(1L, first.getInstitutionId());
+        assertEquals(1L, first.getLearnerCount());
+        assertEquals(30L, first.getDuration());
+        assertEquals(1L, learningAnalyticsSnapshot.byInstitution(null, null).orElseThrow().get(1).getLearnerCount());
+        assertEquals(2L, learningAnalyticsSnapshot.byInstitution(null, null).orElseThrow().get(0).getCourseCount());
+    }
+
+    @Test
+    @DisplayName("累加到已有聚合记录的记录只计时长")
+    void testMergedRecord() {
+        loadEmpty();
+        LearningRecord first = record(1L, 10L, "VIDEO_WATCH", DAY.atTime(10, 0), 60);
+        LearningRecord merged = record(1L, 10L, "VIDEO_WATCH", DAY.atTime(11, 0), 30);
+        learningAnalyticsSnapshot.onRecordsCommitted(committed(first));
+        learningAnalyticsSnapshot.onRecordsCommitted(new LearningRecordsCommittedEvent(List.of(merged), Set.of(merged)));
+
+        assertArrayEquals(new long[]{90L, 1L}, learningAnalyticsSnapshot.totals(null, null).orElseThrow());
+    }
+
+    @Test
+    @DisplayName("并行扫描与顺序扫描结果一致")
+    void testParallelScan() {
+        loadEmpty();
+        List<LearningRecord> records = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            records.add(record((long) (i % 500), i % 3 == 0 ? 20L : 10L, i % 2 == 0 ? "VIDEO_WATCH" : "QUIZ_ATTEMPT",
+                    DAY.plusDays(i % 7).atTime(10, 0), i % 100));
+        }
+        learningAnalyticsSnapshot.onRecordsCommitted(committed(records));
+
+        Map<LocalDate, long[]> sequential = learningAnalyticsSnapshot.byDay(DAY, DAY.plusDays(6)).orElseThrow();
+        List<LearningAnalyticsSnapshot.InstitutionTotals> sequentialInstitutions =
+                learningAnalyticsSnapshot.byInstitution(null, null).orElseThrow();
+
+        ReflectionTestUtils.setField(learningAnalyticsSnapshot, "parallelThreshold", 1);
+        Map<LocalDate, long[]> parallel = learningAnalyticsSnapshot.byDay(DAY, DAY.plusDays(6)).orElseThrow();
+        List<LearningAnalyticsSnapshot.InstitutionTotals> parallelInstitutions =
+                learningAnalyticsSnapshot.byInstitution(null, null).orElseThrow();
+
+        assertEquals(sequential.keySet(), parallel.keySet());
+        sequential.forEach((day, totals) -> assertArrayEquals(totals, parallel.get(day)));
+        for (int i = 0; i < sequentialInstitutions.size(); i++) {
+            assertEquals(sequentialInstitutions.get(i).getLearnerCount(), parallelInstitutions.get(i).getLearnerCount());
+            assertEquals(sequentialInstitutions.get(i).getDuration(), parallelInstitutions.get(i).getDuration());
+        }
+        assertEquals(500L, parallelInstitutions.get(0).getLearnerCount());
+    }
+
+    @Test
+    @DisplayName("加载期间提交的记录在加载完成后追加")
+    void testAppendDuringRebuild() {
+        when(courseInstitutionCache.getInstitutionIds(any())).thenReturn(Map.of(10L, 1L));
+        doAnswer(invocation -> {
+            learningAnalyticsSnapshot.onRecordsCommitted(committed(record(1L, 10L, "VIDEO_WATCH", DAY.atTime(10, 0), 60)));
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        learningAnalyticsSnapshot.rebuild();
+
+        assertArrayEquals(new long[]{60L, 1L}, learningAnalyticsSnapshot.totals(null, null).orElseThrow());
+    }
+
+    @Test
+    @DisplayName("超过记录上限时放弃快照")
+    void testMaxRows() {
+        ReflectionTestUtils.setField(learningAnalyticsSnapshot, "maxRows", 2);
+        loadEmpty();
+
+        learningAnalyticsSnapshot.onRecordsCommitted(committed(
+                record(1L, 10L, "VIDEO_WATCH", DAY.atTime(10, 0), 60),
+                record(2L, 10L, "VIDEO_WATCH", DAY.atTime(10, 0), 60),
+                record(3L, 10L, "VIDEO_WATCH", DAY.atTime(10, 0), 60)));
+
+        assertFalse(learningAnalyticsSnapshot.isReady());
+    }
+}
@@ -0,0 +1,109 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.zhangziqi.online_course_mine.service.impl.LearningRecordFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LearningHeatmapServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private CourseEntitlementCache courseEntitlementCache;
+
+    @Mock
+    private RedisOperations<String, String> operations;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @InjectMocks
+    private LearningHeatmapService learningHeatmapService;
+
+    @Test
+    @DisplayName("按用户和用户课程累加活动开始所在小时的时长")
+    @SuppressWarnings("unchecked")
+    void testAddAll() {
+        LocalDateTime startTime = LocalDateTime.of(2024, 3, 5, 9, 30);
+        learningHeatmapService.onRecordsCommitted(committed(record(1L, 10L, startTime, 60), record(1L, 10L, startTime.plusMinutes(10), 30),
+                record(1L, 10L, startTime, null)));
+
+        ArgumentCaptor<SessionCallback<List<Object>>> captor = ArgumentCaptor.forClass(SessionCallback.class);
+        verify(stringRedisTemplate).executePipelined(captor.capture());
+        when(operations.opsForHash()).thenReturn((HashOperations) hashOperations);
+        captor.getValue().execute(operations);
+
+        verify(hashOperations).increment("heatmap:user:1:202403", "0509", 90L);
+        verify(hashOperations).increment("heatmap:user:1:course:10:202403", "0509", 90L);
+        verify(operations).expire("heatmap:user:1:202403", 400L, TimeUnit.DAYS);
+    }
+
+    @Test
+    @DisplayName("跨月读取并按日期和星期-小时汇总")
+    void testGetHourOfWeek() {
+        LocalDate endDate = LocalDate.now();
+        LocalDate startDate = endDate.minusMonths(1).withDayOfMonth(1);
+        when(stringRedisTemplate.hasKey("heatmap:ready")).thenReturn(true);
+        when(stringRedisTemplate.executePipelined(any(SessionCallback.class))).thenReturn(Arrays.asList(
+                Map.of("0109", "100", "0110", "20"), null));
+
+        Optional<Map<String, Integer>> byDate = learningHeatmapService.getByDate(1L, null, startDate, endDate);
+        Optional<Map<Integer, Map<Integer, Integer>>> byHour =
+                learningHeatmapService.getHourOfWeek(1L, null, startDate, endDate);
+
+        assertEquals(Map.of(startDate.toString(), 120), byDate.orElseThrow());
+        int weekday = startDate.getDayOfWeek().getValue() % 7 + 1;
+        assertEquals(Map.of(weekday, Map.of(9, 100, 10, 20)), byHour.orElseThrow());
+        List<Object[]> rows = LearningHeatmapService.toHourOfWeekRows(byHour.get());
+        assertEquals(2, rows.size());
+    }
+
+    @Test
+    @DisplayName("尚未重建或超出保留期时返回空")
+    void testNotReady() {
+        when(stringRedisTemplate.hasKey("heatmap:ready")).thenReturn(false);
+
+        assertTrue(learningHeatmapService.getHourOfWeek(1L, null, LocalDate.now().minusDays(30), LocalDate.now()).isEmpty());
+        assertTrue(learningHeatmapService.getByDate(1L, null, LocalDate.now().minusYears(2), LocalDate.now()).isEmpty());
+        verify(stringRedisTemplate, never()).executePipelined(any(SessionCallback.class));
+    }
+
+    @Test
+    @DisplayName("用户课程已退款时课程热力图为空")
+    void testCourseHeatmapWithoutEntitlement() {
+        when(courseEntitlementCache.hasEntitlement(1L, 10L)).thenReturn(false);
+
+        Optional<Map<Integer, Map<Integer, Integer>>> heatmap =
+                learningHeatmapService.getCourseHourOfWeek(1L, 10L, LocalDate.now().minusDays(30), LocalDate.now());
+
+        assertEquals(Optional.of(Map.of()), heatmap);
+        verifyNoInteractions(stringRedisTemplate);
+    }
+}
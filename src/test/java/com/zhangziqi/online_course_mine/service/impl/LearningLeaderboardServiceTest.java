@@ -0,0 +1,223 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.exception.BusinessException;
+import com.zhangziqi.online_course_mine.service.impl.LearningLeaderboardService.Board;
+import com.zhangziqi.online_course_mine.service.impl.LearningLeaderboardService.Metric;
+import com.zhangziqi.online_course_mine.service.impl.LearningLeaderboardService.RankEntry;
+import com.zhangziqi.online_course_mine.service.impl.LearningLeaderboardService.Window;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.zhangziqi.online_course_mine.service.impl.LearningRecordFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LearningLeaderboardServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private CourseInstitutionCache courseInstitutionCache;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private RedisOperations<String, String> operations;
+
+    @Mock
+    private ZSetOperations<String, String> zSetOperations;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private RedisTaskLock redisTaskLock;
+
+    @Mock
+    private Cursor<String> cursor;
+
+    @InjectMocks
+    private LearningLeaderboardService learningLeaderboardService;
+
+    @Test
+    @DisplayName("按用户、课程和机构累加各时间窗口的时长和次数")
+    void testAddAll() {
+        when(courseInstitutionCache.getInstitutionIds(any())).thenReturn(Map.of(10L, 5L));
+
+        learningLeaderboardService.onRecordsCommitted(committed(record(1L, 10L, 60), record(1L, 10L, 30), record(2L, 10L, null)));
+
+        // 一次增量脚本调用写入所有排行榜，重建进行中时同时写入缓冲键
+        ArgumentCaptor<List<String>> keysCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Object[]> argsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(stringRedisTemplate).execute(any(RedisScript.class), keysCaptor.capture(), argsCaptor.capture());
+        List<String> keys = keysCaptor.getValue();
+        assertEquals("leaderboard:rebuilding", keys.get(0));
+        assertEquals("leaderboard:rebuild-buffer:" + keys.get(2), keys.get(3));
+        Map<String, Long> ttls = new HashMap<>();
+        Map<String, Map<String, String>> increments = parseIncrements(keys, Arrays.asList(argsCaptor.getValue()), ttls);
+
+        LocalDate today = LocalDate.now();
+        String day = "day:" + today.format(DateTimeFormatter.BASIC_ISO_DATE);
+        String week = "week:" + today.with(DayOfWeek.MONDAY).format(DateTimeFormatter.BASIC_ISO_DATE);
+        // 同一成员的记录合并为一次累加，没有持续时长的记录不计入
+        assertEquals(Map.of("1", "90.0"), increments.get("leaderboard:institution:5:users:duration:all"));
+        assertEquals(Map.of("1", "2.0"), increments.get("leaderboard:institution:5:users:activities:all"));
+        assertEquals(Map.of("10", "90.0"), increments.get("leaderboard:institution:5:courses:duration:" + day));
+        assertEquals(Map.of("10", "90.0"), increments.get("leaderboard:platform:courses:duration:" + week));
+        assertEquals(Map.of("5", "2.0"), increments.get("leaderboard:platform:institutions:activities:all"));
+        assertEquals(TimeUnit.DAYS.toSeconds(8), ttls.get("leaderboard:platform:courses:duration:" + day));
+        assertEquals(TimeUnit.DAYS.toSeconds(35), ttls.get("leaderboard:platform:courses:duration:" + week));
+        assertEquals(0L, ttls.get("leaderboard:platform:courses:duration:all"));
+    }
+
+    @Test
+    @DisplayName("写入失败不影响学习记录")
+    void testAddAllFailure() {
+        when(courseInstitutionCache.getInstitutionIds(any())).thenReturn(Map.of(10L, 5L));
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenThrow(new RuntimeException("redis down"));
+
+        assertDoesNotThrow(() -> learningLeaderboardService.onRecordsCommitted(committed(record(1L, 10L, 60))));
+    }
+
+    @Test
+    @DisplayName("前k名同时返回另一个指标的分数")
+    void testTop() {
+        when(stringRedisTemplate.hasKey("leaderboard:ready")).thenReturn(true);
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.reverseRangeWithScores("leaderboard:institution:5:courses:duration:all", 0, 1))
+                .thenReturn(new LinkedHashSet<>(List.of(
+                        new DefaultTypedTuple<>("11", 7200.0),
+                        new DefaultTypedTuple<>("10", 3600.0))));
+        when(zSetOperations.score("leaderboard:institution:5:courses:activities:all", "11", "10"))
+                .thenReturn(Arrays.asList(12.0, null));
+
+        Optional<List<RankEntry>> top = learningLeaderboardService.top(
+                Board.INSTITUTION_COURSES, 5L, Metric.DURATION, Window.ALL, 2);
+
+        assertTrue(top.isPresent());
+        assertEquals(2, top.get().size());
+        assertEquals(11L, top.get().get(0).getId());
+        assertEquals(7200L, top.get().get(0).getDuration());
+        assertEquals(12L, top.get().get(0).getActivityCount());
+        assertEquals(0L, top.get().get(1).getActivityCount());
+    }
+
+    @Test
+    @DisplayName("尚未重建时返回空，由数据库统计")
+    void testTopNotReady() {
+        when(stringRedisTemplate.hasKey("leaderboard:ready")).thenReturn(false);
+
+        assertTrue(learningLeaderboardService.top(Board.PLATFORM_COURSES, null, Metric.DURATION, Window.DAY, 10).isEmpty());
+        assertTrue(learningLeaderboardService.size(Board.INSTITUTION_USERS, 5L, Window.ALL).isEmpty());
+        verify(stringRedisTemplate, never()).opsForZSet();
+    }
+
+    @Test
+    @DisplayName("重建写入暂存键后切换，数据源中已没有数据的排行榜一并切换")
+    void testRebuild() throws Exception {
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(2)).run();
+            return true;
+        }).when(redisTaskLock).runExclusively(eq("leaderboard:rebuild-lock"), any(), any());
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(operations.opsForZSet()).thenReturn(zSetOperations);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong(1)).thenReturn(5L);
+        when(rs.getLong(2)).thenReturn(3600L);
+        when(rs.getLong(3)).thenReturn(4L);
+        // 只有机构累计查询返回一行，近期日汇总查询使用另一个重载，不返回数据
+        lenient().doAnswer(invocation -> {
+            if (invocation.<String>getArgument(0).startsWith("SELECT institution_id, SUM")) {
+                ((RowCallbackHandler) invocation.getArgument(1)).processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+        String stale = "leaderboard:institution:9:users:duration:all";
+        when(stringRedisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
+        doAnswer(invocation -> {
+            ((Consumer<String>) invocation.getArgument(0)).accept(stale);
+            return null;
+        }).doNothing().when(cursor).forEachRemaining(any());
+
+        assertTrue(learningLeaderboardService.rebuild());
+
+        // 变化捕获在读取数据源之前开始
+        verify(valueOperations).set("leaderboard:rebuilding", "1", Duration.ofHours(1));
+        runPipeline(stringRedisTemplate, operations);
+        String key = "leaderboard:platform:institutions:duration:all";
+        verify(operations).delete("leaderboard:rebuild-staging:" + key);
+        verify(zSetOperations).add("leaderboard:rebuild-staging:" + key, "5", 3600.0);
+
+        ArgumentCaptor<List<String>> keysCaptor = ArgumentCaptor.forClass(List.class);
+        verify(stringRedisTemplate).execute(any(RedisScript.class), keysCaptor.capture(), any(Object[].class));
+        List<String> keys = keysCaptor.getValue();
+        assertEquals("leaderboard:rebuild-switched", keys.get(0));
+        assertTrue(keys.contains(key));
+        assertTrue(keys.contains(stale));
+        verify(stringRedisTemplate, never()).delete(key);
+        verify(stringRedisTemplate).delete(List.of("leaderboard:rebuilding", "leaderboard:rebuild-switched"));
+        verify(valueOperations).set("leaderboard:ready", "1");
+    }
+
+    @Test
+    @DisplayName("未知的时间窗口")
+    void testUnknownWindow() {
+        BusinessException exception = assertThrows(BusinessException.class, () -> Window.of("month"));
+        assertEquals(400, exception.getCode());
+        assertEquals(Window.WEEK, Window.of("week"));
+    }
+
+    /**
+     * 按增量脚本的参数格式解析出每个键的增量和过期秒数
+     */
+    private static Map<String, Map<String, String>> parseIncrements(List<String> keys, List<Object> args,
+                                                                    Map<String, Long> ttls) {
+        Map<String, Map<String, String>> increments = new HashMap<>();
+        int a = 1;
+        for (int i = 2; i < keys.size(); i += 2) {
+            ttls.put(keys.get(i), Long.valueOf(args.get(a).toString()));
+            int n = Integer.parseInt(args.get(a + 1).toString());
+            a += 2;
+            Map<String, String> members = new HashMap<>();
+            for (int j = 0; j < n; j++, a += 2) {
+                members.put(args.get(a).toString(), args.get(a + 1).toString());
+            }
+            increments.put(keys.get(i), members);
+        }
+        return increments;
+    }
+}
@@ -0,0 +1,142 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.service.impl.RedisLearningRecordService.LearningRecordIncrement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LearningRecordAccumulatorTest {
+
+    @Mock
+    private RedisLearningRecordService redisLearningRecordService;
+
+    @InjectMocks
+    private LearningRecordAccumulator accumulator;
+
+    @Test
+    @DisplayName("累加后批量刷新")
+    @SuppressWarnings("unchecked")
+    void testAddAndFlush() {
+        when(redisLearningRecordService.batchUpdateLearningRecords(anyCollection()))
+                .thenAnswer(inv -> ((Collection<?>) inv.getArgument(0)).size());
+
+        accumulator.add(1L, 2L, 3L, 4L, "VIDEO_WATCH", 10, null);
+        accumulator.add(1L, 2L, null, 5L, "VIDEO_WATCH", 15, "{\"progress\":20}");
+        accumulator.add(1L, 2L, null, null, "DOCUMENT_READ", 30, null);
+
+        // 执行刷新
+        int flushed = accumulator.flush();
+
+        // 验证相同键已在内存中合并
+        assertEquals(2, flushed);
+        ArgumentCaptor<List<LearningRecordIncrement>> captor = ArgumentCaptor.forClass(List.class);
+        verify(redisLearningRecordService).batchUpdateLearningRecords(captor.capture());
+        List<LearningRecordIncrement> increments = captor.getValue();
+        assertEquals(2, increments.size());
+
+        LearningRecordIncrement video = increments.stream()
+                .filter(i -> "VIDEO_WATCH".equals(i.getActivityType())).findFirst().orElseThrow();
+        assertEquals(25, video.getDurationSeconds());
+        assertEquals(3L, video.getChapterId());
+        assertEquals(5L, video.getSectionId());
+        assertEquals("{\"progress\":20}", video.getContextData());
+        assertEquals(LocalDate.now(), video.getDate());
+    }
+
+    @Test
+    @DisplayName("没有新增量时不访问Redis并回收槽位")
+    void testFlush_EvictsIdleSlots() {
+        when(redisLearningRecordService.batchUpdateLearningRecords(anyCollection())).thenReturn(1);
+
+        accumulator.add(1L, 2L, null, null, "VIDEO_WATCH", 10, null);
+        accumulator.flush();
+        assertEquals(1, accumulator.size());
+
+        // 第二次刷新没有新增量，槽位被回收
+        assertEquals(0, accumulator.flush());
+        assertEquals(0, accumulator.size());
+        verify(redisLearningRecordService, times(1)).batchUpdateLearningRecords(anyCollection());
+    }
+
+    @Test
+    @DisplayName("刷新失败时保留时长")
+    @SuppressWarnings("unchecked")
+    void testFlush_RestoreOnFailure() {
+        when(redisLearningRecordService.batchUpdateLearningRecords(anyCollection()))
+                .thenThrow(new RuntimeException("Redis不可用"))
+                .thenReturn(1);
+
+        accumulator.add(1L, 2L, 3L, null, "VIDEO_WATCH", 10, null);
+        assertEquals(0, accumulator.flush());
+
+        accumulator.add(1L, 2L, null, null, "VIDEO_WATCH", 5, null);
+        assertEquals(1, accumulator.flush());
+
+        ArgumentCaptor<List<LearningRecordIncrement>> captor = ArgumentCaptor.forClass(List.class);
+        verify(redisLearningRecordService, times(2)).batchUpdateLearningRecords(captor.capture());
+        LearningRecordIncrement retried = captor.getAllValues().get(1).get(0);
+        assertEquals(15, retried.getDurationSeconds());
+        assertEquals(3L, retried.getChapterId());
+    }
+
+    @Test
+    @DisplayName("并发累加与刷新不丢失时长")
+    void testConcurrentAddAndFlush() throws Exception {
+        AtomicLong flushedDuration = new AtomicLong();
+        when(redisLearningRecordService.batchUpdateLearningRecords(anyCollection())).thenAnswer(inv -> {
+            Collection<LearningRecordIncrement> batch = inv.getArgument(0);
+            batch.forEach(i -> flushedDuration.addAndGet(i.getDurationSeconds()));
+            return batch.size();
+        });
+
+        int threads = 8;
+        int addsPerThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long courseId = t % 3;
+            tasks.add(() -> {
+                for (int i = 0; i < addsPerThread; i++) {
+                    accumulator.add(1L, courseId, null, null, "VIDEO_WATCH", 1, null);
+                }
+                done.countDown();
+            });
+        }
+        tasks.forEach(executor::submit);
+
+        // 累加过程中不断刷新
+        executor.submit(() -> {
+            while (done.getCount() > 0) {
+                accumulator.flush();
+            }
+        });
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        accumulator.flush();
+        assertEquals((long) threads * addsPerThread, flushedDuration.get());
+    }
+}
@@ -0,0 +1,62 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
+import com.zhangziqi.online_course_mine.model.entity.User;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.mockito.Mockito.verify;
+
+/**
+ * 学习记录投影测试共用的数据和管道辅助方法
+ */
+final class LearningRecordFixtures {
+
+    private LearningRecordFixtures() {
+    }
+
+    static LearningRecord record(Long userId, Long courseId, String activityType, LocalDateTime startTime,
+                                 Integer duration) {
+        return LearningRecord.builder()
+                .user(User.builder().id(userId).build())
+                .course(Course.builder().id(courseId).build())
+                .activityType(activityType)
+                .activityStartTime(startTime)
+                .durationSeconds(duration)
+                .build();
+    }
+
+    static LearningRecord record(Long userId, Long courseId, LocalDateTime startTime, Integer duration) {
+        return record(userId, courseId, null, startTime, duration);
+    }
+
+    static LearningRecord record(Long userId, Long courseId, Integer duration) {
+        return record(userId, courseId, LocalDateTime.now(), duration);
+    }
+
+    static LearningRecordsCommittedEvent committed(LearningRecord... records) {
+        return committed(List.of(records));
+    }
+
+    static LearningRecordsCommittedEvent committed(List<LearningRecord> records) {
+        return new LearningRecordsCommittedEvent(records);
+    }
+
+    /**
+     * 捕获提交到Redis的管道回调，并在给定的操作对象上执行一次
+     * 调用前需要先为operations配置回调中用到的操作类型
+     */
+    @SuppressWarnings("unchecked")
+    static void runPipeline(StringRedisTemplate stringRedisTemplate, RedisOperations<String, String> operations) {
+        ArgumentCaptor<SessionCallback<List<Object>>> captor = ArgumentCaptor.forClass(SessionCallback.class);
+        verify(stringRedisTemplate).executePipelined(captor.capture());
+        captor.getValue().execute(operations);
+    }
+}
@@ -0,0 +1,93 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.service.impl.LearningSessionService.LearningSession;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LearningSessionServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @InjectMocks
+    private LearningSessionService learningSessionService;
+
+    @Test
+    @DisplayName("开始会话 - 分配会话ID并取出旧会话")
+    @SuppressWarnings("unchecked")
+    void testStartSession() {
+        LocalDateTime previousStart = LocalDateTime.now().minusMinutes(10).withNano(0);
+        long previousStartMillis = previousStart.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment("learning:session-id")).thenReturn(8L);
+        when(stringRedisTemplate.execute(any(RedisScript.class), eq(List.of("learning:session:1")), any(Object[].class)))
+                .thenReturn(List.of("sessionId", "-7", "courseId", "2", "activityType", "VIDEO_WATCH",
+                        "startTime", String.valueOf(previousStartMillis), "sectionId", "4"));
+
+        LearningSession session = LearningSession.builder()
+                .userId(1L)
+                .courseId(2L)
+                .courseTitle("测试课程")
+                .activityType("DOCUMENT_READ")
+                .startTime(LocalDateTime.now())
+                .build();
+
+        Optional<LearningSession> previous = learningSessionService.startSession(session);
+
+        // 验证新会话ID为负数，与学习记录ID不重叠
+        assertEquals(-8L, session.getSessionId());
+        assertTrue(LearningSessionService.isSessionId(session.getSessionId()));
+
+        // 验证一次脚本调用写入新会话并设置过期时间
+        ArgumentCaptor<Object[]> argsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(stringRedisTemplate).execute(any(RedisScript.class), eq(List.of("learning:session:1")), argsCaptor.capture());
+        List<Object> args = Arrays.asList(argsCaptor.getValue());
+        assertEquals(String.valueOf(TimeUnit.HOURS.toSeconds(4)), args.get(0));
+        assertTrue(args.contains("courseTitle"));
+        assertTrue(args.contains("测试课程"));
+        assertFalse(args.contains("chapterId"));
+
+        // 验证解析旧会话
+        assertTrue(previous.isPresent());
+        assertEquals(-7L, previous.get().getSessionId());
+        assertEquals(2L, previous.get().getCourseId());
+        assertEquals(4L, previous.get().getSectionId());
+        assertNull(previous.get().getChapterId());
+        assertEquals(previousStart, previous.get().getStartTime());
+    }
+
+    @Test
+    @DisplayName("结束会话 - 会话ID不匹配")
+    @SuppressWarnings("unchecked")
+    void testFinishSession_NotMatched() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), eq(List.of("learning:session:1")), eq("9")))
+                .thenReturn(List.of());
+
+        assertTrue(learningSessionService.finishSession(1L, 9L).isEmpty());
+    }
+}
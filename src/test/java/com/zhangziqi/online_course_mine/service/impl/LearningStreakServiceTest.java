@@ -0,0 +1,159 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.zhangziqi.online_course_mine.service.impl.LearningRecordFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LearningStreakServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private RedisOperations<String, String> operations;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @InjectMocks
+    private LearningStreakService learningStreakService;
+
+    /**
+     * 按Redis位图的位序把若干天编码为字节数组
+     */
+    private static byte[] bitmap(int... dayOfYears) {
+        byte[] bytes = new byte[46];
+        for (int dayOfYear : dayOfYears) {
+            int offset = dayOfYear - 1;
+            bytes[offset >>> 3] |= (byte) (0x80 >>> (offset & 7));
+        }
+        return bytes;
+    }
+
+    private static long[] words(int length, int... indexes) {
+        long[] words = new long[(length + 63) >>> 6];
+        for (int index : indexes) {
+            words[index >>> 6] |= 1L << index;
+        }
+        return words;
+    }
+
+    @Test
+    @DisplayName("同一用户同一天只标记一次，没有时长的记录不计入")
+    @SuppressWarnings("unchecked")
+    void testAddAll() {
+        LocalDateTime startTime = LocalDateTime.of(2024, 2, 1, 9, 0);
+        learningStreakService.onRecordsCommitted(committed(record(1L, 10L, startTime, 60), record(1L, 10L, startTime.plusHours(2), 30),
+                record(2L, 10L, startTime, 0)));
+
+        ArgumentCaptor<SessionCallback<List<Object>>> captor = ArgumentCaptor.forClass(SessionCallback.class);
+        verify(stringRedisTemplate).executePipelined(captor.capture());
+        when(operations.opsForValue()).thenReturn(valueOperations);
+        captor.getValue().execute(operations);
+
+        verify(valueOperations).setBit("streak:user:1:2024", 31L, true);
+        verify(valueOperations, never()).setBit(startsWith("streak:user:2:"), anyLong(), anyBoolean());
+        verify(operations).expire("streak:user:1:2024", 800L, TimeUnit.DAYS);
+    }
+
+    @Test
+    @DisplayName("按字计算学习天数和连续天数")
+    void testRuns() {
+        // 跨越字边界的连续段
+        long[] words = words(130, 0, 1, 60, 61, 62, 63, 64, 65, 66, 100, 127, 128, 129);
+        assertEquals(13, LearningStreakService.cardinality(words));
+        assertEquals(7, LearningStreakService.longestRun(words));
+        assertEquals(3, LearningStreakService.trailingRun(words, 130));
+        assertEquals(0, LearningStreakService.trailingRun(words, 127));
+
+        long[] full = words(128);
+        full[0] = -1L;
+        full[1] = -1L;
+        assertEquals(128, LearningStreakService.longestRun(full));
+        assertEquals(128, LearningStreakService.trailingRun(full, 128));
+        assertEquals(0, LearningStreakService.longestRun(words(30)));
+    }
+
+    @Test
+    @DisplayName("读取跨年位图统计最近若干天")
+    @SuppressWarnings("unchecked")
+    void testGetStreaks() {
+        LocalDate today = LocalDate.now();
+        List<LocalDate> learned = List.of(today, today.minusDays(1), today.minusDays(5), today.minusDays(6),
+                today.minusDays(7), today.minusDays(8), today.minusDays(40));
+        int lastYear = today.minusDays(29).getYear();
+        List<Object> bitmaps = new ArrayList<>();
+        for (int year = lastYear; year <= today.getYear(); year++) {
+            int y = year;
+            bitmaps.add(bitmap(learned.stream().filter(d -> d.getYear() == y)
+                    .mapToInt(LocalDate::getDayOfYear).toArray()));
+        }
+        when(stringRedisTemplate.hasKey("streak:ready")).thenReturn(true);
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenReturn(bitmaps);
+
+        LearningStreakService.Streaks streaks = learningStreakService.getStreaks(1L, 30).orElseThrow();
+
+        assertEquals(6, streaks.getLearningDays());
+        assertEquals(4, streaks.getMaxConsecutiveDays());
+        assertEquals(2, streaks.getCurrentConsecutiveDays());
+    }
+
+    @Test
+    @DisplayName("尚未重建时返回空")
+    void testGetStreaksNotReady() {
+        when(stringRedisTemplate.hasKey("streak:ready")).thenReturn(false);
+
+        assertTrue(learningStreakService.getStreaks(1L, 30).isEmpty());
+        assertTrue(learningStreakService.getStreaks(1L, 1000).isEmpty());
+    }
+
+    @Test
+    @DisplayName("答题计数")
+    @SuppressWarnings("unchecked")
+    void testQuestionCounts() {
+        learningStreakService.recordAnswer(1L, false);
+
+        ArgumentCaptor<SessionCallback<List<Object>>> captor = ArgumentCaptor.forClass(SessionCallback.class);
+        verify(stringRedisTemplate).executePipelined(captor.capture());
+        when(operations.opsForHash()).thenReturn((HashOperations) hashOperations);
+        captor.getValue().execute(operations);
+        verify(hashOperations).increment("questions:user:1", "total", 1L);
+        verify(hashOperations, never()).increment("questions:user:1", "correct", 1L);
+
+        when(stringRedisTemplate.opsForHash()).thenReturn(hashOperations);
+        when(hashOperations.entries("questions:user:1")).thenReturn(Map.of("total", "8", "correct", "5"));
+        assertArrayEquals(new long[]{8L, 5L}, learningStreakService.getQuestionCounts(1L).orElseThrow());
+    }
+}
@@ -0,0 +1,204 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Institution;
+import com.zhangziqi.online_course_mine.model.entity.Order;
+import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
+import com.zhangziqi.online_course_mine.repository.OrderRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static com.zhangziqi.online_course_mine.service.impl.LearningRecordFixtures.runPipeline;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OrderStatusCounterTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private OrderRepository orderRepository;
+
+    @Mock
+    private RedisOperations<String, String> operations;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private RedisTaskLock redisTaskLock;
+
+    @Mock
+    private Cursor<String> cursor;
+
+    @InjectMocks
+    private OrderStatusCounter orderStatusCounter;
+
+    private Order order(int status) {
+        return Order.builder()
+                .orderNo("ORDER001")
+                .institution(Institution.builder().id(5L).build())
+                .status(status)
+                .build();
+    }
+
+    @Test
+    @DisplayName("状态变化时把订单从原状态移到新状态")
+    void testTransition() {
+        orderStatusCounter.transition(order(OrderStatus.PAID.getValue()), OrderStatus.PENDING.getValue());
+
+        Map<String, List<Object>> increments = capturedIncrements();
+        assertEquals(Set.of("order:status-count:platform", "order:status-count:institution:5"), increments.keySet());
+        // 过期秒数为0，两个字段分别减一和加一
+        assertEquals(List.of("0", "2"), increments.get("order:status-count:platform").subList(0, 2));
+        assertEquals(Map.of("0", "-1", "1", "1"), fields(increments.get("order:status-count:institution:5")));
+    }
+
+    @Test
+    @DisplayName("新建订单只累加新状态")
+    void testTransitionNewOrder() {
+        orderStatusCounter.transition(order(OrderStatus.PENDING.getValue()), null);
+
+        Map<String, List<Object>> increments = capturedIncrements();
+        assertEquals(Map.of("0", "1"), fields(increments.get("order:status-count:platform")));
+        assertEquals(Map.of("0", "1"), fields(increments.get("order:status-count:institution:5")));
+    }
+
+    @Test
+    @DisplayName("状态未变化时不写入")
+    void testTransitionUnchanged() {
+        orderStatusCounter.transition(order(OrderStatus.PAID.getValue()), OrderStatus.PAID.getValue());
+
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    @DisplayName("写入失败不影响订单处理")
+    void testTransitionFailure() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenThrow(new RuntimeException("redis down"));
+
+        assertDoesNotThrow(() -> orderStatusCounter.transition(order(OrderStatus.PAID.getValue()),
+                OrderStatus.PENDING.getValue()));
+    }
+
+    @Test
+    @DisplayName("读取计数，负数按0处理")
+    void testGetCounts() {
+        when(stringRedisTemplate.hasKey("order:status-count:ready")).thenReturn(true);
+        when(stringRedisTemplate.opsForHash()).thenReturn(hashOperations);
+        when(hashOperations.entries("order:status-count:institution:5"))
+                .thenReturn(Map.of("1", "3", "2", "-1"));
+
+        Optional<Map<Integer, Long>> counts = orderStatusCounter.getCounts(5L);
+
+        assertTrue(counts.isPresent());
+        assertEquals(3L, counts.get().get(1));
+        assertEquals(0L, counts.get().get(2));
+    }
+
+    @Test
+    @DisplayName("未就绪时返回空，由调用方回退到数据库统计")
+    void testGetCountsNotReady() {
+        when(stringRedisTemplate.hasKey("order:status-count:ready")).thenReturn(false);
+
+        assertTrue(orderStatusCounter.getCounts(null).isEmpty());
+    }
+
+    @Test
+    @DisplayName("按订单表的分组统计写入暂存哈希后切换，已没有订单的机构一并切换")
+    void testRebuild() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(redisTaskLock.runExclusively(eq("order:status-count:rebuild-lock"), any(), any())).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(2).run();
+            return true;
+        });
+        when(operations.opsForHash()).thenReturn(hashOperations);
+        when(orderRepository.countGroupByInstitutionAndStatus()).thenReturn(List.of(
+                new Object[]{5L, 1, 3L},
+                new Object[]{6L, 1, 2L},
+                new Object[]{6L, 4, 1L}));
+        when(stringRedisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
+        doAnswer(invocation -> {
+            invocation.<Consumer<String>>getArgument(0).accept("order:status-count:institution:7");
+            return null;
+        }).when(cursor).forEachRemaining(any());
+
+        assertTrue(orderStatusCounter.rebuild());
+        runPipeline(stringRedisTemplate, operations);
+
+        // 变化捕获在统计之前开始，统计值写入暂存哈希
+        verify(valueOperations).set("order:status-count:rebuilding", "1", Duration.ofMinutes(10));
+        verify(operations).delete("order:status-count:rebuild-staging:order:status-count:platform");
+        verify(hashOperations).putAll("order:status-count:rebuild-staging:order:status-count:platform",
+                Map.of("1", "5", "4", "1"));
+        verify(hashOperations).putAll("order:status-count:rebuild-staging:order:status-count:institution:5",
+                Map.of("1", "3"));
+        verify(hashOperations).putAll("order:status-count:rebuild-staging:order:status-count:institution:6",
+                Map.of("1", "2", "4", "1"));
+
+        // 一次切换脚本调用覆盖所有计数哈希，机构7已没有订单，由脚本删除
+        ArgumentCaptor<List<String>> keysCaptor = ArgumentCaptor.forClass(List.class);
+        verify(stringRedisTemplate).execute(any(RedisScript.class), keysCaptor.capture(), any(Object[].class));
+        List<String> keys = keysCaptor.getValue();
+        assertEquals(1 + 4 * 3, keys.size());
+        assertTrue(keys.contains("order:status-count:institution:7"));
+        verify(operations, never()).delete("order:status-count:platform");
+        verify(stringRedisTemplate).delete(List.of("order:status-count:rebuilding", "order:status-count:rebuild-switched"));
+        verify(valueOperations).set("order:status-count:ready", "1");
+    }
+
+    /**
+     * 增量脚本调用中每个计数哈希的参数：过期秒数、字段数和（字段、增量）对
+     */
+    private Map<String, List<Object>> capturedIncrements() {
+        ArgumentCaptor<List<String>> keysCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Object[]> argsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(stringRedisTemplate).execute(any(RedisScript.class), keysCaptor.capture(), argsCaptor.capture());
+        List<String> keys = keysCaptor.getValue();
+        List<Object> args = Arrays.asList(argsCaptor.getValue());
+        assertEquals("HASH", args.get(0));
+        Map<String, List<Object>> increments = new HashMap<>();
+        int a = 1;
+        for (int i = 2; i < keys.size(); i += 2) {
+            int length = 2 + 2 * Integer.parseInt(args.get(a + 1).toString());
+            increments.put(keys.get(i), args.subList(a, a + length));
+            a += length;
+        }
+        return increments;
+    }
+
+    private static Map<String, String> fields(List<Object> increment) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 2; i < increment.size(); i += 2) {
+            fields.put(increment.get(i).toString(), increment.get(i + 1).toString());
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,248 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import com.zhangziqi.online_course_mine.model.entity.Course;
+import com.zhangziqi.online_course_mine.model.entity.Order;
+import com.zhangziqi.online_course_mine.model.entity.PaymentNotifyInbox;
+import com.zhangziqi.online_course_mine.model.entity.User;
+import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
+import com.zhangziqi.online_course_mine.model.enums.PaymentNotifyStatus;
+import com.zhangziqi.online_course_mine.repository.OrderRepository;
+import com.zhangziqi.online_course_mine.repository.PaymentNotifyInboxRepository;
+import com.zhangziqi.online_course_mine.service.UserCourseService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PaymentNotifyProcessorTest {
+
+    private static final String ORDER_NO = "ORDER001";
+    private static final String TRADE_NO = "2024030122001";
+
+    @Mock
+    private PaymentNotifyInboxRepository inboxRepository;
+
+    @Mock
+    private OrderRepository orderRepository;
+
+    @Mock
+    private UserCourseService userCourseService;
+
+    @Mock
+    private RedisOrderService redisOrderService;
+
+    @Mock
+    private IncomeLedgerService incomeLedgerService;
+
+    @Mock
+    private OrderStatusCounter orderStatusCounter;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private Executor paymentNotifyExecutor;
+
+    private PaymentNotifyProcessor processor;
+
+    private Order order;
+
+    @BeforeEach
+    void setUp() {
+        processor = new PaymentNotifyProcessor(inboxRepository, orderRepository, userCourseService,
+                redisOrderService, incomeLedgerService, orderStatusCounter, transactionManager, paymentNotifyExecutor);
+        order = Order.builder()
+                .id(1L)
+                .orderNo(ORDER_NO)
+                .user(User.builder().id(2L).build())
+                .course(Course.builder().id(3L).build())
+                .amount(new BigDecimal("99.00"))
+                .status(OrderStatus.PAID.getValue())
+                .build();
+    }
+
+    private PaymentNotifyInbox inbox(String tradeStatus, PaymentNotifyStatus status, int attempts) {
+        PaymentNotifyInbox inbox = PaymentNotifyInbox.builder()
+                .tradeNo(TRADE_NO)
+                .tradeStatus(tradeStatus)
+                .outTradeNo(ORDER_NO)
+                .status(status.getValue())
+                .attempts(attempts)
+                .nextAttemptAt(LocalDateTime.now().plusSeconds(60))
+                .build();
+        inbox.setId(10L);
+        when(inboxRepository.claim(eq(10L), anyCollection(), any(), any())).thenReturn(1);
+        when(inboxRepository.findById(10L)).thenReturn(Optional.of(inbox));
+        return inbox;
+    }
+
+    @Test
+    @DisplayName("保存新通知并在提交后交给后台处理")
+    void testReceive() {
+        when(inboxRepository.insertIgnore(eq(TRADE_NO), eq("TRADE_SUCCESS"), eq(ORDER_NO), anyString(),
+                eq(PaymentNotifyStatus.RECEIVED.getValue()), any())).thenReturn(1);
+        when(inboxRepository.findIdByTradeNoAndTradeStatus(TRADE_NO, "TRADE_SUCCESS")).thenReturn(Optional.of(10L));
+
+        assertTrue(processor.receive(Map.of("trade_no", TRADE_NO, "out_trade_no", ORDER_NO,
+                "trade_status", "TRADE_SUCCESS"), null));
+
+        verify(paymentNotifyExecutor).execute(any(Runnable.class));
+    }
+
+    @Test
+    @DisplayName("重复通知直接忽略")
+    void testReceiveDuplicate() {
+        when(inboxRepository.insertIgnore(any(), any(), any(), any(), anyInt(), any())).thenReturn(0);
+
+        assertFalse(processor.receive(Map.of("trade_no", TRADE_NO, "out_trade_no", ORDER_NO),
+                "TRADE_SUCCESS"));
+
+        verifyNoInteractions(paymentNotifyExecutor);
+    }
+
+    @Test
+    @DisplayName("线程池已满时留给定时重试")
+    void testReceiveRejected() {
+        when(inboxRepository.insertIgnore(any(), any(), any(), any(), anyInt(), any())).thenReturn(1);
+        when(inboxRepository.findIdByTradeNoAndTradeStatus(TRADE_NO, "TRADE_SUCCESS")).thenReturn(Optional.of(10L));
+        doThrow(new RejectedExecutionException()).when(paymentNotifyExecutor).execute(any());
+
+        assertDoesNotThrow(() -> processor.receive(Map.of("trade_no", TRADE_NO, "out_trade_no", ORDER_NO,
+                "trade_status", "TRADE_SUCCESS"), null));
+    }
+
+    @Test
+    @DisplayName("支付成功：条件更新订单后开通课程并取消超时")
+    void testProcessPaid() {
+        inbox("TRADE_SUCCESS", PaymentNotifyStatus.RECEIVED, 1);
+        when(orderRepository.markPaidIfStatus(eq(ORDER_NO), eq(TRADE_NO), any(),
+                eq(OrderStatus.PENDING.getValue()), eq(OrderStatus.PAID.getValue()))).thenReturn(1);
+        when(orderRepository.findByOrderNo(ORDER_NO)).thenReturn(Optional.of(order));
+
+        processor.process(10L);
+
+        verify(incomeLedgerService).apply(order, IncomeLedgerService.Contribution.NONE);
+        verify(orderStatusCounter).transition(order, OrderStatus.PENDING.getValue());
+        verify(inboxRepository).updateStatus(eq(10L), eq(PaymentNotifyStatus.APPLIED.getValue()), isNull(), any(), any());
+        verify(userCourseService).createUserCourseRelation(2L, 3L, 1L, true);
+        verify(redisOrderService).cancelOrderTimeout(ORDER_NO);
+        verify(inboxRepository).updateStatus(eq(10L), eq(PaymentNotifyStatus.DONE.getValue()), isNull(), any(), any());
+    }
+
+    @Test
+    @DisplayName("订单已由同一笔交易支付时不重复处理")
+    void testProcessAlreadyPaid() {
+        inbox("TRADE_FINISHED", PaymentNotifyStatus.RECEIVED, 1);
+        order.setTradeNo(TRADE_NO);
+        when(orderRepository.markPaidIfStatus(any(), any(), any(), any(), any())).thenReturn(0);
+        when(orderRepository.findByOrderNo(ORDER_NO)).thenReturn(Optional.of(order));
+
+        processor.process(10L);
+
+        verify(inboxRepository).updateStatus(eq(10L), eq(PaymentNotifyStatus.DONE.getValue()), isNull(), any(), any());
+        verifyNoInteractions(incomeLedgerService, orderStatusCounter, userCourseService, redisOrderService);
+    }
+
+    @Test
+    @DisplayName("订单超时关闭后收到支付成功时改为已支付并开通课程")
+    void testProcessPaidAfterClosed() {
+        inbox("TRADE_SUCCESS", PaymentNotifyStatus.RECEIVED, 1);
+        when(orderRepository.markPaidIfStatus(eq(ORDER_NO), eq(TRADE_NO), any(),
+                eq(OrderStatus.PENDING.getValue()), eq(OrderStatus.PAID.getValue()))).thenReturn(0);
+        when(orderRepository.markPaidIfStatus(eq(ORDER_NO), eq(TRADE_NO), any(),
+                eq(OrderStatus.CLOSED.getValue()), eq(OrderStatus.PAID.getValue()))).thenReturn(1);
+        when(orderRepository.findByOrderNo(ORDER_NO)).thenReturn(Optional.of(order));
+
+        processor.process(10L);
+
+        verify(incomeLedgerService).apply(order, IncomeLedgerService.Contribution.NONE);
+        verify(orderStatusCounter).transition(order, OrderStatus.CLOSED.getValue());
+        verify(userCourseService).createUserCourseRelation(2L, 3L, 1L, true);
+        verify(inboxRepository).updateStatus(eq(10L), eq(PaymentNotifyStatus.DONE.getValue()), isNull(), any(), any());
+    }
+
+    @Test
+    @DisplayName("订单已由另一笔交易支付时标记为待人工处理")
+    void testProcessPaidByAnotherTrade() {
+        inbox("TRADE_SUCCESS", PaymentNotifyStatus.RECEIVED, 1);
+        order.setTradeNo("2024030122999");
+        when(orderRepository.markPaidIfStatus(any(), any(), any(), any(), any())).thenReturn(0);
+        when(orderRepository.findByOrderNo(ORDER_NO)).thenReturn(Optional.of(order));
+
+        processor.process(10L);
+
+        verify(inboxRepository).updateStatus(eq(10L), eq(PaymentNotifyStatus.MANUAL_REVIEW.getValue()),
+                contains("2024030122999"), any(), any());
+        verifyNoInteractions(incomeLedgerService, orderStatusCounter, userCourseService, redisOrderService);
+    }
+
+    @Test
+    @DisplayName("已被其他线程领取时不处理")
+    void testProcessNotClaimed() {
+        when(inboxRepository.claim(eq(10L), anyCollection(), any(), any())).thenReturn(0);
+
+        processor.process(10L);
+
+        verify(inboxRepository, never()).findById(any());
+        verifyNoInteractions(orderRepository);
+    }
+
+    @Test
+    @DisplayName("后续步骤失败时保留订单已更新状态并推迟重试")
+    void testProcessFollowUpFailure() {
+        inbox("TRADE_SUCCESS", PaymentNotifyStatus.APPLIED, 2);
+        when(orderRepository.findByOrderNo(ORDER_NO)).thenReturn(Optional.of(order));
+        when(userCourseService.createUserCourseRelation(anyLong(), anyLong(), anyLong(), anyBoolean()))
+                .thenThrow(new RuntimeException("db down"));
+
+        processor.process(10L);
+
+        // 订单状态已更新过，不再执行条件更新
+        verify(orderRepository, never()).markPaidIfStatus(any(), any(), any(), any(), any());
+        verify(inboxRepository).updateStatus(eq(10L), eq(PaymentNotifyStatus.APPLIED.getValue()),
+                contains("db down"), any(), any());
+        verify(redisOrderService, never()).cancelOrderTimeout(any());
+    }
+
+    @Test
+    @DisplayName("超过最大处理次数后标记为失败")
+    void testProcessGiveUp() {
+        inbox("TRADE_SUCCESS", PaymentNotifyStatus.APPLIED, 10);
+        when(orderRepository.findByOrderNo(ORDER_NO)).thenReturn(Optional.empty());
+
+        processor.process(10L);
+
+        verify(inboxRepository).updateStatus(eq(10L), eq(PaymentNotifyStatus.FAILED.getValue()),
+                contains("订单不存在"), any(), any());
+    }
+
+    @Test
+    @DisplayName("交易关闭时关闭待支付订单")
+    void testProcessClosed() {
+        inbox("TRADE_CLOSED", PaymentNotifyStatus.RECEIVED, 1);
+        when(orderRepository.updateStatusIfCurrent(eq(ORDER_NO), eq(OrderStatus.PENDING.getValue()),
+                eq(OrderStatus.CLOSED.getValue()), any())).thenReturn(1);
+        when(orderRepository.findByOrderNo(ORDER_NO)).thenReturn(Optional.of(order));
+
+        processor.process(10L);
+
+        verify(orderStatusCounter).transition(order, OrderStatus.PENDING.getValue());
+        verify(redisOrderService).cancelOrderTimeout(ORDER_NO);
+        verifyNoInteractions(userCourseService);
+    }
+}
@@ -1,25 +1,33 @@
 package com.zhangziqi.online_course_mine.service.impl;
 
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -35,13 +43,9 @@ public class RedisLearningRecordServiceTest {
     @InjectMocks
     private RedisLearningRecordService redisLearningRecordService;
 
-    @BeforeEach
-    void setUp() {
-        when(redisTemplate.opsForHash()).thenReturn(hashOperations);
-    }
-
     @Test
     @DisplayName("更新学习记录")
+    @SuppressWarnings("unchecked")
     void testUpdateLearningRecord() {
         // 准备测试数据
         Long userId = 1L;
@@ -56,40 +60,151 @@ public class RedisLearningRecordServiceTest {
         redisLearningRecordService.updateLearningRecord(
                 userId, courseId, chapterId, sectionId, activityType, durationSeconds, contextData);
 
-        // 验证Redis操作
+        // 验证只执行了一次脚本调用
         String expectedKey = "learning:record:" + LocalDate.now().format(DateTimeFormatter.ISO_DATE) +
                 ":" + userId + ":" + courseId + ":" + activityType;
 
-        verify(hashOperations).increment(eq(expectedKey), eq("totalDuration"), eq((long) durationSeconds));
-        verify(hashOperations).put(eq(expectedKey), eq("lastUpdate"), any(Long.class));
-        verify(hashOperations).put(eq(expectedKey), eq("chapterId"), eq(chapterId.toString()));
-        verify(hashOperations).put(eq(expectedKey), eq("sectionId"), eq(sectionId.toString()));
-        verify(hashOperations).put(eq(expectedKey), eq("contextData"), eq(contextData));
-        verify(redisTemplate).expire(eq(expectedKey), eq(3L), eq(TimeUnit.DAYS));
+        ArgumentCaptor<Object[]> argsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of(expectedKey)), argsCaptor.capture());
+        verifyNoMoreInteractions(redisTemplate);
+
+        Object[] args = argsCaptor.getValue();
+        assertEquals(6, args.length);
+        assertEquals(TimeUnit.DAYS.toSeconds(3), args[0]);
+        assertEquals((long) durationSeconds, args[2]);
+        assertEquals(chapterId.toString(), args[3]);
+        assertEquals(sectionId.toString(), args[4]);
+        assertEquals(contextData, args[5]);
+    }
+
+    @Test
+    @DisplayName("批量更新学习记录 - 合并相同键")
+    @SuppressWarnings("unchecked")
+    void testBatchUpdateLearningRecords_MergeSameKey() {
+        LocalDate date = LocalDate.of(2023, 6, 1);
+        List<RedisLearningRecordService.LearningRecordIncrement> increments = List.of(
+                RedisLearningRecordService.LearningRecordIncrement.builder()
+                        .date(date).userId(1L).courseId(2L).chapterId(3L).sectionId(4L)
+                        .activityType("VIDEO_WATCH").durationSeconds(30).contextData("{\"progress\":10}")
+                        .build(),
+                RedisLearningRecordService.LearningRecordIncrement.builder()
+                        .date(date).userId(1L).courseId(2L).sectionId(5L)
+                        .activityType("VIDEO_WATCH").durationSeconds(45)
+                        .build(),
+                RedisLearningRecordService.LearningRecordIncrement.builder()
+                        .date(date).userId(1L).courseId(2L)
+                        .activityType("DOCUMENT_READ").durationSeconds(60)
+                        .build());
+
+        // 执行方法
+        int keyCount = redisLearningRecordService.batchUpdateLearningRecords(increments);
+
+        // 验证结果
+        assertEquals(2, keyCount);
+        String videoKey = "learning:record:2023-06-01:1:2:VIDEO_WATCH";
+        String documentKey = "learning:record:2023-06-01:1:2:DOCUMENT_READ";
+
+        ArgumentCaptor<Object[]> argsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class),
+                eq(List.of(videoKey, documentKey)), argsCaptor.capture());
+
+        Object[] args = argsCaptor.getValue();
+        assertEquals(10, args.length);
+        // 相同键的时长累加，小节取最后一个非空值，章节和上下文保留之前的值
+        assertEquals(75L, args[2]);
+        assertEquals("3", args[3]);
+        assertEquals("5", args[4]);
+        assertEquals("{\"progress\":10}", args[5]);
+        assertEquals(60L, args[6]);
+        assertNull(args[7]);
+        assertNull(args[8]);
+        assertNull(args[9]);
+    }
+
+    @Test
+    @DisplayName("批量更新学习记录 - 空集合")
+    void testBatchUpdateLearningRecords_Empty() {
+        assertEquals(0, redisLearningRecordService.batchUpdateLearningRecords(List.of()));
+        verifyNoInteractions(redisTemplate);
     }
 
     @Test
     @DisplayName("获取学习记录键")
+    @SuppressWarnings("unchecked")
     void testGetLearningRecordKeys() {
         // 准备测试数据
         LocalDate date = LocalDate.of(2023, 6, 1);
         String dateStr = date.format(DateTimeFormatter.ISO_DATE);
-        String pattern = "learning:record:" + dateStr + ":*";
 
         Set<String> expectedKeys = new HashSet<>();
         expectedKeys.add("learning:record:" + dateStr + ":1:2:VIDEO_WATCH");
         expectedKeys.add("learning:record:" + dateStr + ":1:2:DOCUMENT_READ");
 
-        when(redisTemplate.keys(pattern)).thenReturn(expectedKeys);
+        Cursor<String> cursor = mock(Cursor.class);
+        Iterator<String> iterator = expectedKeys.iterator();
+        when(cursor.hasNext()).thenAnswer(inv -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(inv -> iterator.next());
+        when(redisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
 
         // 执行方法
         Set<String> result = redisLearningRecordService.getLearningRecordKeys(date);
 
-        // 验证结果
+        // 验证结果：使用SCAN遍历，不使用KEYS
         assertNotNull(result);
         assertEquals(2, result.size());
         assertEquals(expectedKeys, result);
-        verify(redisTemplate).keys(pattern);
+        ArgumentCaptor<ScanOptions> optionsCaptor = ArgumentCaptor.forClass(ScanOptions.class);
+        verify(redisTemplate).scan(optionsCaptor.capture());
+        assertEquals("learning:record:" + dateStr + ":*", optionsCaptor.getValue().getPattern());
+        verify(redisTemplate, never()).keys(any());
+        verify(cursor).close();
+    }
+
+    @Test
+    @DisplayName("分批遍历学习记录键")
+    @SuppressWarnings("unchecked")
+    void testScanLearningRecordKeys_Batches() {
+        LocalDate date = LocalDate.of(2023, 6, 1);
+        List<String> keys = List.of("k1", "k2", "k3", "k4", "k5");
+
+        Cursor<String> cursor = mock(Cursor.class);
+        Iterator<String> iterator = keys.iterator();
+        when(cursor.hasNext()).thenAnswer(inv -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(inv -> iterator.next());
+        when(redisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
+
+        List<List<String>> batches = new ArrayList<>();
+        redisLearningRecordService.scanLearningRecordKeys(date, 2, batches::add);
+
+        assertEquals(List.of(List.of("k1", "k2"), List.of("k3", "k4"), List.of("k5")), batches);
+    }
+
+    @Test
+    @DisplayName("认领学习记录键")
+    @SuppressWarnings("unchecked")
+    void testClaimLearningRecords() {
+        String key = "learning:record:2023-06-01:1:2:VIDEO_WATCH";
+        String leftover = "learning:aggregating:2023-06-01:1:3:VIDEO_WATCH";
+        String claimed = "learning:aggregating:2023-06-01:1:2:VIDEO_WATCH";
+
+        when(redisTemplate.execute(any(RedisScript.class), any(RedisSerializer.class), any(RedisSerializer.class),
+                eq(List.of(key, claimed)))).thenReturn(List.of(claimed));
+
+        List<String> result = redisLearningRecordService.claimLearningRecords(List.of(key, leftover));
+
+        // 已认领的遗留键直接返回，新键通过脚本重命名
+        assertEquals(List.of(leftover, claimed), result);
+    }
+
+    @Test
+    @DisplayName("批量删除学习记录")
+    void testDeleteLearningRecords() {
+        List<String> keys = List.of("learning:aggregating:2023-06-01:1:2:VIDEO_WATCH");
+
+        redisLearningRecordService.deleteLearningRecords(keys);
+        redisLearningRecordService.deleteLearningRecords(List.of());
+
+        verify(redisTemplate, times(1)).unlink(keys);
     }
 
     @Test
@@ -104,6 +219,7 @@ public class RedisLearningRecordServiceTest {
         expectedData.put("sectionId", "4");
         expectedData.put("contextData", "{\"progress\":75}");
 
+        when(redisTemplate.opsForHash()).thenReturn(hashOperations);
         when(hashOperations.entries(key)).thenReturn(expectedData);
 
         // 执行方法
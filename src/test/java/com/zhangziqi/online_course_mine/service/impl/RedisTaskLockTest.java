@@ -0,0 +1,77 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RedisTaskLockTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @InjectMocks
+    private RedisTaskLock redisTaskLock;
+
+    @Test
+    @DisplayName("获得锁后执行任务，并以持有标识释放")
+    @SuppressWarnings("unchecked")
+    void testRunExclusively() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        ArgumentCaptor<String> token = ArgumentCaptor.forClass(String.class);
+        when(valueOperations.setIfAbsent(eq("task-lock"), token.capture(), eq(Duration.ofMinutes(5)))).thenReturn(true);
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(1L);
+        Runnable task = mock(Runnable.class);
+
+        assertTrue(redisTaskLock.runExclusively("task-lock", Duration.ofMinutes(5), task));
+
+        verify(task).run();
+        // 释放时只比较并删除本次写入的标识，不直接删除键
+        verify(stringRedisTemplate).execute(any(RedisScript.class), eq(List.of("task-lock")), eq(token.getValue()));
+        verify(stringRedisTemplate, never()).delete(anyString());
+    }
+
+    @Test
+    @DisplayName("其他实例持有锁时不执行任务")
+    void testRunExclusivelyLocked() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("task-lock"), anyString(), any(Duration.class))).thenReturn(false);
+        Runnable task = mock(Runnable.class);
+
+        assertFalse(redisTaskLock.runExclusively("task-lock", Duration.ofMinutes(5), task));
+
+        verifyNoInteractions(task);
+    }
+
+    @Test
+    @DisplayName("任务失败时同样释放锁")
+    @SuppressWarnings("unchecked")
+    void testRunExclusivelyFailure() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("task-lock"), anyString(), any(Duration.class))).thenReturn(true);
+
+        assertThrows(IllegalStateException.class, () -> redisTaskLock.runExclusively("task-lock", Duration.ofMinutes(5),
+                () -> {
+                    throw new IllegalStateException("rebuild failed");
+                }));
+
+        verify(stringRedisTemplate).execute(any(RedisScript.class), eq(List.of("task-lock")), anyString());
+    }
+}
@@ -0,0 +1,231 @@
+package com.zhangziqi.online_course_mine.service.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SnowflakeIdGeneratorTest {
+
+    private static final long NOW = 1717200000000L;
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private final AtomicLong clock = new AtomicLong(NOW);
+
+    private SnowflakeIdGenerator generator(long nodeId) {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(stringRedisTemplate, clock::get);
+        ReflectionTestUtils.setField(generator, "configuredNodeId", nodeId);
+        generator.init();
+        return generator;
+    }
+
+    @Test
+    @DisplayName("同一毫秒内序号递增，ID中包含节点ID")
+    void testNextIdSameMillisecond() {
+        SnowflakeIdGenerator generator = generator(7);
+
+        long first = generator.nextId();
+        long second = generator.nextId();
+
+        assertEquals(first + 1, second);
+        assertEquals(7, (first >> 12) & 1023);
+        assertEquals(0, first & 4095);
+    }
+
+    @Test
+    @DisplayName("不同节点生成的ID不同")
+    void testDifferentNodes() {
+        assertNotEquals(generator(1).nextId(), generator(2).nextId());
+    }
+
+    @Test
+    @DisplayName("毫秒内序号用完时等待下一毫秒")
+    void testSequenceOverflow() {
+        // 前4097次读取时钟停在同一毫秒，之后前进一毫秒
+        AtomicLong calls = new AtomicLong();
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(stringRedisTemplate,
+                () -> calls.incrementAndGet() > 4097 ? NOW + 1 : NOW);
+        ReflectionTestUtils.setField(generator, "configuredNodeId", 1L);
+        generator.init();
+
+        long last = 0;
+        for (int i = 0; i < 4097; i++) {
+            long id = generator.nextId();
+            assertTrue(id > last);
+            last = id;
+        }
+
+        assertEquals(0, last & 4095);
+        assertEquals(NOW + 1 - 1704067200000L, last >>> 22);
+    }
+
+    @Test
+    @DisplayName("时钟回拨期间序号用完时借用下一毫秒")
+    void testSequenceOverflowDuringClockBackward() {
+        SnowflakeIdGenerator generator = generator(1);
+        generator.nextId();
+        clock.set(NOW - 1000);
+
+        long last = 0;
+        for (int i = 0; i < 4096; i++) {
+            last = generator.nextId();
+        }
+
+        assertEquals(0, last & 4095);
+        assertEquals(NOW + 1 - 1704067200000L, last >>> 22);
+    }
+
+    @Test
+    @DisplayName("时钟小幅回拨时沿用上一次的时间戳，ID仍然递增")
+    void testClockBackward() {
+        SnowflakeIdGenerator generator = generator(1);
+
+        long before = generator.nextId();
+        clock.set(NOW - 1000);
+        long after = generator.nextId();
+
+        assertTrue(after > before);
+    }
+
+    @Test
+    @DisplayName("时钟回拨超过阈值时拒绝生成")
+    void testClockBackwardBeyondLimit() {
+        SnowflakeIdGenerator generator = generator(1);
+
+        generator.nextId();
+        clock.set(NOW - 10000);
+
+        assertThrows(IllegalStateException.class, generator::nextId);
+    }
+
+    @Test
+    @DisplayName("通过Redis租用空闲的节点ID")
+    void testLeaseNodeId() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment("id-generator:node-cursor")).thenReturn(1025L);
+        when(valueOperations.setIfAbsent(eq("id-generator:node:1"), anyString(), anyLong(), any()))
+                .thenReturn(false);
+        when(valueOperations.setIfAbsent(eq("id-generator:node:2"), anyString(), anyLong(), any()))
+                .thenReturn(true);
+
+        SnowflakeIdGenerator generator = generator(-1);
+
+        assertEquals(2, generator.getNodeId());
+    }
+
+    @Test
+    @DisplayName("Redis不可用且未配置节点ID时启动失败")
+    void testLeaseFailureWithoutConfiguredNodeId() {
+        when(stringRedisTemplate.opsForValue()).thenThrow(new IllegalStateException("Redis不可用"));
+
+        assertThrows(IllegalStateException.class, () -> generator(-1));
+    }
+
+    @Test
+    @DisplayName("租约超过租期未续期时拒绝生成，续期成功后恢复")
+    @SuppressWarnings("unchecked")
+    void testExpiredLease() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment("id-generator:node-cursor")).thenReturn(2L);
+        when(valueOperations.setIfAbsent(eq("id-generator:node:2"), anyString(), anyLong(), any()))
+                .thenReturn(true);
+        SnowflakeIdGenerator generator = generator(-1);
+        generator.nextId();
+
+        // 续期失败，租约到期后节点ID可能已被其他实例占用
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any()))
+                .thenThrow(new IllegalStateException("Redis不可用"));
+        clock.addAndGet(30_000);
+        generator.renewNodeId();
+        clock.addAndGet(30_000);
+        assertThrows(IllegalStateException.class, generator::nextId);
+
+        // 续期成功后恢复生成
+        reset(stringRedisTemplate);
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any())).thenReturn(1L);
+        generator.renewNodeId();
+        assertEquals(2, (generator.nextId() >> 12) & 1023);
+    }
+
+    @Test
+    @DisplayName("多线程并发生成的ID不重复")
+    void testConcurrentUniqueness() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(stringRedisTemplate, System::currentTimeMillis);
+        ReflectionTestUtils.setField(generator, "configuredNodeId", 3L);
+        generator.init();
+
+        int threads = 8;
+        int perThread = 50000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(generator.nextId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    /**
+     * 单线程生成吞吐量基准测试
+     * 只有在ID_BENCHMARK_ENABLED环境变量为true时才会运行
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "ID_BENCHMARK_ENABLED", matches = "true")
+    void benchmarkNextId() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(stringRedisTemplate, System::currentTimeMillis);
+        ReflectionTestUtils.setField(generator, "configuredNodeId", 1L);
+        generator.init();
+
+        int iterations = 10_000_000;
+        long sink = 0;
+        // 预热
+        for (int i = 0; i < iterations; i++) {
+            sink ^= generator.nextId();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink ^= generator.nextId();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        System.out.printf("Snowflake ID生成: %d次, 耗时%.1fms, %.0f个/秒 (%d)%n",
+                iterations, elapsedNanos / 1_000_000.0, iterations * 1_000_000_000.0 / elapsedNanos, sink & 1);
+    }
+}
@@ -1,5 +1,6 @@
 package com.zhangziqi.online_course_mine.task;
 
+import com.zhangziqi.online_course_mine.event.LearningRecordsCommittedEvent;
 import com.zhangziqi.online_course_mine.model.entity.Chapter;
 import com.zhangziqi.online_course_mine.model.entity.Course;
 import com.zhangziqi.online_course_mine.model.entity.LearningRecord;
@@ -7,7 +8,7 @@ import com.zhangziqi.online_course_mine.model.entity.Section;
 import com.zhangziqi.online_course_mine.model.entity.User;
 import com.zhangziqi.online_course_mine.repository.ChapterRepository;
 import com.zhangziqi.online_course_mine.repository.CourseRepository;
-import com.zhangziqi.online_course_mine.repository.LearningRecordRepository;
+import com.zhangziqi.online_course_mine.repository.LearningRecordJdbcRepository;
 import com.zhangziqi.online_course_mine.repository.SectionRepository;
 import com.zhangziqi.online_course_mine.repository.UserRepository;
 import com.zhangziqi.online_course_mine.service.impl.RedisLearningRecordService;
@@ -17,23 +18,28 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -43,7 +49,7 @@ public class LearningRecordAggregationTaskTest {
     private RedisLearningRecordService redisLearningRecordService;
 
     @Mock
-    private LearningRecordRepository learningRecordRepository;
+    private LearningRecordJdbcRepository learningRecordJdbcRepository;
 
     @Mock
     private UserRepository userRepository;
@@ -57,11 +63,19 @@ public class LearningRecordAggregationTaskTest {
     @Mock
     private SectionRepository sectionRepository;
 
-    @InjectMocks
-    private LearningRecordAggregationTask task;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
 
     @Captor
-    private ArgumentCaptor<LearningRecord> learningRecordCaptor;
+    private ArgumentCaptor<List<LearningRecord>> learningRecordsCaptor;
+
+    @Captor
+    private ArgumentCaptor<LearningRecordsCommittedEvent> eventCaptor;
+
+    private LearningRecordAggregationTask task;
 
     private User user;
     private Course course;
@@ -70,6 +84,11 @@ public class LearningRecordAggregationTaskTest {
 
     @BeforeEach
     void setUp() {
+        // 使用同步执行器，便于验证
+        task = new LearningRecordAggregationTask(redisLearningRecordService, learningRecordJdbcRepository,
+                userRepository, courseRepository, chapterRepository, sectionRepository,
+                transactionManager, eventPublisher, Runnable::run);
+
         // 设置测试数据
         user = User.builder()
                 .id(1L)
@@ -92,6 +111,44 @@ public class LearningRecordAggregationTaskTest {
                 .build();
     }
 
+    /**
+     * 模拟SCAN返回一个批次的键，已认领键为空
+     */
+    private void mockScan(LocalDate date, List<String> keys) {
+        doAnswer(invocation -> {
+            Consumer<List<String>> consumer = invocation.getArgument(2);
+            consumer.accept(keys);
+            return null;
+        }).when(redisLearningRecordService).scanLearningRecordKeys(eq(date), anyInt(), any());
+    }
+
+    private String claimedKey(String key) {
+        return key.replace("learning:record:", "learning:aggregating:");
+    }
+
+    private Map<Object, Object> recordData(int totalDuration, String contextData) {
+        Map<Object, Object> data = new LinkedHashMap<>();
+        data.put("totalDuration", totalDuration);
+        data.put("chapterId", "3");
+        data.put("sectionId", "4");
+        data.put("contextData", contextData);
+        return data;
+    }
+
+    private void mockExistingEntities() {
+        when(userRepository.findExistingIds(anyCollection())).thenReturn(List.of(1L));
+        when(courseRepository.findExistingIds(anyCollection())).thenReturn(List.of(2L));
+        when(chapterRepository.findExistingIds(anyCollection())).thenReturn(List.of(3L));
+        when(sectionRepository.findExistingIds(anyCollection())).thenReturn(List.of(4L));
+    }
+
+    private void mockReferences() {
+        when(userRepository.getReferenceById(1L)).thenReturn(user);
+        when(courseRepository.getReferenceById(2L)).thenReturn(course);
+        when(chapterRepository.getReferenceById(3L)).thenReturn(chapter);
+        when(sectionRepository.getReferenceById(4L)).thenReturn(section);
+    }
+
     @Test
     @DisplayName("聚合学习记录")
     void testAggregateLearningRecords() {
@@ -100,53 +157,47 @@ public class LearningRecordAggregationTaskTest {
         String dateStr = yesterday.format(DateTimeFormatter.ISO_DATE);
 
         // 模拟Redis键
-        Set<String> keys = new HashSet<>();
         String key1 = "learning:record:" + dateStr + ":1:2:VIDEO_WATCH";
         String key2 = "learning:record:" + dateStr + ":1:2:DOCUMENT_READ";
-        keys.add(key1);
-        keys.add(key2);
-
-        when(redisLearningRecordService.getLearningRecordKeys(yesterday)).thenReturn(keys);
+        List<String> claimedKeys = List.of(claimedKey(key1), claimedKey(key2));
+        mockScan(yesterday, List.of(key1, key2));
+        when(redisLearningRecordService.claimLearningRecords(List.of(key1, key2))).thenReturn(claimedKeys);
 
         // 模拟Redis数据
-        Map<Object, Object> data1 = new HashMap<>();
-        data1.put("totalDuration", 300);
-        data1.put("chapterId", "3");
-        data1.put("sectionId", "4");
-        data1.put("contextData", "{\"progress\":75}");
-
-        Map<Object, Object> data2 = new HashMap<>();
-        data2.put("totalDuration", 200);
-        data2.put("chapterId", "3");
-        data2.put("sectionId", "4");
-        data2.put("contextData", "{\"progress\":50}");
-
-        when(redisLearningRecordService.getLearningRecordData(key1)).thenReturn(data1);
-        when(redisLearningRecordService.getLearningRecordData(key2)).thenReturn(data2);
+        Map<String, Map<Object, Object>> data = new LinkedHashMap<>();
+        data.put(claimedKeys.get(0), recordData(300, "{\"progress\":75}"));
+        data.put(claimedKeys.get(1), recordData(200, "{\"progress\":50}"));
+        when(redisLearningRecordService.getLearningRecordDataBatch(claimedKeys)).thenReturn(data);
 
         // 模拟仓库行为
-        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-        when(courseRepository.findById(2L)).thenReturn(Optional.of(course));
-        when(chapterRepository.findById(3L)).thenReturn(Optional.of(chapter));
-        when(sectionRepository.findById(4L)).thenReturn(Optional.of(section));
+        mockExistingEntities();
+        mockReferences();
 
         // 执行方法
         task.aggregateLearningRecords();
 
-        // 验证Redis操作
-        verify(redisLearningRecordService).getLearningRecordKeys(yesterday);
-        verify(redisLearningRecordService).getLearningRecordData(key1);
-        verify(redisLearningRecordService).getLearningRecordData(key2);
-        verify(redisLearningRecordService).deleteLearningRecord(key1);
-        verify(redisLearningRecordService).deleteLearningRecord(key2);
+        // 验证Redis操作：只通过批量接口读取，提交后删除认领的键
+        verify(redisLearningRecordService).scanClaimedLearningRecordKeys(eq(yesterday), anyInt(), any());
+        verify(redisLearningRecordService).scanLearningRecordKeys(eq(yesterday), anyInt(), any());
+        verify(redisLearningRecordService, never()).getLearningRecordData(any());
+        verify(redisLearningRecordService).deleteLearningRecords(claimedKeys);
 
-        // 验证仓库操作
-        verify(learningRecordRepository, times(2)).save(learningRecordCaptor.capture());
+        // 验证实体只按批次查询，不逐条加载
+        verify(userRepository, never()).findById(any());
+        verify(courseRepository, never()).findById(any());
+        verify(transactionManager).commit(any());
 
-        // 验证保存的记录
-        List<LearningRecord> savedRecords = learningRecordCaptor.getAllValues();
+        // 验证按聚合键写入的记录
+        verify(learningRecordJdbcRepository).mergeAggregated(learningRecordsCaptor.capture());
+        List<LearningRecord> savedRecords = learningRecordsCaptor.getValue();
         assertEquals(2, savedRecords.size());
 
+        // 验证同一事务中累加了相同记录的日汇总
+        verify(learningRecordJdbcRepository).upsertDailyRollups(savedRecords, Set.of());
+        // 提交后以一个事件通知各投影
+        verify(eventPublisher).publishEvent(eventCaptor.capture());
+        assertEquals(savedRecords, eventCaptor.getValue().getRecords());
+
         // 验证第一条记录
         LearningRecord record1 = savedRecords.get(0);
         assertNotNull(record1);
@@ -157,50 +208,69 @@ public class LearningRecordAggregationTaskTest {
         assertEquals("VIDEO_WATCH", record1.getActivityType());
         assertEquals(300, record1.getDurationSeconds());
         assertEquals("{\"progress\":75}", record1.getContextData());
+        assertEquals(yesterday.atStartOfDay(), record1.getActivityStartTime());
+        assertEquals(yesterday + ":1:2:VIDEO_WATCH", record1.getAggregateKey());
 
         // 验证第二条记录
         LearningRecord record2 = savedRecords.get(1);
         assertNotNull(record2);
-        assertEquals(user, record2.getUser());
-        assertEquals(course, record2.getCourse());
-        assertEquals(chapter, record2.getChapter());
-        assertEquals(section, record2.getSection());
         assertEquals("DOCUMENT_READ", record2.getActivityType());
         assertEquals(200, record2.getDurationSeconds());
         assertEquals("{\"progress\":50}", record2.getContextData());
     }
 
+    @Test
+    @DisplayName("聚合学习记录 - 累加到当天已有的聚合记录")
+    void testAggregateLearningRecords_MergeExisting() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        String key = "learning:record:" + yesterday.format(DateTimeFormatter.ISO_DATE) + ":1:2:VIDEO_WATCH";
+        List<String> claimedKeys = List.of(claimedKey(key));
+        mockScan(yesterday, List.of(key));
+        when(redisLearningRecordService.claimLearningRecords(List.of(key))).thenReturn(claimedKeys);
+        when(redisLearningRecordService.getLearningRecordDataBatch(claimedKeys))
+                .thenReturn(Map.of(claimedKeys.get(0), recordData(300, null)));
+        mockExistingEntities();
+        mockReferences();
+        when(learningRecordJdbcRepository.mergeAggregated(anyList()))
+                .thenAnswer(inv -> Set.copyOf(inv.<List<LearningRecord>>getArgument(0)));
+
+        task.aggregateLearningRecords();
+
+        verify(learningRecordJdbcRepository).mergeAggregated(learningRecordsCaptor.capture());
+        LearningRecord record = learningRecordsCaptor.getValue().get(0);
+        // 日汇总和投影只累加时长，不再计一次活动
+        verify(learningRecordJdbcRepository).upsertDailyRollups(List.of(record), Set.of(record));
+        verify(eventPublisher).publishEvent(eventCaptor.capture());
+        assertEquals(0, eventCaptor.getValue().activityCount(record));
+    }
+
     @Test
     @DisplayName("聚合学习记录 - 处理无效键")
     void testAggregateLearningRecords_InvalidKey() {
         // 准备测试数据
         LocalDate yesterday = LocalDate.now().minusDays(1);
+        String invalidKey = "learning:aggregating:invalid_key";
+        String validKey = claimedKey("learning:record:" + yesterday.format(DateTimeFormatter.ISO_DATE) + ":1:2:VIDEO_WATCH");
 
-        // 模拟Redis键 - 包含无效键
-        Set<String> keys = new HashSet<>();
-        keys.add("learning:record:invalid_key");
-        keys.add("learning:record:" + yesterday.format(DateTimeFormatter.ISO_DATE) + ":1:2:VIDEO_WATCH");
+        List<String> keys = List.of(invalidKey, validKey);
+        mockScan(yesterday, keys);
+        when(redisLearningRecordService.claimLearningRecords(keys)).thenReturn(keys);
 
-        when(redisLearningRecordService.getLearningRecordKeys(yesterday)).thenReturn(keys);
+        Map<String, Map<Object, Object>> data = new LinkedHashMap<>();
+        data.put(invalidKey, recordData(300, "{\"progress\":75}"));
+        data.put(validKey, recordData(300, "{\"progress\":75}"));
+        when(redisLearningRecordService.getLearningRecordDataBatch(keys)).thenReturn(data);
 
-        // 模拟Redis数据
-        Map<Object, Object> validData = new HashMap<>();
-        validData.put("totalDuration", 300);
-        validData.put("chapterId", "3");
-        validData.put("sectionId", "4");
-        validData.put("contextData", "{\"progress\":75}");
-
-        when(redisLearningRecordService.getLearningRecordData(anyString())).thenReturn(validData);
-        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-        when(courseRepository.findById(2L)).thenReturn(Optional.of(course));
-        when(chapterRepository.findById(3L)).thenReturn(Optional.of(chapter));
-        when(sectionRepository.findById(4L)).thenReturn(Optional.of(section));
+        mockExistingEntities();
+        mockReferences();
 
         // 执行方法
         task.aggregateLearningRecords();
 
-        // 验证仓库操作 - 只应该保存一条有效记录
-        verify(learningRecordRepository, times(1)).save(any(LearningRecord.class));
+        // 验证只保存一条有效记录，无效键不删除
+        verify(learningRecordJdbcRepository).mergeAggregated(learningRecordsCaptor.capture());
+        assertEquals(1, learningRecordsCaptor.getValue().size());
+        verify(redisLearningRecordService).deleteLearningRecords(List.of(validKey));
     }
 
     @Test
@@ -208,37 +278,113 @@ public class LearningRecordAggregationTaskTest {
     void testAggregateLearningRecords_EntityNotFound() {
         // 准备测试数据
         LocalDate yesterday = LocalDate.now().minusDays(1);
-        String dateStr = yesterday.format(DateTimeFormatter.ISO_DATE);
+        String key = "learning:record:" + yesterday.format(DateTimeFormatter.ISO_DATE) + ":1:2:VIDEO_WATCH";
+        List<String> claimedKeys = List.of(claimedKey(key));
+        mockScan(yesterday, List.of(key));
+        when(redisLearningRecordService.claimLearningRecords(List.of(key))).thenReturn(claimedKeys);
+        when(redisLearningRecordService.getLearningRecordDataBatch(claimedKeys))
+                .thenReturn(Map.of(claimedKeys.get(0), recordData(300, "{\"progress\":75}")));
 
-        // 模拟Redis键
-        Set<String> keys = new HashSet<>();
-        String key = "learning:record:" + dateStr + ":1:2:VIDEO_WATCH";
-        keys.add(key);
+        // 模拟用户不存在
+        when(userRepository.findExistingIds(anyCollection())).thenReturn(List.of());
+        when(courseRepository.findExistingIds(anyCollection())).thenReturn(List.of(2L));
+        when(chapterRepository.findExistingIds(anyCollection())).thenReturn(List.of(3L));
+        when(sectionRepository.findExistingIds(anyCollection())).thenReturn(List.of(4L));
 
-        when(redisLearningRecordService.getLearningRecordKeys(yesterday)).thenReturn(keys);
+        // 执行方法
+        task.aggregateLearningRecords();
 
-        // 模拟Redis数据
-        Map<Object, Object> data = new HashMap<>();
-        data.put("totalDuration", 300);
-        data.put("chapterId", "3");
-        data.put("sectionId", "4");
-        data.put("contextData", "{\"progress\":75}");
+        // 验证不保存任何记录
+        verify(learningRecordJdbcRepository).mergeAggregated(learningRecordsCaptor.capture());
+        assertEquals(0, learningRecordsCaptor.getValue().size());
+        // Redis键不应该被删除，因为处理失败
+        verify(redisLearningRecordService).deleteLearningRecords(List.of());
+    }
 
-        when(redisLearningRecordService.getLearningRecordData(key)).thenReturn(data);
+    @Test
+    @DisplayName("聚合学习记录 - 章节不存在时置空")
+    void testAggregateLearningRecords_ChapterNotFound() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        String key = "learning:record:" + yesterday.format(DateTimeFormatter.ISO_DATE) + ":1:2:VIDEO_WATCH";
+        List<String> claimedKeys = List.of(claimedKey(key));
+        mockScan(yesterday, List.of(key));
+        when(redisLearningRecordService.claimLearningRecords(List.of(key))).thenReturn(claimedKeys);
+        when(redisLearningRecordService.getLearningRecordDataBatch(claimedKeys))
+                .thenReturn(Map.of(claimedKeys.get(0), recordData(300, null)));
+
+        when(userRepository.findExistingIds(anyCollection())).thenReturn(List.of(1L));
+        when(courseRepository.findExistingIds(anyCollection())).thenReturn(List.of(2L));
+        when(chapterRepository.findExistingIds(anyCollection())).thenReturn(List.of());
+        when(sectionRepository.findExistingIds(anyCollection())).thenReturn(List.of(4L));
+        when(userRepository.getReferenceById(1L)).thenReturn(user);
+        when(courseRepository.getReferenceById(2L)).thenReturn(course);
+        when(sectionRepository.getReferenceById(4L)).thenReturn(section);
 
-        // 模拟用户不存在
-        when(userRepository.findById(1L)).thenReturn(Optional.empty());
+        task.aggregateLearningRecords();
+
+        verify(learningRecordJdbcRepository).mergeAggregated(learningRecordsCaptor.capture());
+        LearningRecord record = learningRecordsCaptor.getValue().get(0);
+        assertNull(record.getChapter());
+        assertEquals(section, record.getSection());
+        verify(chapterRepository, never()).getReferenceById(any());
+        verify(redisLearningRecordService).deleteLearningRecords(claimedKeys);
+    }
+
+    @Test
+    @DisplayName("聚合学习记录 - 写入失败时保留Redis键")
+    void testAggregateLearningRecords_InsertFailure() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        String key = "learning:record:" + yesterday.format(DateTimeFormatter.ISO_DATE) + ":1:2:VIDEO_WATCH";
+        List<String> claimedKeys = List.of(claimedKey(key));
+        mockScan(yesterday, List.of(key));
+        when(redisLearningRecordService.claimLearningRecords(List.of(key))).thenReturn(claimedKeys);
+        when(redisLearningRecordService.getLearningRecordDataBatch(claimedKeys))
+                .thenReturn(Map.of(claimedKeys.get(0), recordData(300, null)));
+        mockExistingEntities();
+        mockReferences();
+        when(learningRecordJdbcRepository.mergeAggregated(anyList())).thenThrow(new RuntimeException("数据库错误"));
 
-        // 执行方法
         task.aggregateLearningRecords();
 
-        // 验证Redis操作
-        verify(redisLearningRecordService).getLearningRecordKeys(yesterday);
-        verify(redisLearningRecordService).getLearningRecordData(key);
+        // 事务回滚，认领的键保留到下次聚合重试
+        verify(transactionManager).rollback(any());
+        verify(redisLearningRecordService, never()).deleteLearningRecords(any());
+    }
 
-        // 验证仓库操作 - 不应该保存任何记录
-        verify(learningRecordRepository, never()).save(any(LearningRecord.class));
-        // Redis键不应该被删除，因为处理失败
-        verify(redisLearningRecordService, never()).deleteLearningRecord(key);
+    @Test
+    @DisplayName("聚合学习记录 - 提交后先删除Redis键再更新投影")
+    void testAggregateLearningRecords_ProjectionFailure() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        String key = "learning:record:" + yesterday.format(DateTimeFormatter.ISO_DATE) + ":1:2:VIDEO_WATCH";
+        List<String> claimedKeys = List.of(claimedKey(key));
+        mockScan(yesterday, List.of(key));
+        when(redisLearningRecordService.claimLearningRecords(List.of(key))).thenReturn(claimedKeys);
+        when(redisLearningRecordService.getLearningRecordDataBatch(claimedKeys))
+                .thenReturn(Map.of(claimedKeys.get(0), recordData(300, null)));
+        mockExistingEntities();
+        mockReferences();
+        doThrow(new RuntimeException("Redis错误")).when(eventPublisher).publishEvent(any(LearningRecordsCommittedEvent.class));
+
+        task.aggregateLearningRecords();
+
+        // 投影更新失败时认领的键已经删除，下次聚合不会重复写入
+        InOrder inOrder = inOrder(transactionManager, redisLearningRecordService, eventPublisher);
+        inOrder.verify(transactionManager).commit(any());
+        inOrder.verify(redisLearningRecordService).deleteLearningRecords(claimedKeys);
+        inOrder.verify(eventPublisher).publishEvent(any(LearningRecordsCommittedEvent.class));
+    }
+
+    @Test
+    @DisplayName("聚合学习记录 - 键已被认领时跳过")
+    void testAggregateLearningRecords_AlreadyClaimed() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        String key = "learning:record:" + yesterday.format(DateTimeFormatter.ISO_DATE) + ":1:2:VIDEO_WATCH";
+        mockScan(yesterday, List.of(key));
+        when(redisLearningRecordService.claimLearningRecords(List.of(key))).thenReturn(List.of());
+
+        task.aggregateLearningRecords();
+
+        verify(redisLearningRecordService, never()).getLearningRecordDataBatch(any());
+        verifyNoInteractions(learningRecordJdbcRepository);
     }
 }
@@ -0,0 +1,232 @@
+package com.zhangziqi.online_course_mine.task;
+
+import com.zhangziqi.online_course_mine.model.vo.LearningStreamMetricsVO;
+import com.zhangziqi.online_course_mine.repository.LearningRecordJdbcRepository;
+import com.zhangziqi.online_course_mine.service.impl.LearningRecordStreamService;
+import com.zhangziqi.online_course_mine.task.LearningRecordAggregationTask.ParsedRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LearningRecordStreamConsumerTest {
+
+    @Mock
+    private LearningRecordStreamService learningRecordStreamService;
+
+    @Mock
+    private LearningRecordAggregationTask learningRecordAggregationTask;
+
+    @Mock
+    private LearningRecordJdbcRepository learningRecordJdbcRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private LearningRecordStreamConsumer consumer;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(consumer, "streamEnabled", true);
+    }
+
+    private MapRecord<String, Object, Object> event(String id, String activityType, int duration,
+                                                    long occurredAt, String sectionId) {
+        Map<Object, Object> fields = new HashMap<>();
+        fields.put(LearningRecordStreamService.FIELD_USER_ID, "1");
+        fields.put(LearningRecordStreamService.FIELD_COURSE_ID, "2");
+        fields.put(LearningRecordStreamService.FIELD_ACTIVITY_TYPE, activityType);
+        fields.put(LearningRecordStreamService.FIELD_DURATION, String.valueOf(duration));
+        fields.put(LearningRecordStreamService.FIELD_OCCURRED_AT, String.valueOf(occurredAt));
+        if (sectionId != null) {
+            fields.put(LearningRecordStreamService.FIELD_SECTION_ID, sectionId);
+        }
+        return StreamRecords.newRecord()
+                .in(LearningRecordStreamService.STREAM_KEY)
+                .withId(RecordId.of(id))
+                .ofMap(fields);
+    }
+
+    private LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    @Test
+    @DisplayName("按日期、用户、课程和活动类型折叠事件")
+    void testFold() {
+        long first = System.currentTimeMillis() - 60_000;
+        long second = first + 30_000;
+
+        List<ParsedRecord> folded = consumer.fold(List.of(
+                event("1-0", "VIDEO_WATCH", 20, first, "4"),
+                event("2-0", "VIDEO_WATCH", 10, second, null),
+                event("3-0", "DOCUMENT_READ", 5, second, null)));
+
+        assertEquals(2, folded.size());
+        ParsedRecord video = folded.get(0);
+        assertEquals(30, video.totalDuration);
+        assertEquals(4L, video.sectionId);
+        assertEquals(toDateTime(first).minusSeconds(20), video.startTime);
+        assertEquals(toDateTime(second), video.endTime);
+        assertEquals(toDateTime(second).toLocalDate(), video.date);
+
+        ParsedRecord document = folded.get(1);
+        assertEquals(5, document.totalDuration);
+        assertNull(document.sectionId);
+    }
+
+    @Test
+    @DisplayName("无效事件不参与折叠")
+    void testFold_InvalidEvent() {
+        Map<Object, Object> fields = new HashMap<>();
+        fields.put(LearningRecordStreamService.FIELD_USER_ID, "abc");
+        MapRecord<String, Object, Object> invalid = StreamRecords.newRecord()
+                .in(LearningRecordStreamService.STREAM_KEY)
+                .withId(RecordId.of("1-0"))
+                .ofMap(fields);
+
+        List<ParsedRecord> folded = consumer.fold(List.of(invalid,
+                event("2-0", "VIDEO_WATCH", 10, System.currentTimeMillis(), null)));
+
+        assertEquals(1, folded.size());
+    }
+
+    @Test
+    @DisplayName("批次写入成功后确认")
+    @SuppressWarnings("unchecked")
+    void testPoll() {
+        long now = System.currentTimeMillis();
+        List<MapRecord<String, Object, Object>> records = List.of(
+                event("1-0", "VIDEO_WATCH", 20, now, null),
+                event("2-0", "VIDEO_WATCH", 10, now, null));
+        when(learningRecordStreamService.readNew(anyString(), anyInt())).thenReturn(records);
+        when(learningRecordAggregationTask.saveParsedRecords(anyList())).thenReturn(1);
+        when(learningRecordStreamService.getStreamMetrics()).thenReturn(new LearningStreamMetricsVO());
+
+        consumer.poll();
+
+        verify(learningRecordStreamService).ensureConsumerGroup();
+        ArgumentCaptor<List<ParsedRecord>> captor = ArgumentCaptor.forClass(List.class);
+        verify(learningRecordAggregationTask).saveParsedRecords(captor.capture());
+        assertEquals(1, captor.getValue().size());
+        assertEquals(30, captor.getValue().get(0).totalDuration);
+        verify(learningRecordStreamService).acknowledge(List.of(RecordId.of("1-0"), RecordId.of("2-0")));
+        assertEquals(2L, consumer.getMetrics().getProcessedCount());
+        // 事件ID与学习记录在同一事务中登记
+        verify(learningRecordJdbcRepository).insertProcessedStreamEntries(List.of("1-0", "2-0"));
+        verify(transactionManager).commit(any());
+    }
+
+    @Test
+    @DisplayName("重复投递的事件跳过，只确认")
+    @SuppressWarnings("unchecked")
+    void testProcessBatch_SkipProcessed() {
+        long now = System.currentTimeMillis();
+        List<MapRecord<String, Object, Object>> records = List.of(
+                event("1-0", "VIDEO_WATCH", 20, now, null),
+                event("2-0", "VIDEO_WATCH", 10, now, null));
+        when(learningRecordJdbcRepository.findProcessedStreamEntries(List.of("1-0", "2-0"))).thenReturn(Set.of("1-0"));
+        when(learningRecordAggregationTask.saveParsedRecords(anyList())).thenReturn(1);
+
+        consumer.processBatch(records);
+
+        ArgumentCaptor<List<ParsedRecord>> captor = ArgumentCaptor.forClass(List.class);
+        verify(learningRecordAggregationTask).saveParsedRecords(captor.capture());
+        assertEquals(10, captor.getValue().get(0).totalDuration);
+        verify(learningRecordJdbcRepository).insertProcessedStreamEntries(List.of("2-0"));
+        verify(learningRecordStreamService).acknowledge(List.of(RecordId.of("1-0"), RecordId.of("2-0")));
+    }
+
+    @Test
+    @DisplayName("整批都已处理时不写入")
+    void testProcessBatch_AllProcessed() {
+        when(learningRecordJdbcRepository.findProcessedStreamEntries(List.of("1-0"))).thenReturn(Set.of("1-0"));
+
+        consumer.processBatch(List.of(event("1-0", "VIDEO_WATCH", 20, System.currentTimeMillis(), null)));
+
+        verify(learningRecordAggregationTask, never()).saveParsedRecords(anyList());
+        verify(learningRecordJdbcRepository, never()).insertProcessedStreamEntries(anyList());
+        verify(learningRecordStreamService).acknowledge(List.of(RecordId.of("1-0")));
+    }
+
+    @Test
+    @DisplayName("批次写入失败时不确认")
+    void testPoll_SaveFailure() {
+        when(learningRecordStreamService.readNew(anyString(), anyInt()))
+                .thenReturn(List.of(event("1-0", "VIDEO_WATCH", 20, System.currentTimeMillis(), null)));
+        when(learningRecordAggregationTask.saveParsedRecords(anyList())).thenThrow(new RuntimeException("数据库错误"));
+        when(learningRecordStreamService.getStreamMetrics()).thenReturn(new LearningStreamMetricsVO());
+
+        consumer.poll();
+
+        // 事务回滚，事件留在未确认列表中，等待恢复任务重新认领
+        verify(transactionManager).rollback(any());
+        verify(learningRecordStreamService, never()).acknowledge(any());
+        assertEquals(1L, consumer.getMetrics().getFailedBatchCount());
+    }
+
+    @Test
+    @DisplayName("恢复未确认事件，超过投递次数的转入死信流")
+    void testRecoverPending() {
+        Consumer owner = Consumer.from(LearningRecordStreamService.CONSUMER_GROUP, "crashed");
+        PendingMessages pending = new PendingMessages(LearningRecordStreamService.CONSUMER_GROUP, List.of(
+                new PendingMessage(RecordId.of("1-0"), owner, Duration.ofMinutes(5), 1),
+                new PendingMessage(RecordId.of("2-0"), owner, Duration.ofMinutes(5), 5),
+                new PendingMessage(RecordId.of("3-0"), owner, Duration.ofSeconds(1), 1)));
+        when(learningRecordStreamService.findPending(anyInt())).thenReturn(pending);
+
+        MapRecord<String, Object, Object> retry = event("1-0", "VIDEO_WATCH", 20, System.currentTimeMillis(), null);
+        MapRecord<String, Object, Object> dead = event("2-0", "VIDEO_WATCH", 20, System.currentTimeMillis(), null);
+        when(learningRecordStreamService.claim(anyString(), any(), eq(List.of(RecordId.of("1-0")))))
+                .thenReturn(List.of(retry));
+        when(learningRecordStreamService.claim(anyString(), any(), eq(List.of(RecordId.of("2-0")))))
+                .thenReturn(List.of(dead));
+        when(learningRecordAggregationTask.saveParsedRecords(anyList())).thenReturn(1);
+        when(learningRecordStreamService.getStreamMetrics()).thenReturn(new LearningStreamMetricsVO());
+
+        consumer.recoverPending();
+
+        // 空闲时间不足的事件不认领
+        verify(learningRecordStreamService, times(2)).claim(anyString(), any(), anyList());
+        verify(learningRecordStreamService).moveToDeadLetter(List.of(dead));
+        verify(learningRecordStreamService).acknowledge(List.of(RecordId.of("1-0")));
+        verify(learningRecordStreamService).trim();
+        verify(learningRecordJdbcRepository).deleteProcessedStreamEntriesBefore(any(LocalDateTime.class), eq(10000));
+
+        LearningStreamMetricsVO metrics = consumer.getMetrics();
+        assertEquals(1L, metrics.getProcessedCount());
+        assertEquals(1L, metrics.getDeadLetterCount());
+    }
+}
@@ -0,0 +1,142 @@
+package com.zhangziqi.online_course_mine.task;
+
+import com.zhangziqi.online_course_mine.model.entity.Order;
+import com.zhangziqi.online_course_mine.model.enums.OrderStatus;
+import com.zhangziqi.online_course_mine.repository.OrderRepository;
+import com.zhangziqi.online_course_mine.service.OrderService;
+import com.zhangziqi.online_course_mine.service.impl.RedisOrderService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OrderTimeoutTaskTest {
+
+    @Mock
+    private OrderRepository orderRepository;
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private RedisOrderService redisOrderService;
+
+    private OrderTimeoutTask orderTimeoutTask;
+
+    @BeforeEach
+    void setUp() {
+        orderTimeoutTask = new OrderTimeoutTask(orderRepository, orderService, redisOrderService, Runnable::run);
+    }
+
+    @Test
+    @DisplayName("关闭领取到的到期订单并移出队列")
+    void testHandleTimeoutOrders() {
+        when(redisOrderService.claimDueOrders(anyInt())).thenReturn(List.of("ORDER001", "ORDER002"));
+        when(orderService.closeTimeoutOrder("ORDER001")).thenReturn(true);
+        when(orderService.closeTimeoutOrder("ORDER002")).thenReturn(false);
+
+        orderTimeoutTask.handleTimeoutOrders();
+
+        verify(redisOrderService).completeOrderTimeout("ORDER001");
+        verify(redisOrderService).completeOrderTimeout("ORDER002");
+        // 未领满一批，不再继续领取
+        verify(redisOrderService, times(1)).claimDueOrders(anyInt());
+        verifyNoInteractions(orderRepository);
+    }
+
+    @Test
+    @DisplayName("关闭失败的订单留在队列中等待重试")
+    void testHandleTimeoutOrdersFailure() {
+        when(redisOrderService.claimDueOrders(anyInt())).thenReturn(List.of("ORDER001", "ORDER002"));
+        when(orderService.closeTimeoutOrder("ORDER001")).thenThrow(new RuntimeException("db down"));
+        when(orderService.closeTimeoutOrder("ORDER002")).thenReturn(true);
+
+        orderTimeoutTask.handleTimeoutOrders();
+
+        verify(redisOrderService, never()).completeOrderTimeout("ORDER001");
+        verify(redisOrderService).completeOrderTimeout("ORDER002");
+    }
+
+    @Test
+    @DisplayName("没有到期订单时不做处理")
+    void testHandleTimeoutOrdersEmpty() {
+        when(redisOrderService.claimDueOrders(anyInt())).thenReturn(Collections.emptyList());
+
+        orderTimeoutTask.handleTimeoutOrders();
+
+        verifyNoInteractions(orderService);
+    }
+
+    @Test
+    @DisplayName("启动时把待支付订单登记到超时队列")
+    void testEnqueuePendingOrders() {
+        LocalDateTime createdAt = LocalDateTime.of(2024, 3, 1, 10, 0);
+        Order order = Order.builder()
+                .orderNo("ORDER001")
+                .status(OrderStatus.PENDING.getValue())
+                .build();
+        order.setCreatedAt(createdAt);
+        order.setId(1L);
+        when(orderRepository.findByStatusAndIdGreaterThanOrderByIdAsc(eq(OrderStatus.PENDING.getValue()), anyLong(), any()))
+                .thenReturn(List.of(order));
+
+        orderTimeoutTask.enqueuePendingOrders();
+
+        verify(redisOrderService).enqueueOrderTimeout("ORDER001", createdAt);
+    }
+
+    @Test
+    @DisplayName("启动登记按ID分批查询待支付订单")
+    void testEnqueuePendingOrdersInPages() {
+        ReflectionTestUtils.setField(orderTimeoutTask, "enqueuePageSize", 2);
+        LocalDateTime createdAt = LocalDateTime.of(2024, 3, 1, 10, 0);
+        List<Order> orders = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            Order order = Order.builder().orderNo("ORDER00" + id).status(OrderStatus.PENDING.getValue()).build();
+            order.setId(id);
+            order.setCreatedAt(createdAt);
+            orders.add(order);
+        }
+        when(orderRepository.findByStatusAndIdGreaterThanOrderByIdAsc(eq(OrderStatus.PENDING.getValue()), eq(0L), any()))
+                .thenReturn(orders.subList(0, 2));
+        when(orderRepository.findByStatusAndIdGreaterThanOrderByIdAsc(eq(OrderStatus.PENDING.getValue()), eq(2L), any()))
+                .thenReturn(orders.subList(2, 3));
+
+        orderTimeoutTask.enqueuePendingOrders();
+
+        verify(redisOrderService).enqueueOrderTimeout("ORDER001", createdAt);
+        verify(redisOrderService).enqueueOrderTimeout("ORDER002", createdAt);
+        verify(redisOrderService).enqueueOrderTimeout("ORDER003", createdAt);
+        verify(orderRepository, times(2)).findByStatusAndIdGreaterThanOrderByIdAsc(any(), anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("线程池已满时停止领取，订单留在队列中")
+    void testHandleTimeoutOrdersRejected() {
+        orderTimeoutTask = new OrderTimeoutTask(orderRepository, orderService, redisOrderService, task -> {
+            throw new RejectedExecutionException("queue full");
+        });
+        when(redisOrderService.claimDueOrders(anyInt())).thenReturn(List.of("ORDER001", "ORDER002"));
+
+        orderTimeoutTask.handleTimeoutOrders();
+
+        verifyNoInteractions(orderService);
+        verify(redisOrderService, never()).completeOrderTimeout(any());
+    }
+}
@@ -0,0 +1,62 @@
+package com.zhangziqi.online_course_mine.task;
+
+import com.zhangziqi.online_course_mine.repository.SchemaBackfillJdbcRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SchemaBackfillTaskTest {
+
+    @Mock
+    private SchemaBackfillJdbcRepository schemaBackfillJdbcRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private SchemaBackfillTask schemaBackfillTask;
+
+    @Test
+    @DisplayName("未登记的回填在登记的同一事务中执行")
+    void testBackfill() {
+        when(schemaBackfillJdbcRepository.claim(SchemaBackfillTask.LEARNING_DAILY_ROLLUPS)).thenReturn(true);
+        when(schemaBackfillJdbcRepository.claim(SchemaBackfillTask.INSTITUTION_INCOME_LEDGER)).thenReturn(true);
+
+        schemaBackfillTask.backfill();
+
+        verify(schemaBackfillJdbcRepository).backfillLearningDailyRollups();
+        verify(schemaBackfillJdbcRepository).backfillInstitutionIncomeLedger();
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    @Test
+    @DisplayName("已登记的回填跳过")
+    void testAlreadyBackfilled() {
+        when(schemaBackfillJdbcRepository.claim(any())).thenReturn(false);
+
+        schemaBackfillTask.backfill();
+
+        verify(schemaBackfillJdbcRepository, never()).backfillLearningDailyRollups();
+        verify(schemaBackfillJdbcRepository, never()).backfillInstitutionIncomeLedger();
+    }
+
+    @Test
+    @DisplayName("回填失败时回滚登记，不影响其他回填和启动")
+    void testBackfillFailure() {
+        when(schemaBackfillJdbcRepository.claim(any())).thenReturn(true);
+        when(schemaBackfillJdbcRepository.backfillLearningDailyRollups()).thenThrow(new RuntimeException("数据库错误"));
+
+        schemaBackfillTask.backfill();
+
+        verify(transactionManager).rollback(any());
+        verify(schemaBackfillJdbcRepository).backfillInstitutionIncomeLedger();
+    }
+}